@@ -34,7 +34,7 @@ final class Arguments extends IdScriptableObject
         lengthObj = Integer.valueOf(args.length);
 
         NativeFunction f = activation.function;
-        calleeObj = f;
+        calleeObj = f.getCallee();
 
         int version = f.getLanguageVersion();
         if (version <= Context.VERSION_1_3
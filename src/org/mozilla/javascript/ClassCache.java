@@ -123,6 +123,29 @@ public class ClassCache implements Serializable
         cachingIsEnabled = enabled;
     }
 
+    /**
+     * Reflect the members of the given Java classes in advance.
+     * <p>
+     * The reflection information of a class is shared by all ClassCache
+     * objects that have caching enabled, so scripts in every scope can
+     * use these classes without looking up their methods, fields, bean
+     * properties and constructors again. Call this at startup with the
+     * classes that scripts are known to use, so that the first script to
+     * touch each of them doesn't pay for it. The shared information is
+     * kept with each class and goes away with its class loader.
+     * <p>
+     * Nothing is shared when a security manager is installed, since it
+     * checks reflection against the caller.
+     *
+     * @param classes the classes to reflect
+     */
+    public static void preloadClasses(Class<?>... classes)
+    {
+        for (Class<?> cl : classes) {
+            JavaMembers.reflectShared(cl);
+        }
+    }
+
     /**
      * @return a map from classes to associated JavaMembers objects
      */
@@ -0,0 +1,35 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * Storage for the compiled form of scripts, as produced by the class
+ * compiler or the interpreter, which {@link Context#compileString} and
+ * {@link Context#compileReader} consult before parsing a script, see
+ * {@link Context#setCodeCache(CodeCache)}. Unlike a {@link ScriptCache},
+ * which holds ready to run scripts, a code cache may keep the compiled form
+ * beyond the life of the JVM, so that a restarted application does not
+ * have to compile its scripts again.
+ * <p>
+ * The compiled form is an opaque Serializable object. Implementations must
+ * be thread safe when the cache is shared by Contexts running in different
+ * threads.
+ *
+ * @see DirectoryCodeCache
+ */
+public interface CodeCache
+{
+    /**
+     * Return the compiled form stored for key, or null if there is none.
+     */
+    Object load(ScriptCache.Key key);
+
+    /**
+     * Store the compiled form of the script identified by key.
+     */
+    void store(ScriptCache.Key key, Object compiledCode);
+}
@@ -114,6 +114,23 @@ class CodeGenerator extends Icode {
 
         itsData.declaredAsVar = (theFunction.getParent() instanceof VariableInitializer);
 
+        if (compilerEnv.isTieredCompilation()
+            && !theFunction.requiresActivation()
+            && !theFunction.isGenerator()
+            && !theFunction.isES6Generator()
+            && (theFunction.getFunctionType() == FunctionNode.FUNCTION_STATEMENT
+                || (theFunction.getFunctionType() == FunctionNode.FUNCTION_EXPRESSION
+                    // a named function expression refers to itself, which
+                    // would be the compiled function instead
+                    && theFunction.getFunctionName() == null)))
+        {
+            itsData.tierUpBudget = compilerEnv.getTierUpThreshold();
+            itsData.tierUpSourceStart = theFunction.getAbsolutePosition();
+            itsData.tierUpSourceEnd = itsData.tierUpSourceStart
+                                      + theFunction.getLength();
+            itsData.tierUpLineno = theFunction.getLineno();
+        }
+
         generateICodeFromTree(theFunction.getLastChild());
     }
 
@@ -362,9 +379,21 @@ class CodeGenerator extends Icode {
           case Token.IFNE :
             {
                 Node target = ((Jump)node).target;
-                visitExpression(child, 0);
-                addGoto(target, type);
-                stackChange(-1);
+                int childType = child.getType();
+                if (childType == Token.LT || childType == Token.LE
+                    || childType == Token.GT || childType == Token.GE)
+                {
+                    // compare and jump without pushing the boolean result
+                    visitOperands(child.getFirstChild());
+                    addGoto(target, (type == Token.IFEQ) ? Icode_CMP_IFEQ
+                                                         : Icode_CMP_IFNE);
+                    addUint8(childType);
+                    stackChange(-2);
+                } else {
+                    visitExpression(child, 0);
+                    addGoto(target, type);
+                    stackChange(-1);
+                }
             }
             break;
 
@@ -400,8 +429,20 @@ class CodeGenerator extends Icode {
           case Token.EXPR_VOID:
           case Token.EXPR_RESULT:
             updateLineNumber(node);
-            visitExpression(child, 0);
-            addIcode((type == Token.EXPR_VOID) ? Icode_POP : Icode_POP_RESULT);
+            if (type == Token.EXPR_VOID && child.getType() == Token.SETVAR
+                && scriptOrFn.getIndexForNameNode(child.getFirstChild()) < 128)
+            {
+                // assignment to a local whose value is not used
+                if (itsData.itsNeedsActivation) Kit.codeBug();
+                Node name = child.getFirstChild();
+                visitExpression(name.getNext(), 0);
+                addIcode(Icode_SETVAR1_POP);
+                addUint8(scriptOrFn.getIndexForNameNode(name));
+            } else {
+                visitExpression(child, 0);
+                addIcode((type == Token.EXPR_VOID) ? Icode_POP
+                                                   : Icode_POP_RESULT);
+            }
             stackChange(-1);
             break;
 
@@ -663,9 +704,23 @@ class CodeGenerator extends Icode {
 
           case Token.GETPROP:
           case Token.GETPROPNOWARN:
+            if (type == Token.GETPROP && child.getType() == Token.GETVAR) {
+                // local variable and property get in one instruction
+                if (itsData.itsNeedsActivation) Kit.codeBug();
+                int varIndex = scriptOrFn.getIndexForNameNode(child);
+                int strIndex = getStringIndex(child.getNext().getString());
+                if (varIndex < 128 && strIndex <= 0xFFFF) {
+                    addIcode(Icode_GETVAR1_GETPROP);
+                    addUint8(varIndex);
+                    addUint16(strIndex);
+                    addPropertyCacheIndex();
+                    stackChange(1);
+                    break;
+                }
+            }
             visitExpression(child, 0);
             child = child.getNext();
-            addStringOp(type, child.getString());
+            addPropertyOp(type, child.getString());
             break;
 
           case Token.DELPROP:
@@ -704,9 +759,7 @@ class CodeGenerator extends Icode {
           case Token.LT:
           case Token.GE:
           case Token.GT:
-            visitExpression(child, 0);
-            child = child.getNext();
-            visitExpression(child, 0);
+            visitOperands(child);
             addToken(type);
             stackChange(-1);
             break;
@@ -742,12 +795,12 @@ class CodeGenerator extends Icode {
                 if (type == Token.SETPROP_OP) {
                     addIcode(Icode_DUP);
                     stackChange(1);
-                    addStringOp(Token.GETPROP, property);
+                    addPropertyOp(Token.GETPROP, property);
                     // Compensate for the following USE_STACK
                     stackChange(-1);
                 }
                 visitExpression(child, 0);
-                addStringOp(Token.SETPROP, property);
+                addPropertyOp(Token.SETPROP, property);
                 stackChange(-1);
             }
             break;
@@ -791,6 +844,15 @@ class CodeGenerator extends Icode {
           case Token.SETNAME:
             {
                 String name = child.getString();
+                int activationVar = node.getIntProp(Node.ACTIVATION_VAR_PROP, -1);
+                if (activationVar != -1) {
+                    addActivationVarOp(Icode_BINDACTVAR, name, activationVar);
+                    stackChange(1);
+                    visitExpression(child.getNext(), 0);
+                    addActivationVarOp(Icode_SETACTVAR, name, activationVar);
+                    stackChange(-1);
+                    break;
+                }
                 visitExpression(child, 0);
                 child = child.getNext();
                 visitExpression(child, 0);
@@ -829,12 +891,22 @@ class CodeGenerator extends Icode {
             break;
 
           case Token.BINDNAME:
-          case Token.NAME:
           case Token.STRING:
             addStringOp(type, node.getString());
             stackChange(1);
             break;
 
+          case Token.NAME: {
+            int activationVar = node.getIntProp(Node.ACTIVATION_VAR_PROP, -1);
+            if (activationVar != -1) {
+                addActivationVarOp(Icode_GETACTVAR, node.getString(), activationVar);
+            } else {
+                addNameOp(type, node.getString());
+            }
+            stackChange(1);
+            break;
+          }
+
           case Token.INC:
           case Token.DEC:
             visitIncDec(node, child);
@@ -1016,7 +1088,12 @@ class CodeGenerator extends Icode {
           case Token.NAME: {
             String name = left.getString();
             // stack: ... -> ... function thisObj
-            addStringOp(Icode_NAME_AND_THIS, name);
+            int activationVar = left.getIntProp(Node.ACTIVATION_VAR_PROP, -1);
+            if (activationVar != -1) {
+                addActivationVarOp(Icode_ACTVAR_AND_THIS, name, activationVar);
+            } else {
+                addNameOp(Icode_NAME_AND_THIS, name);
+            }
             stackChange(2);
             break;
           }
@@ -1028,7 +1105,7 @@ class CodeGenerator extends Icode {
             if (type == Token.GETPROP) {
                 String property = id.getString();
                 // stack: ... target -> ... function thisObj
-                addStringOp(Icode_PROP_AND_THIS, property);
+                addPropertyOp(Icode_PROP_AND_THIS, property);
                 stackChange(1);
             } else {
                 visitExpression(id, 0);
@@ -1047,6 +1124,29 @@ class CodeGenerator extends Icode {
         }
     }
 
+    /**
+     * Visit the two operands of a binary operator, loading them with a single
+     * instruction when both are local variables.
+     */
+    private void visitOperands(Node left)
+    {
+        Node right = left.getNext();
+        if (left.getType() == Token.GETVAR && right.getType() == Token.GETVAR) {
+            if (itsData.itsNeedsActivation) Kit.codeBug();
+            int leftIndex = scriptOrFn.getIndexForNameNode(left);
+            int rightIndex = scriptOrFn.getIndexForNameNode(right);
+            if (leftIndex < 128 && rightIndex < 128) {
+                addIcode(Icode_GETVAR1_GETVAR1);
+                addUint8(leftIndex);
+                addUint8(rightIndex);
+                stackChange(2);
+                return;
+            }
+        }
+        visitExpression(left, 0);
+        visitExpression(right, 0);
+    }
+
 
     private void visitIncDec(Node node, Node child)
     {
@@ -1393,6 +1493,54 @@ class CodeGenerator extends Icode {
         }
     }
 
+    /**
+     * Add a property access instruction followed by the index of its inline cache.
+     */
+    private void addPropertyOp(int op, String property)
+    {
+        addStringOp(op, property);
+        addPropertyCacheIndex();
+    }
+
+    private void addPropertyCacheIndex()
+    {
+        int cacheIndex = itsData.itsPropertyCacheCount;
+        if (!compilerEnv.isUsePropertyCaches()) {
+            cacheIndex = PropertyCache.UNCACHED;
+        } else if (cacheIndex < PropertyCache.UNCACHED) {
+            itsData.itsPropertyCacheCount = cacheIndex + 1;
+        } else {
+            cacheIndex = PropertyCache.UNCACHED;
+        }
+        addUint16(cacheIndex);
+    }
+
+    /**
+     * Add a name lookup instruction followed by the index of its cache.
+     */
+    private void addNameOp(int op, String name)
+    {
+        addStringOp(op, name);
+        int cacheIndex = itsData.itsNameCacheCount;
+        if (cacheIndex < NameCache.UNCACHED) {
+            itsData.itsNameCacheCount = cacheIndex + 1;
+        } else {
+            cacheIndex = NameCache.UNCACHED;
+        }
+        addUint16(cacheIndex);
+    }
+
+    /**
+     * Add an instruction for a variable kept in an activation, followed by its
+     * depth and index as recorded by NodeTransformer.
+     */
+    private void addActivationVarOp(int op, String name, int activationVar)
+    {
+        addStringOp(op, name);
+        addUint16(activationVar >>> 16);
+        addUint16(activationVar & 0xFFFF);
+    }
+
     private void addIndexOp(int op, int index)
     {
         addIndexPrefix(index);
@@ -1403,13 +1551,19 @@ class CodeGenerator extends Icode {
         }
     }
 
-    private void addStringPrefix(String str)
+    private int getStringIndex(String str)
     {
         int index = strings.get(str, -1);
         if (index == -1) {
             index = strings.size();
             strings.put(str, index);
         }
+        return index;
+    }
+
+    private void addStringPrefix(String str)
+    {
+        int index = getStringIndex(str);
         if (index < 4) {
             addIcode(Icode_REG_STR_C0 - index);
         } else if (index <= 0xFF) {
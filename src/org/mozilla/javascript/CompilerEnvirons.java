@@ -26,6 +26,7 @@ public class CompilerEnvirons
         warningAsError = false;
         generateObserverCount = false;
         allowSharpComments = false;
+        tierUpThreshold = InterpretedFunction.DEFAULT_TIER_UP_THRESHOLD;
     }
 
     public void initFromContext(Context cx)
@@ -51,6 +52,18 @@ public class CompilerEnvirons
 
         // Observer code generation in compiled code :
         generateObserverCount = cx.generateObserverCount;
+
+        usePropertyCaches = cx.hasFeature(Context.FEATURE_OBJECT_SHAPES);
+
+        useDynamicCallSites = cx.hasFeature(Context.FEATURE_DYNAMIC_CALL_SITES);
+
+        tieredCompilation = cx.hasFeature(Context.FEATURE_TIERED_COMPILATION);
+        tierUpThreshold = cx.getTierUpThreshold();
+
+        compiledContinuations
+            = cx.hasFeature(Context.FEATURE_COMPILED_CONTINUATIONS);
+
+        lazyCompilation = cx.hasFeature(Context.FEATURE_LAZY_COMPILATION);
     }
 
     public final ErrorReporter getErrorReporter()
@@ -195,6 +208,84 @@ public class CompilerEnvirons
         this.generateObserverCount = generateObserverCount;
     }
 
+    public boolean isUsePropertyCaches() {
+        return usePropertyCaches;
+    }
+
+    /**
+     * Turn on or off the inline caches of property accesses in interpreted code.
+     * The caches only help objects that use shapes, so this follows
+     * {@link Context#FEATURE_OBJECT_SHAPES} by default. Has no effect on compiled code.
+     */
+    public void setUsePropertyCaches(boolean usePropertyCaches) {
+        this.usePropertyCaches = usePropertyCaches;
+    }
+
+    public boolean isUseDynamicCallSites() {
+        return useDynamicCallSites;
+    }
+
+    /**
+     * Turn on or off the use of invokedynamic for named property access in
+     * generated JVM byte code. Has no effect on interpreted code.
+     * @see Context#FEATURE_DYNAMIC_CALL_SITES
+     */
+    public void setUseDynamicCallSites(boolean useDynamicCallSites) {
+        this.useDynamicCallSites = useDynamicCallSites;
+    }
+
+    public boolean isTieredCompilation() {
+        return tieredCompilation;
+    }
+
+    /**
+     * Turn on or off the recording of what interpreted functions need to be
+     * compiled to JVM byte code once they are hot.
+     * @see Context#FEATURE_TIERED_COMPILATION
+     */
+    public void setTieredCompilation(boolean tieredCompilation) {
+        this.tieredCompilation = tieredCompilation;
+    }
+
+    public int getTierUpThreshold() {
+        return tierUpThreshold;
+    }
+
+    /**
+     * Set the number of calls and loop iterations after which an interpreted
+     * function is compiled in tiered mode.
+     * @see Context#setTierUpThreshold(int)
+     */
+    public void setTierUpThreshold(int tierUpThreshold) {
+        this.tierUpThreshold = tierUpThreshold;
+    }
+
+    public boolean isCompiledContinuations() {
+        return compiledContinuations;
+    }
+
+    /**
+     * Turn on or off the generation of JVM byte code that can capture and
+     * resume continuations. Has no effect on interpreted code.
+     * @see Context#FEATURE_COMPILED_CONTINUATIONS
+     */
+    public void setCompiledContinuations(boolean compiledContinuations) {
+        this.compiledContinuations = compiledContinuations;
+    }
+
+    public boolean isLazyCompilation() {
+        return lazyCompilation;
+    }
+
+    /**
+     * Turn on or off the compilation of large functions to JVM byte code
+     * when they are first called rather than with their script.
+     * @see Context#FEATURE_LAZY_COMPILATION
+     */
+    public void setLazyCompilation(boolean lazyCompilation) {
+        this.lazyCompilation = lazyCompilation;
+    }
+
     public boolean isRecordingComments() {
         return recordingComments;
     }
@@ -285,6 +376,12 @@ public class CompilerEnvirons
     private boolean strictMode;
     private boolean warningAsError;
     private boolean generateObserverCount;
+    private boolean usePropertyCaches;
+    private boolean useDynamicCallSites;
+    private boolean tieredCompilation;
+    private int tierUpThreshold;
+    private boolean compiledContinuations;
+    private boolean lazyCompilation;
     private boolean recordingComments;
     private boolean recordingLocalJsDocComments;
     private boolean recoverFromErrors;
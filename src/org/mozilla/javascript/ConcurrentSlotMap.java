@@ -0,0 +1,337 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+/**
+ * This class implements the SlotMap interface so that lookups need no lock at all. The slots
+ * live in an open-addressed table that is only ever changed with volatile writes: a slot is
+ * fully built before it is stored, a replaced slot is swapped in place, a removed slot leaves
+ * a marker behind, and a table that gets too full is copied and then published as a whole.
+ * So a reader sees either the old or the new state of any one key.
+ *
+ * Like HashSlotMap, the table is resistant to large numbers of hash collisions: when an
+ * insertion has to probe too far, the slots are copied to a table that places them with a
+ * hash with a random seed that callers cannot predict. Each table records how it hashes, so
+ * a reader always probes a table the way it was filled.
+ *
+ * Changes to the map are NOT synchronized here. The caller must make sure that only one
+ * thread at a time calls get() with an access type that may create or replace a slot,
+ * addSlot(), or remove(), and must hold the same lock while iterating --
+ * ThreadSafeSlotMapContainer does this with its write and read locks.
+ */
+public class ConcurrentSlotMap
+    implements SlotMap {
+
+    // Left in the table in place of a removed slot so that probing continues past it
+    private static final ScriptableObject.Slot REMOVED =
+        new ScriptableObject.Slot(null, 0, 0);
+
+    // initial table size, must be a power of 2
+    private static final int INITIAL_SLOT_SIZE = 8;
+
+    // A probe sequence longer than this turns on the seeded hash
+    private static final int MAX_PROBES = 32;
+
+    private static final int HASH_SEED = ThreadLocalRandom.current().nextInt() | 1;
+
+    /**
+     * The table of slots, which knows whether its positions come from the seeded hash.
+     */
+    private static final class SlotTable
+        extends AtomicReferenceArray<ScriptableObject.Slot>
+    {
+        private static final long serialVersionUID = -2187204913519427436L;
+
+        final boolean seeded;
+
+        SlotTable(int size, boolean seeded)
+        {
+            super(size);
+            this.seeded = seeded;
+        }
+    }
+
+    private volatile SlotTable slots;
+
+    // Slots in definition order, with null where a slot was removed. Guarded by the
+    // writers' lock, like orderedEnd and orderedIndex.
+    private ScriptableObject.Slot[] ordered;
+
+    // Entries of "ordered" in use, including removed ones
+    private int orderedEnd;
+
+    // For each entry of the table, the position of its slot in "ordered"
+    private int[] orderedIndex;
+
+    private volatile int count;
+
+    // Table entries that are not null, including REMOVED markers
+    private int used;
+
+    private final class Iter
+        implements Iterator<ScriptableObject.Slot>
+    {
+        private int pos;
+
+        @Override
+        public boolean hasNext() {
+            while (pos < orderedEnd && ordered[pos] == null) {
+                pos++;
+            }
+            return pos < orderedEnd;
+        }
+
+        @Override
+        public ScriptableObject.Slot next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return ordered[pos++];
+        }
+    }
+
+    public ConcurrentSlotMap()
+    {
+        this(0);
+    }
+
+    public ConcurrentSlotMap(int initialSize)
+    {
+        int size = INITIAL_SLOT_SIZE;
+        while (size < initialSize * 2) {
+            size <<= 1;
+        }
+        slots = new SlotTable(size, false);
+        orderedIndex = new int[size];
+        ordered = new ScriptableObject.Slot[size / 2];
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    public Iterator<ScriptableObject.Slot> iterator() {
+        return new Iter();
+    }
+
+    /**
+     * Locate the slot with the given name or index. This may be called without any lock.
+     */
+    @Override
+    public ScriptableObject.Slot query(Object key, int index)
+    {
+        final SlotTable table = slots;
+        final int pos = find(table, key, (key != null ? key.hashCode() : index));
+        return pos < 0 ? null : table.get(pos);
+    }
+
+    @Override
+    public ScriptableObject.Slot get(Object key, int index, SlotAccess accessType)
+    {
+        final int indexOrHash = (key != null ? key.hashCode() : index);
+        final SlotTable table = slots;
+        final int pos = find(table, key, indexOrHash);
+        ScriptableObject.Slot slot = (pos < 0 ? null : table.get(pos));
+        switch (accessType) {
+            case QUERY:
+                return slot;
+            case MODIFY:
+            case MODIFY_CONST:
+                if (slot != null) {
+                    return slot;
+                }
+                break;
+            case MODIFY_GETTER_SETTER:
+                if (slot instanceof ScriptableObject.GetterSlot) {
+                    return slot;
+                }
+                break;
+            case CONVERT_ACCESSOR_TO_DATA:
+                if ( !(slot instanceof ScriptableObject.GetterSlot) ) {
+                    return slot;
+                }
+                break;
+        }
+
+        if (slot != null) {
+            // Switch between a data and an accessor property in place
+            ScriptableObject.Slot newSlot;
+            if (accessType == SlotAccess.MODIFY_GETTER_SETTER) {
+                newSlot = new ScriptableObject.GetterSlot(key, indexOrHash,
+                    slot.getAttributes());
+            } else {
+                newSlot = new ScriptableObject.Slot(key, indexOrHash, slot.getAttributes());
+            }
+            newSlot.value = slot.value;
+            ordered[orderedIndex[pos]] = newSlot;
+            table.set(pos, newSlot);
+            return newSlot;
+        }
+
+        ScriptableObject.Slot newSlot = (accessType == SlotAccess.MODIFY_GETTER_SETTER
+                ? new ScriptableObject.GetterSlot(key, indexOrHash, 0)
+                : new ScriptableObject.Slot(key, indexOrHash, 0));
+        if (accessType == SlotAccess.MODIFY_CONST) {
+            newSlot.setAttributes(ScriptableObject.CONST);
+        }
+        addSlot(newSlot);
+        return newSlot;
+    }
+
+    @Override
+    public void addSlot(ScriptableObject.Slot newSlot)
+    {
+        if (2 * (used + 1) > slots.length()) {
+            resize();
+        }
+        if (orderedEnd == ordered.length) {
+            ordered = Arrays.copyOf(ordered, orderedEnd * 2);
+        }
+        int pos = addKnownAbsentSlot(slots, newSlot);
+        orderedIndex[pos < 0 ? ~pos : pos] = orderedEnd;
+        ordered[orderedEnd++] = newSlot;
+        used++;
+        count++;
+        if (pos < 0 && !slots.seeded) {
+            // Too many keys share a position, so place them in a way that callers cannot
+            // predict
+            rebuild(slots.length(), true);
+        }
+    }
+
+    @Override
+    public void remove(Object key, int index)
+    {
+        final SlotTable table = slots;
+        final int pos = find(table, key, (key != null ? key.hashCode() : index));
+        if (pos < 0) {
+            return;
+        }
+        ScriptableObject.Slot slot = table.get(pos);
+        // non-configurable
+        if ((slot.getAttributes() & ScriptableObject.PERMANENT) != 0) {
+            Context cx = Context.getContext();
+            if (cx.isStrictMode()) {
+                throw ScriptRuntime.typeError1("msg.delete.property.with.configurable.false", key);
+            }
+            return;
+        }
+        table.set(pos, REMOVED);
+        ordered[orderedIndex[pos]] = null;
+        count--;
+        // Once more than half of the definition order is holes, compact it, so that
+        // removal stays O(1) on average
+        if (orderedEnd - count > count + INITIAL_SLOT_SIZE) {
+            rebuild(table.length(), table.seeded);
+        }
+    }
+
+    /**
+     * Copy the live slots to a new table that is at least four times as big as their number.
+     */
+    private void resize()
+    {
+        int size = slots.length();
+        while (size < (count + 1) * 4) {
+            size <<= 1;
+        }
+        rebuild(size, slots.seeded);
+    }
+
+    /**
+     * Copy the live slots to a new table of the given size, dropping REMOVED markers and the
+     * holes in the definition order, and publish it.
+     */
+    private void rebuild(int size, boolean seeded)
+    {
+        SlotTable newSlots = new SlotTable(size, seeded);
+        int[] newIndex = new int[size];
+        int n = 0;
+        for (int i = 0; i < orderedEnd; i++) {
+            ScriptableObject.Slot slot = ordered[i];
+            if (slot != null) {
+                ordered[n] = slot;
+                int pos = addKnownAbsentSlot(newSlots, slot);
+                newIndex[pos < 0 ? ~pos : pos] = n;
+                n++;
+            }
+        }
+        Arrays.fill(ordered, n, orderedEnd, null);
+        orderedEnd = n;
+        orderedIndex = newIndex;
+        used = n;
+        slots = newSlots;
+    }
+
+    private static int find(SlotTable table, Object key, int indexOrHash)
+    {
+        // The table always has an empty entry, so this terminates
+        final int mask = table.length() - 1;
+        for (int pos = hash(table, key, indexOrHash) & mask; ; pos = (pos + 1) & mask) {
+            ScriptableObject.Slot slot = table.get(pos);
+            if (slot == null) {
+                return -1;
+            }
+            if (slot != REMOVED && slot.indexOrHash == indexOrHash &&
+                (slot.name == key || (key != null && key.equals(slot.name)))) {
+                return pos;
+            }
+        }
+    }
+
+    /**
+     * Store a slot whose key is not in the table yet, and return its position. The position
+     * is returned as a negative number, ~pos, if it took more than MAX_PROBES probes to find.
+     */
+    private static int addKnownAbsentSlot(SlotTable table, ScriptableObject.Slot slot)
+    {
+        final int mask = table.length() - 1;
+        int pos = hash(table, slot.name, slot.indexOrHash) & mask;
+        int probes = 0;
+        while (table.get(pos) != null) {
+            pos = (pos + 1) & mask;
+            probes++;
+        }
+        table.set(pos, slot);
+        return probes <= MAX_PROBES ? pos : ~pos;
+    }
+
+    private static int hash(SlotTable table, Object key, int indexOrHash)
+    {
+        if (table.seeded) {
+            int h;
+            if (key instanceof String) {
+                String s = (String)key;
+                h = HASH_SEED;
+                for (int i = 0; i < s.length(); i++) {
+                    h = (h ^ s.charAt(i)) * 0x01000193;
+                }
+            } else {
+                h = (indexOrHash ^ HASH_SEED) * 0x85ebca6b;
+                h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+            }
+            return h ^ (h >>> 16);
+        }
+        // Mix in the high bits, since linear probing is sensitive to clustered hash codes
+        return indexOrHash ^ (indexOrHash >>> 16);
+    }
+}
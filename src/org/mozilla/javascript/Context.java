@@ -22,9 +22,12 @@ import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.mozilla.classfile.ClassFileWriter.ClassFileFormatException;
 import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
 import org.mozilla.javascript.ast.ScriptNode;
 import org.mozilla.javascript.debug.DebuggableScript;
 import org.mozilla.javascript.debug.Debugger;
@@ -349,6 +352,80 @@ public class Context
      */
     public static final int FEATURE_ENABLE_XML_SECURE_PARSING = 20;
 
+    /**
+     * If set, then new objects store their properties using a "shape" that is shared with all
+     * other objects that received the same properties in the same order, plus a compact array
+     * of slots, instead of a private hash table. This speeds up lookups when many objects have
+     * the same layout. An object switches back to the regular hash table when a property is
+     * deleted or when it grows large.
+     * <p>
+     * This feature also turns on the inline caches of property accesses in interpreted code,
+     * and it is what lets {@link #FEATURE_DYNAMIC_CALL_SITES} skip lookups. Both only cache
+     * plain objects created from object literals, "new Object()" or constructor functions.
+     * Arrays, host objects and other subclasses of ScriptableObject are not cached.
+     * The default is false.
+     * @since 1.7 Release 14
+     */
+    public static final int FEATURE_OBJECT_SHAPES = 21;
+
+    /**
+     * If set, then code compiled to Java bytecode (optimization level 0 and above) reads
+     * and writes named properties through invokedynamic call sites instead of calling
+     * ScriptRuntime directly. Each site links itself to the layout of the objects that it
+     * sees, so that the JIT can inline the lookup. Sites only link to objects that use
+     * shapes, so without {@link #FEATURE_OBJECT_SHAPES} every access goes through
+     * ScriptRuntime as before, only with an extra call. This feature needs a JVM that
+     * supports invokedynamic. The default is false.
+     * @since 1.7 Release 14
+     */
+    public static final int FEATURE_DYNAMIC_CALL_SITES = 22;
+
+    /**
+     * If set, then interpreted code (optimization level -1) counts how often each function
+     * is called and how many loop iterations it runs. Once a function is hot, it is compiled
+     * to Java bytecode on its own and runs as compiled code from its next invocation on,
+     * while code that runs only a few times never pays for bytecode generation. Functions
+     * that need an activation object, such as those that use "arguments" or eval, or that
+     * contain other functions, always stay interpreted. Continuations cannot be captured
+     * through compiled functions, so this feature should not be combined with them.
+     * How hot a function must be is set with {@link #setTierUpThreshold(int)}.
+     * The default is false.
+     * @since 1.7 Release 14
+     */
+    public static final int FEATURE_TIERED_COMPILATION = 23;
+
+    /**
+     * If set, then code compiled to Java bytecode (optimization level 0 and above) can
+     * capture and resume continuations like interpreted code, see
+     * {@link #captureContinuation()}. Functions are compiled so that their calls save
+     * the state of the frame, including the values of enclosing expressions that were
+     * already evaluated, when the continuation is captured, and restore it when the
+     * continuation is resumed. Variables are always kept in activation objects
+     * and calls to other functions are never made directly, so such code runs somewhat
+     * slower than regular compiled code, but still much faster than the interpreter.
+     * A continuation can only pass through functions and scripts that were compiled in
+     * this mode. Scripts with calls whose frame cannot be saved, such as calls in the
+     * operands of compound assignments or calls of <code>eval</code>, are interpreted
+     * instead. The default is false.
+     * @since 1.7 Release 14
+     */
+    public static final int FEATURE_COMPILED_CONTINUATIONS = 24;
+
+    /**
+     * If set, then scripts compiled to Java bytecode (optimization level 0 and above) only
+     * generate code for their large functions when these are first called. The whole
+     * script is still parsed and checked for errors up front, but each such function gets
+     * its own class, compiled from its source text, so that functions that never run cost
+     * neither compilation time nor class metadata, and a single large function no longer
+     * makes the whole script exceed the limits of a class file. Calls are never made
+     * directly to another function, so hot code runs somewhat slower than with eager
+     * compilation. A function that still does not fit in a class file of its own is
+     * interpreted. Scripts compiled this way are not stored in the {@link CodeCache}.
+     * The default is false.
+     * @since 1.7 Release 14
+     */
+    public static final int FEATURE_LAZY_COMPILATION = 25;
+
     public static final String languageVersionProperty = "language version";
     public static final String errorReporterProperty   = "error reporter";
 
@@ -394,6 +471,7 @@ public class Context
         version = VERSION_DEFAULT;
         optimizationLevel = codegenClass != null ? 0 : -1;
         maximumInterpreterStackDepth = Integer.MAX_VALUE;
+        tierUpThreshold = InterpretedFunction.DEFAULT_TIER_UP_THRESHOLD;
     }
 
     /**
@@ -1272,7 +1350,8 @@ public class Context
      * and resume execution by calling
      * {@link #resumeContinuation(Object, Scriptable, Object)}.
      * @param script The script to execute. Script must have been compiled
-     *      with interpreted mode (optimization level -1)
+     *      with interpreted mode (optimization level -1), or with
+     *      {@link #FEATURE_COMPILED_CONTINUATIONS}
      * @param scope The scope to execute the script against
      * @throws ContinuationPending if the script calls a function that results
      *      in a call to {@link #captureContinuation()}
@@ -1282,14 +1361,15 @@ public class Context
             Scriptable scope)
         throws ContinuationPending
     {
-        if (!(script instanceof InterpretedFunction) ||
-            !((InterpretedFunction)script).isScript())
+        if (script instanceof InterpretedFunction
+            ? !((InterpretedFunction)script).isScript()
+            : !(script instanceof NativeFunction))
         {
             // Can only be applied to scripts
             throw new IllegalArgumentException("Script argument was not" +
                     " a script or was not created by interpreted mode ");
         }
-        return callFunctionWithContinuations((InterpretedFunction) script,
+        return callFunctionWithContinuations((NativeFunction) script,
                 scope, ScriptRuntime.emptyArgs);
     }
 
@@ -1299,7 +1379,8 @@ public class Context
      * and resume execution by calling
      * {@link #resumeContinuation(Object, Scriptable, Object)}.
      * @param function The function to call. The function must have been
-     *      compiled with interpreted mode (optimization level -1)
+     *      compiled with interpreted mode (optimization level -1), or with
+     *      {@link #FEATURE_COMPILED_CONTINUATIONS}
      * @param scope The scope to execute the script against
      * @param args The arguments for the function
      * @throws ContinuationPending if the script calls a function that results
@@ -1311,6 +1392,10 @@ public class Context
         throws ContinuationPending
     {
         if (!(function instanceof InterpretedFunction)) {
+            if (function instanceof NativeFunction) {
+                return ContinuationFrame.call(this, (NativeFunction) function,
+                        scope, scope, args);
+            }
             // Can only be applied to scripts
             throw new IllegalArgumentException("Function argument was not" +
                     " created by interpreted mode ");
@@ -1339,6 +1424,9 @@ public class Context
      * @since 1.7 Release 2
      */
     public ContinuationPending captureContinuation() {
+        if (isCompiledContinuationsCall && lastInterpreterFrame == null) {
+            return ContinuationFrame.capture(this);
+        }
         return new ContinuationPending(
                 Interpreter.captureContinuation(this));
     }
@@ -1476,6 +1564,115 @@ public class Context
                              securityDomain);
     }
 
+    /**
+     * Compiles the source in the given string on another thread.
+     * <p>
+     * The source is parsed and compiled by the
+     * {@link ContextFactory#getCompilationExecutor() compilation executor}
+     * of this Context's factory, with the settings this Context has at the
+     * time of the call, and the returned Future gives the script once it is
+     * ready. Syntax errors are reported through the Future as an
+     * ExecutionException whose cause is the EvaluatorException. Scripts
+     * found in the {@link #setScriptCache(ScriptCache) script cache}, or
+     * compiled while a debugger is attached or a {@link SecurityController}
+     * is in effect, are compiled on the calling thread.
+     * <p>
+     * The script may be run by any Context once it is compiled. Until then
+     * a caller that must not wait can run an interpreted version, which is
+     * quick to compile:
+     * <pre>
+     * Future&lt;Script&gt; compiled = cx.compileStringAsync(source, name, 1, null);
+     * ...
+     * Script script;
+     * if (compiled.isDone()) {
+     *     script = compiled.get();
+     * } else {
+     *     cx.setOptimizationLevel(-1);
+     *     script = cx.compileString(source, name, 1, null);
+     * }
+     * </pre>
+     *
+     * @param source the source string
+     * @param sourceName a string describing the source, such as a filename
+     * @param lineno the starting line number for reporting errors. Use
+     *        0 if the line number is unknown.
+     * @param securityDomain an arbitrary object that specifies security
+     *        information about the origin or owner of the script. For
+     *        implementations that don't care about security, this value
+     *        may be null.
+     * @return a Future that gives the compiled script
+     * @see ContextFactory#setCompilationExecutor
+     */
+    public final Future<Script> compileStringAsync(final String source,
+                                                   String sourceName,
+                                                   int lineno,
+                                                   final Object securityDomain)
+    {
+        if (lineno < 0) {
+            lineno = 0;
+        }
+        if (sourceName == null) {
+            sourceName = "unnamed script";
+        }
+        if (securityDomain != null && getSecurityController() == null) {
+            throw new IllegalArgumentException(
+                "securityDomain should be null if setSecurityController() was never called");
+        }
+        final String name = sourceName;
+        final int line = lineno;
+        if (debugger != null || activationNames != null
+            || getSecurityController() != null)
+        {
+            // The debugger must be told about the script on this thread, and
+            // security domains depend on the calling code
+            FutureTask<Script> task = new FutureTask<Script>(
+                () -> compileString(source, name, line, securityDomain));
+            task.run();
+            return task;
+        }
+
+        final CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(this);
+        final boolean strict = isStrictMode();
+        final ScriptCache scripts = scriptCache;
+        final CodeCache code = codeCache;
+        final ScriptCache.Key cacheKey;
+        if (scripts != null || code != null) {
+            cacheKey = new ScriptCache.Key(source, name, line, securityDomain,
+                                           compilerEnv, strict);
+            Script cached = scripts == null ? null : scripts.get(cacheKey);
+            if (cached != null) {
+                FutureTask<Script> task = new FutureTask<Script>(() -> cached);
+                task.run();
+                return task;
+            }
+        } else {
+            cacheKey = null;
+        }
+
+        final ContextFactory f = factory;
+        final ClassLoader loader = getApplicationClassLoader();
+        FutureTask<Script> task = new FutureTask<Script>(() -> f.call(cx -> {
+            // Classes are defined in the same loader as on this thread
+            cx.setApplicationClassLoader(loader);
+            // Regular expression literals are compiled for this version
+            if (cx.getLanguageVersion() != compilerEnv.getLanguageVersion()) {
+                cx.setLanguageVersion(compilerEnv.getLanguageVersion());
+            }
+            try {
+                return (Script)cx.compileImpl(compilerEnv, strict, cacheKey,
+                                              scripts, code, null, source,
+                                              name, line, securityDomain,
+                                              false, null, null);
+            } catch (IOException ioe) {
+                // Should not happen when dealing with source as string
+                throw new RuntimeException(ioe);
+            }
+        }));
+        f.getCompilationExecutor().execute(task);
+        return task;
+    }
+
     final Script compileString(String source,
                                Evaluator compiler,
                                ErrorReporter compilationErrorReporter,
@@ -1949,6 +2146,67 @@ public class Context
         this.generatingSource = generatingSource;
     }
 
+    /**
+     * Return the cache of compiled scripts, or null if scripts are always
+     * compiled anew.
+     * @see #setScriptCache(ScriptCache)
+     */
+    public final ScriptCache getScriptCache()
+    {
+        return scriptCache;
+    }
+
+    /**
+     * Set a cache for the scripts compiled by {@link #compileString} and
+     * {@link #compileReader}, or null to compile them anew every time.
+     * <p>
+     * A script is taken from the cache when its source, name, line number
+     * and security domain are the same as those of an earlier one, and so are
+     * all settings of this Context that affect compilation. The cache is
+     * not used for functions, while a debugger is set, or when a custom
+     * error reporter is given to the compiler, since compilation must then
+     * produce its side effects. Note that warnings are only reported when a
+     * script is first compiled.
+     * <p>
+     * One cache is usually shared by all Contexts of an application, for
+     * example by setting it in {@link ContextFactory#onContextCreated}.
+     *
+     * @param scriptCache the cache, or null
+     * @see LruScriptCache
+     */
+    public final void setScriptCache(ScriptCache scriptCache)
+    {
+        if (sealed) onSealedMutation();
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Return the store for the compiled form of scripts, or null if there
+     * is none.
+     * @see #setCodeCache(CodeCache)
+     */
+    public final CodeCache getCodeCache()
+    {
+        return codeCache;
+    }
+
+    /**
+     * Set a store for the compiled form of the scripts compiled by
+     * {@link #compileString} and {@link #compileReader}, or null for none.
+     * When a script is not in the {@link #getScriptCache() script cache}, its
+     * compiled form is loaded from the code cache if it is there, which skips
+     * parsing and code generation, and otherwise it is stored there after
+     * compiling. The same restrictions as for the script cache apply.
+     *
+     * @param codeCache the cache, or null
+     * @see DirectoryCodeCache
+     */
+    public final void setCodeCache(CodeCache codeCache)
+    {
+        if (sealed) onSealedMutation();
+        this.codeCache = codeCache;
+    }
+
     /**
      * Get the current optimization level.
      * <p>
@@ -2054,6 +2312,38 @@ public class Context
         maximumInterpreterStackDepth = max;
     }
 
+    /**
+     * Returns the number of calls and loop iterations after which an
+     * interpreted function is compiled to Java bytecode when
+     * {@link #FEATURE_TIERED_COMPILATION} is enabled. Defaults to 1000.
+     *
+     * @return The current tier-up threshold.
+     */
+    public final int getTierUpThreshold()
+    {
+        return tierUpThreshold;
+    }
+
+    /**
+     * Sets the number of calls and loop iterations after which an
+     * interpreted function is compiled to Java bytecode when
+     * {@link #FEATURE_TIERED_COMPILATION} is enabled. A lower value compiles
+     * more functions sooner, a higher one saves bytecode generation for code
+     * that runs only for a while. The threshold is recorded when a script is
+     * compiled, so it only affects scripts compiled afterwards.
+     *
+     * @param threshold the new tier-up threshold
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public final void setTierUpThreshold(int threshold)
+    {
+        if(sealed) onSealedMutation();
+        if(threshold < 0) {
+            throw new IllegalArgumentException("Cannot set tierUpThreshold to less than 0");
+        }
+        tierUpThreshold = threshold;
+    }
+
     /**
      * Set the security controller for this context.
      * <p> SecurityController may only be set if it is currently null
@@ -2475,28 +2765,99 @@ public class Context
 
         CompilerEnvirons compilerEnv = new CompilerEnvirons();
         compilerEnv.initFromContext(this);
+
+        ScriptCache.Key cacheKey = null;
+        if ((scriptCache != null || codeCache != null) && !returnFunction
+            && compiler == null && compilationErrorReporter == null
+            && debugger == null && activationNames == null)
+        {
+            cacheKey = new ScriptCache.Key(sourceString, sourceName, lineno,
+                                           securityDomain, compilerEnv,
+                                           isStrictMode());
+            if (scriptCache != null) {
+                Script cached = scriptCache.get(cacheKey);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
+        return compileImpl(compilerEnv, isStrictMode(), cacheKey,
+                           scriptCache, codeCache, scope, sourceString,
+                           sourceName, lineno, securityDomain, returnFunction,
+                           compiler, compilationErrorReporter);
+    }
+
+    /**
+     * The part of compiling that only depends on its arguments, so that it
+     * can run on another thread than the one that asked for the script, see
+     * {@link #compileStringAsync}.
+     */
+    private Object compileImpl(CompilerEnvirons compilerEnv, boolean strict,
+                               ScriptCache.Key cacheKey,
+                               ScriptCache scriptCache, CodeCache codeCache,
+                               Scriptable scope, String sourceString,
+                               String sourceName, int lineno,
+                               Object securityDomain, boolean returnFunction,
+                               Evaluator compiler,
+                               ErrorReporter compilationErrorReporter)
+        throws IOException
+    {
         if (compilationErrorReporter == null) {
             compilationErrorReporter = compilerEnv.getErrorReporter();
         }
+        if (compilerEnv.isLazyCompilation()) {
+            // Lazy functions are compiled from the source text, which the
+            // stored code does not keep
+            codeCache = null;
+        }
 
-        ScriptNode tree = parse(sourceString, sourceName, lineno,
-                                    compilerEnv, compilationErrorReporter, returnFunction);
-
-        Object bytecode;
-        try {
-            if (compiler == null) {
-                compiler = createCompiler();
+        Object bytecode = null;
+        if (cacheKey != null && codeCache != null) {
+            bytecode = codeCache.load(cacheKey);
+            if (bytecode != null) {
+                // It may come from the interpreter after hitting a class file limit
+                compiler = bytecode instanceof InterpreterData
+                           ? createInterpreter() : createCompiler(compilerEnv);
             }
+        }
 
-            bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
-        } catch (ClassFileFormatException e) {
-            // we hit some class file limit, fall back to interpreter or report
+        if (bytecode == null) {
+            ScriptNode tree = parse(sourceString, sourceName, lineno,
+                                    compilerEnv, compilationErrorReporter,
+                                    returnFunction, strict);
 
-            // we have to recreate the tree because the compile call might have changed the tree already
-            tree = parse(sourceString, sourceName, lineno, compilerEnv, compilationErrorReporter, returnFunction);
+            try {
+                if (compiler == null) {
+                    compiler = createCompiler(compilerEnv);
+                }
+                if (compilerEnv.isLazyCompilation()) {
+                    tree.putProp(Node.LAZY_SOURCE_PROP, sourceString);
+                }
+
+                bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
+            } catch (ClassFileFormatException | InterpreterFallbackException e) {
+                // we hit some class file limit, or code that only the
+                // interpreter supports, fall back to interpreter or report
+
+                // we have to recreate the tree because the compile call might have changed the tree already
+                tree = parse(sourceString, sourceName, lineno, compilerEnv,
+                             compilationErrorReporter, returnFunction, strict);
+
+                compiler = createInterpreter();
+                bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
+            }
 
-            compiler = createInterpreter();
-            bytecode = compiler.compile(compilerEnv, tree, tree.getEncodedSource(), returnFunction);
+            if (compilerEnv.isTieredCompilation()
+                && bytecode instanceof InterpreterData)
+            {
+                // Hot functions are compiled again from their source
+                ((InterpreterData)bytecode).tierUpSource = sourceString;
+            }
+
+            if (cacheKey != null && codeCache != null) {
+                codeCache.store(cacheKey, bytecode);
+            }
         }
 
         if (debugger != null) {
@@ -2514,19 +2875,71 @@ public class Context
             result = compiler.createFunctionObject(this, scope, bytecode, securityDomain);
         } else {
             result = compiler.createScriptObject(bytecode, securityDomain);
+            if (cacheKey != null && scriptCache != null) {
+                scriptCache.put(cacheKey, (Script)result);
+            }
         }
 
         return result;
     }
 
+    /**
+     * Compile a function that has been running in the interpreter once more,
+     * on its own and with the class compiler, for tiered compilation.
+     * Returns the compiled function, whose parent scope is scope, or null if
+     * it cannot be compiled.
+     */
+    Function compileFunctionForTierUp(Scriptable scope, String source,
+                                      String sourceName, int lineno,
+                                      boolean strict, Object securityDomain)
+    {
+        if (codegenClass == null) {
+            return null;
+        }
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(this);
+        compilerEnv.setOptimizationLevel(9);
+        compilerEnv.setTieredCompilation(false);
+        compilerEnv.setCompiledContinuations(false);
+        compilerEnv.setLazyCompilation(false);
+        // Only the interpreted function is visible to scripts
+        compilerEnv.setGeneratingSource(false);
+        try {
+            Parser p = new Parser(compilerEnv, DefaultErrorReporter.instance);
+            p.calledByCompileFunction = true;
+            if (strict) {
+                p.setDefaultUseStrictDirective(true);
+            }
+            AstRoot ast = p.parse(source, sourceName, lineno);
+            if (!(ast.getFirstChild() instanceof FunctionNode)) {
+                return null;
+            }
+            // Parsed on its own, a function expression would bind its name to
+            // itself, but the name must still refer to the interpreted function
+            ((FunctionNode)ast.getFirstChild()).setFunctionName(null);
+            IRFactory irf = new IRFactory(compilerEnv, DefaultErrorReporter.instance);
+            ScriptNode tree = irf.transformTree(ast);
+            Evaluator compiler = (Evaluator)Kit.newInstanceOrNull(codegenClass);
+            if (compiler == null) {
+                return null;
+            }
+            Object bytecode = compiler.compile(compilerEnv, tree,
+                                               tree.getEncodedSource(), true);
+            return compiler.createFunctionObject(this, scope, bytecode,
+                                                 securityDomain);
+        } catch (ClassFileFormatException | RhinoException e) {
+            return null;
+        }
+    }
+
     private ScriptNode parse(String sourceString, String sourceName, int lineno,
             CompilerEnvirons compilerEnv, ErrorReporter compilationErrorReporter,
-            boolean returnFunction) throws IOException {
+            boolean returnFunction, boolean strict) throws IOException {
         Parser p = new Parser(compilerEnv, compilationErrorReporter);
         if (returnFunction) {
             p.calledByCompileFunction = true;
         }
-        if (isStrictMode()) {
+        if (strict) {
             p.setDefaultUseStrictDirective(true);
         }
 
@@ -2563,10 +2976,10 @@ public class Context
     private static Class<?> interpreterClass = Kit.classOrNull(
                              "org.mozilla.javascript.Interpreter");
 
-    private Evaluator createCompiler()
+    private static Evaluator createCompiler(CompilerEnvirons compilerEnv)
     {
         Evaluator result = null;
-        if (optimizationLevel >= 0 && codegenClass != null) {
+        if (compilerEnv.getOptimizationLevel() >= 0 && codegenClass != null) {
             result = (Evaluator)Kit.newInstanceOrNull(codegenClass);
         }
         if (result == null) {
@@ -2691,6 +3104,11 @@ public class Context
 
     Scriptable topCallScope;
     boolean isContinuationsTopCall;
+    // State of compiled code that runs with continuations, see
+    // ContinuationFrame
+    boolean isCompiledContinuationsCall;
+    ContinuationFrame resumingFrame;
+    Object resumingResult;
     NativeCall currentActivationCall;
     XMLLib cachedXMLLib;
     BaseFunction typeErrorThrower;
@@ -2713,9 +3131,12 @@ public class Context
     private boolean generatingDebug;
     private boolean generatingDebugChanged;
     private boolean generatingSource=true;
+    private ScriptCache scriptCache;
+    private CodeCache codeCache;
     boolean useDynamicScope;
     private int optimizationLevel;
     private int maximumInterpreterStackDepth;
+    private int tierUpThreshold;
     private WrapFactory wrapFactory;
     Debugger debugger;
     private Object debuggerData;
@@ -2747,6 +3168,9 @@ public class Context
     // It can be used to return the second Scriptable result from function
     Scriptable scratchScriptable;
 
+    // Methods found on prototypes, created on first use
+    PrototypeCache prototypeCache;
+
     // Generate an observer count on compiled code
     public boolean generateObserverCount = false;
 
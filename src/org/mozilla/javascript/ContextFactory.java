@@ -10,6 +10,10 @@ package org.mozilla.javascript;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Factory class that Rhino runtime uses to create new {@link Context}
@@ -117,6 +121,7 @@ public class ContextFactory
     private volatile Object listeners;
     private boolean disabledListening;
     private ClassLoader applicationClassLoader;
+    private volatile Executor compilationExecutor;
 
     /**
      * Listener of {@link Context} creation and release events.
@@ -301,6 +306,21 @@ public class ContextFactory
 
           case Context.FEATURE_ENABLE_XML_SECURE_PARSING:
               return true;
+
+          case Context.FEATURE_OBJECT_SHAPES:
+              return false;
+
+          case Context.FEATURE_DYNAMIC_CALL_SITES:
+              return false;
+
+          case Context.FEATURE_TIERED_COMPILATION:
+              return false;
+
+          case Context.FEATURE_COMPILED_CONTINUATIONS:
+              return false;
+
+          case Context.FEATURE_LAZY_COMPILATION:
+              return false;
         }
         // It is a bug to call the method with unknown featureIndex
         throw new IllegalArgumentException(String.valueOf(featureIndex));
@@ -398,6 +418,58 @@ public class ContextFactory
         this.applicationClassLoader = loader;
     }
 
+    /**
+     * Return the executor that compiles scripts for
+     * {@link Context#compileStringAsync}. Unless one was set with
+     * {@link #setCompilationExecutor(Executor)}, this is a pool of daemon
+     * threads that belongs to this factory, with a thread for every two
+     * processors.
+     */
+    public final Executor getCompilationExecutor()
+    {
+        Executor executor = compilationExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = compilationExecutor;
+                if (executor == null) {
+                    executor = createCompilationExecutor();
+                    compilationExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Set the executor that compiles scripts for
+     * {@link Context#compileStringAsync}. Each task enters a Context from
+     * this factory on the thread that runs it.
+     *
+     * @param executor the executor, or null for a pool of this factory
+     * @see #getCompilationExecutor()
+     */
+    public final void setCompilationExecutor(Executor executor)
+    {
+        checkNotSealed();
+        this.compilationExecutor = executor;
+    }
+
+    private static Executor createCompilationExecutor()
+    {
+        int threads = Math.max(1,
+            Runtime.getRuntime().availableProcessors() / 2);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            r -> {
+                Thread t = new Thread(r, "Rhino compiler");
+                t.setDaemon(true);
+                return t;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     /**
      * Execute top call to script or function.
      * When the runtime is about to execute a script or function that will
@@ -0,0 +1,259 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.Serializable;
+
+/**
+ * The saved state of a function or script that was compiled to Java bytecode
+ * with {@link Context#FEATURE_COMPILED_CONTINUATIONS}, at the call during
+ * which a continuation was captured.
+ * <p>
+ * The frames of a continuation form a chain from the outermost call, which
+ * was started with
+ * {@link Context#callFunctionWithContinuations(Callable, Scriptable, Object[])},
+ * to a last frame without a function, which stands for the Java method that
+ * called {@link Context#captureContinuation()}. The outermost frame is the
+ * implementation of the {@link NativeContinuation}. Frames are saved from the
+ * inside out while the {@link ContinuationPending} exception unwinds the
+ * compiled code. To resume, the outermost function is called again; it
+ * restores its locals and operand stack and calls the function of the next
+ * frame, until the last frame returns the result of the capturing call.
+ * <p>
+ * Variables live in activation objects, which are not copied, so all
+ * resumptions of a continuation see the same variables.
+ */
+public final class ContinuationFrame implements Serializable
+{
+    private static final long serialVersionUID = -3582934412063419107L;
+
+    private ContinuationFrame(NativeCall activation)
+    {
+        this.activation = activation;
+    }
+
+    /**
+     * Called from {@link Context#captureContinuation()} while compiled code
+     * runs with continuations.
+     */
+    static ContinuationPending capture(Context cx)
+    {
+        NativeContinuation c = new NativeContinuation();
+        ScriptRuntime.setObjectProtoAndParent(
+            c, ScriptRuntime.getTopCallScope(cx));
+        c.initImplementation(new ContinuationFrame(cx.currentActivationCall));
+        return new ContinuationPending(c);
+    }
+
+    /**
+     * Calls a compiled function or script with continuations, see
+     * {@link Context#callFunctionWithContinuations(Callable, Scriptable, Object[])}.
+     */
+    static Object call(Context cx, NativeFunction function,
+                       Scriptable scope, Scriptable thisObj, Object[] args)
+    {
+        if (ScriptRuntime.hasTopCall(cx)) {
+            throw new IllegalStateException("Cannot have any pending top " +
+                    "calls when executing a script with continuations");
+        }
+        cx.isCompiledContinuationsCall = true;
+        try {
+            return ScriptRuntime.doTopCall(function, cx, scope, thisObj, args,
+                                           cx.isTopLevelStrict);
+        } catch (ContinuationPending pending) {
+            Object frame = getFrames(pending);
+            if (!(frame instanceof ContinuationFrame)
+                || ((ContinuationFrame)frame).function != function)
+            {
+                throw notSaved();
+            }
+            throw pending;
+        } finally {
+            cx.isCompiledContinuationsCall = false;
+            cx.resumingFrame = null;
+            cx.resumingResult = null;
+        }
+    }
+
+    /**
+     * Resumes a continuation whose implementation is a ContinuationFrame,
+     * see {@link Context#resumeContinuation(Object, Scriptable, Object)}.
+     */
+    static Object resume(Context cx, NativeContinuation c, Scriptable scope,
+                         Object result)
+    {
+        ContinuationFrame outermost = (ContinuationFrame)c.getImplementation();
+        if (outermost.function == null) {
+            // Nothing was saved
+            return result;
+        }
+        if (ScriptRuntime.hasTopCall(cx)) {
+            throw new IllegalStateException("Cannot have any pending top " +
+                    "calls when executing a script with continuations");
+        }
+        cx.resumingFrame = outermost;
+        cx.resumingResult = result;
+        return call(cx, outermost.function, scope, outermost.thisObj,
+                    outermost.args);
+    }
+
+    private static Object getFrames(ContinuationPending pending)
+    {
+        NativeContinuation c = pending.getContinuationState();
+        return c == null ? null : c.getImplementation();
+    }
+
+    /**
+     * Checks that a continuation was captured by a call from compiled code
+     * to callee, and that all frames since the capture have been saved.
+     * Returns the exception so that the caller can save its own frame.
+     */
+    public static ContinuationPending checkCaptured(ContinuationPending pending,
+                                                    Callable callee,
+                                                    Context cx)
+    {
+        Object frames = getFrames(pending);
+        if (frames instanceof ContinuationFrame) {
+            ContinuationFrame inner = (ContinuationFrame)frames;
+            if (inner.function == null) {
+                // The callee must be the Java method that captured the
+                // continuation, with no other JavaScript code in between
+                if (!(callee instanceof NativeFunction)
+                    && inner.activation == cx.currentActivationCall)
+                {
+                    return pending;
+                }
+            } else if (inner.function == callee) {
+                return pending;
+            }
+        }
+        throw notSaved();
+    }
+
+    private static IllegalStateException notSaved()
+    {
+        return new IllegalStateException("Cannot capture continuation " +
+                "through code that cannot save its state, such as " +
+                "functions that were not compiled with continuations");
+    }
+
+    /**
+     * Saves the state of a compiled function, which is called with the
+     * given arguments and has just received pending from one of its calls.
+     */
+    public static ContinuationPending save(Object[] stack, Object[] locals,
+                                           ContinuationPending pending,
+                                           NativeFunction function,
+                                           Scriptable thisObj, Object[] args,
+                                           Scriptable scope,
+                                           int resumptionPoint, Context cx)
+    {
+        NativeContinuation c = pending.getContinuationState();
+        ContinuationFrame frame = new ContinuationFrame(cx.currentActivationCall);
+        frame.function = function;
+        frame.thisObj = thisObj;
+        // The array of a call with one argument is reused by the caller
+        frame.args = args == null ? null : args.clone();
+        frame.scope = scope;
+        frame.resumptionPoint = resumptionPoint;
+        frame.stack = stack;
+        frame.locals = locals;
+        frame.next = (ContinuationFrame)c.getImplementation();
+        c.initImplementation(frame);
+        return pending;
+    }
+
+    /**
+     * Returns the frame to resume when a compiled function is entered, or
+     * null for a regular call.
+     */
+    public static ContinuationFrame getResumingFrame(NativeFunction function,
+                                                     Context cx)
+    {
+        ContinuationFrame frame = cx.resumingFrame;
+        if (frame == null || frame.function != function) {
+            return null;
+        }
+        cx.resumingFrame = null;
+        return frame;
+    }
+
+    /**
+     * Repeats the call during which the continuation was captured, after the
+     * function of frame has restored its state. Like the call helpers of
+     * compiled code, returns the exception if the continuation is captured
+     * again.
+     */
+    public static Object resumeCall(ContinuationFrame frame, Context cx)
+    {
+        ContinuationFrame next = frame.next;
+        if (next.function == null) {
+            Object result = cx.resumingResult;
+            cx.resumingResult = null;
+            return result;
+        }
+        cx.resumingFrame = next;
+        try {
+            return next.function.call(cx, next.scope, next.thisObj, next.args);
+        } catch (ContinuationPending pending) {
+            return checkCaptured(pending, next.function, cx);
+        }
+    }
+
+    /**
+     * Like {@link #resumeCall(ContinuationFrame, Context)} for a new
+     * expression, whose function saved the new object as its this object.
+     */
+    public static Object resumeConstruct(ContinuationFrame frame, Context cx)
+    {
+        Object result = resumeCall(frame, cx);
+        if (result instanceof ContinuationPending) {
+            return result;
+        }
+        Scriptable created = frame.next.thisObj;
+        if (!(result instanceof Scriptable) && created != null) {
+            // Same as BaseFunction.construct
+            return created;
+        }
+        return result;
+    }
+
+    public Scriptable getScope()
+    {
+        return scope;
+    }
+
+    public Scriptable getActivation()
+    {
+        return activation;
+    }
+
+    public int getResumptionPoint()
+    {
+        return resumptionPoint;
+    }
+
+    public Object[] getStack()
+    {
+        return stack;
+    }
+
+    public Object[] getLocals()
+    {
+        return locals;
+    }
+
+    private NativeFunction function;
+    private Scriptable thisObj;
+    private Object[] args;
+    private Scriptable scope;
+    private NativeCall activation;
+    private int resumptionPoint;
+    private Object[] stack;
+    private Object[] locals;
+    private ContinuationFrame next;
+}
@@ -0,0 +1,258 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * A {@link CodeCache} that keeps the compiled form of each script in a file
+ * of a directory. The file name is a SHA-256 hash of the source text, the
+ * settings the script was compiled with and the build of Rhino, and the
+ * file repeats the hash and the build so that a file written by another
+ * build, or damaged, is never used. Such files are simply overwritten the
+ * next time the script is compiled.
+ * <p>
+ * The build is identified by a SHA-256 hash of the jar file, or of the
+ * class files of the directory, that Rhino was loaded from, which is
+ * computed once per JVM. Version numbers are not enough, since snapshot
+ * builds and classes compiled by an IDE share them. When the location of
+ * the classes is not known, nothing is cached.
+ * <p>
+ * Reading or writing the directory never makes a compilation fail: errors
+ * only mean that the script is compiled from source. Files are written
+ * under a temporary name and then renamed, so several JVMs may share a
+ * directory.
+ * <p>
+ * The files contain executable code, so the directory must only be
+ * writable by the application itself.
+ */
+public class DirectoryCodeCache implements CodeCache
+{
+    // Increment whenever the file layout or the serialized form changes
+    private static final int FORMAT_VERSION = 1;
+    private static final String MAGIC = "Rhino code cache";
+    private static final String SUFFIX = ".jscache";
+
+    private final Path directory;
+    private final String build;
+
+    /**
+     * Create a cache that keeps its files in directory, which is created
+     * if it does not exist yet.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory could not be created
+     */
+    public DirectoryCodeCache(File directory)
+        throws IOException
+    {
+        this(directory, BuildIdentity.VALUE);
+    }
+
+    /**
+     * Create a cache for the given build identity, or one that caches
+     * nothing if it is null.
+     */
+    DirectoryCodeCache(File directory, String build)
+        throws IOException
+    {
+        this.directory = Files.createDirectories(directory.toPath());
+        this.build = build;
+    }
+
+    @Override
+    public Object load(ScriptCache.Key key)
+    {
+        if (build == null) {
+            return null;
+        }
+        byte[] hash = hash(key);
+        Path file = directory.resolve(toFileName(hash));
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+             ObjectInputStream ois = new CodeInputStream(in))
+        {
+            if (!MAGIC.equals(ois.readUTF())
+                || ois.readInt() != FORMAT_VERSION
+                || !build.equals(ois.readUTF()))
+            {
+                return null;
+            }
+            byte[] storedHash = new byte[hash.length];
+            ois.readFully(storedHash);
+            if (!Arrays.equals(hash, storedHash)) {
+                return null;
+            }
+            return ois.readObject();
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void store(ScriptCache.Key key, Object compiledCode)
+    {
+        if (build == null) {
+            return;
+        }
+        byte[] hash = hash(key);
+        Path file = directory.resolve(toFileName(hash));
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, "tmp", SUFFIX);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp));
+                 ObjectOutputStream oos = new ObjectOutputStream(out))
+            {
+                oos.writeUTF(MAGIC);
+                oos.writeInt(FORMAT_VERSION);
+                oos.writeUTF(build);
+                oos.write(hash);
+                oos.writeObject(compiledCode);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException | RuntimeException e) {
+            // The script will be compiled again next time
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private byte[] hash(ScriptCache.Key key)
+    {
+        MessageDigest md = newDigest();
+        md.update((FORMAT_VERSION + " " + build + "\n").getBytes(
+            StandardCharsets.UTF_8));
+        key.digest(md);
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toFileName(byte[] hash)
+    {
+        return toHex(hash) + SUFFIX;
+    }
+
+    private static String toHex(byte[] hash)
+    {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The identity of the build of Rhino, computed when it is first used.
+     */
+    private static final class BuildIdentity
+    {
+        static final String VALUE = compute();
+
+        private static String compute()
+        {
+            try {
+                CodeSource source =
+                    DirectoryCodeCache.class.getProtectionDomain().getCodeSource();
+                if (source == null || source.getLocation() == null) {
+                    return null;
+                }
+                Path location = Paths.get(source.getLocation().toURI());
+                MessageDigest md = newDigest();
+                if (Files.isRegularFile(location)) {
+                    md.update(Files.readAllBytes(location));
+                } else if (Files.isDirectory(location)) {
+                    // Classes compiled into a directory, for example by an IDE
+                    try (Stream<Path> files = Files.walk(location.resolve("org/mozilla"))) {
+                        Iterator<Path> it = files.filter(Files::isRegularFile)
+                            .sorted().iterator();
+                        while (it.hasNext()) {
+                            Path file = it.next();
+                            md.update(location.relativize(file).toString().getBytes(
+                                StandardCharsets.UTF_8));
+                            md.update(Files.readAllBytes(file));
+                        }
+                    }
+                } else {
+                    return null;
+                }
+                return toHex(md.digest());
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Only reads the classes that make up the compiled form of a script.
+     */
+    private static final class CodeInputStream extends ObjectInputStream
+    {
+        CodeInputStream(InputStream in)
+            throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException
+        {
+            String name = desc.getName();
+            if (!name.startsWith("org.mozilla.javascript.")
+                && !name.startsWith("java.lang.")
+                && !name.startsWith("["))
+            {
+                throw new InvalidClassException(name, "not part of compiled code");
+            }
+            return Class.forName(name, false, CodeCache.class.getClassLoader());
+        }
+    }
+}
@@ -7,45 +7,106 @@
 package org.mozilla.javascript;
 
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.mozilla.javascript.ScriptableObject.SlotAccess;
 
 /**
- * This class implements the SlotMap interface using a java.util.HashMap. This class has more
- * overhead than EmbeddedSlotMap, especially because it puts each "Slot" inside an intermediate
- * object. However it is much more resistant to large number of hash collisions than
- * EmbeddedSlotMap and therefore we use this implementation when an object gains a large
- * number of properties.
+ * This class implements the SlotMap interface for objects with a large number of properties.
+ * The slots are kept in an array in definition order, and two open-addressed tables of int
+ * positions into that array find them again -- one for named properties and one for indexed
+ * properties. So apart from the Slot itself there is no object per property, and integer keys
+ * are never boxed.
+ *
+ * Unlike EmbeddedSlotMap this class is resistant to large numbers of hash collisions: when an
+ * insertion has to probe too far, the table switches from String.hashCode(), or from the index
+ * itself, to a hash with a random seed that callers cannot predict.
  */
 
 public class HashSlotMap
     implements SlotMap {
 
-    private final LinkedHashMap<Object, ScriptableObject.Slot> map =
-        new LinkedHashMap<Object, ScriptableObject.Slot>();
+    // Table entries: 0 is empty, DELETED is a removed entry, and anything else is a position
+    // in the "slots" array plus one.
+    private static final int DELETED = -1;
+
+    // initial size of the tables and the slot array, must be a power of 2
+    private static final int INITIAL_SLOT_SIZE = 16;
+
+    // A probe sequence longer than this turns on the seeded hash for its table
+    private static final int MAX_PROBES = 32;
+
+    private static final int HASH_SEED = ThreadLocalRandom.current().nextInt() | 1;
+
+    private ScriptableObject.Slot[] slots = new ScriptableObject.Slot[INITIAL_SLOT_SIZE];
+    // Next free position in "slots". Removed slots leave holes below this.
+    private int end;
+    private int count;
+
+    private int[] names = new int[INITIAL_SLOT_SIZE];
+    private int namesUsed;
+    private int nameCount;
+
+    private int[] indexes = new int[INITIAL_SLOT_SIZE];
+    private int indexesUsed;
+    private int indexCount;
+
+    private boolean seededHash;
+    private boolean seededIndexHash;
+
+    private final class Iter
+        implements Iterator<ScriptableObject.Slot>
+    {
+        private int pos;
+
+        Iter() {
+            skipHoles();
+        }
+
+        private void skipHoles() {
+            while (pos < end && slots[pos] == null) {
+                pos++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pos < end;
+        }
+
+        @Override
+        public ScriptableObject.Slot next() {
+            if (pos >= end) {
+                throw new NoSuchElementException();
+            }
+            ScriptableObject.Slot ret = slots[pos++];
+            skipHoles();
+            return ret;
+        }
+    }
 
     @Override
     public int size() {
-        return map.size();
+        return count;
     }
 
     @Override
     public boolean isEmpty() {
-        return map.isEmpty();
+        return count == 0;
     }
 
     @Override
     public ScriptableObject.Slot query(Object key, int index)
     {
-        Object name = key == null ? String.valueOf(index) : key;
-        return map.get(name);
+        final int entry = (key == null ? findIndex(index) : findName(key));
+        return entry < 0 ? null : slotAt(key, entry);
     }
 
     @Override
     public ScriptableObject.Slot get(Object key, int index, ScriptableObject.SlotAccess accessType) {
-        Object name = key == null ? String.valueOf(index) : key;
-        ScriptableObject.Slot slot = map.get(name);
+        final int entry = (key == null ? findIndex(index) : findName(key));
+        ScriptableObject.Slot slot = (entry < 0 ? null : slotAt(key, entry));
         switch (accessType) {
             case QUERY:
                 return slot;
@@ -64,34 +125,25 @@ public class HashSlotMap
                 break;
         }
 
-        return createSlot(key, index, name, accessType);
-    }
-
-    private ScriptableObject.Slot createSlot(Object key, int index,
-        Object name, ScriptableObject.SlotAccess accessType) {
-        ScriptableObject.Slot slot = map.get(name);
         if (slot != null) {
+            // Switching between a data and an accessor property keeps the position
             ScriptableObject.Slot newSlot;
-
-            if (accessType == SlotAccess.MODIFY_GETTER_SETTER
-                    && !(slot instanceof ScriptableObject.GetterSlot)) {
-                newSlot = new ScriptableObject.GetterSlot(name, slot.indexOrHash, slot.getAttributes());
-            } else if (accessType == SlotAccess.CONVERT_ACCESSOR_TO_DATA
-                    && (slot instanceof ScriptableObject.GetterSlot)) {
-                newSlot = new ScriptableObject.Slot(name, slot.indexOrHash, slot.getAttributes());
-            } else if (accessType == SlotAccess.MODIFY_CONST) {
-                return null;
+            if (accessType == SlotAccess.MODIFY_GETTER_SETTER) {
+                newSlot = new ScriptableObject.GetterSlot(slot.name, slot.indexOrHash,
+                    slot.getAttributes());
             } else {
-                return slot;
+                newSlot = new ScriptableObject.Slot(slot.name, slot.indexOrHash,
+                    slot.getAttributes());
             }
             newSlot.value = slot.value;
-            map.put(name, newSlot);
+            slots[(key == null ? indexes[entry] : names[entry]) - 1] = newSlot;
             return newSlot;
         }
 
+        final int indexOrHash = (key != null ? key.hashCode() : index);
         ScriptableObject.Slot newSlot = (accessType == SlotAccess.MODIFY_GETTER_SETTER
-                ? new ScriptableObject.GetterSlot(key, index, 0)
-                : new ScriptableObject.Slot(key, index, 0));
+                ? new ScriptableObject.GetterSlot(key, indexOrHash, 0)
+                : new ScriptableObject.Slot(key, indexOrHash, 0));
         if (accessType == SlotAccess.MODIFY_CONST) {
             newSlot.setAttributes(ScriptableObject.CONST);
         }
@@ -101,29 +153,230 @@ public class HashSlotMap
 
     @Override
     public void addSlot(ScriptableObject.Slot newSlot) {
-        Object name = newSlot.name == null ? String.valueOf(newSlot.indexOrHash) : newSlot.name;
-        map.put(name, newSlot);
+        if (end == slots.length) {
+            if (count < end / 2) {
+                compact();
+            } else {
+                ScriptableObject.Slot[] newSlots = new ScriptableObject.Slot[end * 2];
+                System.arraycopy(slots, 0, newSlots, 0, end);
+                slots = newSlots;
+            }
+        }
+        if (newSlot.name == null) {
+            if (2 * (indexesUsed + 1) > indexes.length) {
+                indexes = new int[tableSize(indexCount + 1)];
+                rebuildTables(false, true);
+            }
+            slots[end++] = newSlot;
+            if (!insertIndex(indexes, newSlot.indexOrHash, end) && !seededIndexHash) {
+                seededIndexHash = true;
+                indexes = new int[indexes.length];
+                rebuildTables(false, true);
+            }
+            indexesUsed++;
+            indexCount++;
+        } else {
+            if (2 * (namesUsed + 1) > names.length) {
+                names = new int[tableSize(nameCount + 1)];
+                rebuildTables(true, false);
+            }
+            slots[end++] = newSlot;
+            if (!insertName(names, newSlot.name, end) && !seededHash) {
+                seededHash = true;
+                names = new int[names.length];
+                rebuildTables(true, false);
+            }
+            namesUsed++;
+            nameCount++;
+        }
+        count++;
     }
 
     @Override
     public void remove(Object key, int index) {
-        Object name = key == null ? String.valueOf(index) : key;
-        ScriptableObject.Slot slot = map.get(name);
-        if (slot != null) {
-            // non-configurable
-            if ((slot.getAttributes() & ScriptableObject.PERMANENT) != 0) {
-                Context cx = Context.getContext();
-                if (cx.isStrictMode()) {
-                    throw ScriptRuntime.typeError1("msg.delete.property.with.configurable.false", key);
-                }
-                return;
+        final int entry = (key == null ? findIndex(index) : findName(key));
+        if (entry < 0) {
+            return;
+        }
+        final int pos = (key == null ? indexes[entry] : names[entry]) - 1;
+        ScriptableObject.Slot slot = slots[pos];
+        // non-configurable
+        if ((slot.getAttributes() & ScriptableObject.PERMANENT) != 0) {
+            Context cx = Context.getContext();
+            if (cx.isStrictMode()) {
+                throw ScriptRuntime.typeError1("msg.delete.property.with.configurable.false", key);
             }
-            map.remove(name);
+            return;
+        }
+        slots[pos] = null;
+        count--;
+        if (key == null) {
+            indexes[entry] = DELETED;
+            indexCount--;
+        } else {
+            names[entry] = DELETED;
+            nameCount--;
         }
     }
 
     @Override
     public Iterator<ScriptableObject.Slot> iterator() {
-        return map.values().iterator();
+        return new Iter();
+    }
+
+    private ScriptableObject.Slot slotAt(Object key, int entry)
+    {
+        return slots[(key == null ? indexes[entry] : names[entry]) - 1];
+    }
+
+    /**
+     * Return the position in the names table of the given key, or -1.
+     */
+    private int findName(Object key)
+    {
+        final int hashCode = key.hashCode();
+        final int mask = names.length - 1;
+        for (int i = nameHash(key, hashCode) & mask; ; i = (i + 1) & mask) {
+            final int e = names[i];
+            if (e == 0) {
+                return -1;
+            }
+            if (e != DELETED) {
+                ScriptableObject.Slot slot = slots[e - 1];
+                if (slot.indexOrHash == hashCode &&
+                    (slot.name == key || key.equals(slot.name))) {
+                    return i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the position in the indexes table of the given index, or -1.
+     */
+    private int findIndex(int index)
+    {
+        final int mask = indexes.length - 1;
+        for (int i = indexHash(index) & mask; ; i = (i + 1) & mask) {
+            final int e = indexes[i];
+            if (e == 0) {
+                return -1;
+            }
+            if (e != DELETED && slots[e - 1].indexOrHash == index) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Add a position to the names table. Return false if it took too many probes.
+     */
+    private boolean insertName(int[] table, Object key, int entry)
+    {
+        final int mask = table.length - 1;
+        int i = nameHash(key, key.hashCode()) & mask;
+        int probes = 0;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+            probes++;
+        }
+        table[i] = entry;
+        return probes <= MAX_PROBES;
+    }
+
+    /**
+     * Add a position to the indexes table. Return false if it took too many probes.
+     */
+    private boolean insertIndex(int[] table, int index, int entry)
+    {
+        final int mask = table.length - 1;
+        int i = indexHash(index) & mask;
+        int probes = 0;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+            probes++;
+        }
+        table[i] = entry;
+        return probes <= MAX_PROBES;
+    }
+
+    /**
+     * Squeeze the holes that removed slots left out of the slot array.
+     */
+    private void compact()
+    {
+        int n = 0;
+        for (int i = 0; i < end; i++) {
+            if (slots[i] != null) {
+                slots[n++] = slots[i];
+            }
+        }
+        for (int i = n; i < end; i++) {
+            slots[i] = null;
+        }
+        end = n;
+        names = new int[tableSize(nameCount)];
+        indexes = new int[tableSize(indexCount)];
+        rebuildTables(true, true);
+    }
+
+    /**
+     * Fill the (new and empty) names and/or indexes tables from the slot array.
+     */
+    private void rebuildTables(boolean rebuildNames, boolean rebuildIndexes)
+    {
+        for (int i = 0; i < end; i++) {
+            ScriptableObject.Slot slot = slots[i];
+            if (slot == null) {
+                continue;
+            }
+            if (slot.name == null) {
+                if (rebuildIndexes) {
+                    insertIndex(indexes, slot.indexOrHash, i + 1);
+                }
+            } else if (rebuildNames) {
+                insertName(names, slot.name, i + 1);
+            }
+        }
+        if (rebuildNames) {
+            namesUsed = nameCount;
+        }
+        if (rebuildIndexes) {
+            indexesUsed = indexCount;
+        }
+    }
+
+    private int nameHash(Object key, int hashCode)
+    {
+        if (seededHash && key instanceof String) {
+            String s = (String)key;
+            int h = HASH_SEED;
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * 0x01000193;
+            }
+            return h ^ (h >>> 15);
+        }
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    private int indexHash(int index)
+    {
+        if (seededIndexHash) {
+            int h = (index ^ HASH_SEED) * 0x85ebca6b;
+            h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+            return h ^ (h >>> 16);
+        }
+        // Consecutive indexes land in consecutive entries, which is ideal for probing
+        return index ^ (index >>> 16);
+    }
+
+    private static int tableSize(int entries)
+    {
+        // Keep the load factor below one half
+        int size = INITIAL_SLOT_SIZE;
+        while (size < entries * 4) {
+            size <<= 1;
+        }
+        return size;
     }
 }
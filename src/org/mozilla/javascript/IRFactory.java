@@ -1990,6 +1990,9 @@ public final class IRFactory extends Parser
             // Calls to these functions require activation objects.
             setRequiresActivation();
             node.putIntProp(Node.SPECIALCALL_PROP, type);
+            if (type == Node.SPECIALCALL_EVAL && insideFunction()) {
+                ((FunctionNode)currentScriptOrFn).setCallsEval();
+            }
         }
         return node;
     }
@@ -138,8 +138,21 @@ abstract class Icode {
        Icode_GENERATOR_RETURN           = -65,
        Icode_YIELD_STAR                 = -66,
 
+    // Access to variables kept in an activation by depth and index
+       Icode_GETACTVAR                  = -67,
+       Icode_BINDACTVAR                 = -68,
+       Icode_SETACTVAR                  = -69,
+       Icode_ACTVAR_AND_THIS            = -70,
+
+    // Superinstructions for common sequences of the above
+       Icode_GETVAR1_GETVAR1            = -71,
+       Icode_GETVAR1_GETPROP            = -72,
+       Icode_SETVAR1_POP                = -73,
+       Icode_CMP_IFEQ                   = -74,
+       Icode_CMP_IFNE                   = -75,
+
        // Last icode
-        MIN_ICODE                       = -66;
+        MIN_ICODE                       = -75;
 
     static String bytecodeName(int bytecode)
     {
@@ -222,6 +235,15 @@ abstract class Icode {
           case Icode_DEBUGGER:         return "DEBUGGER";
           case Icode_GENERATOR_RETURN: return "GENERATOR_RETURN";
           case Icode_YIELD_STAR:       return "YIELD_STAR";
+          case Icode_GETACTVAR:        return "GETACTVAR";
+          case Icode_BINDACTVAR:       return "BINDACTVAR";
+          case Icode_SETACTVAR:        return "SETACTVAR";
+          case Icode_ACTVAR_AND_THIS:  return "ACTVAR_AND_THIS";
+          case Icode_GETVAR1_GETVAR1:  return "GETVAR1_GETVAR1";
+          case Icode_GETVAR1_GETPROP:  return "GETVAR1_GETPROP";
+          case Icode_SETVAR1_POP:      return "SETVAR1_POP";
+          case Icode_CMP_IFEQ:         return "CMP_IFEQ";
+          case Icode_CMP_IFNE:         return "CMP_IFNE";
         }
 
         // icode without name
@@ -202,6 +202,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
                     synchronized (this) {
                         valueArray[valueSlot] = value;
                     }
+                    obj.prototypeCacheChanged();
                 }
                 else {
                     int nameSlot = (id  - 1) * SLOT_SPAN + NAME_SLOT;
@@ -235,6 +236,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
                     valueArray[valueSlot] = NOT_FOUND;
                     attributeArray[id - 1] = EMPTY;
                 }
+                obj.prototypeCacheChanged();
             }
         }
 
@@ -458,6 +460,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
                 if (start == this) {
                     int id = (info & 0xFFFF);
                     setInstanceIdValue(id, value);
+                    prototypeCacheChanged();
                 }
                 else {
                     start.put(name, start, value);
@@ -529,6 +532,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
                 } else {
                     int id = (info & 0xFFFF);
                     setInstanceIdValue(id, NOT_FOUND);
+                    prototypeCacheChanged();
                 }
                 return;
             }
@@ -622,6 +626,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
             int currentAttributes = (info >>> 16);
             if (attributes != currentAttributes) {
                 setInstanceIdAttributes(id, attributes);
+                prototypeCacheChanged();
             }
             return;
         }
@@ -629,6 +634,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
             int id = prototypeValues.findId(name);
             if (id != 0) {
                 prototypeValues.setAttributes(id, attributes);
+                prototypeCacheChanged();
                 return;
             }
         }
@@ -940,6 +946,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
                 Object currentValue = getInstanceIdValue(id);
                 if (!sameValue(value, currentValue)) {
                   setInstanceIdValue(id, value);
+                  prototypeCacheChanged();
                 }
               }
               setAttributes(name, applyDescriptorToAttributeBitset(attr, desc));
@@ -964,6 +971,7 @@ public abstract class IdScriptableObject extends ScriptableObject implements IdF
                   }
                 }
                 prototypeValues.setAttributes(id, applyDescriptorToAttributeBitset(attr, desc));
+                prototypeCacheChanged();
 
                 // Handle the regular slot that was created if this property was previously replaced
                 // with an accessor descriptor.
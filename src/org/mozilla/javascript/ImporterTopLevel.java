@@ -195,6 +195,9 @@ public class ImporterTopLevel extends TopLevel {
             }
             importedPackages.add(pkg);
         }
+        // Names that were not found before may now resolve to a class in the package
+        prototypeCacheChanged();
+        nameCacheChanged();
     }
 
     private void importClass(NativeJavaClass cl)
@@ -6,16 +6,31 @@
 
 package org.mozilla.javascript;
 
+import java.lang.reflect.Constructor;
+
 import org.mozilla.javascript.debug.DebuggableScript;
 
 final class InterpretedFunction extends NativeFunction implements Script
 {
     private static final long serialVersionUID = 541475680333911468L;
 
+    /**
+     * Default number of calls and loop iterations after which a function is
+     * compiled in tiered mode, see {@link Context#setTierUpThreshold(int)}.
+     */
+    static final int DEFAULT_TIER_UP_THRESHOLD = 1000;
+
     InterpreterData idata;
     SecurityController securityController;
     Object securityDomain;
 
+    // The function whose body this one runs, or null if it runs its own
+    private NativeFunction callee;
+
+    // The compiled version of this function once it is hot, in tiered mode.
+    // Volatile so that other threads see it fully constructed.
+    private volatile NativeFunction compiled;
+
     private InterpretedFunction(InterpreterData idata,
                                 Object staticSecurityDomain)
     {
@@ -71,6 +86,20 @@ final class InterpretedFunction extends NativeFunction implements Script
         return f;
     }
 
+    /**
+     * Create function that runs the body of callee, with the scope of callee.
+     */
+    static InterpretedFunction createFunctionBody(Context cx,
+                                                  NativeFunction callee,
+                                                  InterpreterData idata,
+                                                  Object staticSecurityDomain)
+    {
+        InterpretedFunction f = createFunction(cx, callee.getParentScope(),
+                                               idata, staticSecurityDomain);
+        f.callee = callee;
+        return f;
+    }
+
     /**
      * Create function embedded in script or another function.
      */
@@ -84,6 +113,12 @@ final class InterpretedFunction extends NativeFunction implements Script
     }
 
 
+    @Override
+    NativeFunction getCallee()
+    {
+        return callee != null ? callee : this;
+    }
+
     @Override
     public String getFunctionName()
     {
@@ -106,9 +141,76 @@ final class InterpretedFunction extends NativeFunction implements Script
         if (!ScriptRuntime.hasTopCall(cx)) {
             return ScriptRuntime.doTopCall(this, cx, scope, thisObj, args, idata.isStrict);
         }
+        if (tierUp(cx)) {
+            return compiled.call(cx, scope, thisObj, args);
+        }
         return Interpreter.interpret(this, cx, scope, thisObj, args);
     }
 
+    /**
+     * Count a call of this function in tiered mode, and compile it once it is
+     * hot. Returns true if the function must now be invoked through
+     * {@link #call}, which runs the compiled version, rather than being
+     * interpreted.
+     */
+    final boolean tierUp(Context cx)
+    {
+        if (compiled != null) {
+            return true;
+        }
+        // The budget is shared by all threads, so updates may get lost, but
+        // that only delays the compilation a little
+        int budget = idata.tierUpBudget;
+        if (budget > 0) {
+            idata.tierUpBudget = budget - 1;
+            return false;
+        }
+        return budget == 0 && promote(cx);
+    }
+
+    private boolean promote(Context cx)
+    {
+        if (cx.debugger != null) {
+            // Keep interpreting while debugging, but try again later
+            return false;
+        }
+        InterpreterData d = idata;
+        Scriptable scope = getParentScope();
+        Constructor<?> ctor = d.tierUpConstructor;
+        if (ctor != null) {
+            try {
+                compiled = (NativeFunction)ctor.newInstance(scope, cx,
+                                                            Integer.valueOf(0));
+                return true;
+            } catch (ReflectiveOperationException e) {
+                d.tierUpBudget = -1;
+                return false;
+            }
+        }
+
+        InterpreterData top = d;
+        while (top.parentData != null) {
+            top = top.parentData;
+        }
+        String source = top.tierUpSource;
+        Function f = null;
+        if (source != null && securityController == null
+            && d.tierUpSourceEnd <= source.length()
+            && source.startsWith("function", d.tierUpSourceStart))
+        {
+            f = cx.compileFunctionForTierUp(scope,
+                source.substring(d.tierUpSourceStart, d.tierUpSourceEnd),
+                d.itsSourceFile, d.tierUpLineno, d.isStrict, null);
+        }
+        if (!(f instanceof NativeFunction)) {
+            d.tierUpBudget = -1;
+            return false;
+        }
+        compiled = (NativeFunction)f;
+        d.tierUpConstructor = f.getClass().getConstructors()[0];
+        return true;
+    }
+
     @Override
     public Object exec(Context cx, Scriptable scope)
     {
@@ -178,6 +280,18 @@ final class InterpretedFunction extends NativeFunction implements Script
         return idata.argIsConst[index];
     }
 
+    @Override
+    VarIndexes getVarIndexes()
+    {
+        // Shared by all the closures of the function
+        VarIndexes indexes = idata.varIndexes;
+        if (indexes == null) {
+            indexes = new VarIndexes(this);
+            idata.varIndexes = indexes;
+        }
+        return indexes;
+    }
+
     boolean hasFunctionNamed(String name) {
         for (int f = 0; f < idata.getFunctionCount(); f++) {
             InterpreterData functionData = (InterpreterData) idata.getFunction(f);
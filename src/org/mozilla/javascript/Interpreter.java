@@ -388,11 +388,12 @@ public final class Interpreter extends Icode implements Evaluator
     @Override
     public Script createScriptObject(Object bytecode, Object staticSecurityDomain)
     {
-        if(bytecode != itsData)
+        // bytecode may also have been loaded from a CodeCache
+        if(itsData != null && bytecode != itsData)
         {
             Kit.codeBug();
         }
-        return InterpretedFunction.createScript(itsData,
+        return InterpretedFunction.createScript((InterpreterData)bytecode,
                                                 staticSecurityDomain);
     }
 
@@ -413,6 +414,23 @@ public final class Interpreter extends Icode implements Evaluator
                                                   staticSecurityDomain);
     }
 
+    /**
+     * Create a function that runs the body of callee with the scope of callee.
+     * Code in the body sees callee as "arguments.callee" and under the name
+     * of a function expression, so that the result can stand in for a
+     * compiled function that is interpreted instead.
+     */
+    public Function createFunctionBody(Context cx, NativeFunction callee,
+            Object bytecode, Object staticSecurityDomain)
+    {
+        if(bytecode != itsData)
+        {
+            Kit.codeBug();
+        }
+        return InterpretedFunction.createFunctionBody(cx, callee, itsData,
+                                                      staticSecurityDomain);
+    }
+
     private static int getShort(byte[] iCode, int pc) {
         return (iCode[pc] << 8) | (iCode[pc + 1] & 0xFF);
     }
@@ -421,6 +439,19 @@ public final class Interpreter extends Icode implements Evaluator
         return ((iCode[pc] & 0xFF) << 8) | (iCode[pc + 1] & 0xFF);
     }
 
+    /**
+     * Return the activation depth operand at frame.pc. A function that runs with an
+     * activation only because it is being debugged has one more than the compiler
+     * counted.
+     */
+    private static int getActivationDepth(CallFrame frame, byte[] iCode) {
+        int depth = getIndex(iCode, frame.pc);
+        if (frame.useActivation && !frame.idata.itsNeedsActivation) {
+            ++depth;
+        }
+        return depth;
+    }
+
     private static int getInt(byte[] iCode, int pc) {
         return (iCode[pc] << 24) | ((iCode[pc + 1] & 0xFF) << 16)
                | ((iCode[pc + 2] & 0xFF) << 8) | (iCode[pc + 3] & 0xFF);
@@ -509,6 +540,14 @@ public final class Interpreter extends Icode implements Evaluator
                 pc += 2;
                 break;
               }
+              case Icode_CMP_IFEQ :
+              case Icode_CMP_IFNE : {
+                int newPC = pc + getShort(iCode, pc) - 1;
+                out.println(tname + " " + Token.name(iCode[pc + 2]) + " "
+                            + newPC);
+                pc += 3;
+                break;
+              }
               case Icode_VAR_INC_DEC :
               case Icode_NAME_INC_DEC :
               case Icode_PROP_INC_DEC :
@@ -520,6 +559,29 @@ public final class Interpreter extends Icode implements Evaluator
                 break;
               }
 
+              case Token.GETPROP :
+              case Token.GETPROPNOWARN :
+              case Token.SETPROP :
+              case Icode_PROP_AND_THIS :
+              case Token.NAME :
+              case Icode_NAME_AND_THIS : {
+                int cacheIndex = getIndex(iCode, pc);
+                out.println(tname + " " + cacheIndex);
+                pc += 2;
+                break;
+              }
+
+              case Icode_GETACTVAR :
+              case Icode_BINDACTVAR :
+              case Icode_SETACTVAR :
+              case Icode_ACTVAR_AND_THIS : {
+                int depth = getIndex(iCode, pc);
+                int index = getIndex(iCode, pc + 2);
+                out.println(tname + " " + depth + " " + index);
+                pc += 4;
+                break;
+              }
+
               case Icode_CALLSPECIAL : {
                 int callType = iCode[pc] & 0xFF;
                 boolean isNew =  (iCode[pc + 1] != 0);
@@ -651,10 +713,22 @@ public final class Interpreter extends Icode implements Evaluator
               case Icode_GETVAR1:
               case Icode_SETVAR1:
               case Icode_SETCONSTVAR1:
+              case Icode_SETVAR1_POP:
                 indexReg = iCode[pc];
                 out.println(tname+" "+indexReg);
                 ++pc;
                 break;
+              case Icode_GETVAR1_GETVAR1:
+                out.println(tname+" "+iCode[pc]+" "+iCode[pc + 1]);
+                pc += 2;
+                break;
+              case Icode_GETVAR1_GETPROP: {
+                String str = strings[getIndex(iCode, pc + 1)];
+                int cacheIndex = getIndex(iCode, pc + 3);
+                out.println(tname+" "+iCode[pc]+" \""+str+"\" "+cacheIndex);
+                pc += 5;
+                break;
+              }
             }
             if (old_pc + icodeLength != pc) Kit.codeBug();
         }
@@ -702,6 +776,12 @@ public final class Interpreter extends Icode implements Evaluator
                 // target pc offset
                 return 1 + 2;
 
+            case Icode_CMP_IFEQ :
+            case Icode_CMP_IFNE :
+                // target pc offset
+                // comparison token
+                return 1 + 2 + 1;
+
             case Icode_CALLSPECIAL :
                 // call type
                 // is new
@@ -755,12 +835,42 @@ public final class Interpreter extends Icode implements Evaluator
             case Icode_GETVAR1:
             case Icode_SETVAR1:
             case Icode_SETCONSTVAR1:
+            case Icode_SETVAR1_POP:
                 // byte var index
                 return 1 + 1;
 
+            case Icode_GETVAR1_GETVAR1:
+                // two byte var indexes
+                return 1 + 1 + 1;
+
+            case Icode_GETVAR1_GETPROP:
+                // byte var index
+                // ushort string index
+                // inline cache index
+                return 1 + 1 + 2 + 2;
+
             case Icode_LINE :
                 // line number
                 return 1 + 2;
+
+            case Token.GETPROP :
+            case Token.GETPROPNOWARN :
+            case Token.SETPROP :
+            case Icode_PROP_AND_THIS :
+                // inline cache index
+                return 1 + 2;
+
+            case Token.NAME :
+            case Icode_NAME_AND_THIS :
+                // name cache index
+                return 1 + 2;
+
+            case Icode_GETACTVAR :
+            case Icode_BINDACTVAR :
+            case Icode_SETACTVAR :
+            case Icode_ACTVAR_AND_THIS :
+                // activation depth and variable index
+                return 1 + 2 + 2;
         }
         if (!validBytecode(bytecode)) throw Kit.codeBug();
         return 1;
@@ -1050,6 +1160,16 @@ public final class Interpreter extends Icode implements Evaluator
     public static Object restartContinuation(NativeContinuation c, Context cx,
                                              Scriptable scope, Object[] args)
     {
+        if (c.getImplementation() instanceof ContinuationFrame) {
+            // Captured by compiled code, which can only be resumed from the
+            // outside
+            if (ScriptRuntime.hasTopCall(cx)) {
+                throw Context.reportRuntimeError0(
+                    "msg.compiled.continuation.call");
+            }
+            Object arg = args.length == 0 ? Undefined.instance : args[0];
+            return ContinuationFrame.resume(cx, c, scope, arg);
+        }
         if (!ScriptRuntime.hasTopCall(cx)) {
             return ScriptRuntime.doTopCall(c, cx, scope, null, args, cx.isTopLevelStrict);
         }
@@ -1244,7 +1364,9 @@ switch (op) {
     case Token.LE :
     case Token.GT :
     case Token.LT : {
-        stackTop = doCompare(frame, op, stack, sDbl, stackTop);
+        --stackTop;
+        boolean valBln = doCompare(frame, op, stack, sDbl, stackTop);
+        stack[stackTop] = ScriptRuntime.wrapBoolean(valBln);
         continue Loop;
     }
     case Token.IN :
@@ -1280,6 +1402,18 @@ switch (op) {
             continue Loop;
         }
         break jumplessRun;
+    case Icode_CMP_IFEQ :
+    case Icode_CMP_IFNE : {
+        // the comparison token follows the jump offset
+        stackTop -= 2;
+        boolean valBln = doCompare(frame, iCode[frame.pc + 2], stack, sDbl,
+                                   stackTop + 1);
+        if (valBln == (op == Icode_CMP_IFNE)) {
+            frame.pc += 3;
+            continue Loop;
+        }
+        break jumplessRun;
+    }
     case Icode_IFEQ_POP :
         if (!stack_boolean(frame, stackTop--)) {
             frame.pc += 2;
@@ -1445,15 +1579,35 @@ switch (op) {
     case Token.GETPROPNOWARN : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectPropNoWarn(lhs, stringReg,
-                                                            cx, frame.scope);
+        int cacheIndex = getIndex(iCode, frame.pc);
+        if (cacheIndex == PropertyCache.UNCACHED) {
+            stack[stackTop] = ScriptRuntime.getObjectPropNoWarn(lhs, stringReg,
+                                                                cx, frame.scope);
+        } else {
+            stack[stackTop] = frame.idata.getPropertyCache(cacheIndex)
+                .getPropNoWarn(lhs, stringReg, cx, frame.scope);
+        }
+        frame.pc += 2;
         continue Loop;
     }
+    case Icode_GETVAR1_GETPROP :
+        stackTop = doGetVar(frame, stack, sDbl, stackTop, vars, varDbls,
+                            iCode[frame.pc]);
+        stringReg = strings[getIndex(iCode, frame.pc + 1)];
+        frame.pc += 3;
+        // fallthrough
     case Token.GETPROP : {
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
-                                                      cx, frame.scope);
+        int cacheIndex = getIndex(iCode, frame.pc);
+        if (cacheIndex == PropertyCache.UNCACHED) {
+            stack[stackTop] = ScriptRuntime.getObjectProp(lhs, stringReg,
+                                                          cx, frame.scope);
+        } else {
+            stack[stackTop] = frame.idata.getPropertyCache(cacheIndex)
+                .getProp(lhs, stringReg, cx, frame.scope);
+        }
+        frame.pc += 2;
         continue Loop;
     }
     case Token.SETPROP : {
@@ -1462,8 +1616,15 @@ switch (op) {
         --stackTop;
         Object lhs = stack[stackTop];
         if (lhs == DBL_MRK) lhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
-        stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
-                                                      cx, frame.scope);
+        int cacheIndex = getIndex(iCode, frame.pc);
+        if (cacheIndex == PropertyCache.UNCACHED) {
+            stack[stackTop] = ScriptRuntime.setObjectProp(lhs, stringReg, rhs,
+                                                          cx, frame.scope);
+        } else {
+            stack[stackTop] = frame.idata.getPropertyCache(cacheIndex)
+                .setProp(lhs, stringReg, rhs, cx, frame.scope);
+        }
+        frame.pc += 2;
         continue Loop;
     }
     case Icode_PROP_INC_DEC : {
@@ -1522,11 +1683,29 @@ switch (op) {
         indexReg += frame.localShift;
         stack[indexReg] = null;
         continue Loop;
-    case Icode_NAME_AND_THIS :
+    case Icode_NAME_AND_THIS : {
+        // stringReg: name
+        int cacheIndex = getIndex(iCode, frame.pc);
+        ++stackTop;
+        if (cacheIndex == NameCache.UNCACHED) {
+            stack[stackTop] = ScriptRuntime.getNameFunctionAndThis(stringReg,
+                                                                   cx, frame.scope);
+        } else {
+            stack[stackTop] = frame.idata.getNameCache(cacheIndex, stringReg)
+                .getNameFunctionAndThis(cx, frame.scope);
+        }
+        frame.pc += 2;
+        ++stackTop;
+        stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
+        continue Loop;
+    }
+    case Icode_ACTVAR_AND_THIS :
         // stringReg: name
         ++stackTop;
-        stack[stackTop] = ScriptRuntime.getNameFunctionAndThis(stringReg,
-                                                               cx, frame.scope);
+        stack[stackTop] = ScriptRuntime.getActivationVarFunctionAndThis(
+            cx, frame.scope, stringReg, getActivationDepth(frame, iCode),
+            getIndex(iCode, frame.pc + 2));
+        frame.pc += 4;
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1534,8 +1713,15 @@ switch (op) {
         Object obj = stack[stackTop];
         if (obj == DBL_MRK) obj = ScriptRuntime.wrapNumber(sDbl[stackTop]);
         // stringReg: property
-        stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
-                                                               cx, frame.scope);
+        int cacheIndex = getIndex(iCode, frame.pc);
+        if (cacheIndex == PropertyCache.UNCACHED) {
+            stack[stackTop] = ScriptRuntime.getPropFunctionAndThis(obj, stringReg,
+                                                                   cx, frame.scope);
+        } else {
+            stack[stackTop] = frame.idata.getPropertyCache(cacheIndex)
+                .getPropFunctionAndThis(obj, stringReg, cx, frame.scope);
+        }
+        frame.pc += 2;
         ++stackTop;
         stack[stackTop] = ScriptRuntime.lastStoredScriptable(cx);
         continue Loop;
@@ -1592,7 +1778,9 @@ switch (op) {
         }
         if (fun instanceof InterpretedFunction) {
             InterpretedFunction ifun = (InterpretedFunction)fun;
-            if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+            if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                && !ifun.tierUp(cx))
+            {
                 CallFrame callParentFrame = frame;
                 if (op == Icode_TAIL_CALL) {
                     // In principle tail call can re-use the current
@@ -1658,7 +1846,9 @@ switch (op) {
                 Callable applyCallable = ScriptRuntime.getCallable(funThisObj);
                 if (applyCallable instanceof InterpretedFunction) {
                     InterpretedFunction iApplyCallable = (InterpretedFunction)applyCallable;
-                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain) {
+                    if (frame.fnOrScript.securityDomain == iApplyCallable.securityDomain
+                        && !iApplyCallable.tierUp(cx))
+                    {
                         frame = initFrameForApplyOrCall(cx, frame, indexReg,
                                 stack, sDbl, stackTop, op, calleeScope, ifun,
                                 iApplyCallable);
@@ -1677,7 +1867,9 @@ switch (op) {
             // if the method is in fact an InterpretedFunction
             if (noSuchMethodMethod instanceof InterpretedFunction) {
                 InterpretedFunction ifun = (InterpretedFunction) noSuchMethodMethod;
-                if (frame.fnOrScript.securityDomain == ifun.securityDomain) {
+                if (frame.fnOrScript.securityDomain == ifun.securityDomain
+                    && !ifun.tierUp(cx))
+                {
                     frame = initFrameForNoSuchMethod(cx, frame, indexReg, stack, sDbl,
                                              stackTop, op, funThisObj, calleeScope,
                                              noSuchMethodShim, ifun);
@@ -1705,7 +1897,9 @@ switch (op) {
         Object lhs = stack[stackTop];
         if (lhs instanceof InterpretedFunction) {
             InterpretedFunction f = (InterpretedFunction)lhs;
-            if (frame.fnOrScript.securityDomain == f.securityDomain) {
+            if (frame.fnOrScript.securityDomain == f.securityDomain
+                && !f.tierUp(cx))
+            {
                 Scriptable newInstance = f.createObject(cx, frame.scope);
                 CallFrame calleeFrame = initFrame(cx, frame.scope, newInstance, stack, sDbl,
                           stackTop + 1, indexReg, f, frame);
@@ -1765,9 +1959,40 @@ switch (op) {
         stack[stackTop] = DBL_MRK;
         sDbl[stackTop] = frame.idata.itsDoubleTable[indexReg];
         continue Loop;
-    case Token.NAME :
-        stack[++stackTop] = ScriptRuntime.name(cx, frame.scope, stringReg);
+    case Token.NAME : {
+        int cacheIndex = getIndex(iCode, frame.pc);
+        if (cacheIndex == NameCache.UNCACHED) {
+            stack[++stackTop] = ScriptRuntime.name(cx, frame.scope, stringReg);
+        } else {
+            stack[++stackTop] = frame.idata.getNameCache(cacheIndex, stringReg)
+                .name(cx, frame.scope);
+        }
+        frame.pc += 2;
+        continue Loop;
+    }
+    case Icode_GETACTVAR :
+        stack[++stackTop] = ScriptRuntime.getActivationVar(
+            cx, frame.scope, stringReg, getActivationDepth(frame, iCode),
+            getIndex(iCode, frame.pc + 2));
+        frame.pc += 4;
+        continue Loop;
+    case Icode_BINDACTVAR :
+        stack[++stackTop] = ScriptRuntime.bindActivationVar(
+            cx, frame.scope, stringReg, getActivationDepth(frame, iCode),
+            getIndex(iCode, frame.pc + 2));
+        frame.pc += 4;
+        continue Loop;
+    case Icode_SETACTVAR : {
+        Object rhs = stack[stackTop];
+        if (rhs == DBL_MRK) rhs = ScriptRuntime.wrapNumber(sDbl[stackTop]);
+        --stackTop;
+        Scriptable lhs = (Scriptable)stack[stackTop];
+        // the depth was only needed to bind the name
+        stack[stackTop] = ScriptRuntime.setActivationVar(
+            lhs, rhs, cx, frame.scope, stringReg, getIndex(iCode, frame.pc + 2));
+        frame.pc += 4;
         continue Loop;
+    }
     case Icode_NAME_INC_DEC :
         stack[++stackTop] = ScriptRuntime.nameIncrDecr(frame.scope, stringReg,
                                                        cx, iCode[frame.pc]);
@@ -1793,6 +2018,19 @@ switch (op) {
     case Token.GETVAR :
         stackTop = doGetVar(frame, stack, sDbl, stackTop, vars, varDbls, indexReg);
         continue Loop;
+    case Icode_GETVAR1_GETVAR1:
+        stackTop = doGetVar(frame, stack, sDbl, stackTop, vars, varDbls,
+                            iCode[frame.pc]);
+        stackTop = doGetVar(frame, stack, sDbl, stackTop, vars, varDbls,
+                            iCode[frame.pc + 1]);
+        frame.pc += 2;
+        continue Loop;
+    case Icode_SETVAR1_POP:
+        stackTop = doSetVar(frame, stack, sDbl, stackTop, vars, varDbls,
+                            varAttributes, iCode[frame.pc++]);
+        stack[stackTop] = null;
+        stackTop--;
+        continue Loop;
     case Icode_VAR_INC_DEC : {
         stackTop = doVarIncDec(cx, frame, stack, sDbl, stackTop,
                                vars, varDbls, varAttributes, indexReg);
@@ -1815,7 +2053,7 @@ switch (op) {
         stack[++stackTop] = frame.thisObj;
         continue Loop;
     case Token.THISFN :
-        stack[++stackTop] = frame.fnOrScript;
+        stack[++stackTop] = frame.fnOrScript.getCallee();
         continue Loop;
     case Token.FALSE :
         stack[++stackTop] = Boolean.FALSE;
@@ -2119,6 +2357,10 @@ switch (op) {
                         addInstructionCount(cx, frame, 2);
                     }
                     int offset = getShort(iCode, frame.pc);
+                    if (offset < 0 && frame.idata.tierUpBudget > 0) {
+                        // a loop iteration counts towards tiered compilation
+                        --frame.idata.tierUpBudget;
+                    }
                     if (offset != 0) {
                         // -1 accounts for pc pointing to jump opcode + 1
                         frame.pc += offset - 1;
@@ -2323,9 +2565,8 @@ switch (op) {
         return stackTop;
     }
 
-    private static int doCompare(CallFrame frame, int op, Object[] stack,
-                                 double[] sDbl, int stackTop) {
-        --stackTop;
+    private static boolean doCompare(CallFrame frame, int op, Object[] stack,
+                                     double[] sDbl, int stackTop) {
         Object rhs = stack[stackTop + 1];
         Object lhs = stack[stackTop];
         boolean valBln;
@@ -2377,8 +2618,7 @@ switch (op) {
                     throw Kit.codeBug();
             }
         }
-        stack[stackTop] = ScriptRuntime.wrapBoolean(valBln);
-        return stackTop;
+        return valBln;
     }
 
     private static int doBitOp(CallFrame frame, int op, Object[] stack,
@@ -2432,6 +2672,14 @@ switch (op) {
             value = ScriptRuntime.getObjectElem(lhs, id, cx, frame.scope);
         } else {
             double d = sDbl[stackTop + 1];
+            if (lhs.getClass() == NativeArray.class && (int)d == d) {
+                double elem = ((NativeArray)lhs).getUnboxed((int)d);
+                if (!NativeArray.isHole(elem)) {
+                    stack[stackTop] = DOUBLE_MARK;
+                    sDbl[stackTop] = elem;
+                    return stackTop;
+                }
+            }
             value = ScriptRuntime.getObjectIndex(lhs, d, cx, frame.scope);
         }
         stack[stackTop] = value;
@@ -2443,6 +2691,15 @@ switch (op) {
         stackTop -= 2;
         Object rhs = stack[stackTop + 2];
         if (rhs == DOUBLE_MARK) {
+            double d = sDbl[stackTop + 1];
+            Object target = stack[stackTop];
+            if (target.getClass() == NativeArray.class && stack[stackTop + 1] == DOUBLE_MARK &&
+                (int)d == d && ((NativeArray)target).putUnboxed((int)d, sDbl[stackTop + 2]))
+            {
+                stack[stackTop] = DOUBLE_MARK;
+                sDbl[stackTop] = sDbl[stackTop + 2];
+                return stackTop;
+            }
             rhs = ScriptRuntime.wrapNumber(sDbl[stackTop + 2]);
         }
         Object lhs = stack[stackTop];
@@ -7,6 +7,7 @@
 package org.mozilla.javascript;
 
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
 import java.util.Arrays;
 
 import org.mozilla.javascript.debug.DebuggableScript;
@@ -85,8 +86,33 @@ final class InterpreterData implements Serializable, DebuggableScript
 
     UintMap longJumps;
 
+    // Number of property access sites that have an inline cache
+    int itsPropertyCacheCount;
+    // Inline caches, indexed by the operand of the property access instructions
+    transient PropertyCache[] itsPropertyCaches;
+
+    // Number of name lookup sites that have a cache
+    int itsNameCacheCount;
+    // Name caches, indexed by the operand of the name lookup instructions
+    transient NameCache[] itsNameCaches;
+
     int firstLinePC = -1; // PC for the first LINE icode
 
+    // Tiered compilation: calls and loop iterations left until the function
+    // is compiled, or -1 if it stays interpreted
+    int tierUpBudget = -1;
+    // Position of the function in the source and its first line
+    int tierUpSourceStart;
+    int tierUpSourceEnd;
+    int tierUpLineno;
+    // Source of the whole script, only kept in the top-level data
+    String tierUpSource;
+    // Constructor of the compiled class, once there is one
+    transient volatile Constructor<?> tierUpConstructor;
+
+    // Positions of the parameters and variables in activations
+    transient volatile VarIndexes varIndexes;
+
     InterpreterData parentData;
 
     boolean evalScriptFlag; // true if script corresponds to eval() code
@@ -184,4 +210,40 @@ final class InterpreterData implements Serializable, DebuggableScript
         }
         return h;
     }
+
+    /**
+     * Return the inline cache for the given property access site, creating it if needed.
+     */
+    PropertyCache getPropertyCache(int index)
+    {
+        PropertyCache[] caches = itsPropertyCaches;
+        if (caches == null) {
+            caches = new PropertyCache[itsPropertyCacheCount];
+            itsPropertyCaches = caches;
+        }
+        PropertyCache cache = caches[index];
+        if (cache == null) {
+            cache = new PropertyCache();
+            caches[index] = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Return the cache for the given name lookup site, creating it if needed.
+     */
+    NameCache getNameCache(int index, String name)
+    {
+        NameCache[] caches = itsNameCaches;
+        if (caches == null) {
+            caches = new NameCache[itsNameCacheCount];
+            itsNameCaches = caches;
+        }
+        NameCache cache = caches[index];
+        if (cache == null) {
+            cache = new NameCache(name);
+            caches[index] = cache;
+        }
+        return cache;
+    }
 }
@@ -0,0 +1,23 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * Thrown by the compiler from {@link Evaluator#compile} for code that it can
+ * compile only with the interpreter, such as code that captures
+ * continuations where the compiled code cannot save its state. Internal
+ * use only; {@link Context} catches it and interprets the code instead.
+ */
+public final class InterpreterFallbackException extends RuntimeException
+{
+    private static final long serialVersionUID = -6183947262380139175L;
+
+    public InterpreterFallbackException(String message)
+    {
+        super(message);
+    }
+}
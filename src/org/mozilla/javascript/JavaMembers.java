@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  *
@@ -36,6 +37,16 @@ class JavaMembers
     }
 
     JavaMembers(Scriptable scope, Class<?> cl, boolean includeProtected)
+    {
+        this(scope, cl, includeProtected, false);
+    }
+
+    /**
+     * @param shared if true, the reflection of cl is taken from the cache
+     *        that is shared by all scopes, and added to it if needed
+     */
+    JavaMembers(Scriptable scope, Class<?> cl, boolean includeProtected,
+                boolean shared)
     {
         try {
             Context cx = ContextFactory.getGlobal().enterContext();
@@ -49,12 +60,132 @@ class JavaMembers
             this.cl = cl;
             boolean includePrivate = cx.hasFeature(
                     Context.FEATURE_ENHANCED_JAVA_ACCESS);
-            reflect(scope, includeProtected, includePrivate);
+            // With a security manager, reflection is checked against the
+            // caller, so it can't be shared with other callers.
+            if (shared && !SecurityUtilities.hasSecurityManager()) {
+                copy(scope, getShared(cl, includeProtected, includePrivate));
+            } else {
+                reflect(scope, includeProtected, includePrivate);
+            }
         } finally {
             Context.exit();
         }
     }
 
+    /**
+     * Creates the reflection of cl that is shared by all scopes. Its
+     * functions have no scope and its maps are never changed after this.
+     */
+    private JavaMembers(Class<?> cl, boolean includeProtected,
+                        boolean includePrivate)
+    {
+        this.members = new HashMap<String,Object>();
+        this.staticMembers = new HashMap<String,Object>();
+        this.cl = cl;
+        reflect(null, includeProtected, includePrivate);
+    }
+
+    /**
+     * The reflections that are shared by all scopes, per class and per
+     * combination of includeProtected and includePrivate. They are kept
+     * with the class, so they don't keep its class loader alive.
+     */
+    private static final ClassValue<AtomicReferenceArray<JavaMembers>>
+        sharedMembers = new ClassValue<AtomicReferenceArray<JavaMembers>>() {
+            @Override
+            protected AtomicReferenceArray<JavaMembers> computeValue(
+                Class<?> cl)
+            {
+                return new AtomicReferenceArray<JavaMembers>(4);
+            }
+        };
+
+    private static JavaMembers getShared(Class<?> cl, boolean includeProtected,
+                                         boolean includePrivate)
+    {
+        AtomicReferenceArray<JavaMembers> variants = sharedMembers.get(cl);
+        int index = (includeProtected ? 1 : 0) | (includePrivate ? 2 : 0);
+        JavaMembers members = variants.get(index);
+        if (members == null) {
+            // Two threads may both reflect the class, only one result is kept
+            members = new JavaMembers(cl, includeProtected, includePrivate);
+            if (!variants.compareAndSet(index, null, members)) {
+                members = variants.get(index);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Adds the reflection of cl to the cache that is shared by all scopes,
+     * unless it is there already.
+     */
+    static void reflectShared(Class<?> cl)
+    {
+        try {
+            Context cx = ContextFactory.getGlobal().enterContext();
+            boolean includePrivate = cx.hasFeature(
+                    Context.FEATURE_ENHANCED_JAVA_ACCESS);
+            getShared(cl, false, includePrivate);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Fills the maps of this object with the members of shared, with new
+     * functions in the given scope.
+     */
+    private void copy(Scriptable scope, JavaMembers shared)
+    {
+        for (int tableCursor = 0; tableCursor != 2; ++tableCursor) {
+            boolean isStatic = (tableCursor == 0);
+            Map<String,Object> from = isStatic ? shared.staticMembers
+                                               : shared.members;
+            Map<String,Object> ht = isStatic ? staticMembers : members;
+            Map<String,FieldAndMethods> fmht = null;
+            for (Map.Entry<String,Object> entry : from.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof FieldAndMethods) {
+                    FieldAndMethods fam = (FieldAndMethods) value;
+                    fam = new FieldAndMethods(scope, fam.methods, fam.field);
+                    if (fmht == null) {
+                        fmht = new HashMap<String,FieldAndMethods>();
+                    }
+                    fmht.put(entry.getKey(), fam);
+                    value = fam;
+                } else if (value instanceof NativeJavaMethod) {
+                    NativeJavaMethod fun = new NativeJavaMethod(
+                        ((NativeJavaMethod) value).methods);
+                    ScriptRuntime.setFunctionProtoAndParent(fun, scope);
+                    value = fun;
+                }
+                ht.put(entry.getKey(), value);
+            }
+            if (isStatic) {
+                staticFieldAndMethods = fmht;
+            } else {
+                fieldAndMethods = fmht;
+            }
+
+            // Bean properties refer to the functions of their setters
+            for (Map.Entry<String,Object> entry : ht.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof BeanProperty) {
+                    BeanProperty bp = (BeanProperty) value;
+                    if (bp.setters != null) {
+                        NativeJavaMethod setters = (NativeJavaMethod)
+                            ht.get(bp.setters.getFunctionName());
+                        entry.setValue(new BeanProperty(bp.getter, bp.setter,
+                                                        setters));
+                    }
+                }
+            }
+        }
+        ctors = new NativeJavaMethod(shared.ctors.methods,
+                                     shared.ctors.getFunctionName());
+    }
+
     boolean has(String name, boolean isStatic)
     {
         Map<String,Object> ht = isStatic ? staticMembers : members;
@@ -132,8 +263,7 @@ class JavaMembers
             // main setter. Otherwise, let the NativeJavaMethod decide which
             // setter to use:
             if (bp.setters == null || value == null) {
-                Class<?> setType = bp.setter.argTypes[0];
-                Object[] args = { Context.jsToJava(value, setType) };
+                Object[] args = { bp.setter.getArgConverters()[0].convert(value) };
                 try {
                     bp.setter.invoke(javaObject, args);
                 } catch (Exception ex) {
@@ -814,7 +944,7 @@ class JavaMembers
             }
             try {
                 members = new JavaMembers(cache.getAssociatedScope(), cl,
-                        includeProtected);
+                        includeProtected, cache.isCachingEnabled());
                 break;
             } catch (SecurityException e) {
                 // Reflection may fail for objects that are in a restricted
@@ -886,8 +1016,10 @@ class FieldAndMethods extends NativeJavaMethod
     {
         super(methods);
         this.field = field;
-        setParentScope(scope);
-        setPrototype(ScriptableObject.getFunctionPrototype(scope));
+        if (scope != null) {
+            setParentScope(scope);
+            setPrototype(ScriptableObject.getFunctionPrototype(scope));
+        }
     }
 
     @Override
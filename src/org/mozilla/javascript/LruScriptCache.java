@@ -0,0 +1,76 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe {@link ScriptCache} that holds a limited number of scripts
+ * and forgets the least recently used one when it is full.
+ */
+public class LruScriptCache implements ScriptCache
+{
+    private final int maxSize;
+    private final LinkedHashMap<Key,Script> scripts;
+
+    /**
+     * Create a cache for at most maxSize scripts.
+     */
+    public LruScriptCache(int maxSize)
+    {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException(String.valueOf(maxSize));
+        }
+        this.maxSize = maxSize;
+        this.scripts = new LinkedHashMap<Key,Script>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,Script> eldest)
+            {
+                return size() > LruScriptCache.this.maxSize;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Script get(Key key)
+    {
+        return scripts.get(key);
+    }
+
+    @Override
+    public synchronized void put(Key key, Script script)
+    {
+        scripts.put(key, script);
+    }
+
+    /**
+     * Return the number of scripts in the cache.
+     */
+    public synchronized int size()
+    {
+        return scripts.size();
+    }
+
+    /**
+     * Return the largest number of scripts the cache holds.
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Remove all scripts from the cache.
+     */
+    public synchronized void clear()
+    {
+        scripts.clear();
+    }
+}
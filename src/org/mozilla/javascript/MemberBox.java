@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
@@ -20,6 +23,15 @@ import java.lang.reflect.Modifier;
  * Wrapper class for Method and Constructor instances to cache
  * getParameterTypes() results, recover from IllegalAccessException
  * in some cases and provide serialization support.
+ * <p>
+ * Members are called through reflection at first. Once a member has been
+ * called INVOKER_THRESHOLD times, a method handle is created for it and
+ * used for all later calls. Its type only has Object parameters so that it
+ * can be invoked exactly, and it takes the arguments one by one for members
+ * with up to two parameters instead of spreading the argument array, so
+ * that calls of common getters and setters do not go through an array at
+ * all. Members that cannot be looked up as method handles, such as
+ * caller-sensitive methods, keep using reflection.
  *
  * @author Igor Bukanov
  */
@@ -32,6 +44,10 @@ final class MemberBox implements Serializable
     transient Class<?>[] argTypes;
     transient boolean vararg;
 
+    private transient int invokeCount;
+    private transient volatile MethodHandle invoker;
+    private transient volatile TypeConverter[] argConverters;
+
     transient Function asGetterFunction;
     transient Function asSetterFunction;
     transient Object delegateTo;
@@ -105,6 +121,22 @@ final class MemberBox implements Serializable
         return memberObject.getDeclaringClass();
     }
 
+    /**
+     * Returns the converters of the arguments to argTypes.
+     */
+    TypeConverter[] getArgConverters()
+    {
+        TypeConverter[] converters = argConverters;
+        if (converters == null) {
+            converters = new TypeConverter[argTypes.length];
+            for (int i = 0; i != converters.length; ++i) {
+                converters[i] = TypeConverter.forType(argTypes[i]);
+            }
+            argConverters = converters;
+        }
+        return converters;
+    }
+
     String toJavaDeclaration()
     {
         StringBuilder sb = new StringBuilder();
@@ -202,6 +234,10 @@ final class MemberBox implements Serializable
 
     Object invoke(Object target, Object[] args)
     {
+        MethodHandle mh = getInvoker();
+        if (mh != null) {
+            return invokeHandle(mh, target, args);
+        }
         Method method = method();
         try {
             try {
@@ -235,6 +271,10 @@ final class MemberBox implements Serializable
 
     Object newInstance(Object[] args)
     {
+        MethodHandle mh = getInvoker();
+        if (mh != null) {
+            return invokeHandle(mh, null, args);
+        }
         Constructor<?> ctor = ctor();
         try {
             try {
@@ -250,6 +290,77 @@ final class MemberBox implements Serializable
         }
     }
 
+    /**
+     * Returns the method handle of the member, or null while the member
+     * should still be called through reflection. The count of calls is
+     * not synchronized, since creating the handle twice does no harm.
+     */
+    private MethodHandle getInvoker()
+    {
+        MethodHandle mh = invoker;
+        if (mh == null && ++invokeCount == INVOKER_THRESHOLD) {
+            mh = createInvoker();
+            invoker = mh;
+        }
+        return mh;
+    }
+
+    /**
+     * Creates a method handle of type (Object, Object...)Object for a
+     * member with up to two parameters, or (Object, Object[])Object for
+     * other members, whose first argument is the target of a method and is
+     * ignored for static methods and constructors. Returns null if the
+     * member cannot be called through a method handle.
+     */
+    private MethodHandle createInvoker()
+    {
+        MethodHandle mh;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            if (isMethod()) {
+                mh = lookup.unreflect(method());
+            } else {
+                mh = lookup.unreflectConstructor(ctor());
+            }
+        } catch (IllegalAccessException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        // Variable arguments are already collected into an array
+        mh = mh.asFixedArity();
+        if (!isMethod() || isStatic()) {
+            mh = MethodHandles.dropArguments(mh, 0, Object.class);
+        }
+        int arity = argTypes.length;
+        if (arity <= MAX_DIRECT_ARITY) {
+            return mh.asType(MethodType.genericMethodType(arity + 1));
+        }
+        return mh.asSpreader(Object[].class, arity).asType(
+            MethodType.methodType(Object.class, Object.class, Object[].class));
+    }
+
+    private Object invokeHandle(MethodHandle mh, Object target, Object[] args)
+    {
+        try {
+            switch (argTypes.length) {
+              case 0:
+                return (Object)mh.invokeExact(target);
+              case 1:
+                return (Object)mh.invokeExact(target, args[0]);
+              case 2:
+                return (Object)mh.invokeExact(target, args[0], args[1]);
+              default:
+                return (Object)mh.invokeExact(target, args);
+            }
+        } catch (ContinuationPending e) {
+            // Must allow ContinuationPending exceptions to propagate unhindered
+            throw e;
+        } catch (Throwable e) {
+            throw Context.throwAsScriptRuntimeEx(e);
+        }
+    }
+
     private static Method searchAccessibleMethod(Method method, Class<?>[] params)
     {
         int modifiers = method.getModifiers();
@@ -356,6 +467,17 @@ final class MemberBox implements Serializable
         }
     }
 
+    /**
+     * Number of calls through reflection before a member is called through
+     * a method handle.
+     */
+    static final int INVOKER_THRESHOLD = 16;
+
+    /**
+     * Members with more parameters get their arguments from an array.
+     */
+    private static final int MAX_DIRECT_ARITY = 2;
+
     private static final Class<?>[] primitives = {
         Boolean.TYPE,
         Byte.TYPE,
@@ -0,0 +1,201 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.Arrays;
+
+import org.mozilla.javascript.ScriptableObject.Slot;
+
+/**
+ * A cache for one site that looks up a name in the top-level scope, such as a reference
+ * to Math or to a function provided by the host. The site remembers the slot that holds
+ * the binding, either on the top-level scope itself or on one of its prototypes, and
+ * reads its value directly the next time.
+ *
+ * Activations (NativeCall objects) between the current scope and the top-level scope
+ * are still searched on every lookup, since they are new for every call. Any other kind
+ * of scope in the chain, such as a "with" block, disables the cache for that lookup.
+ *
+ * The slot map of every object that an entry depends on, from the top-level scope to the
+ * object that holds the slot, is marked as watched. From then on, adding, removing or
+ * replacing one of its slots, or changing its prototype, increments the name epoch of
+ * that object, and an entry is only used while the epochs of all of its objects are the
+ * same as when it was made. So defining globals in one top-level scope leaves the entries
+ * for other scopes alone. Assigning a new value to an existing binding does not
+ * invalidate anything, because the value is always read from the slot.
+ *
+ * Entries are immutable, so a cache can be shared by all threads that run the same code.
+ */
+final class NameCache
+{
+    /**
+     * Site index used by the code generator when a function has too many name sites.
+     */
+    static final int UNCACHED = 0xFFFF;
+
+    // Most names are found on the top-level scope or close to it
+    private static final int INITIAL_CHAIN_SIZE = 4;
+
+    private static final class Entry
+    {
+        final Slot slot;
+        // The objects from the top-level scope to the holder of the slot, and their
+        // name epochs when the entry was made
+        final ScriptableObject[] chain;
+        final int[] epochs;
+
+        Entry(Slot slot, ScriptableObject[] chain, int[] epochs)
+        {
+            this.slot = slot;
+            this.chain = chain;
+            this.epochs = epochs;
+        }
+
+        boolean isValid()
+        {
+            for (int i = 0; i < chain.length; i++) {
+                if (chain[i].getNameEpoch() != epochs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final String name;
+    private Entry entry;
+
+    NameCache(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Return the value of the name as ScriptRuntime.name would.
+     */
+    Object name(Context cx, Scriptable scope)
+    {
+        if (cx.useDynamicScope) {
+            return ScriptRuntime.name(cx, scope, name);
+        }
+        Scriptable top = scope;
+        for (Scriptable parent = top.getParentScope(); parent != null;
+             parent = top.getParentScope())
+        {
+            if (!(top instanceof NativeCall)) {
+                return ScriptRuntime.name(cx, scope, name);
+            }
+            Object result = top.get(name, top);
+            if (result != Scriptable.NOT_FOUND) {
+                return result;
+            }
+            top = parent;
+        }
+        Slot slot = lookup(top);
+        if (slot != null) {
+            return slot.getValue(top);
+        }
+        Object result = ScriptableObject.getProperty(top, name);
+        if (result == Scriptable.NOT_FOUND) {
+            throw ScriptRuntime.notFoundError(top, name);
+        }
+        return result;
+    }
+
+    /**
+     * Return the function for name as ScriptRuntime.getNameFunctionAndThis would, and store
+     * the this object for it with ScriptRuntime.storeScriptable.
+     */
+    Callable getNameFunctionAndThis(Context cx, Scriptable scope)
+    {
+        if (cx.useDynamicScope) {
+            return ScriptRuntime.getNameFunctionAndThis(name, cx, scope);
+        }
+        Scriptable top = scope;
+        Object result = Scriptable.NOT_FOUND;
+        for (Scriptable parent = top.getParentScope(); parent != null;
+             parent = top.getParentScope())
+        {
+            if (!(top instanceof NativeCall)) {
+                return ScriptRuntime.getNameFunctionAndThis(name, cx, scope);
+            }
+            result = top.get(name, top);
+            if (result != Scriptable.NOT_FOUND) {
+                break;
+            }
+            top = parent;
+        }
+        if (result == Scriptable.NOT_FOUND) {
+            Slot slot = lookup(top);
+            if (slot != null) {
+                result = slot.getValue(top);
+            } else {
+                result = ScriptableObject.getProperty(top, name);
+                if (result == Scriptable.NOT_FOUND) {
+                    throw ScriptRuntime.notFoundError(top, name);
+                }
+            }
+        } else {
+            // Functions found in an activation are called with the top-level scope as
+            // "this" as well
+            top = ScriptableObject.getTopLevelScope(top);
+        }
+        if (!(result instanceof Callable)) {
+            throw ScriptRuntime.notFunctionError(result, name);
+        }
+        ScriptRuntime.storeScriptable(cx, top);
+        return (Callable)result;
+    }
+
+    private Slot lookup(Scriptable top)
+    {
+        Entry e = entry;
+        if (e != null && e.chain[0] == top && e.isValid()) {
+            return e.slot;
+        }
+        return fill(top);
+    }
+
+    private Slot fill(Scriptable top)
+    {
+        ScriptableObject[] chain = new ScriptableObject[INITIAL_CHAIN_SIZE];
+        int[] epochs = new int[INITIAL_CHAIN_SIZE];
+        int depth = 0;
+        Scriptable obj = top;
+        do {
+            if (!PrototypeCache.isPlain(obj)) {
+                return null;
+            }
+            ScriptableObject so = (ScriptableObject)obj;
+            if (depth == chain.length) {
+                chain = Arrays.copyOf(chain, depth * 2);
+                epochs = Arrays.copyOf(epochs, depth * 2);
+            }
+            // Watch it and read its epoch before looking, so that a concurrent change
+            // is not lost
+            chain[depth] = so;
+            epochs[depth] = so.watchForNameCache();
+            depth++;
+            Object value = obj.get(name, top);
+            if (value != Scriptable.NOT_FOUND) {
+                // The value may also come from somewhere other than a slot, such as
+                // the built-in properties of IdScriptableObject or imported packages
+                Slot slot = so.querySlot(name);
+                if (slot == null || slot instanceof ScriptableObject.GetterSlot
+                    || slot.value != value)
+                {
+                    return null;
+                }
+                entry = new Entry(slot, Arrays.copyOf(chain, depth),
+                    Arrays.copyOf(epochs, depth));
+                return slot;
+            }
+            obj = obj.getPrototype();
+        } while (obj != null);
+        return null;
+    }
+}
@@ -65,8 +65,8 @@ public class NativeArray extends IdScriptableObject implements List
             int intLength = (int) lengthArg;
             if (intLength < DEFAULT_INITIAL_CAPACITY)
                 intLength = DEFAULT_INITIAL_CAPACITY;
-            dense = new Object[intLength];
-            Arrays.fill(dense, Scriptable.NOT_FOUND);
+            doubles = new double[intLength];
+            Arrays.fill(doubles, HOLE);
         }
         length = lengthArg;
     }
@@ -394,8 +394,8 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.get(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index];
+        if (0 <= index && index < denseCapacity())
+            return denseGet(index);
         return super.get(index, start);
     }
 
@@ -404,11 +404,64 @@ public class NativeArray extends IdScriptableObject implements List
     {
         if (!denseOnly && isGetterOrSetter(null, index, false))
             return super.has(index, start);
-        if (dense != null && 0 <= index && index < dense.length)
-            return dense[index] != NOT_FOUND;
+        if (0 <= index && index < denseCapacity())
+            return denseGet(index) != NOT_FOUND;
         return super.has(index, start);
     }
 
+    /**
+     * Return the element at the given index as a primitive if this array keeps
+     * it unboxed, so that callers that want a number can skip get() and its box.
+     * Anything else, including a hole, an accessor or an index out of range,
+     * yields HOLE, and the caller has to use get() instead.
+     */
+    double getUnboxed(int index)
+    {
+        if (denseOnly && doubles != null && 0 <= index && index < doubles.length) {
+            return doubles[index];
+        }
+        return HOLE;
+    }
+
+    /**
+     * Store a number at the given index without boxing it, as
+     * ScriptableObject.putProperty(this, index, value) would. Return false if
+     * the array can not take it that way; the caller has to use putProperty()
+     * instead.
+     */
+    boolean putUnboxed(int index, double value)
+    {
+        if (!denseOnly || doubles == null || index < 0 || isSealed() ||
+            (!isExtensible() && length <= index))
+        {
+            return false;
+        }
+        if (index >= doubles.length || isHole(doubles[index])) {
+            // A new element, which an indexed property up the prototype
+            // chain might intercept
+            for (Scriptable p = getPrototype(); p != null; p = p.getPrototype()) {
+                if (p.has(index, p)) {
+                    return false;
+                }
+            }
+            if (index >= doubles.length &&
+                (index >= doubles.length * GROW_FACTOR || !ensureCapacity(index + 1)))
+            {
+                return false;
+            }
+        }
+        doubles[index] = (value != value) ? Double.NaN : value;
+        if (length <= index) {
+            length = (long)index + 1;
+        }
+        return true;
+    }
+
+    static boolean isHole(double d)
+    {
+        return Double.doubleToRawLongBits(d) == HOLE_BITS;
+    }
+
     private static long toArrayIndex(Object id) {
         if (id instanceof String) {
             return toArrayIndex((String)id);
@@ -462,38 +515,128 @@ public class NativeArray extends IdScriptableObject implements List
 
     private boolean ensureCapacity(int capacity)
     {
-        if (capacity > dense.length) {
+        final int oldCapacity = denseCapacity();
+        if (capacity > oldCapacity) {
             if (capacity > MAX_PRE_GROW_SIZE) {
                 denseOnly = false;
                 return false;
             }
-            capacity = Math.max(capacity, (int)(dense.length * GROW_FACTOR));
-            Object[] newDense = new Object[capacity];
-            System.arraycopy(dense, 0, newDense, 0, dense.length);
-            Arrays.fill(newDense, dense.length, newDense.length,
-                        Scriptable.NOT_FOUND);
-            dense = newDense;
+            capacity = Math.max(capacity, (int)(oldCapacity * GROW_FACTOR));
+            if (doubles != null) {
+                double[] newDoubles = new double[capacity];
+                System.arraycopy(doubles, 0, newDoubles, 0, oldCapacity);
+                Arrays.fill(newDoubles, oldCapacity, capacity, HOLE);
+                doubles = newDoubles;
+            } else {
+                Object[] newDense = new Object[capacity];
+                System.arraycopy(dense, 0, newDense, 0, oldCapacity);
+                Arrays.fill(newDense, oldCapacity, capacity,
+                            Scriptable.NOT_FOUND);
+                dense = newDense;
+            }
         }
         return true;
     }
 
+    private boolean hasDense()
+    {
+        return dense != null || doubles != null;
+    }
+
+    private int denseCapacity()
+    {
+        if (doubles != null) {
+            return doubles.length;
+        }
+        return dense != null ? dense.length : 0;
+    }
+
+    /**
+     * Return the element at the given index of the dense storage,
+     * or NOT_FOUND for a hole.
+     */
+    private Object denseGet(int index)
+    {
+        if (doubles != null) {
+            double d = doubles[index];
+            return isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+        }
+        return dense[index];
+    }
+
+    /**
+     * Store the element at the given index of the dense storage. Anything but a
+     * Double (or NOT_FOUND) moves the elements from <code>doubles</code> to
+     * <code>dense</code> for good, so that values keep their exact Java type.
+     */
+    private void denseSet(int index, Object value)
+    {
+        if (doubles != null) {
+            if (value instanceof Double) {
+                double d = ((Double)value).doubleValue();
+                doubles[index] = (d != d) ? Double.NaN : d;
+                return;
+            } else if (value == NOT_FOUND) {
+                doubles[index] = HOLE;
+                return;
+            }
+            boxElements();
+        }
+        dense[index] = value;
+    }
+
+    private void denseCopy(int srcPos, int destPos, int count)
+    {
+        if (doubles != null) {
+            System.arraycopy(doubles, srcPos, doubles, destPos, count);
+        } else {
+            System.arraycopy(dense, srcPos, dense, destPos, count);
+        }
+    }
+
+    private void denseClear(int from, int to)
+    {
+        if (doubles != null) {
+            Arrays.fill(doubles, from, to, HOLE);
+        } else {
+            Arrays.fill(dense, from, to, NOT_FOUND);
+        }
+    }
+
+    /**
+     * Move the elements from <code>doubles</code> to <code>dense</code>.
+     */
+    private void boxElements()
+    {
+        if (doubles != null) {
+            Object[] values = new Object[doubles.length];
+            for (int i = 0; i < values.length; i++) {
+                double d = doubles[i];
+                values[i] = isHole(d) ? NOT_FOUND : ScriptRuntime.wrapNumber(d);
+            }
+            dense = values;
+            doubles = null;
+        }
+    }
+
     @Override
     public void put(int index, Scriptable start, Object value)
     {
-        if (start == this && !isSealed() && dense != null && 0 <= index &&
+        if (start == this && !isSealed() && hasDense() && 0 <= index &&
             (denseOnly || !isGetterOrSetter(null, index, true)))
         {
+            final int capacity = denseCapacity();
             if (!isExtensible() && this.length <= index) {
                 return;
-            } else if (index < dense.length) {
-                dense[index] = value;
+            } else if (index < capacity) {
+                denseSet(index, value);
                 if (this.length <= index)
                     this.length = (long)index + 1;
                 return;
-            } else if (denseOnly && index < dense.length * GROW_FACTOR &&
+            } else if (denseOnly && index < capacity * GROW_FACTOR &&
                        ensureCapacity(index+1))
             {
-                dense[index] = value;
+                denseSet(index, value);
                 this.length = (long)index + 1;
                 return;
             } else {
@@ -513,10 +656,10 @@ public class NativeArray extends IdScriptableObject implements List
     @Override
     public void delete(int index)
     {
-        if (dense != null && 0 <= index && index < dense.length &&
+        if (0 <= index && index < denseCapacity() &&
             !isSealed() && (denseOnly || !isGetterOrSetter(null, index, true)))
         {
-            dense[index] = NOT_FOUND;
+            denseSet(index, NOT_FOUND);
         } else {
             super.delete(index);
         }
@@ -526,8 +669,8 @@ public class NativeArray extends IdScriptableObject implements List
     public Object[] getIds(boolean nonEnumerable, boolean getSymbols)
     {
         Object[] superIds = super.getIds(nonEnumerable, getSymbols);
-        if (dense == null) { return superIds; }
-        int N = dense.length;
+        if (!hasDense()) { return superIds; }
+        int N = denseCapacity();
         long currentLength = length;
         if (N > currentLength) {
             N = (int)currentLength;
@@ -539,7 +682,7 @@ public class NativeArray extends IdScriptableObject implements List
         int presentCount = 0;
         for (int i = 0; i != N; ++i) {
             // Replace existing elements by their indexes
-            if (dense[i] != NOT_FOUND) {
+            if (doubles != null ? !isHole(doubles[i]) : dense[i] != NOT_FOUND) {
                 ids[presentCount] = Integer.valueOf(i);
                 ++presentCount;
             }
@@ -591,8 +734,8 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     public int getAttributes(int index) {
-        if (dense != null && index >= 0 && index < dense.length
-                && dense[index] != NOT_FOUND) {
+        if (index >= 0 && index < denseCapacity()
+                && denseGet(index) != NOT_FOUND) {
             return EMPTY;
         }
         return super.getAttributes(index);
@@ -600,11 +743,13 @@ public class NativeArray extends IdScriptableObject implements List
 
     @Override
     protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
-      if (dense != null) {
+      if (hasDense()) {
         int index = toDenseIndex(id);
-        if (0 <= index && index < dense.length && dense[index] != NOT_FOUND) {
-          Object value = dense[index];
-          return defaultIndexPropertyDescriptor(value);
+        if (0 <= index && index < denseCapacity()) {
+          Object value = denseGet(index);
+          if (value != NOT_FOUND) {
+            return defaultIndexPropertyDescriptor(value);
+          }
         }
       }
       return super.getOwnPropertyDescriptor(cx, id);
@@ -614,7 +759,8 @@ public class NativeArray extends IdScriptableObject implements List
     protected void defineOwnProperty(Context cx, Object id,
                                      ScriptableObject desc,
                                      boolean checkValid) {
-      if (dense != null) {
+      if (hasDense()) {
+        boxElements();
         Object[] values = dense;
         dense = null;
         denseOnly = false;
@@ -798,7 +944,7 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseOnly) {
             if (longVal < length) {
                 // downcast okay because denseOnly
-                Arrays.fill(dense, (int) longVal, dense.length, NOT_FOUND);
+                denseClear((int) longVal, denseCapacity());
                 length = longVal;
                 return;
             } else if (longVal < MAX_PRE_GROW_SIZE &&
@@ -1062,7 +1208,11 @@ public class NativeArray extends IdScriptableObject implements List
                     if (i != 0) {
                         sb.append(separator);
                     }
-                    if (i < na.dense.length) {
+                    if (na.doubles != null) {
+                        if (i < na.doubles.length && !isHole(na.doubles[i])) {
+                            sb.append(ScriptRuntime.numberToString(na.doubles[i], 10));
+                        }
+                    } else if (i < na.dense.length) {
                         Object temp = na.dense[i];
                         if (temp != null && temp != Undefined.instance &&
                             temp != Scriptable.NOT_FOUND)
@@ -1112,6 +1262,14 @@ public class NativeArray extends IdScriptableObject implements List
         if (o instanceof NativeArray) {
             NativeArray na = (NativeArray) o;
             if (na.denseOnly) {
+                if (na.doubles != null) {
+                    for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
+                        double temp = na.doubles[i];
+                        na.doubles[i] = na.doubles[j];
+                        na.doubles[j] = temp;
+                    }
+                    return o;
+                }
                 for (int i=0, j=((int)na.length)-1; i < j; i++,j--) {
                     Object temp = na.dense[i];
                     na.dense[i] = na.dense[j];
@@ -1176,6 +1334,12 @@ public class NativeArray extends IdScriptableObject implements List
             throw Context.reportRuntimeError1(
                 "msg.arraylength.too.big", String.valueOf(llength));
         }
+        if (comparator == DEFAULT_COMPARATOR && o instanceof NativeArray &&
+            ((NativeArray) o).sortNumbers(length))
+        {
+            return o;
+        }
+
         // copy the JS array into a working array, so it can be
         // sorted cheaply.
         final Object[] working = new Object[length];
@@ -1193,6 +1357,35 @@ public class NativeArray extends IdScriptableObject implements List
         return o;
     }
 
+    /**
+     * Sort an array of numbers the way DEFAULT_COMPARATOR would, but convert
+     * each number to a string only once and never box it. Return false if the
+     * first "length" elements are not all numbers stored in <code>doubles</code>,
+     * or if they include -0 or NaN.
+     */
+    private boolean sortNumbers(int length)
+    {
+        if (!denseOnly || doubles == null || length > doubles.length || isSealed()) {
+            return false;
+        }
+        String[] keys = new String[length];
+        for (int i = 0; i < length; i++) {
+            double d = doubles[i];
+            // -0 has the same string as 0, so the number could not be recovered from
+            // its key, and NaN might be a hole
+            if (d != d || (d == 0.0 && 1 / d < 0)) {
+                return false;
+            }
+            keys[i] = ScriptRuntime.numberToString(d, 10);
+        }
+        Sorting.get().hybridSort(keys, STRING_COMPARATOR);
+        // Every other number converts to a string and back to the same number
+        for (int i = 0; i < length; i++) {
+            doubles[i] = ScriptRuntime.toNumber(keys[i]);
+        }
+        return true;
+    }
+
     private static Object js_push(Context cx, Scriptable scope, Scriptable thisObj,
                                   Object[] args)
     {
@@ -1204,7 +1397,7 @@ public class NativeArray extends IdScriptableObject implements List
                 na.ensureCapacity((int) na.length + args.length))
             {
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[(int)na.length++] = args[i];
+                    na.denseSet((int)na.length++, args[i]);
                 }
                 return ScriptRuntime.wrapNumber(na.length);
             }
@@ -1240,8 +1433,8 @@ public class NativeArray extends IdScriptableObject implements List
             NativeArray na = (NativeArray) o;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
-                result = na.dense[(int)na.length];
-                na.dense[(int)na.length] = NOT_FOUND;
+                result = na.denseGet((int)na.length);
+                na.denseSet((int)na.length, NOT_FOUND);
                 return result;
             }
         }
@@ -1273,9 +1466,9 @@ public class NativeArray extends IdScriptableObject implements List
             NativeArray na = (NativeArray) o;
             if (na.denseOnly && na.length > 0) {
                 na.length--;
-                Object result = na.dense[0];
-                System.arraycopy(na.dense, 1, na.dense, 0, (int)na.length);
-                na.dense[(int)na.length] = NOT_FOUND;
+                Object result = na.denseGet(0);
+                na.denseCopy(1, 0, (int)na.length);
+                na.denseSet((int)na.length, NOT_FOUND);
                 return result == NOT_FOUND ? Undefined.instance : result;
             }
         }
@@ -1317,10 +1510,9 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly &&
                 na.ensureCapacity((int)na.length + args.length))
             {
-                System.arraycopy(na.dense, 0, na.dense, args.length,
-                                 (int) na.length);
+                na.denseCopy(0, args.length, (int) na.length);
                 for (int i = 0; i < args.length; i++) {
-                    na.dense[i] = args[i];
+                    na.denseSet(i, args[i]);
                 }
                 na.length += args.length;
                 return ScriptRuntime.wrapNumber(na.length);
@@ -1411,7 +1603,9 @@ public class NativeArray extends IdScriptableObject implements List
                 if (denseMode) {
                     int intLen = (int) (end - begin);
                     Object[] copy = new Object[intLen];
-                    System.arraycopy(na.dense, (int) begin, copy, 0, intLen);
+                    for (int i = 0; i < intLen; i++) {
+                        copy[i] = na.denseGet((int) begin + i);
+                    }
                     result = cx.newArray(scope, copy);
                 } else {
                     Scriptable resultArray = cx.newArray(scope, 0);
@@ -1440,14 +1634,12 @@ public class NativeArray extends IdScriptableObject implements List
         if (denseMode && length + delta < Integer.MAX_VALUE &&
             na.ensureCapacity((int) (length + delta)))
         {
-            System.arraycopy(na.dense, (int) end, na.dense,
-                             (int) (begin + argc), (int) (length - end));
-            if (argc > 0) {
-                System.arraycopy(args, 2, na.dense, (int) begin, argc);
+            na.denseCopy((int) end, (int) (begin + argc), (int) (length - end));
+            for (int i = 0; i < argc; i++) {
+                na.denseSet((int) begin + i, args[i + 2]);
             }
             if (delta < 0) {
-                Arrays.fill(na.dense, (int) (length + delta), (int) length,
-                            NOT_FOUND);
+                na.denseClear((int) (length + delta), (int) length);
             }
             na.length = length + delta;
             return result;
@@ -1523,7 +1715,15 @@ public class NativeArray extends IdScriptableObject implements List
           if (denseArg.denseOnly) {
             // Now we can optimize
             denseResult.ensureCapacity((int) newlen);
-            System.arraycopy(denseArg.dense, 0, denseResult.dense, (int) offset, (int) srclen);
+            if (denseResult.doubles != null && denseArg.doubles != null) {
+              System.arraycopy(denseArg.doubles, 0, denseResult.doubles, (int) offset,
+                  (int) srclen);
+            } else {
+              denseResult.boxElements();
+              for (int i = 0; i < srclen; i++) {
+                denseResult.dense[(int) offset + i] = denseArg.denseGet(i);
+              }
+            }
             return newlen;
           }
           // We could also optimize here if we are copying to a dense target from a non-dense
@@ -1654,7 +1854,7 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i < length; i++) {
-                    Object val = na.dense[i];
+                    Object val = na.denseGet(i);
                     if (val == NOT_FOUND && proto != null) {
                         val = ScriptableObject.getProperty(proto, i);
                     }
@@ -1710,7 +1910,7 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i=(int)start; i >= 0; i--) {
-                    Object val = na.dense[i];
+                    Object val = na.denseGet(i);
                     if (val == NOT_FOUND && proto != null) {
                         val = ScriptableObject.getProperty(proto, i);
                     }
@@ -1759,7 +1959,7 @@ public class NativeArray extends IdScriptableObject implements List
             if (na.denseOnly) {
                 Scriptable proto = na.getPrototype();
                 for (int i = (int) k; i < len; i++) {
-                    Object elementK = na.dense[i];
+                    Object elementK = na.denseGet(i);
                     if (elementK == NOT_FOUND && proto != null) {
                         elementK = ScriptableObject.getProperty(proto, i);
                     }
@@ -1873,7 +2073,7 @@ public class NativeArray extends IdScriptableObject implements List
             NativeArray na = (NativeArray) o;
             if (na.denseOnly) {
                 for (; count > 0; count--) {
-                    na.dense[(int)to] = na.dense[(int)from];
+                    na.denseCopy((int)from, (int)to, 1);
                     from += direction;
                     to += direction;
                 }
@@ -2507,11 +2707,27 @@ public class NativeArray extends IdScriptableObject implements List
      */
     private Object[] dense;
 
+    /**
+     * Fast storage for dense arrays that have only ever held numbers, so that
+     * they need no box per element. Holes are stored as HOLE. At most one of
+     * <code>doubles</code> and <code>dense</code> is not null, and everything
+     * said about <code>dense</code> applies to whichever one it is.
+     */
+    private double[] doubles;
+
     /**
      * True if all numeric properties are stored in <code>dense</code>.
      */
     private boolean denseOnly;
 
+    /**
+     * Marks a missing element in <code>doubles</code>. This is a NaN with a payload
+     * that no arithmetic produces, and NaN values are stored as Double.NaN, so
+     * it can not be confused with a number.
+     */
+    private static final long HOLE_BITS = 0x7ff80000deadbeefL;
+    private static final double HOLE = Double.longBitsToDouble(HOLE_BITS);
+
     /**
      * The maximum size of <code>dense</code> that will be allocated initially.
      */
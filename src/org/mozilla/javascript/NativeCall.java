@@ -38,15 +38,22 @@ public final class NativeCall extends IdScriptableObject
         this.originalArgs = (args == null) ? ScriptRuntime.emptyArgs : args;
         this.isStrict = isStrict;
 
-        // initialize values of arguments
+        // initialize values of arguments and variables
         int paramAndVarCount = function.getParamAndVarCount();
         int paramCount = function.getParamCount();
         if (paramAndVarCount != 0) {
+            vars = new Object[paramAndVarCount];
+            varIndexes = function.getVarIndexes();
             for (int i = 0; i < paramCount; ++i) {
                 String name = function.getParamOrVarName(i);
                 Object val = i < args.length ? args[i]
                                              : Undefined.instance;
-                defineProperty(name, val, PERMANENT);
+                if (name.equals("arguments")) {
+                    vars[i] = NOT_FOUND;
+                    defineProperty(name, val, PERMANENT);
+                } else {
+                    vars[i] = val;
+                }
             }
         }
 
@@ -60,13 +67,15 @@ public final class NativeCall extends IdScriptableObject
         if (paramAndVarCount != 0) {
             for (int i = paramCount; i < paramAndVarCount; ++i) {
                 String name = function.getParamOrVarName(i);
-                if (!super.has(name, this)) {
-                    if (function.getParamOrVarConst(i)) {
-                        defineProperty(name, Undefined.instance, CONST);
-                    } else if (!(function instanceof InterpretedFunction)
-                                || ((InterpretedFunction) function).hasFunctionNamed(name)) {
-                        defineProperty(name, Undefined.instance, PERMANENT);
+                if (function.getParamOrVarConst(i) || name.equals("arguments")) {
+                    vars[i] = NOT_FOUND;
+                    if (!super.has(name, this)) {
+                        defineProperty(name, Undefined.instance,
+                            function.getParamOrVarConst(i) ? CONST : PERMANENT);
                     }
+                } else {
+                    // If the name is also a parameter, varIndex() never returns i
+                    vars[i] = Undefined.instance;
                 }
             }
         }
@@ -78,6 +87,104 @@ public final class NativeCall extends IdScriptableObject
         return "Call";
     }
 
+    // Parameters and variables are the common case, so look them up before
+    // the slots
+
+    @Override
+    public boolean has(String name, Scriptable start)
+    {
+        return varIndex(name) >= 0 || super.has(name, start);
+    }
+
+    @Override
+    public Object get(String name, Scriptable start)
+    {
+        int index = varIndex(name);
+        if (index >= 0) {
+            return vars[index];
+        }
+        return super.get(name, start);
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value)
+    {
+        int index = varIndex(name);
+        if (index >= 0 && start == this && !isSealed()) {
+            vars[index] = value;
+            prototypeCacheChanged();
+            return;
+        }
+        super.put(name, start, value);
+    }
+
+    @Override
+    protected int getMaxInstanceId()
+    {
+        return vars == null ? 0 : vars.length;
+    }
+
+    @Override
+    protected int findInstanceIdInfo(String s)
+    {
+        int index = varIndex(s);
+        return index < 0 ? 0 : instanceIdInfo(PERMANENT, index + 1);
+    }
+
+    @Override
+    protected String getInstanceIdName(int id)
+    {
+        return function.getParamOrVarName(id - 1);
+    }
+
+    @Override
+    protected Object getInstanceIdValue(int id)
+    {
+        return vars[id - 1];
+    }
+
+    @Override
+    protected void setInstanceIdValue(int id, Object value)
+    {
+        vars[id - 1] = value;
+    }
+
+    /**
+     * Return the index of the parameter or variable that holds name in the variable
+     * array, or -1 if there is none. Constants and "arguments" are kept in slots instead.
+     * NodeTransformer uses the same rule as VarIndexes to find the index at compile
+     * time.
+     */
+    private int varIndex(String name)
+    {
+        if (vars == null) {
+            return -1;
+        }
+        return varIndexes.get(name);
+    }
+
+    /**
+     * Return true if the variable array holds name at index, which the compiler
+     * determined with the same rule as varIndex().
+     */
+    final boolean hasVar(int index, String name)
+    {
+        if (vars == null || index >= vars.length) {
+            return false;
+        }
+        return varIndexes.get(name) == index;
+    }
+
+    final Object getVar(int index)
+    {
+        return vars[index];
+    }
+
+    final void setVar(int index, Object value)
+    {
+        vars[index] = value;
+    }
+
     @Override
     protected int findPrototypeId(String s)
     {
@@ -131,6 +238,11 @@ public final class NativeCall extends IdScriptableObject
     Object[] originalArgs;
     boolean isStrict;
     private Arguments arguments;
+    // Values of the parameters and variables, exposed as instance ids
+    private Object[] vars;
+    // Positions of the names in vars, shared with the other activations of
+    // the function
+    private VarIndexes varIndexes;
 
     transient NativeCall parentActivationCall;
 }
@@ -139,5 +139,30 @@ public abstract class NativeFunction extends BaseFunction
         // from earlier Rhino versions. See Bugzilla #396117.
         return false;
     }
+
+    /**
+     * Return the function that the body of this one sees as itself, as
+     * "arguments.callee" and under the name of a function expression.
+     */
+    NativeFunction getCallee()
+    {
+        return this;
+    }
+
+    /**
+     * Return the positions of the parameters and variables of this function in
+     * its activations.
+     */
+    VarIndexes getVarIndexes()
+    {
+        VarIndexes indexes = varIndexes;
+        if (indexes == null) {
+            indexes = new VarIndexes(this);
+            varIndexes = indexes;
+        }
+        return indexes;
+    }
+
+    private transient volatile VarIndexes varIndexes;
 }
 
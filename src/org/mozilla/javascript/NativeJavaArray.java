@@ -81,12 +81,37 @@ public class NativeJavaArray
     public Object get(int index, Scriptable start) {
         if (0 <= index && index < length) {
             Context cx = Context.getContext();
-            Object obj = Array.get(array, index);
+            Object obj = cls.isPrimitive() ? getPrimitive(index)
+                                           : ((Object[]) array)[index];
             return cx.getWrapFactory().wrap(cx, this, obj, cls);
         }
         return Undefined.instance;
     }
 
+    /**
+     * Reads an element of a primitive array without going through
+     * java.lang.reflect.Array.
+     */
+    private Object getPrimitive(int index) {
+        if (cls == Double.TYPE) {
+            return Double.valueOf(((double[]) array)[index]);
+        } else if (cls == Integer.TYPE) {
+            return Integer.valueOf(((int[]) array)[index]);
+        } else if (cls == Long.TYPE) {
+            return Long.valueOf(((long[]) array)[index]);
+        } else if (cls == Byte.TYPE) {
+            return Byte.valueOf(((byte[]) array)[index]);
+        } else if (cls == Boolean.TYPE) {
+            return Boolean.valueOf(((boolean[]) array)[index]);
+        } else if (cls == Character.TYPE) {
+            return Character.valueOf(((char[]) array)[index]);
+        } else if (cls == Float.TYPE) {
+            return Float.valueOf(((float[]) array)[index]);
+        } else {
+            return Short.valueOf(((short[]) array)[index]);
+        }
+    }
+
     @Override
     public Object get(Symbol key, Scriptable start) {
         if (SymbolKey.IS_CONCAT_SPREADABLE.equals(key)) {
@@ -106,7 +131,12 @@ public class NativeJavaArray
     @Override
     public void put(int index, Scriptable start, Object value) {
         if (0 <= index && index < length) {
-            Array.set(array, index, Context.jsToJava(value, cls));
+            Object obj = Context.jsToJava(value, cls);
+            if (cls.isPrimitive()) {
+                Array.set(array, index, obj);
+            } else {
+                ((Object[]) array)[index] = obj;
+            }
         }
         else {
             throw Context.reportRuntimeError2(
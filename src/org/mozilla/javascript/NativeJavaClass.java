@@ -214,12 +214,13 @@ public class NativeJavaClass extends NativeJavaObject implements Function
     static Object constructInternal(Object[] args, MemberBox ctor)
     {
         Class<?>[] argTypes = ctor.argTypes;
+        TypeConverter[] converters = ctor.getArgConverters();
 
         if (ctor.vararg) {
             // marshall the explicit parameter
             Object[] newArgs = new Object[argTypes.length];
             for (int i = 0; i < argTypes.length-1; i++) {
-                newArgs[i] = Context.jsToJava(args[i], argTypes[i]);
+                newArgs[i] = converters[i].convert(args[i]);
             }
 
             Object varArgs;
@@ -232,8 +233,8 @@ public class NativeJavaClass extends NativeJavaObject implements Function
                  args[args.length-1] instanceof NativeJavaArray))
             {
                 // convert the ECMA array into a native array
-                varArgs = Context.jsToJava(args[args.length-1],
-                                           argTypes[argTypes.length - 1]);
+                varArgs = converters[argTypes.length - 1].convert(
+                    args[args.length-1]);
             } else {
                 // marshall the variable parameter
                 Class<?> componentType = argTypes[argTypes.length - 1].
@@ -255,7 +256,7 @@ public class NativeJavaClass extends NativeJavaObject implements Function
             Object[] origArgs = args;
             for (int i = 0; i < args.length; i++) {
                 Object arg = args[i];
-                Object x = Context.jsToJava(arg, argTypes[i]);
+                Object x = converters[i].convert(arg);
                 if (x != arg) {
                     if (args == origArgs) {
                         args = origArgs.clone();
@@ -5,10 +5,30 @@
  * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
 package org.mozilla.javascript;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+/**
+ * A live view of a java.util.List as a JavaScript array. Elements that are
+ * strings, numbers or booleans are JavaScript values, as with
+ * {@link WrapFactory#setJavaPrimitiveWrap(boolean)} set to false. The
+ * methods of the list take precedence, except for forEach, sort, indexOf
+ * and lastIndexOf, which come from Array.prototype because their Java
+ * counterparts don't pass the index, return nothing, or compare with
+ * equals() instead of ===. The methods of Array.prototype work on the
+ * elements of the list without copying them. Setting an element past the
+ * end or setting the length grows the list with nulls, and setting a
+ * smaller length removes elements from its end. Since a list can't be
+ * sparse, writes far past the end throw a RangeError.
+ */
 public class NativeJavaList extends NativeJavaObject {
 
+    // Methods of java.util.List that Array.prototype hides
+    private static final Set<String> ARRAY_METHODS = new HashSet<String>(
+        Arrays.asList("forEach", "sort", "indexOf", "lastIndexOf"));
+
     private List<Object> list;
 
     @SuppressWarnings("unchecked")
@@ -29,6 +49,9 @@ public class NativeJavaList extends NativeJavaObject {
         if (name.equals("length")) {
             return true;
         }
+        if (ARRAY_METHODS.contains(name)) {
+            return false;
+        }
         return super.has(name, start);
     }
 
@@ -53,6 +76,9 @@ public class NativeJavaList extends NativeJavaObject {
         if ("length".equals(name)) {
             return Integer.valueOf(list.size());
         }
+        if (ARRAY_METHODS.contains(name)) {
+            return NOT_FOUND;
+        }
         return super.get(name, start);
     }
 
@@ -61,6 +87,16 @@ public class NativeJavaList extends NativeJavaObject {
         if (isWithValidIndex(index)) {
             Context cx = Context.getContext();
             Object obj = list.get(index);
+            if (obj == null) {
+                return null;
+            }
+            if (obj instanceof String || obj instanceof Boolean
+                || obj instanceof Integer || obj instanceof Short
+                || obj instanceof Long || obj instanceof Float
+                || obj instanceof Double)
+            {
+                return obj;
+            }
             return cx.getWrapFactory().wrap(cx, this, obj, obj.getClass());
         }
         return Undefined.instance;
@@ -74,15 +110,61 @@ public class NativeJavaList extends NativeJavaObject {
         return super.get(key, start);
     }
 
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+        if ("length".equals(name)) {
+            setLength(value);
+            return;
+        }
+        // Don't let NativeJavaObject put it in Array.prototype
+        members.put(this, name, javaObject, value, false);
+    }
+
+    @Override
+    public void put(Symbol key, Scriptable start, Object value) {
+        members.put(this, key.toString(), javaObject, value, false);
+    }
+
     @Override
     public void put(int index, Scriptable start, Object value) {
-        if (isWithValidIndex(index)) {
-            list.set(index, Context.jsToJava(value, Object.class));
+        if (index >= 0) {
+            Object element = Context.jsToJava(value, Object.class);
+            try {
+                if (index < list.size()) {
+                    list.set(index, element);
+                } else {
+                    grow(index);
+                    list.add(element);
+                }
+            } catch (RuntimeException e) {
+                // Such as a list that can't be changed
+                throw Context.throwAsScriptRuntimeEx(e);
+            }
             return;
         }
         super.put(index, start, value);
     }
 
+    @Override
+    public void delete(int index) {
+        // A list can't have holes
+        if (isWithValidIndex(index)) {
+            try {
+                list.set(index, null);
+            } catch (RuntimeException e) {
+                throw Context.throwAsScriptRuntimeEx(e);
+            }
+        }
+    }
+
+    @Override
+    public Scriptable getPrototype() {
+        if (prototype == null) {
+            prototype = ScriptableObject.getArrayPrototype(getParentScope());
+        }
+        return prototype;
+    }
+
     @Override
     public Object[] getIds() {
         List<?> list = (List<?>) javaObject;
@@ -94,6 +176,42 @@ public class NativeJavaList extends NativeJavaObject {
         return result;
     }
 
+    private void setLength(Object value) {
+        double d = ScriptRuntime.toNumber(value);
+        long length = ScriptRuntime.toUint32(d);
+        if (length != d || length > Integer.MAX_VALUE) {
+            String msg = ScriptRuntime.getMessage0("msg.arraylength.bad");
+            throw ScriptRuntime.rangeError(msg);
+        }
+        int size = list.size();
+        try {
+            if (length < size) {
+                list.subList((int) length, size).clear();
+            } else {
+                grow((int) length);
+            }
+        } catch (RuntimeException e) {
+            throw Context.throwAsScriptRuntimeEx(e);
+        }
+    }
+
+    /**
+     * Adds nulls to the end of the list until it has the given size. Unlike
+     * a JavaScript array, a list can't be sparse, so it is not grown by more
+     * than its size or the initial capacity of dense arrays at once.
+     */
+    private void grow(int length) {
+        int size = list.size();
+        if (length - size > Math.max(size, NativeArray.getMaximumInitialCapacity())) {
+            String msg = ScriptRuntime.getMessage1("msg.arraylength.too.big",
+                                                   String.valueOf(length));
+            throw ScriptRuntime.rangeError(msg);
+        }
+        while (size++ < length) {
+            list.add(null);
+        }
+    }
+
     private boolean isWithValidIndex(int index) {
         return index >= 0  && index < list.size();
     }
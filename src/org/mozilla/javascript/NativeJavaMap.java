@@ -47,6 +47,9 @@ public class NativeJavaMap extends NativeJavaObject {
         if (map.containsKey(name)) {
             Context cx = Context.getContext();
             Object obj = map.get(name);
+            if (obj == null) {
+                return null;
+            }
             return cx.getWrapFactory().wrap(cx, this, obj, obj.getClass());
         }
         return super.get(name, start);
@@ -57,6 +60,9 @@ public class NativeJavaMap extends NativeJavaObject {
         if (map.containsKey(Integer.valueOf(index))) {
             Context cx = Context.getContext();
             Object obj = map.get(Integer.valueOf(index));
+            if (obj == null) {
+                return null;
+            }
             return cx.getWrapFactory().wrap(cx, this, obj, obj.getClass());
         }
         return super.get(index, start);
@@ -72,6 +78,16 @@ public class NativeJavaMap extends NativeJavaObject {
         map.put(Integer.valueOf(index), Context.jsToJava(value, Object.class));
     }
 
+    @Override
+    public void delete(String name) {
+        map.remove(name);
+    }
+
+    @Override
+    public void delete(int index) {
+        map.remove(Integer.valueOf(index));
+    }
+
     @Override
     public Object[] getIds() {
         List<Object> ids = new ArrayList<>(map.size());
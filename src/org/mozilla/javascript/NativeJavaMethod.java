@@ -8,8 +8,6 @@ package org.mozilla.javascript;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class reflects Java methods into the JavaScript environment and
@@ -147,12 +145,13 @@ public class NativeJavaMethod extends BaseFunction
 
         MemberBox meth = methods[index];
         Class<?>[] argTypes = meth.argTypes;
+        TypeConverter[] converters = meth.getArgConverters();
 
         if (meth.vararg) {
             // marshall the explicit parameters
             Object[] newArgs = new Object[argTypes.length];
             for (int i = 0; i < argTypes.length-1; i++) {
-                newArgs[i] = Context.jsToJava(args[i], argTypes[i]);
+                newArgs[i] = converters[i].convert(args[i]);
             }
 
             Object varArgs;
@@ -165,8 +164,8 @@ public class NativeJavaMethod extends BaseFunction
                  args[args.length-1] instanceof NativeJavaArray))
             {
                 // convert the ECMA array into a native array
-                varArgs = Context.jsToJava(args[args.length-1],
-                                           argTypes[argTypes.length - 1]);
+                varArgs = converters[argTypes.length - 1].convert(
+                    args[args.length-1]);
             } else {
                 // marshall the variable parameters
                 Class<?> componentType = argTypes[argTypes.length - 1].
@@ -189,7 +188,7 @@ public class NativeJavaMethod extends BaseFunction
             Object[] origArgs = args;
             for (int i = 0; i < args.length; i++) {
                 Object arg = args[i];
-                Object coerced = Context.jsToJava(arg, argTypes[i]);
+                Object coerced = converters[i].convert(arg);
                 if (coerced != arg) {
                     if (origArgs == args) {
                         args = args.clone();
@@ -249,25 +248,53 @@ public class NativeJavaMethod extends BaseFunction
         return wrapped;
     }
 
+    /**
+     * Like findFunction, but remembers the result for the runtime types of
+     * the arguments. Most methods are called with the same types again and
+     * again, so the last result is checked first. Other results are kept in
+     * a table indexed by the hash of the types, which replaces an entry with
+     * the same hash, so that a lookup never scans more than one entry.
+     * Entries are immutable, so threads that race on the table at worst
+     * resolve an overload again.
+     */
     int findCachedFunction(Context cx, Object[] args) {
         if (methods.length > 1) {
-            for (ResolvedOverload ovl : overloadCache) {
-                if (ovl.matches(args)) {
-                    return ovl.index;
-                }
+            ResolvedOverload ovl = lastOverload;
+            if (ovl != null && ovl.matches(args)) {
+                return ovl.index;
             }
-            int index = findFunction(cx, methods, args);
-            // As a sanity measure, don't let the lookup cache grow longer
-            // than twice the number of overloaded methods
-            if (overloadCache.size() < methods.length * 2) {
-                ResolvedOverload ovl = new ResolvedOverload(args, index);
-                overloadCache.addIfAbsent(ovl);
+            ResolvedOverload[] table = overloadTable;
+            if (table == null) {
+                table = new ResolvedOverload[overloadTableSize(methods.length)];
+                overloadTable = table;
             }
-            return index;
+            int hash = ResolvedOverload.hash(args);
+            int i = hash & (table.length - 1);
+            ovl = table[i];
+            if (ovl == null || ovl.hash != hash || !ovl.matches(args)) {
+                int index = findFunction(cx, methods, args);
+                ovl = new ResolvedOverload(args, hash, index);
+                table[i] = ovl;
+            }
+            lastOverload = ovl;
+            return ovl.index;
         }
         return findFunction(cx, methods, args);
     }
 
+    /**
+     * Returns a power of two with room for two argument signatures per
+     * overload, up to MAX_OVERLOAD_TABLE_SIZE.
+     */
+    private static int overloadTableSize(int overloadCount)
+    {
+        int size = 4;
+        while (size < overloadCount * 2 && size < MAX_OVERLOAD_TABLE_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
     /**
      * Find the index of the correct function to call given the set of methods
      * or constructors and the arguments.
@@ -281,6 +308,7 @@ public class NativeJavaMethod extends BaseFunction
         } else if (methodsOrCtors.length == 1) {
             MemberBox member = methodsOrCtors[0];
             Class<?>[] argTypes = member.argTypes;
+            TypeConverter[] converters = member.getArgConverters();
             int alength = argTypes.length;
 
             if (member.vararg) {
@@ -294,7 +322,7 @@ public class NativeJavaMethod extends BaseFunction
                 }
             }
             for (int j = 0; j != alength; ++j) {
-                if (!NativeJavaObject.canConvert(args[j], argTypes[j])) {
+                if (!converters[j].canConvert(args[j])) {
                     if (debug) printDebug("Rejecting (args can't convert) ",
                                           member, args);
                     return -1;
@@ -312,6 +340,7 @@ public class NativeJavaMethod extends BaseFunction
         for (int i = 0; i < methodsOrCtors.length; i++) {
             MemberBox member = methodsOrCtors[i];
             Class<?>[] argTypes = member.argTypes;
+            TypeConverter[] converters = member.getArgConverters();
             int alength = argTypes.length;
             if (member.vararg) {
                 alength--;
@@ -324,7 +353,7 @@ public class NativeJavaMethod extends BaseFunction
                 }
             }
             for (int j = 0; j < alength; j++) {
-                if (!NativeJavaObject.canConvert(args[j], argTypes[j])) {
+                if (!converters[j].canConvert(args[j])) {
                     if (debug) printDebug("Rejecting (args can't convert) ",
                                           member, args);
                     continue search;
@@ -524,6 +553,8 @@ public class NativeJavaMethod extends BaseFunction
     }
 
 
+    private static final int MAX_OVERLOAD_TABLE_SIZE = 64;
+
     private static final boolean debug = false;
 
     private static void printDebug(String msg, MemberBox member,
@@ -548,14 +579,17 @@ public class NativeJavaMethod extends BaseFunction
 
     MemberBox[] methods;
     private String functionName;
-    private transient final CopyOnWriteArrayList<ResolvedOverload> overloadCache = new CopyOnWriteArrayList<>();
+    private transient volatile ResolvedOverload lastOverload;
+    private transient ResolvedOverload[] overloadTable;
 }
 
 class ResolvedOverload {
     final Class<?>[] types;
+    final int hash;
     final int index;
 
-    ResolvedOverload(Object[] args, int index) {
+    ResolvedOverload(Object[] args, int hash, int index) {
+        this.hash = hash;
         this.index = index;
         types = new Class<?>[args.length];
         for (int i = 0, l = args.length; i < l; i++) {
@@ -583,17 +617,19 @@ class ResolvedOverload {
         return true;
     }
 
-    @Override
-    public boolean equals(Object other) {
-        if (!(other instanceof ResolvedOverload)) {
-            return false;
+    /**
+     * Returns the hash of the runtime types of args, as they would be
+     * stored in the types of a ResolvedOverload.
+     */
+    static int hash(Object[] args) {
+        int h = args.length;
+        for (int i = 0, l = args.length; i < l; i++) {
+            Object arg = args[i];
+            if (arg instanceof Wrapper)
+                arg = ((Wrapper)arg).unwrap();
+            h = 31 * h + (arg == null ? 0 : arg.getClass().hashCode());
         }
-        ResolvedOverload ovl = (ResolvedOverload) other;
-        return Arrays.equals(types, ovl.types) && index == ovl.index;
-    }
-
-    @Override
-    public int hashCode() {
-        return Arrays.hashCode(types);
+        // Spread the bits of identity hash codes into the low bits
+        return h ^ (h >>> 16);
     }
 }
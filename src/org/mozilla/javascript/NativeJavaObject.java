@@ -715,7 +715,21 @@ public class NativeJavaObject
         // Callable has no storage for it. Weak references can
         // address it but for now use this restriction.
 
-        Object key = Kit.makeHashKeyFromPair(COERCED_INTERFACE_KEY, type);
+        return createInterfaceAdapter(type, so, interfaceAdapterKey(type));
+    }
+
+    /**
+     * Returns the key under which the adapters of objects to the interface
+     * type are associated with them.
+     */
+    static Object interfaceAdapterKey(Class<?> type)
+    {
+        return Kit.makeHashKeyFromPair(COERCED_INTERFACE_KEY, type);
+    }
+
+    static Object createInterfaceAdapter(Class<?> type, ScriptableObject so,
+                                         Object key)
+    {
         Object old = so.getAssociatedValue(key);
         if (old != null) {
             // Function was already wrapped
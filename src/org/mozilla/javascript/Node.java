@@ -64,7 +64,10 @@ public class Node implements Iterable<Node>
         EXPRESSION_CLOSURE_PROP = 25, // JS 1.8 expression closure pseudo-return
         DESTRUCTURING_SHORTHAND = 26, // JS 1.8 destructuring shorthand
         ARROW_FUNCTION_PROP  = 27,
-        LAST_PROP            = 27;
+        ACTIVATION_VAR_PROP  = 28, // depth and index of a variable in an activation
+        LOOP_INVARIANTS_PROP = 29, // values the optimizer computes before a loop
+        LAZY_SOURCE_PROP     = 30, // source text of a script with lazy functions
+        LAST_PROP            = 30;
 
     // values of ISNUMBER_PROP to specify
     // which of the children are Number types
@@ -432,6 +435,9 @@ public class Node implements Iterable<Node>
                                            return "destructuring_array_length";
                 case DESTRUCTURING_NAMES:  return "destructuring_names";
                 case DESTRUCTURING_PARAMS: return "destructuring_params";
+                case ACTIVATION_VAR_PROP:  return "activation_var";
+                case LOOP_INVARIANTS_PROP: return "loop_invariants";
+                case LAZY_SOURCE_PROP:     return "lazy_source";
 
                 default: Kit.codeBug();
             }
@@ -43,10 +43,12 @@ public class NodeTransformer
           useStrictMode = true;
         }
         transformCompilationUnit(tree, useStrictMode);
+        enclosingTrees.add(tree);
         for (int i = 0; i != tree.getFunctionCount(); ++i) {
             FunctionNode fn = tree.getFunctionNode(i);
             transform(fn, useStrictMode, env);
         }
+        enclosingTrees.remove(enclosingTrees.size() - 1);
     }
 
     private void transformCompilationUnit(ScriptNode tree, boolean inStrictMode)
@@ -364,6 +366,9 @@ public class NodeTransformer
               {
                 // Turn name to var for faster access if possible
                 if (createScopeObjects) {
+                    if (type != Token.SETCONST && type != Token.DELPROP) {
+                        findActivationVar(tree, scope, node);
+                    }
                     break;
                 }
                 Node nameSource;
@@ -401,6 +406,8 @@ public class NodeTransformer
                     } else {
                         throw Kit.codeBug();
                     }
+                } else if (type != Token.SETCONST && type != Token.DELPROP) {
+                    findActivationVar(tree, scope, node);
                 }
                 break;
               }
@@ -530,6 +537,80 @@ public class NodeTransformer
         return result;
     }
 
+    /**
+     * If node reads or assigns a variable of this function or an enclosing
+     * one that lives in an activation, record how many activations up the
+     * scope chain it is and its index among the parameters and variables of
+     * its function, so that code generation can skip the lookup by name.
+     * Functions on the way must not call eval, which could declare the same
+     * name in their activations at run time.
+     */
+    private void findActivationVar(ScriptNode tree, Scope scope, Node node)
+    {
+        Node nameSource = node.getType() == Token.NAME
+                          ? node : node.getFirstChild();
+        String name = nameSource.getString();
+        if (name.equals("arguments")) {
+            return;
+        }
+        // A let block of this function declares the name
+        Scope defining = scope.getDefiningScope(name);
+        if (defining != null && defining != tree) {
+            return;
+        }
+        ScriptNode fn = tree;
+        int depth = 0;
+        int outer = enclosingTrees.size();
+        while (defining != fn) {
+            if (fn.getType() != Token.FUNCTION) {
+                // Not found before the top level
+                return;
+            }
+            FunctionNode f = (FunctionNode)fn;
+            if (f.callsEval()) {
+                return;
+            }
+            if (f.requiresActivation()) {
+                ++depth;
+            }
+            if (outer == 0) {
+                return;
+            }
+            fn = enclosingTrees.get(--outer);
+            if (fn.getSymbol(name) != null) {
+                defining = fn;
+            }
+        }
+        if (fn.getType() != Token.FUNCTION) {
+            return;
+        }
+
+        // Same rule as NativeCall.varIndex
+        String[] names = fn.getParamAndVarNames();
+        int paramCount = fn.getParamCount();
+        int index = -1;
+        for (int i = paramCount - 1; i >= 0; --i) {
+            if (name.equals(names[i])) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            for (int i = paramCount; i < names.length; ++i) {
+                if (name.equals(names[i])) {
+                    if (!fn.getParamAndVarConst()[i]) {
+                        index = i;
+                    }
+                    break;
+                }
+            }
+        }
+        if (index < 0 || index > 0xFFFF || depth > 0xFFFF) {
+            return;
+        }
+        node.putIntProp(Node.ACTIVATION_VAR_PROP, (depth << 16) | index);
+    }
+
     private static Node addBeforeCurrent(Node parent, Node previous,
                                          Node current, Node toAdd)
     {
@@ -562,4 +643,6 @@ public class NodeTransformer
     private ObjArray loops;
     private ObjArray loopEnds;
     private boolean hasFinally;
+    // Scripts and functions that enclose the one being transformed
+    private final List<ScriptNode> enclosingTrees = new ArrayList<ScriptNode>();
 }
@@ -0,0 +1,241 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * An inline cache for one property access site in interpreted code. It remembers the
+ * shapes of the objects seen at the site and where the property was found, so that the
+ * next access on an object of the same shape can go straight to the slot instead of
+ * hashing the name and walking the prototype chain.
+ *
+ * A cache starts out empty, becomes monomorphic after the first hit and polymorphic
+ * after more, and turns megamorphic (and stops caching) once it has seen more than
+ * MAX_ENTRIES different layouts. Only plain data properties of objects whose class is exactly
+ * NativeObject and that use a ShapedSlotMap are cached -- anything else goes through
+ * ScriptRuntime as before. Since objects only use shapes with
+ * {@link Context#FEATURE_OBJECT_SHAPES}, the code generator only gives access sites a cache
+ * when that feature is on (see {@link CompilerEnvirons#isUsePropertyCaches()}).
+ *
+ * Caches are shared by all threads that run the same InterpreterData. Entries are
+ * immutable and the entry array is replaced as a whole, so a racing thread sees either
+ * the old or the new state and at worst misses.
+ */
+final class PropertyCache
+{
+    /**
+     * Site index used by the code generator when a function has too many access sites.
+     */
+    static final int UNCACHED = 0xFFFF;
+
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static final class Entry
+    {
+        // Shape of the object the access started on
+        final ShapedSlotMap.Shape shape;
+        // The prototype that holds the property, or null if it is an own property
+        final ScriptableObject holder;
+        // Shape of the holder when the entry was made
+        final ShapedSlotMap.Shape holderShape;
+        // Position of the slot in the shape of the object that holds it
+        final int position;
+
+        Entry(ShapedSlotMap.Shape shape, ScriptableObject holder,
+              ShapedSlotMap.Shape holderShape, int position)
+        {
+            this.shape = shape;
+            this.holder = holder;
+            this.holderShape = holderShape;
+            this.position = position;
+        }
+    }
+
+    private Entry[] entries = EMPTY;
+    private boolean megamorphic;
+
+    /**
+     * Return the value of obj[name] as ScriptRuntime.getObjectProp would.
+     */
+    Object getProp(Object obj, String name, Context cx, Scriptable scope)
+    {
+        if (!megamorphic && isCacheable(obj)) {
+            Object value = lookup((NativeObject)obj, name);
+            if (value != Scriptable.NOT_FOUND) {
+                return value;
+            }
+        }
+        return ScriptRuntime.getObjectProp(obj, name, cx, scope);
+    }
+
+    /**
+     * Return the value of obj[name] as ScriptRuntime.getObjectPropNoWarn would.
+     */
+    Object getPropNoWarn(Object obj, String name, Context cx, Scriptable scope)
+    {
+        if (!megamorphic && isCacheable(obj)) {
+            Object value = lookup((NativeObject)obj, name);
+            if (value != Scriptable.NOT_FOUND) {
+                return value;
+            }
+        }
+        return ScriptRuntime.getObjectPropNoWarn(obj, name, cx, scope);
+    }
+
+    /**
+     * Look up the function for obj.name(...) as ScriptRuntime.getPropFunctionAndThis would.
+     */
+    Callable getPropFunctionAndThis(Object obj, String name, Context cx, Scriptable scope)
+    {
+        if (!megamorphic && isCacheable(obj)) {
+            Object value = lookup((NativeObject)obj, name);
+            if (value instanceof Callable) {
+                ScriptRuntime.storeScriptable(cx, (Scriptable)obj);
+                return (Callable)value;
+            }
+        }
+        return ScriptRuntime.getPropFunctionAndThis(obj, name, cx, scope);
+    }
+
+    /**
+     * Set obj[name] as ScriptRuntime.setObjectProp would. Only existing writable own
+     * properties are set through the cache.
+     */
+    Object setProp(Object obj, String name, Object value, Context cx, Scriptable scope)
+    {
+        if (!megamorphic && isCacheable(obj)) {
+            NativeObject nobj = (NativeObject)obj;
+            if (!nobj.isSealed()) {
+                ShapedSlotMap map = nobj.getShapedSlotMap();
+                if (map != null) {
+                    ScriptableObject.Slot slot = findOwnSlot(map, name);
+                    if (slot != null && (slot.getAttributes() & ScriptableObject.READONLY) == 0) {
+                        slot.value = value;
+                        nobj.prototypeCacheChanged();
+                        return value;
+                    }
+                }
+            }
+        }
+        return ScriptRuntime.setObjectProp(obj, name, value, cx, scope);
+    }
+
+    /**
+     * Only plain objects are cached, because their get and put methods look at the slot
+     * map before anything else. Object.prototype keeps its builtins outside the slot map,
+     * so it is left out too.
+     */
+    static boolean isCacheable(Object obj)
+    {
+        return obj != null && obj.getClass() == NativeObject.class
+            && !((NativeObject)obj).hasPrototypeMap();
+    }
+
+    private Object lookup(NativeObject obj, String name)
+    {
+        ShapedSlotMap map = obj.getShapedSlotMap();
+        if (map == null) {
+            return Scriptable.NOT_FOUND;
+        }
+        ShapedSlotMap.Shape shape = map.getShape();
+        for (Entry e : entries) {
+            if (e == null || e.shape != shape) {
+                continue;
+            }
+            ScriptableObject.Slot slot;
+            if (e.holder == null) {
+                slot = map.getSlotAt(e.position);
+            } else {
+                if (obj.getPrototype() != e.holder) {
+                    continue;
+                }
+                ShapedSlotMap holderMap = e.holder.getShapedSlotMap();
+                if (holderMap == null || holderMap.getShape() != e.holderShape) {
+                    continue;
+                }
+                slot = holderMap.getSlotAt(e.position);
+            }
+            if (!(slot instanceof ScriptableObject.GetterSlot)) {
+                return slot.value;
+            }
+        }
+        return fill(obj, map, shape, name);
+    }
+
+    /**
+     * Called on a miss. Find the property on the object or its immediate prototype and add
+     * an entry for it, returning its value, or return NOT_FOUND to use the slow path.
+     */
+    private Object fill(NativeObject obj, ShapedSlotMap map, ShapedSlotMap.Shape shape,
+                       String name)
+    {
+        int position = shape.find(name, 0);
+        ScriptableObject holder = null;
+        ShapedSlotMap.Shape holderShape = null;
+        ScriptableObject.Slot slot;
+        if (position >= 0) {
+            slot = map.getSlotAt(position);
+        } else {
+            Scriptable proto = obj.getPrototype();
+            if (!(proto instanceof ScriptableObject)) {
+                return Scriptable.NOT_FOUND;
+            }
+            holder = (ScriptableObject)proto;
+            ShapedSlotMap holderMap = holder.getShapedSlotMap();
+            if (holderMap == null || holder.getClass() != NativeObject.class) {
+                return Scriptable.NOT_FOUND;
+            }
+            holderShape = holderMap.getShape();
+            position = holderShape.find(name, 0);
+            if (position < 0) {
+                return Scriptable.NOT_FOUND;
+            }
+            slot = holderMap.getSlotAt(position);
+        }
+        if (slot instanceof ScriptableObject.GetterSlot) {
+            return Scriptable.NOT_FOUND;
+        }
+        addEntry(new Entry(shape, holder, holderShape, position));
+        return slot.value;
+    }
+
+    private ScriptableObject.Slot findOwnSlot(ShapedSlotMap map, String name)
+    {
+        ShapedSlotMap.Shape shape = map.getShape();
+        for (Entry e : entries) {
+            if (e != null && e.shape == shape && e.holder == null) {
+                ScriptableObject.Slot slot = map.getSlotAt(e.position);
+                return (slot instanceof ScriptableObject.GetterSlot) ? null : slot;
+            }
+        }
+        int position = shape.find(name, 0);
+        if (position < 0) {
+            return null;
+        }
+        ScriptableObject.Slot slot = map.getSlotAt(position);
+        if (slot instanceof ScriptableObject.GetterSlot) {
+            return null;
+        }
+        addEntry(new Entry(shape, null, null, position));
+        return slot;
+    }
+
+    private void addEntry(Entry entry)
+    {
+        Entry[] old = entries;
+        if (old.length == MAX_ENTRIES) {
+            megamorphic = true;
+            entries = EMPTY;
+            return;
+        }
+        Entry[] newEntries = new Entry[old.length + 1];
+        System.arraycopy(old, 0, newEntries, 0, old.length);
+        newEntries[old.length] = entry;
+        entries = newEntries;
+    }
+}
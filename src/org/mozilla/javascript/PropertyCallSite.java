@@ -0,0 +1,355 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * An invokedynamic call site for one named property access in compiled code. This is
+ * the compiled-code counterpart of PropertyCache: the site starts out calling a "miss"
+ * handler, and each miss on a plain object that uses a ShapedSlotMap adds a guard on the
+ * shape of that object in front of the current target, so that later accesses on objects
+ * of the same shape go straight to the slot. Since the guards are method handles the JIT
+ * can inline them into the calling script.
+ *
+ * After MAX_ENTRIES shapes the site gives up and calls ScriptRuntime directly. The fast
+ * paths check the slot again before using it, because a data property can become an
+ * accessor without a change of shape.
+ *
+ * Lookups of names in the top-level scope use the same bootstrap method. Their sites
+ * never change target and call a NameCache of their own instead.
+ *
+ * This class is public only so that generated classes can use its bootstrap method.
+ */
+public final class PropertyCallSite extends MutableCallSite
+{
+    /** Operation for ScriptRuntime.getObjectProp */
+    public static final String GET_PROP = "getProp";
+    /** Operation for ScriptRuntime.getObjectPropNoWarn */
+    public static final String GET_PROP_NO_WARN = "getPropNoWarn";
+    /** Operation for ScriptRuntime.getPropFunctionAndThis */
+    public static final String GET_PROP_FUNCTION_AND_THIS = "getPropFunctionAndThis";
+    /** Operation for ScriptRuntime.setObjectProp */
+    public static final String SET_PROP = "setProp";
+    /** Operation for ScriptRuntime.name */
+    public static final String NAME = "name";
+    /** Operation for ScriptRuntime.getNameFunctionAndThis */
+    public static final String NAME_FUNCTION_AND_THIS = "getNameFunctionAndThis";
+
+    /** Descriptor of the bootstrap method */
+    public static final String BOOTSTRAP_SIGNATURE =
+        "(Ljava/lang/invoke/MethodHandles$Lookup;"
+            +"Ljava/lang/String;"
+            +"Ljava/lang/invoke/MethodType;"
+            +"Ljava/lang/String;"
+            +")Ljava/lang/invoke/CallSite;";
+
+    static final int MAX_ENTRIES = PropertyCache.MAX_ENTRIES;
+
+    private static final MethodHandle GET_MISS;
+    private static final MethodHandle GET_SLOW;
+    private static final MethodHandle GET_OWN;
+    private static final MethodHandle GET_INHERITED;
+    private static final MethodHandle CALL_MISS;
+    private static final MethodHandle CALL_SLOW;
+    private static final MethodHandle CALL_OWN;
+    private static final MethodHandle CALL_INHERITED;
+    private static final MethodHandle SET_MISS;
+    private static final MethodHandle SET_SLOW;
+    private static final MethodHandle SET_OWN;
+    private static final MethodHandle CHECK_OWN;
+    private static final MethodHandle CHECK_INHERITED;
+    private static final MethodHandle NAME_GET;
+    private static final MethodHandle NAME_CALL;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType get = MethodType.methodType(Object.class,
+            Object.class, Context.class, Scriptable.class);
+        MethodType call = MethodType.methodType(Callable.class,
+            Object.class, Context.class, Scriptable.class);
+        MethodType set = MethodType.methodType(Object.class,
+            Object.class, Object.class, Context.class, Scriptable.class);
+        try {
+            GET_MISS = lookup.findVirtual(PropertyCallSite.class, "getMiss", get);
+            GET_SLOW = lookup.findVirtual(PropertyCallSite.class, "getSlow", get);
+            GET_OWN = lookup.findStatic(PropertyCallSite.class, "getOwn",
+                get.insertParameterTypes(0, PropertyCallSite.class, int.class));
+            GET_INHERITED = lookup.findStatic(PropertyCallSite.class, "getInherited",
+                get.insertParameterTypes(0, PropertyCallSite.class,
+                    ScriptableObject.class, int.class));
+            CALL_MISS = lookup.findVirtual(PropertyCallSite.class, "callMiss", call);
+            CALL_SLOW = lookup.findVirtual(PropertyCallSite.class, "callSlow", call);
+            CALL_OWN = lookup.findStatic(PropertyCallSite.class, "callOwn",
+                call.insertParameterTypes(0, PropertyCallSite.class, int.class));
+            CALL_INHERITED = lookup.findStatic(PropertyCallSite.class, "callInherited",
+                call.insertParameterTypes(0, PropertyCallSite.class,
+                    ScriptableObject.class, int.class));
+            SET_MISS = lookup.findVirtual(PropertyCallSite.class, "setMiss", set);
+            SET_SLOW = lookup.findVirtual(PropertyCallSite.class, "setSlow", set);
+            SET_OWN = lookup.findStatic(PropertyCallSite.class, "setOwn",
+                set.insertParameterTypes(0, PropertyCallSite.class, int.class));
+            CHECK_OWN = lookup.findStatic(PropertyCallSite.class, "checkOwn",
+                MethodType.methodType(boolean.class,
+                    ShapedSlotMap.Shape.class, Object.class));
+            CHECK_INHERITED = lookup.findStatic(PropertyCallSite.class, "checkInherited",
+                MethodType.methodType(boolean.class,
+                    ShapedSlotMap.Shape.class, ScriptableObject.class,
+                    ShapedSlotMap.Shape.class, Object.class));
+            NAME_GET = lookup.findVirtual(NameCache.class, "name",
+                MethodType.methodType(Object.class, Context.class, Scriptable.class));
+            NAME_CALL = lookup.findVirtual(NameCache.class, "getNameFunctionAndThis",
+                MethodType.methodType(Callable.class, Context.class, Scriptable.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final String operation;
+    private final String name;
+    private int entries;
+
+    private PropertyCallSite(MethodType type, String operation, String name)
+    {
+        super(type);
+        this.operation = operation;
+        this.name = name;
+    }
+
+    /**
+     * Bootstrap method for the invokedynamic instructions that the optimizer generates.
+     * The method name is one of the operation constants above and the only static
+     * argument is the name of the property or variable.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String operation,
+                                     MethodType type, String name)
+    {
+        if (NAME.equals(operation)) {
+            return new ConstantCallSite(NAME_GET.bindTo(new NameCache(name)).asType(type));
+        } else if (NAME_FUNCTION_AND_THIS.equals(operation)) {
+            return new ConstantCallSite(NAME_CALL.bindTo(new NameCache(name)).asType(type));
+        }
+        // Use the constants so that the rest of this class can compare by identity
+        MethodHandle miss;
+        if (GET_PROP.equals(operation)) {
+            operation = GET_PROP;
+            miss = GET_MISS;
+        } else if (GET_PROP_NO_WARN.equals(operation)) {
+            operation = GET_PROP_NO_WARN;
+            miss = GET_MISS;
+        } else if (GET_PROP_FUNCTION_AND_THIS.equals(operation)) {
+            operation = GET_PROP_FUNCTION_AND_THIS;
+            miss = CALL_MISS;
+        } else if (SET_PROP.equals(operation)) {
+            operation = SET_PROP;
+            miss = SET_MISS;
+        } else {
+            throw new IllegalArgumentException(operation);
+        }
+        PropertyCallSite site = new PropertyCallSite(type, operation, name);
+        site.setTarget(miss.bindTo(site).asType(type));
+        return site;
+    }
+
+    private Object getMiss(Object obj, Context cx, Scriptable scope)
+    {
+        if (PropertyCache.isCacheable(obj)) {
+            link((NativeObject)obj, false);
+        }
+        return getSlow(obj, cx, scope);
+    }
+
+    private Object getSlow(Object obj, Context cx, Scriptable scope)
+    {
+        if (operation == GET_PROP_NO_WARN) {
+            return ScriptRuntime.getObjectPropNoWarn(obj, name, cx, scope);
+        }
+        return ScriptRuntime.getObjectProp(obj, name, cx, scope);
+    }
+
+    private Callable callMiss(Object obj, Context cx, Scriptable scope)
+    {
+        if (PropertyCache.isCacheable(obj)) {
+            link((NativeObject)obj, false);
+        }
+        return callSlow(obj, cx, scope);
+    }
+
+    private Callable callSlow(Object obj, Context cx, Scriptable scope)
+    {
+        return ScriptRuntime.getPropFunctionAndThis(obj, name, cx, scope);
+    }
+
+    private Object setMiss(Object obj, Object value, Context cx, Scriptable scope)
+    {
+        if (PropertyCache.isCacheable(obj)) {
+            link((NativeObject)obj, true);
+        }
+        return setSlow(obj, value, cx, scope);
+    }
+
+    private Object setSlow(Object obj, Object value, Context cx, Scriptable scope)
+    {
+        return ScriptRuntime.setObjectProp(obj, name, value, cx, scope);
+    }
+
+    /**
+     * Put a guard for the shape of obj in front of the current target, if the property
+     * is a data property of obj or, unless ownOnly is set, of its immediate prototype.
+     */
+    private void link(NativeObject obj, boolean ownOnly)
+    {
+        ShapedSlotMap map = obj.getShapedSlotMap();
+        if (map == null) {
+            return;
+        }
+        ShapedSlotMap.Shape shape = map.getShape();
+        int position = shape.find(name, 0);
+        MethodHandle test;
+        MethodHandle fast;
+        if (position >= 0) {
+            if (map.getSlotAt(position) instanceof ScriptableObject.GetterSlot) {
+                return;
+            }
+            test = MethodHandles.insertArguments(CHECK_OWN, 0, shape);
+            if (operation == SET_PROP) {
+                fast = SET_OWN;
+            } else if (operation == GET_PROP_FUNCTION_AND_THIS) {
+                fast = CALL_OWN;
+            } else {
+                fast = GET_OWN;
+            }
+            fast = MethodHandles.insertArguments(fast, 0, this, position);
+        } else {
+            if (ownOnly) {
+                return;
+            }
+            Scriptable proto = obj.getPrototype();
+            if (proto == null || proto.getClass() != NativeObject.class) {
+                return;
+            }
+            ScriptableObject holder = (ScriptableObject)proto;
+            ShapedSlotMap holderMap = holder.getShapedSlotMap();
+            if (holderMap == null) {
+                return;
+            }
+            ShapedSlotMap.Shape holderShape = holderMap.getShape();
+            position = holderShape.find(name, 0);
+            if (position < 0
+                || holderMap.getSlotAt(position) instanceof ScriptableObject.GetterSlot)
+            {
+                return;
+            }
+            test = MethodHandles.insertArguments(CHECK_INHERITED, 0,
+                shape, holder, holderShape);
+            fast = (operation == GET_PROP_FUNCTION_AND_THIS) ? CALL_INHERITED : GET_INHERITED;
+            fast = MethodHandles.insertArguments(fast, 0, this, holder, position);
+        }
+
+        MethodType type = type();
+        if (++entries > MAX_ENTRIES) {
+            MethodHandle slow;
+            if (operation == SET_PROP) {
+                slow = SET_SLOW;
+            } else if (operation == GET_PROP_FUNCTION_AND_THIS) {
+                slow = CALL_SLOW;
+            } else {
+                slow = GET_SLOW;
+            }
+            setTarget(slow.bindTo(this).asType(type));
+            return;
+        }
+        setTarget(MethodHandles.guardWithTest(test, fast.asType(type), getTarget()));
+    }
+
+    private static boolean checkOwn(ShapedSlotMap.Shape shape, Object obj)
+    {
+        if (!PropertyCache.isCacheable(obj)) {
+            return false;
+        }
+        ShapedSlotMap map = ((NativeObject)obj).getShapedSlotMap();
+        return map != null && map.getShape() == shape;
+    }
+
+    private static boolean checkInherited(ShapedSlotMap.Shape shape,
+                                          ScriptableObject holder,
+                                          ShapedSlotMap.Shape holderShape,
+                                          Object obj)
+    {
+        if (!checkOwn(shape, obj) || ((NativeObject)obj).getPrototype() != holder) {
+            return false;
+        }
+        ShapedSlotMap holderMap = holder.getShapedSlotMap();
+        return holderMap != null && holderMap.getShape() == holderShape;
+    }
+
+    private static Object getOwn(PropertyCallSite site, int position,
+                                 Object obj, Context cx, Scriptable scope)
+    {
+        ScriptableObject.Slot slot =
+            ((NativeObject)obj).getShapedSlotMap().getSlotAt(position);
+        if (slot instanceof ScriptableObject.GetterSlot) {
+            return site.getSlow(obj, cx, scope);
+        }
+        return slot.value;
+    }
+
+    private static Object getInherited(PropertyCallSite site, ScriptableObject holder,
+                                       int position, Object obj, Context cx,
+                                       Scriptable scope)
+    {
+        ScriptableObject.Slot slot = holder.getShapedSlotMap().getSlotAt(position);
+        if (slot instanceof ScriptableObject.GetterSlot) {
+            return site.getSlow(obj, cx, scope);
+        }
+        return slot.value;
+    }
+
+    private static Callable callOwn(PropertyCallSite site, int position,
+                                    Object obj, Context cx, Scriptable scope)
+    {
+        Object value = getOwn(site, position, obj, cx, scope);
+        if (value instanceof Callable) {
+            ScriptRuntime.storeScriptable(cx, (Scriptable)obj);
+            return (Callable)value;
+        }
+        return site.callSlow(obj, cx, scope);
+    }
+
+    private static Callable callInherited(PropertyCallSite site, ScriptableObject holder,
+                                          int position, Object obj, Context cx,
+                                          Scriptable scope)
+    {
+        Object value = getInherited(site, holder, position, obj, cx, scope);
+        if (value instanceof Callable) {
+            ScriptRuntime.storeScriptable(cx, (Scriptable)obj);
+            return (Callable)value;
+        }
+        return site.callSlow(obj, cx, scope);
+    }
+
+    private static Object setOwn(PropertyCallSite site, int position,
+                                 Object obj, Object value, Context cx, Scriptable scope)
+    {
+        NativeObject nobj = (NativeObject)obj;
+        ScriptableObject.Slot slot = nobj.getShapedSlotMap().getSlotAt(position);
+        if (slot instanceof ScriptableObject.GetterSlot
+            || (slot.getAttributes() & ScriptableObject.READONLY) != 0
+            || nobj.isSealed())
+        {
+            return site.setSlow(obj, value, cx, scope);
+        }
+        slot.value = value;
+        nobj.prototypeCacheChanged();
+        return value;
+    }
+}
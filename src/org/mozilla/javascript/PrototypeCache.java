@@ -0,0 +1,157 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.util.Arrays;
+
+/**
+ * A cache for the part of a method lookup that walks the prototype chain, such as finding
+ * "push" on Array.prototype for arr.push(). Entries are keyed by the prototype of the
+ * receiver and the property name. The receiver's own properties are still checked on every
+ * lookup, so only the walk from its prototype onwards is skipped.
+ *
+ * Every object that an entry depends on, from the prototype of the receiver to the holder of
+ * the function, is marked as watched, and from then on any change to its properties or its
+ * prototype increments the prototype epoch of that object. An entry is only used while the
+ * epochs of all of its objects are the same as when it was made, so prototypes can still be
+ * changed at any time -- they just cost the entries that depend on them when they are.
+ *
+ * Only functions found on plain ScriptableObjects are cached, since host objects that
+ * override get() or getPrototype() may answer differently from one call to the next. Each
+ * Context has its own cache, so no locking is needed.
+ */
+final class PrototypeCache
+{
+    // number of entries, must be a power of 2
+    private static final int SIZE = 256;
+
+    // Most functions are found on the prototype of the receiver or close to it
+    private static final int INITIAL_CHAIN_SIZE = 4;
+
+    private static final class Entry
+    {
+        final String name;
+        final Object value;
+        // The objects from the prototype of the receiver to the holder of the value,
+        // and their prototype epochs when the entry was made
+        final ScriptableObject[] chain;
+        final int[] epochs;
+
+        Entry(String name, Object value, ScriptableObject[] chain, int[] epochs)
+        {
+            this.name = name;
+            this.value = value;
+            this.chain = chain;
+            this.epochs = epochs;
+        }
+
+        boolean isValid()
+        {
+            for (int i = 0; i < chain.length; i++) {
+                if (chain[i].getPrototypeEpoch() != epochs[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Whether each class inherits get() and getPrototype() from ScriptableObject
+    private static final ClassValue<Boolean> plainClasses = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> cls)
+        {
+            return Boolean.valueOf(isPlainClass(cls));
+        }
+    };
+
+    private final Entry[] entries = new Entry[SIZE];
+
+    /**
+     * Return the value of the property as ScriptableObject.getProperty(obj, name) would.
+     */
+    Object getProperty(Scriptable obj, String name)
+    {
+        Object result = obj.get(name, obj);
+        if (result != Scriptable.NOT_FOUND) {
+            return result;
+        }
+        Scriptable proto = obj.getPrototype();
+        if (proto == null) {
+            return Scriptable.NOT_FOUND;
+        }
+        final int i = (System.identityHashCode(proto) * 31 + name.hashCode()) & (SIZE - 1);
+        Entry e = entries[i];
+        if (e != null && e.chain[0] == proto &&
+            (e.name == name || e.name.equals(name)) && e.isValid()) {
+            return e.value;
+        }
+
+        ScriptableObject[] chain = null;
+        int[] epochs = null;
+        int length = 0;
+        Scriptable holder = proto;
+        do {
+            if (length != -1 && isPlain(holder)) {
+                if (chain == null) {
+                    chain = new ScriptableObject[INITIAL_CHAIN_SIZE];
+                    epochs = new int[INITIAL_CHAIN_SIZE];
+                } else if (length == chain.length) {
+                    chain = Arrays.copyOf(chain, length * 2);
+                    epochs = Arrays.copyOf(epochs, length * 2);
+                }
+                // Watch it before looking, so that a concurrent change is not lost
+                chain[length] = (ScriptableObject)holder;
+                epochs[length] = chain[length].watchForPrototypeCache();
+                length++;
+            } else {
+                length = -1;
+            }
+            result = holder.get(name, obj);
+            if (result != Scriptable.NOT_FOUND) {
+                break;
+            }
+            holder = holder.getPrototype();
+        } while (holder != null);
+
+        if (length != -1 && result instanceof Callable &&
+            !((ScriptableObject)holder).isGetterOrSetter(name, 0, false)) {
+            if (length != chain.length) {
+                chain = Arrays.copyOf(chain, length);
+                epochs = Arrays.copyOf(epochs, length);
+            }
+            entries[i] = new Entry(name, result, chain, epochs);
+        }
+        return result;
+    }
+
+    /**
+     * Return true if obj is a ScriptableObject whose properties and prototype all come
+     * from its slots and its prototype field. ImporterTopLevel also counts, since it
+     * only looks at imported packages for names that are not found otherwise, and
+     * importing a package increments its prototype epoch.
+     */
+    static boolean isPlain(Scriptable obj)
+    {
+        return obj instanceof ScriptableObject
+            && plainClasses.get(obj.getClass()).booleanValue();
+    }
+
+    private static boolean isPlainClass(Class<?> cls)
+    {
+        try {
+            Class<?> get = cls.getMethod("get", String.class, Scriptable.class)
+                .getDeclaringClass();
+            Class<?> getPrototype = cls.getMethod("getPrototype").getDeclaringClass();
+            return (get == ScriptableObject.class || get == IdScriptableObject.class
+                    || get == ImporterTopLevel.class)
+                && getPrototype == ScriptableObject.class;
+        } catch (NoSuchMethodException | SecurityException e) {
+            return false;
+        }
+    }
+}
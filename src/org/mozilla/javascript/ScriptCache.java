@@ -0,0 +1,131 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * A cache of compiled scripts that {@link Context#compileString} and
+ * {@link Context#compileReader} consult before compiling a script, see
+ * {@link Context#setScriptCache(ScriptCache)}. Since everything that goes
+ * into the compiled form is part of the key, a cached script behaves exactly
+ * like a newly compiled one, and it may be executed by any number of threads
+ * and Contexts at the same time.
+ * <p>
+ * Implementations must be thread safe when the cache is shared by Contexts
+ * running in different threads, which is the usual case.
+ *
+ * @see LruScriptCache
+ */
+public interface ScriptCache
+{
+    /**
+     * Return the script compiled for key, or null if there is none.
+     */
+    Script get(Key key);
+
+    /**
+     * Remember the script that was compiled for key.
+     */
+    void put(Key key, Script script);
+
+    /**
+     * Identifies a compiled script by its source text and name, and every
+     * setting of the Context that changes the compiled form.
+     */
+    public static final class Key
+    {
+        private final String source;
+        private final String sourceName;
+        private final int lineno;
+        private final Object securityDomain;
+        private final int languageVersion;
+        private final int optimizationLevel;
+        private final int flags;
+        private final int hashCode;
+
+        Key(String source, String sourceName, int lineno,
+            Object securityDomain, CompilerEnvirons compilerEnv,
+            boolean strictMode)
+        {
+            this.source = source;
+            this.sourceName = sourceName;
+            this.lineno = lineno;
+            this.securityDomain = securityDomain;
+            this.languageVersion = compilerEnv.getLanguageVersion();
+            this.optimizationLevel = compilerEnv.getOptimizationLevel();
+            int flags = 0;
+            if (strictMode) flags |= 1 << 0;
+            if (compilerEnv.isGenerateDebugInfo()) flags |= 1 << 1;
+            if (compilerEnv.isReservedKeywordAsIdentifier()) flags |= 1 << 2;
+            if (compilerEnv.isAllowMemberExprAsFunctionName()) flags |= 1 << 3;
+            if (compilerEnv.isStrictMode()) flags |= 1 << 4;
+            if (compilerEnv.reportWarningAsError()) flags |= 1 << 5;
+            if (compilerEnv.isXmlAvailable()) flags |= 1 << 6;
+            if (compilerEnv.isGeneratingSource()) flags |= 1 << 7;
+            if (compilerEnv.isGenerateObserverCount()) flags |= 1 << 8;
+            if (compilerEnv.isUseDynamicCallSites()) flags |= 1 << 9;
+            if (compilerEnv.isTieredCompilation()) flags |= 1 << 10;
+            if (compilerEnv.isCompiledContinuations()) flags |= 1 << 11;
+            if (compilerEnv.isLazyCompilation()) flags |= 1 << 12;
+            this.flags = flags;
+
+            int h = source.hashCode();
+            h = h * 31 + sourceName.hashCode();
+            h = h * 31 + lineno;
+            h = h * 31 + System.identityHashCode(securityDomain);
+            h = h * 31 + languageVersion;
+            h = h * 31 + optimizationLevel;
+            this.hashCode = h * 31 + flags;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hashCode == other.hashCode
+                && lineno == other.lineno
+                && languageVersion == other.languageVersion
+                && optimizationLevel == other.optimizationLevel
+                && flags == other.flags
+                // security domains are compared by identity as the
+                // SecurityController may not define equals
+                && securityDomain == other.securityDomain
+                && sourceName.equals(other.sourceName)
+                && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        /**
+         * Add everything that identifies the script to md, except the
+         * security domain, which is only meaningful in this JVM.
+         */
+        void digest(MessageDigest md)
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(sourceName).append('\n')
+              .append(lineno).append(' ')
+              .append(languageVersion).append(' ')
+              .append(optimizationLevel).append(' ')
+              .append(flags).append('\n');
+            md.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+            md.update(source.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -1649,6 +1649,12 @@ public class ScriptRuntime {
     public static Object getObjectIndex(Object obj, double dblIndex,
                                         Context cx, Scriptable scope)
     {
+        if (obj != null && obj.getClass() == NativeArray.class && (int)dblIndex == dblIndex) {
+            double elem = ((NativeArray)obj).getUnboxed((int)dblIndex);
+            if (!NativeArray.isHole(elem)) {
+                return wrapNumber(elem);
+            }
+        }
         Scriptable sobj = toObjectOrNull(cx, obj, scope);
         if (sobj == null) {
             throw undefReadError(obj, toString(dblIndex));
@@ -2473,6 +2479,107 @@ public class ScriptRuntime {
         return (Callable)nameOrFunction(cx, scope, parent, name, true);
     }
 
+    /**
+     * Return the value of a variable of the current or an enclosing function
+     * that lives in an activation. The compiler found it "depth" activations up
+     * the scope chain, at position "index" of its function.
+     */
+    public static Object getActivationVar(Context cx, Scriptable scope,
+                                          String name, int depth, int index)
+    {
+        NativeCall call = findActivation(scope, name, depth, index);
+        if (call != null) {
+            Object value = call.getVar(index);
+            if (value != Scriptable.NOT_FOUND) {
+                return value;
+            }
+        }
+        return name(cx, scope, name);
+    }
+
+    /**
+     * Find the scope that holds a variable that lives in an activation, as
+     * bind would, see getActivationVar.
+     */
+    public static Scriptable bindActivationVar(Context cx, Scriptable scope,
+                                               String name, int depth,
+                                               int index)
+    {
+        NativeCall call = findActivation(scope, name, depth, index);
+        if (call != null && call.getVar(index) != Scriptable.NOT_FOUND) {
+            return call;
+        }
+        return bind(cx, scope, name);
+    }
+
+    /**
+     * Assign to a variable bound by bindActivationVar, as setName or
+     * strictSetName would.
+     */
+    public static Object setActivationVar(Scriptable bound, Object value,
+                                          Context cx, Scriptable scope,
+                                          String name, int index)
+    {
+        if (bound instanceof NativeCall) {
+            NativeCall call = (NativeCall)bound;
+            if (call.hasVar(index, name)
+                && call.getVar(index) != Scriptable.NOT_FOUND)
+            {
+                call.setVar(index, value);
+                return value;
+            }
+        }
+        if (cx.isStrictMode()) {
+            return strictSetName(bound, value, cx, scope, name);
+        }
+        return setName(bound, value, cx, scope, name);
+    }
+
+    /**
+     * Prepare for calling a function held in a variable that lives in an
+     * activation, see getActivationVar and getNameFunctionAndThis.
+     */
+    public static Callable getActivationVarFunctionAndThis(Context cx,
+                                                           Scriptable scope,
+                                                           String name,
+                                                           int depth, int index)
+    {
+        NativeCall call = findActivation(scope, name, depth, index);
+        if (call != null) {
+            Object value = call.getVar(index);
+            if (value instanceof Callable) {
+                // As in nameOrFunction, thisObj is the top scope
+                storeScriptable(cx, ScriptableObject.getTopLevelScope(call));
+                return (Callable)value;
+            }
+        }
+        return getNameFunctionAndThis(name, cx, scope);
+    }
+
+    /**
+     * Walk up the scope chain to the activation "depth" activations away.
+     * Activations on the way cannot hold the name, as the compiler checked,
+     * but other scopes such as those of "with" and "catch" might. Returns null
+     * if one of them does or the chain is not what the compiler expected, in
+     * which case the caller must look the name up as usual.
+     */
+    private static NativeCall findActivation(Scriptable scope, String name,
+                                             int depth, int index)
+    {
+        for (; scope != null; scope = scope.getParentScope()) {
+            if (scope instanceof NativeCall) {
+                if (depth == 0) {
+                    NativeCall call = (NativeCall)scope;
+                    return call.hasVar(index, name) ? call : null;
+                }
+                --depth;
+            } else if (scope.has(name, scope)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
     /**
      * Prepare for calling obj[id](...): return function corresponding to
      * obj[id] and make obj properly converted to Scriptable available
@@ -2573,7 +2680,11 @@ public class ScriptRuntime {
             throw undefCallError(obj, property);
         }
 
-        Object value = ScriptableObject.getProperty(thisObj, property);
+        PrototypeCache cache = cx.prototypeCache;
+        if (cache == null) {
+            cache = cx.prototypeCache = new PrototypeCache();
+        }
+        Object value = cache.getProperty(thisObj, property);
         if (!(value instanceof Callable)) {
             Object noSuchMethod = ScriptableObject.getProperty(thisObj, "__noSuchMethod__");
             if (noSuchMethod instanceof Callable)
@@ -3716,7 +3827,7 @@ public class ScriptRuntime {
     {
         NativeCall call = cx.currentActivationCall;
         while (call != null) {
-            if (call.function == f)
+            if (call.function.getCallee() == f)
                 return call;
             call = call.parentActivationCall;
         }
@@ -4517,7 +4628,7 @@ public class ScriptRuntime {
         return value;
     }
 
-    private static void storeScriptable(Context cx, Scriptable value)
+    static void storeScriptable(Context cx, Scriptable value)
     {
         // The previously stored scratchScriptable should be consumed
         if (cx.scratchScriptable != null)
@@ -363,10 +363,17 @@ public abstract class ScriptableObject implements Scriptable,
     private static SlotMapContainer createSlotMap(int initialSize)
     {
         Context cx = Context.getCurrentContext();
-        if ((cx != null) && cx.hasFeature(Context.FEATURE_THREAD_SAFE_OBJECTS)) {
+        if (cx == null) {
+            return new SlotMapContainer(initialSize);
+        }
+        if (cx.hasFeature(Context.FEATURE_THREAD_SAFE_OBJECTS)) {
             return new ThreadSafeSlotMapContainer(initialSize);
         }
-        return new SlotMapContainer(initialSize);
+        // Keeping indexed properties apart puts them first when enumerating, so only do
+        // it when getIds() puts them first anyway.
+        return new SlotMapContainer(initialSize,
+            cx.hasFeature(Context.FEATURE_OBJECT_SHAPES),
+            cx.hasFeature(Context.FEATURE_ENUMERATE_IDS_FIRST));
     }
 
     public ScriptableObject()
@@ -384,6 +391,15 @@ public abstract class ScriptableObject implements Scriptable,
         slotMap = createSlotMap(0);
     }
 
+    /**
+     * Return the slot map of this object if it currently uses a ShapedSlotMap that may
+     * be read without locking, or null otherwise. Used by PropertyCache.
+     */
+    final ShapedSlotMap getShapedSlotMap()
+    {
+        return slotMap.getShapedMap();
+    }
+
     /**
      * Gets the value that will be returned by calling the typeof operator on this object.
      * @return default is "object" unless {@link #avoidObjectDetection()} is <code>true</code> in which
@@ -774,6 +790,7 @@ public abstract class ScriptableObject implements Scriptable,
     {
         checkNotSealed(name, 0);
         findAttributeSlot(name, 0, SlotAccess.MODIFY).setAttributes(attributes);
+        prototypeCacheChanged();
     }
 
     /**
@@ -792,6 +809,7 @@ public abstract class ScriptableObject implements Scriptable,
     {
         checkNotSealed(null, index);
         findAttributeSlot(null, index, SlotAccess.MODIFY).setAttributes(attributes);
+        prototypeCacheChanged();
     }
 
     /**
@@ -801,6 +819,7 @@ public abstract class ScriptableObject implements Scriptable,
     {
         checkNotSealed(key, 0);
         findAttributeSlot(key, SlotAccess.MODIFY).setAttributes(attributes);
+        prototypeCacheChanged();
     }
 
     /**
@@ -844,6 +863,7 @@ public abstract class ScriptableObject implements Scriptable,
             gslot.getter = getterOrSetter;
         }
         gslot.value = Undefined.instance;
+        prototypeCacheChanged();
     }
 
     /**
@@ -902,6 +922,7 @@ public abstract class ScriptableObject implements Scriptable,
         gslot.getter = null;
         gslot.setter = null;
         gslot.value = init;
+        prototypeCacheChanged();
     }
 
     /**
@@ -962,6 +983,75 @@ public abstract class ScriptableObject implements Scriptable,
     public void setPrototype(Scriptable m)
     {
         prototypeObject = m;
+        prototypeCacheChanged();
+        slotMap.nameSlotsChanged();
+    }
+
+    /**
+     * Called when an entry in a PrototypeCache starts to depend on this object.
+     * From then on every change to its properties or prototype increments the
+     * prototype epoch of this object. Returns the current prototype epoch.
+     */
+    final int watchForPrototypeCache()
+    {
+        slotMap.watched = true;
+        return slotMap.protoEpoch;
+    }
+
+    /**
+     * Return the prototype epoch of this object, which changes whenever a
+     * PrototypeCache entry that depends on it has to be dropped.
+     */
+    final int getPrototypeEpoch()
+    {
+        return slotMap.protoEpoch;
+    }
+
+    /**
+     * Called when an entry in a NameCache starts to depend on the slots of this object.
+     * From then on adding, removing or replacing a slot, or changing the prototype,
+     * increments the name epoch of this object. Returns the current name epoch.
+     */
+    final int watchForNameCache()
+    {
+        slotMap.slotsWatched = true;
+        return slotMap.nameEpoch;
+    }
+
+    /**
+     * Return the name epoch of this object, which changes whenever a NameCache entry
+     * that depends on it has to be dropped.
+     */
+    final int getNameEpoch()
+    {
+        return slotMap.nameEpoch;
+    }
+
+    /**
+     * Must be called by subclasses that change how names resolve on this object
+     * without going through the slot map.
+     */
+    final void nameCacheChanged()
+    {
+        slotMap.nameSlotsChanged();
+    }
+
+    /**
+     * Return the slot for the named property, or null if there is none.
+     */
+    final Slot querySlot(String name)
+    {
+        return slotMap.query(name, 0);
+    }
+
+    /**
+     * Called after a property of this object changed, including the value or the
+     * attributes of an existing slot. Must also be called by subclasses that change
+     * properties without going through the slot map.
+     */
+    final void prototypeCacheChanged()
+    {
+        slotMap.prototypeSlotsChanged();
     }
 
     /**
@@ -1864,6 +1954,7 @@ public abstract class ScriptableObject implements Scriptable,
         gslot.setAttributes(attributes);
         gslot.getter = getterBox;
         gslot.setter = setterBox;
+        prototypeCacheChanged();
     }
 
     /**
@@ -1961,6 +2052,7 @@ public abstract class ScriptableObject implements Scriptable,
             }
             slot.setAttributes(attributes);
         }
+        prototypeCacheChanged();
     }
 
     protected void checkPropertyDefinition(ScriptableObject desc) {
@@ -2836,7 +2928,11 @@ public abstract class ScriptableObject implements Scriptable,
             }
             slot = slotMap.get(key, index, SlotAccess.MODIFY);
         }
-        return slot.setValue(value, this, start);
+        boolean result = slot.setValue(value, this, start);
+        if (this == start) {
+            prototypeCacheChanged();
+        }
+        return result;
     }
 
 
@@ -2884,10 +2980,15 @@ public abstract class ScriptableObject implements Scriptable,
                 // clear the bit on const initialization
                 if (constFlag != UNINITIALIZED_CONST)
                     slot.setAttributes(attr & ~UNINITIALIZED_CONST);
+                prototypeCacheChanged();
             }
             return true;
         }
-        return slot.setValue(value, this, start);
+        boolean result = slot.setValue(value, this, start);
+        if (this == start) {
+            prototypeCacheChanged();
+        }
+        return result;
     }
 
     private Slot findAttributeSlot(String name, int index, SlotAccess accessType)
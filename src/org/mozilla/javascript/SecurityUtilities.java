@@ -47,6 +47,16 @@ public class SecurityUtilities
                 });
     }
 
+    /**
+     * Tells whether a system-wide SecurityManager is installed, in which
+     * case the results of reflection may depend on the calling code.
+     */
+    @SuppressWarnings("removal")
+    static boolean hasSecurityManager()
+    {
+        return System.getSecurityManager() != null;
+    }
+
     /**
      * Look up the top-most element in the current stack representing a
      * script and return its protection domain. This relies on the system-wide
@@ -0,0 +1,315 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+/**
+ * This class implements the SlotMap interface using a shared "shape" (sometimes called a
+ * hidden class) plus a compact per-object array of slots. Objects that received the same
+ * properties in the same order share one immutable Shape from a global transition tree, so
+ * looking up a property is a search of the shared shape followed by an array index.
+ *
+ * The shape only describes the keys and their positions. Attributes and values still live in
+ * the Slot, since the rest of ScriptableObject holds on to Slot instances, so an object still
+ * has one Slot per property and uses about as much memory as with EmbeddedSlotMap. Deleting
+ * a property is not supported here -- SlotMapContainer replaces this map with an
+ * EmbeddedSlotMap first.
+ */
+public class ShapedSlotMap
+    implements SlotMap {
+
+    /**
+     * Once an object has this many properties, SlotMapContainer switches it to
+     * EmbeddedSlotMap. Big objects are usually dictionaries that would not share a shape anyway.
+     */
+    static final int MAX_SHAPED_SIZE = 64;
+
+    // initial slot array size
+    private static final int INITIAL_SLOT_SIZE = 4;
+
+    // Volatile so that a thread that sees a new shape also sees the slot it added
+    private volatile Shape shape = Shape.ROOT;
+    private ScriptableObject.Slot[] slots;
+
+    /**
+     * A Shape is one node in the tree of property insertion sequences. The root describes an
+     * object with no properties, and each child describes its parent plus one more key. Shapes
+     * are immutable except for the transition table, and are shared between all threads.
+     * <p>
+     * A parent only holds weak references to its children, so a shape and the keys that
+     * it added stay in the tree only as long as some object, or a shape below it, uses it.
+     */
+    static final class Shape {
+
+        static final Shape ROOT = new Shape(null, null, 0);
+
+        // Above this many children, a shape stops recording new transitions so that objects
+        // used as dictionaries with unique keys do not grow the tree without bound.
+        private static final int MAX_TRANSITIONS = 64;
+
+        // Shapes with more keys than this build a hash table on first lookup
+        private static final int LINEAR_SEARCH_LIMIT = 8;
+
+        final Shape parent;
+        // The key that this shape added. "name" is null for indexed properties.
+        final Object name;
+        final int index;
+        // Number of keys in this shape, and also the position of "name" plus one
+        final int count;
+
+        private Map<Object, WeakReference<Shape>> transitions;
+        // Open-addressed table of the shapes that added each key. The shape that added a
+        // key also knows its position, so no boxed positions or entry objects are needed.
+        private volatile Shape[] table;
+
+        private Shape(Shape parent, Object name, int index) {
+            this.parent = parent;
+            this.name = name;
+            this.index = index;
+            this.count = (parent == null ? 0 : parent.count + 1);
+        }
+
+        /**
+         * Return the shape that results from adding the given key to this one. The result
+         * is shared with every other object that takes the same transition, unless this
+         * shape already has too many children.
+         */
+        Shape addKey(Object key, int index) {
+            final Object tkey = (key == null ? Integer.valueOf(index) : key);
+            synchronized (this) {
+                WeakReference<Shape> ref = (transitions == null ? null : transitions.get(tkey));
+                Shape child = (ref == null ? null : ref.get());
+                if (child != null) {
+                    return child;
+                }
+                child = new Shape(this, key, index);
+                if (transitions == null) {
+                    transitions = new HashMap<Object, WeakReference<Shape>>();
+                } else if (transitions.size() >= MAX_TRANSITIONS) {
+                    removeCollectedTransitions();
+                }
+                if (transitions.size() < MAX_TRANSITIONS) {
+                    transitions.put(tkey, new WeakReference<Shape>(child));
+                }
+                return child;
+            }
+        }
+
+        /**
+         * Drop the transitions to shapes that are no longer used, along with their keys.
+         */
+        private void removeCollectedTransitions() {
+            Iterator<WeakReference<Shape>> it = transitions.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().get() == null) {
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Return the position of the key in an object of this shape, or -1.
+         */
+        int find(Object key, int index) {
+            if (count <= LINEAR_SEARCH_LIMIT) {
+                for (Shape s = this; s.count > 0; s = s.parent) {
+                    if (key == null) {
+                        if (s.name == null && s.index == index) {
+                            return s.count - 1;
+                        }
+                    } else if (key == s.name || key.equals(s.name)) {
+                        return s.count - 1;
+                    }
+                }
+                return -1;
+            }
+            Shape[] t = table;
+            if (t == null) {
+                t = buildTable();
+                table = t;
+            }
+            final int mask = t.length - 1;
+            for (int i = hash(key, index) & mask; ; i = (i + 1) & mask) {
+                Shape s = t[i];
+                if (s == null) {
+                    return -1;
+                }
+                if (key == null) {
+                    if (s.name == null && s.index == index) {
+                        return s.count - 1;
+                    }
+                } else if (key == s.name || key.equals(s.name)) {
+                    return s.count - 1;
+                }
+            }
+        }
+
+        private Shape[] buildTable() {
+            // A power of two that is at least twice the number of keys
+            Shape[] t = new Shape[Integer.highestOneBit(count * 2 - 1) << 1];
+            final int mask = t.length - 1;
+            for (Shape s = this; s.count > 0; s = s.parent) {
+                int i = hash(s.name, s.index) & mask;
+                while (t[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                t[i] = s;
+            }
+            return t;
+        }
+
+        private static int hash(Object key, int index) {
+            int h = (key == null ? index : key.hashCode());
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private final class Iter
+        implements Iterator<ScriptableObject.Slot>
+    {
+        private int pos;
+
+        @Override
+        public boolean hasNext() {
+            return pos < shape.count;
+        }
+
+        @Override
+        public ScriptableObject.Slot next() {
+            if (pos >= shape.count) {
+                throw new NoSuchElementException();
+            }
+            return slots[pos++];
+        }
+    }
+
+    public ShapedSlotMap()
+    {
+    }
+
+    /**
+     * Return the current shape. Two objects with the same shape have the same keys
+     * at the same positions.
+     */
+    Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Return the slot at the given position of the current shape.
+     */
+    ScriptableObject.Slot getSlotAt(int position) {
+        return slots[position];
+    }
+
+    @Override
+    public int size() {
+        return shape.count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return shape.count == 0;
+    }
+
+    @Override
+    public Iterator<ScriptableObject.Slot> iterator() {
+        return new Iter();
+    }
+
+    @Override
+    public ScriptableObject.Slot query(Object key, int index)
+    {
+        final int pos = shape.find(key, index);
+        return pos < 0 ? null : slots[pos];
+    }
+
+    @Override
+    public ScriptableObject.Slot get(Object key, int index, SlotAccess accessType)
+    {
+        final int pos = shape.find(key, index);
+        ScriptableObject.Slot slot = (pos < 0 ? null : slots[pos]);
+        switch (accessType) {
+            case QUERY:
+                return slot;
+            case MODIFY:
+            case MODIFY_CONST:
+                if (slot != null) {
+                    return slot;
+                }
+                break;
+            case MODIFY_GETTER_SETTER:
+                if (slot instanceof ScriptableObject.GetterSlot) {
+                    return slot;
+                }
+                break;
+            case CONVERT_ACCESSOR_TO_DATA:
+                if ( !(slot instanceof ScriptableObject.GetterSlot) ) {
+                    return slot;
+                }
+                break;
+        }
+
+        if (slot != null) {
+            // Changing between a data and an accessor property keeps the key where it is,
+            // so the shape does not change.
+            ScriptableObject.Slot newSlot;
+            if (accessType == SlotAccess.MODIFY_GETTER_SETTER) {
+                newSlot = new ScriptableObject.GetterSlot(slot.name, slot.indexOrHash,
+                    slot.getAttributes());
+            } else {
+                newSlot = new ScriptableObject.Slot(slot.name, slot.indexOrHash,
+                    slot.getAttributes());
+            }
+            newSlot.value = slot.value;
+            slots[pos] = newSlot;
+            return newSlot;
+        }
+
+        final int indexOrHash = (key != null ? key.hashCode() : index);
+        ScriptableObject.Slot newSlot = (accessType == SlotAccess.MODIFY_GETTER_SETTER
+                ? new ScriptableObject.GetterSlot(key, indexOrHash, 0)
+                : new ScriptableObject.Slot(key, indexOrHash, 0));
+        if (accessType == SlotAccess.MODIFY_CONST) {
+            newSlot.setAttributes(ScriptableObject.CONST);
+        }
+        addSlot(newSlot);
+        return newSlot;
+    }
+
+    @Override
+    public void addSlot(ScriptableObject.Slot newSlot)
+    {
+        final int pos = shape.count;
+        if (slots == null) {
+            slots = new ScriptableObject.Slot[INITIAL_SLOT_SIZE];
+        } else if (pos == slots.length) {
+            ScriptableObject.Slot[] newSlots = new ScriptableObject.Slot[slots.length * 2];
+            System.arraycopy(slots, 0, newSlots, 0, pos);
+            slots = newSlots;
+        }
+        slots[pos] = newSlot;
+        // Publish the slot before the shape that makes it visible
+        shape = shape.addKey(newSlot.name, newSlot.indexOrHash);
+    }
+
+    @Override
+    public void remove(Object key, int index)
+    {
+        // SlotMapContainer switches to another map before any slot is removed
+        if (shape.find(key, index) >= 0) {
+            throw Kit.codeBug();
+        }
+    }
+}
@@ -7,6 +7,8 @@
 package org.mozilla.javascript;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.mozilla.javascript.ScriptableObject.Slot;
 import org.mozilla.javascript.ScriptableObject.SlotAccess;
@@ -25,61 +27,261 @@ class SlotMapContainer
    */
   private static final int LARGE_HASH_SIZE = 2000;
 
+  // initial size of the element array, must be a power of 2
+  private static final int INITIAL_ELEMENTS_SIZE = 8;
+
   protected SlotMap map;
 
+  // Indexed properties 0 to elements.length - 1, with null for holes, or null if this
+  // object does not keep indexed properties apart from named ones.
+  private Slot[] elements;
+  private int elementCount;
+  private final boolean denseElements;
+  // Set once an indexed property went into "map" instead of "elements"
+  private boolean sparseIndexes;
+
+  // Set once the PrototypeCache depends on this object, so that changes invalidate it.
+  // Volatile since the cache of any thread may start to depend on the object.
+  volatile boolean watched;
+
+  // Once watched is set, incremented before every change to the properties or the
+  // prototype of this object. PrototypeCache entries remember it for each object they
+  // depend on.
+  volatile int protoEpoch;
+
+  private static final AtomicIntegerFieldUpdater<SlotMapContainer> PROTO_EPOCH =
+    AtomicIntegerFieldUpdater.newUpdater(SlotMapContainer.class, "protoEpoch");
+
+  // Set once a NameCache depends on the slots of this object
+  volatile boolean slotsWatched;
+
+  // Once slotsWatched is set, incremented after every change to the named slots or the
+  // prototype of this object. NameCache entries remember it for each object they depend on.
+  volatile int nameEpoch;
+
+  private static final AtomicIntegerFieldUpdater<SlotMapContainer> NAME_EPOCH =
+    AtomicIntegerFieldUpdater.newUpdater(SlotMapContainer.class, "nameEpoch");
+
+  private final class ElementIter
+    implements Iterator<Slot>
+  {
+    private int pos;
+    private Iterator<Slot> mapIter;
+
+    ElementIter() {
+      skipHoles();
+    }
+
+    private void skipHoles() {
+      while (pos < elements.length && elements[pos] == null) {
+        pos++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (pos < elements.length) {
+        return true;
+      }
+      if (mapIter == null) {
+        mapIter = map.iterator();
+      }
+      return mapIter.hasNext();
+    }
+
+    @Override
+    public Slot next() {
+      if (pos < elements.length) {
+        Slot ret = elements[pos++];
+        skipHoles();
+        return ret;
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return mapIter.next();
+    }
+  }
+
   SlotMapContainer(int initialSize)
   {
+    this(initialSize, false, false);
+  }
+
+  SlotMapContainer(int initialSize, boolean shaped)
+  {
+    this(initialSize, shaped, false);
+  }
+
+  /**
+   * Create a container. If "shaped" is set, small objects start out with a ShapedSlotMap,
+   * which shares its property layout with other objects built the same way. If
+   * "denseElements" is set, indexed properties starting at 0 are kept in an array of their
+   * own, which also makes iteration return them first and in ascending order.
+   */
+  SlotMapContainer(int initialSize, boolean shaped, boolean denseElements)
+  {
+    this.denseElements = denseElements;
     if (initialSize > LARGE_HASH_SIZE) {
       map = new HashSlotMap();
+    } else if (shaped && initialSize < ShapedSlotMap.MAX_SHAPED_SIZE) {
+      map = new ShapedSlotMap();
     } else {
       map = new EmbeddedSlotMap();
     }
   }
 
+  /**
+   * Create a container that starts out with the given map.
+   */
+  SlotMapContainer(SlotMap map)
+  {
+    this.map = map;
+    this.denseElements = false;
+  }
+
   @Override
   public int size() {
-    return map.size();
+    return map.size() + elementCount;
   }
 
   public int dirtySize()
   {
-    return map.size();
+    return map.size() + elementCount;
   }
 
   @Override
   public boolean isEmpty() {
-    return map.isEmpty();
+    return elementCount == 0 && map.isEmpty();
   }
 
   @Override
   public Slot get(Object key, int index, SlotAccess accessType)
   {
+    if (accessType != SlotAccess.QUERY) {
+      prototypeSlotsChanged();
+    }
+    if (key == null && isElement(index, accessType != SlotAccess.QUERY)) {
+      return getElement(index, accessType);
+    }
     if (accessType != SlotAccess.QUERY) {
       checkMapSize();
+      if (key == null) {
+        sparseIndexes = true;
+      } else if (slotsWatched) {
+        return getWatched(key, index, accessType);
+      }
     }
     return map.get(key, index, accessType);
   }
 
+  /**
+   * Get a named slot for modification from a map that a NameCache depends on, and
+   * invalidate the cache if that added a slot or may have replaced one.
+   */
+  Slot getWatched(Object key, int index, SlotAccess accessType)
+  {
+    final int oldSize = map.size();
+    Slot slot = map.get(key, index, accessType);
+    if (map.size() != oldSize || accessType == SlotAccess.MODIFY_GETTER_SETTER
+        || accessType == SlotAccess.CONVERT_ACCESSOR_TO_DATA) {
+      nameSlotsChanged();
+    }
+    return slot;
+  }
+
+  /**
+   * Called before a property of the object or its prototype changes.
+   */
+  final void prototypeSlotsChanged()
+  {
+    if (watched) {
+      PROTO_EPOCH.incrementAndGet(this);
+    }
+  }
+
+  /**
+   * Called after a named slot was added, removed or replaced, or the prototype of the
+   * object changed.
+   */
+  final void nameSlotsChanged()
+  {
+    if (slotsWatched) {
+      NAME_EPOCH.incrementAndGet(this);
+    }
+  }
+
   @Override
   public Slot query(Object key, int index) {
+    if (key == null && elements != null && index >= 0 && index < elements.length) {
+      return elements[index];
+    }
     return map.query(key, index);
   }
 
   @Override
   public void addSlot(Slot newSlot)
   {
+    prototypeSlotsChanged();
+    if (newSlot.name == null && isElement(newSlot.indexOrHash, true)) {
+      if (elements[newSlot.indexOrHash] == null) {
+        elementCount++;
+      }
+      elements[newSlot.indexOrHash] = newSlot;
+      return;
+    }
     checkMapSize();
+    if (newSlot.name == null) {
+      sparseIndexes = true;
+    }
     map.addSlot(newSlot);
+    if (newSlot.name != null) {
+      nameSlotsChanged();
+    }
   }
 
   @Override
   public void remove(Object key, int index) {
+    prototypeSlotsChanged();
+    if (key == null && elements != null && index >= 0 && index < elements.length) {
+      Slot slot = elements[index];
+      if (slot == null) {
+        return;
+      }
+      // non-configurable
+      if ((slot.getAttributes() & ScriptableObject.PERMANENT) != 0) {
+        Context cx = Context.getContext();
+        if (cx.isStrictMode()) {
+          throw ScriptRuntime.typeError1("msg.delete.property.with.configurable.false", index);
+        }
+        return;
+      }
+      elements[index] = null;
+      elementCount--;
+      return;
+    }
+    checkRemovable(key, index);
     map.remove(key, index);
+    if (key != null) {
+      nameSlotsChanged();
+    }
   }
 
   @Override
   public Iterator<Slot> iterator() {
-    return map.iterator();
+    if (elements == null) {
+      return map.iterator();
+    }
+    return new ElementIter();
+  }
+
+  /**
+   * Return the underlying map if it is a ShapedSlotMap that may be read directly by
+   * inline caches, or null.
+   */
+  ShapedSlotMap getShapedMap()
+  {
+    return (map instanceof ShapedSlotMap) ? (ShapedSlotMap)map : null;
   }
 
   public long readLock()
@@ -99,12 +301,108 @@ class SlotMapContainer
    */
   protected void checkMapSize()
   {
-    if ((map instanceof EmbeddedSlotMap) && map.size() >= LARGE_HASH_SIZE) {
-      SlotMap newMap = new HashSlotMap();
-      for (Slot s : map) {
-        newMap.addSlot(s);
+    if ((map instanceof ShapedSlotMap) && map.size() >= ShapedSlotMap.MAX_SHAPED_SIZE) {
+      copyMap(new EmbeddedSlotMap());
+    } else if ((map instanceof EmbeddedSlotMap) && map.size() >= LARGE_HASH_SIZE) {
+      copyMap(new HashSlotMap());
+    }
+  }
+
+  /**
+   * Before removing an item from the map, make sure that the map supports removal. Shapes
+   * only ever grow, so an object that loses a property gets its own EmbeddedSlotMap.
+   */
+  protected void checkRemovable(Object key, int index)
+  {
+    if ((map instanceof ShapedSlotMap) && map.query(key, index) != null) {
+      copyMap(new EmbeddedSlotMap());
+    }
+  }
+
+  /**
+   * Return true if the indexed property belongs in the element array. If "create" is set,
+   * the array is created or grown as long as it stays at least half full and no indexed
+   * property has been put in the map yet.
+   */
+  private boolean isElement(int index, boolean create)
+  {
+    if (index < 0) {
+      return false;
+    }
+    if (elements != null && index < elements.length) {
+      return true;
+    }
+    if (!create || !denseElements || sparseIndexes) {
+      return false;
+    }
+    if (elements == null) {
+      if (index >= INITIAL_ELEMENTS_SIZE) {
+        return false;
+      }
+      elements = new Slot[INITIAL_ELEMENTS_SIZE];
+      return true;
+    }
+    int newSize = elements.length;
+    while (newSize <= index) {
+      newSize <<= 1;
+    }
+    if (newSize < 0 || (elementCount + 1) * 2 < newSize) {
+      return false;
+    }
+    Slot[] newElements = new Slot[newSize];
+    System.arraycopy(elements, 0, newElements, 0, elements.length);
+    elements = newElements;
+    return true;
+  }
+
+  private Slot getElement(int index, SlotAccess accessType)
+  {
+    Slot slot = elements[index];
+    switch (accessType) {
+      case QUERY:
+        return slot;
+      case MODIFY:
+      case MODIFY_CONST:
+        if (slot != null) {
+          return slot;
+        }
+        break;
+      case MODIFY_GETTER_SETTER:
+        if (slot instanceof ScriptableObject.GetterSlot) {
+          return slot;
+        }
+        break;
+      case CONVERT_ACCESSOR_TO_DATA:
+        if ( !(slot instanceof ScriptableObject.GetterSlot) ) {
+          return slot;
+        }
+        break;
+    }
+
+    Slot newSlot;
+    if (accessType == SlotAccess.MODIFY_GETTER_SETTER) {
+      newSlot = new ScriptableObject.GetterSlot(null, index,
+          slot == null ? 0 : slot.getAttributes());
+    } else {
+      newSlot = new Slot(null, index, slot == null ? 0 : slot.getAttributes());
+    }
+    if (slot == null) {
+      if (accessType == SlotAccess.MODIFY_CONST) {
+        newSlot.setAttributes(ScriptableObject.CONST);
       }
-      map = newMap;
+      elementCount++;
+    } else {
+      newSlot.value = slot.value;
+    }
+    elements[index] = newSlot;
+    return newSlot;
+  }
+
+  private void copyMap(SlotMap newMap)
+  {
+    for (Slot s : map) {
+      newMap.addSlot(s);
     }
+    map = newMap;
   }
 }
@@ -14,7 +14,9 @@ import org.mozilla.javascript.ScriptableObject.SlotAccess;
 
 /**
  * This class extends the SlotMapContainer so that we have thread-safe access to all
- * the properties of an object.
+ * the properties of an object. The properties live in a ConcurrentSlotMap, so looking up an
+ * existing property takes no lock at all. Only operations that add, replace or remove a slot
+ * take the write lock, and iteration takes the read lock so that it does not overlap with them.
  */
 class ThreadSafeSlotMapContainer
   extends SlotMapContainer {
@@ -24,24 +26,13 @@ class ThreadSafeSlotMapContainer
 
   ThreadSafeSlotMapContainer(int initialSize)
   {
-    super(initialSize);
+    super(new ConcurrentSlotMap(initialSize));
   }
 
   @Override
   public int size()
   {
-    long stamp = lock.tryOptimisticRead();
-    int s = map.size();
-    if (lock.validate(stamp)) {
-      return s;
-    }
-
-    stamp = lock.readLock();
-    try {
-      return map.size();
-    } finally {
-      lock.unlockRead(stamp);
-    }
+    return map.size();
   }
 
   @Override
@@ -54,27 +45,45 @@ class ThreadSafeSlotMapContainer
   @Override
   public boolean isEmpty()
   {
-    long stamp = lock.tryOptimisticRead();
-    boolean e = map.isEmpty();
-    if (lock.validate(stamp)) {
-       return e;
-    }
-
-    stamp = lock.readLock();
-    try {
-      return map.isEmpty();
-    } finally {
-      lock.unlockRead(stamp);
-    }
+    return map.isEmpty();
   }
 
   @Override
   public Slot get(Object key, int index, SlotAccess accessType)
   {
+    if (accessType != SlotAccess.QUERY) {
+      prototypeSlotsChanged();
+    }
+    // Most calls find an existing slot that is already of the right kind
+    Slot slot = map.query(key, index);
+    switch (accessType) {
+      case QUERY:
+        return slot;
+      case MODIFY:
+      case MODIFY_CONST:
+        if (slot != null) {
+          return slot;
+        }
+        break;
+      case MODIFY_GETTER_SETTER:
+        if (slot instanceof ScriptableObject.GetterSlot) {
+          return slot;
+        }
+        break;
+      case CONVERT_ACCESSOR_TO_DATA:
+        if ( !(slot instanceof ScriptableObject.GetterSlot) ) {
+          return slot;
+        }
+        break;
+    }
+
     final long stamp = lock.writeLock();
     try {
       if (accessType != SlotAccess.QUERY) {
         checkMapSize();
+        if (slotsWatched && key != null) {
+          return getWatched(key, index, accessType);
+        }
       }
       return map.get(key, index, accessType);
     } finally {
@@ -85,23 +94,13 @@ class ThreadSafeSlotMapContainer
   @Override
   public Slot query(Object key, int index)
   {
-    long stamp = lock.tryOptimisticRead();
-    Slot s = map.query(key, index);
-    if (lock.validate(stamp)) {
-      return s;
-    }
-
-    stamp = lock.readLock();
-    try {
-      return map.query(key, index);
-    } finally {
-      lock.unlockRead(stamp);
-    }
+    return map.query(key, index);
   }
 
   @Override
   public void addSlot(Slot newSlot)
   {
+    prototypeSlotsChanged();
     final long stamp = lock.writeLock();
     try {
       checkMapSize();
@@ -109,17 +108,34 @@ class ThreadSafeSlotMapContainer
     } finally {
       lock.unlockWrite(stamp);
     }
+    if (newSlot.name != null) {
+      nameSlotsChanged();
+    }
   }
 
   @Override
   public void remove(Object key, int index)
   {
+    prototypeSlotsChanged();
     final long stamp = lock.writeLock();
     try {
+      checkRemovable(key, index);
       map.remove(key, index);
     } finally {
       lock.unlockWrite(stamp);
     }
+    if (key != null) {
+      nameSlotsChanged();
+    }
+  }
+
+  /**
+   * Inline caches read the map without locking, so they are not used on thread-safe objects.
+   */
+  @Override
+  ShapedSlotMap getShapedMap()
+  {
+    return null;
   }
 
   /**
@@ -151,13 +167,17 @@ class ThreadSafeSlotMapContainer
   }
 
   /**
-   * Before inserting a new item in the map, check and see if we need to expand from the embedded
-   * map to a HashMap that is more robust against large numbers of hash collisions.
+   * The ConcurrentSlotMap grows by itself and supports removal, so it is never replaced.
    */
   @Override
   protected void checkMapSize()
   {
     assert(lock.isWriteLocked());
-    super.checkMapSize();
+  }
+
+  @Override
+  protected void checkRemovable(Object key, int index)
+  {
+    assert(lock.isWriteLocked());
   }
 }
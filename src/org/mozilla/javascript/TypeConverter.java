@@ -0,0 +1,352 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+/**
+ * Converts JavaScript values to one Java type, with the same results as
+ * {@link NativeJavaObject#canConvert(Object, Class)} and
+ * {@link Context#jsToJava(Object, Class)}.
+ * <p>
+ * The tests that only depend on the type are done when the converter is
+ * made, and the subclasses handle the kinds of values that are usually
+ * passed for their type directly, such as numbers for an int or functions
+ * for an interface. Everything else is left to NativeJavaObject. A
+ * {@link MemberBox} keeps a converter for each of its parameters, so that
+ * checking and converting an argument is a single virtual call.
+ */
+class TypeConverter
+{
+    final Class<?> type;
+
+    TypeConverter(Class<?> type)
+    {
+        this.type = type;
+    }
+
+    static TypeConverter forType(Class<?> type)
+    {
+        if (type == ScriptRuntime.StringClass) {
+            return new StringConverter();
+        } else if (type == ScriptRuntime.ObjectClass) {
+            return new ObjectConverter();
+        } else if (type == Integer.TYPE || type == ScriptRuntime.IntegerClass) {
+            return new IntegerConverter(type);
+        } else if (type == Long.TYPE || type == ScriptRuntime.LongClass) {
+            return new LongConverter(type);
+        } else if (type == Double.TYPE || type == ScriptRuntime.DoubleClass) {
+            return new DoubleConverter(type);
+        } else if (type == Boolean.TYPE || type == ScriptRuntime.BooleanClass) {
+            return new BooleanConverter(type);
+        } else if (type.isInterface()) {
+            return new InterfaceConverter(type);
+        } else if (type.isPrimitive() || type.isArray()
+                   || ScriptRuntime.NumberClass.isAssignableFrom(type)
+                   || type == ScriptRuntime.ClassClass)
+        {
+            return new TypeConverter(type);
+        }
+        return new ClassConverter(type);
+    }
+
+    /**
+     * Returns whether value can be converted to the type.
+     */
+    boolean canConvert(Object value)
+    {
+        return NativeJavaObject.canConvert(value, type);
+    }
+
+    /**
+     * Converts value to the type.
+     * @throws EvaluatorException if the conversion cannot be performed
+     */
+    Object convert(Object value)
+    {
+        return NativeJavaObject.coerceTypeImpl(type, value);
+    }
+
+    /**
+     * Returns the object that value wraps, if it is a Java object or array
+     * wrapper. Java classes are converted differently.
+     */
+    static Object unwrapJavaObject(Object value)
+    {
+        if (value instanceof NativeJavaObject
+            && !(value instanceof NativeJavaClass))
+        {
+            return ((NativeJavaObject) value).unwrap();
+        }
+        return null;
+    }
+
+    /**
+     * Every value can be converted to a string.
+     */
+    static final class StringConverter extends TypeConverter
+    {
+        StringConverter()
+        {
+            super(ScriptRuntime.StringClass);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            return true;
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof CharSequence) {
+                return value.toString();
+            }
+            return super.convert(value);
+        }
+    }
+
+    /**
+     * Every value can be converted to an object. Numbers are left to
+     * NativeJavaObject, since they depend on
+     * {@link Context#FEATURE_INTEGER_WITHOUT_DECIMAL_PLACE}.
+     */
+    static final class ObjectConverter extends TypeConverter
+    {
+        ObjectConverter()
+        {
+            super(ScriptRuntime.ObjectClass);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            return true;
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof String || value instanceof Boolean) {
+                return value;
+            } else if (value instanceof ScriptableObject
+                       && !(value instanceof Wrapper))
+            {
+                return value;
+            } else if (value instanceof NativeJavaObject) {
+                Object javaObject = ((NativeJavaObject) value).unwrap();
+                if (javaObject != null) {
+                    return javaObject;
+                }
+            }
+            return super.convert(value);
+        }
+    }
+
+    static final class IntegerConverter extends TypeConverter
+    {
+        IntegerConverter(Class<?> type)
+        {
+            super(type);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            return value instanceof Double || value instanceof Integer
+                   || super.canConvert(value);
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof Integer) {
+                return value;
+            } else if (value instanceof Double) {
+                double d = ((Double) value).doubleValue();
+                if (d >= Integer.MIN_VALUE && d <= Integer.MAX_VALUE) {
+                    return Integer.valueOf((int) d);
+                }
+            }
+            return super.convert(value);
+        }
+    }
+
+    static final class LongConverter extends TypeConverter
+    {
+        // Doubles up to this magnitude are integers or have an exact
+        // integer part
+        private static final double MAX_EXACT = 9007199254740992.0;
+
+        LongConverter(Class<?> type)
+        {
+            super(type);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            return value instanceof Double || value instanceof Integer
+                   || super.canConvert(value);
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof Long) {
+                return value;
+            } else if (value instanceof Integer) {
+                return Long.valueOf(((Integer) value).intValue());
+            } else if (value instanceof Double) {
+                double d = ((Double) value).doubleValue();
+                if (d >= -MAX_EXACT && d <= MAX_EXACT) {
+                    return Long.valueOf((long) d);
+                }
+            }
+            return super.convert(value);
+        }
+    }
+
+    static final class DoubleConverter extends TypeConverter
+    {
+        DoubleConverter(Class<?> type)
+        {
+            super(type);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            return value instanceof Double || value instanceof Integer
+                   || super.canConvert(value);
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof Double) {
+                return value;
+            } else if (value instanceof Integer) {
+                return Double.valueOf(((Integer) value).intValue());
+            }
+            return super.convert(value);
+        }
+    }
+
+    static final class BooleanConverter extends TypeConverter
+    {
+        BooleanConverter(Class<?> type)
+        {
+            super(type);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            return value instanceof Boolean || super.canConvert(value);
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof Boolean) {
+                return value;
+            }
+            return super.convert(value);
+        }
+    }
+
+    /**
+     * Converts wrapped Java objects and functions or objects that
+     * implement the interface, such as a List or a functional interface.
+     */
+    static final class InterfaceConverter extends TypeConverter
+    {
+        private final Object adapterKey;
+
+        InterfaceConverter(Class<?> type)
+        {
+            super(type);
+            adapterKey = NativeJavaObject.interfaceAdapterKey(type);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            if (value == null) {
+                return true;
+            } else if (value instanceof ScriptableObject
+                       && !(value instanceof Wrapper))
+            {
+                return true;
+            }
+            Object javaObject = unwrapJavaObject(value);
+            if (javaObject != null && type.isInstance(javaObject)) {
+                return true;
+            }
+            return super.canConvert(value);
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            if (value instanceof ScriptableObject
+                && !(value instanceof Wrapper))
+            {
+                if (type.isInstance(value)) {
+                    return value;
+                }
+                if (value instanceof NativeFunction
+                    || value instanceof ArrowFunction
+                    || value instanceof NativeObject)
+                {
+                    return NativeJavaObject.createInterfaceAdapter(
+                        type, (ScriptableObject) value, adapterKey);
+                }
+            } else {
+                Object javaObject = unwrapJavaObject(value);
+                if (javaObject != null && type.isInstance(javaObject)) {
+                    return javaObject;
+                }
+            }
+            return super.convert(value);
+        }
+    }
+
+    /**
+     * Converts wrapped Java objects of a class.
+     */
+    static final class ClassConverter extends TypeConverter
+    {
+        ClassConverter(Class<?> type)
+        {
+            super(type);
+        }
+
+        @Override
+        boolean canConvert(Object value)
+        {
+            if (value == null) {
+                return true;
+            }
+            Object javaObject = unwrapJavaObject(value);
+            if (javaObject != null && type.isInstance(javaObject)) {
+                return true;
+            }
+            return super.canConvert(value);
+        }
+
+        @Override
+        Object convert(Object value)
+        {
+            Object javaObject = unwrapJavaObject(value);
+            if (javaObject != null && type.isInstance(javaObject)) {
+                return javaObject;
+            }
+            return super.convert(value);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/* -*- Mode: java; tab-width: 8; indent-tabs-mode: nil; c-basic-offset: 4 -*-
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import java.io.Serializable;
+
+/**
+ * The positions of the parameters and variables of a function in the
+ * variable array of its activations, see {@link NativeCall}. If a name
+ * occurs more than once, the last parameter wins, or else the first
+ * variable. Constants and "arguments" are left out, since activations keep
+ * them in slots instead. The table never changes once it is built, and all
+ * activations of a function share it.
+ */
+final class VarIndexes implements Serializable
+{
+    private static final long serialVersionUID = 3462818345317437016L;
+
+    VarIndexes(NativeFunction f)
+    {
+        int paramCount = f.getParamCount();
+        int paramAndVarCount = f.getParamAndVarCount();
+        int size = 4;
+        while (size < paramAndVarCount * 2) {
+            size <<= 1;
+        }
+        names = new String[size];
+        hashes = new int[size];
+        indexes = new int[size];
+        for (int i = 0; i < paramCount; ++i) {
+            // Later parameters replace earlier ones
+            add(f.getParamOrVarName(i), i, true);
+        }
+        for (int i = paramCount; i < paramAndVarCount; ++i) {
+            add(f.getParamOrVarName(i), f.getParamOrVarConst(i) ? -1 : i,
+                false);
+        }
+    }
+
+    private void add(String name, int index, boolean replace)
+    {
+        if (name.equals("arguments")) {
+            return;
+        }
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int i = hash & mask;
+        while (names[i] != null) {
+            if (hashes[i] == hash && name.equals(names[i])) {
+                if (replace) {
+                    indexes[i] = index;
+                }
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        names[i] = name;
+        hashes[i] = hash;
+        indexes[i] = index;
+    }
+
+    /**
+     * Return the position of name, or -1 if it has none.
+     */
+    int get(String name)
+    {
+        int hash = name.hashCode();
+        int mask = names.length - 1;
+        int i = hash & mask;
+        String found;
+        while ((found = names[i]) != null) {
+            if (found == name || (hashes[i] == hash && name.equals(found))) {
+                return indexes[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private final String[] names;
+    private final int[] hashes;
+    private final int[] indexes;
+}
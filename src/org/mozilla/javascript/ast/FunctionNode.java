@@ -81,6 +81,7 @@ public class FunctionNode extends ScriptNode {
     // codegen variables
     private int functionType;
     private boolean needsActivation;
+    private boolean callsEval;
     private boolean isGenerator;
     private boolean isES6Generator;
     private List<Node> generatorResumePoints;
@@ -279,6 +280,18 @@ public class FunctionNode extends ScriptNode {
         needsActivation = true;
     }
 
+    /**
+     * Return true if this function contains a direct call to eval, which
+     * may declare new variables in its Activation object at run time.
+     */
+    public boolean callsEval() {
+        return callsEval;
+    }
+
+    public void setCallsEval() {
+        callsEval = true;
+    }
+
     public boolean isGenerator() {
       return isGenerator;
     }
@@ -21,6 +21,7 @@ import javax.script.SimpleBindings;
 import org.mozilla.javascript.Callable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.LruScriptCache;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
@@ -45,6 +46,11 @@ import org.mozilla.javascript.ScriptableObject;
  * more documentation.
  * </p>
  * <p>
+ * Each engine keeps the scripts that it compiled in a cache of limited size, so evaluating or
+ * compiling the same script text again with the same settings does not compile it again.
+ * Engines do not share compiled scripts, and the cache goes away with the engine.
+ * </p>
+ * <p>
  * The engine supports a few configuration parameters that may be set at the "engine scope". Both
  * are numbers that may be set to a String or Number object.
  * </p>
@@ -72,11 +78,13 @@ public class RhinoScriptEngine
   private static final int DEFAULT_OPT = 9;
   private static final boolean DEFAULT_DEBUG = true;
   private static final String DEFAULT_FILENAME = "eval";
+  private static final int SCRIPT_CACHE_SIZE = 256;
 
   private static final CtxFactory ctxFactory = new CtxFactory();
 
   private final RhinoScriptEngineFactory factory;
   private final Builtins builtins;
+  private final LruScriptCache scriptCache = new LruScriptCache(SCRIPT_CACHE_SIZE);
   private ScriptableObject topLevelScope = null;
 
   RhinoScriptEngine(RhinoScriptEngineFactory factory) {
@@ -299,6 +307,7 @@ public class RhinoScriptEngine
   }
 
   private void configureContext(Context cx) throws ScriptException {
+    cx.setScriptCache(scriptCache);
     Object lv = get(ScriptEngine.LANGUAGE_VERSION);
     if (lv != null) {
       cx.setLanguageVersion(parseInteger(lv));
@@ -95,11 +95,7 @@ class Block
             }
         }
 
-        for (int i = paramCount; i != varCount; i++) {
-            if (varTypes[i] == Optimizer.NumberType) {
-                fn.setIsNumberVar(i);
-            }
-        }
+        fn.setVarTypes(varTypes);
 
     }
 
@@ -452,21 +448,30 @@ class Block
         return entrySet.cardinality() != card;
     }
 
+    static int findExpressionType(OptFunctionNode fn, Node n)
+    {
+        return findExpressionType(fn, n, fn == null ? null : fn.getVarTypes());
+    }
+
     /*
-        the type of an expression is relatively unknown. Cases we can be sure
-        about are -
-            Literals,
-            Arithmetic operations - always return a Number
+        The type of an expression as far as it can be told from the
+        expression alone and the types of the variables. Variables of
+        unknown type, calls and property gets can give any value.
     */
     private static int findExpressionType(OptFunctionNode fn, Node n,
                                           int[] varTypes)
     {
         switch (n.getType()) {
-            case Token.NUMBER:
+            case Token.NUMBER: {
+                double d = n.getDouble();
+                // -0 is not an int32
+                if (d == (int)d && (d != 0 || 1 / d > 0)) {
+                    return Optimizer.Int32Type;
+                }
                 return Optimizer.NumberType;
+            }
 
             case Token.CALL:
-            case Token.NEW:
             case Token.REF_CALL:
                 return Optimizer.AnyType;
 
@@ -477,29 +482,30 @@ class Block
                 return Optimizer.AnyType;
 
             case Token.GETVAR:
+                if (varTypes == null) {
+                    return Optimizer.AnyType;
+                }
                 return varTypes[fn.getVarIndex(n)];
 
-            case Token.INC:
-            case Token.DEC:
-            case Token.MUL:
-            case Token.DIV:
-            case Token.MOD:
             case Token.BITOR:
             case Token.BITXOR:
             case Token.BITAND:
             case Token.BITNOT:
             case Token.LSH:
             case Token.RSH:
+                return Optimizer.Int32Type;
+
+            case Token.INC:
+            case Token.DEC:
+            case Token.MUL:
+            case Token.DIV:
+            case Token.MOD:
             case Token.URSH:
             case Token.SUB:
             case Token.POS:
             case Token.NEG:
                 return Optimizer.NumberType;
 
-            case Token.VOID:
-                // NYI: undefined type
-                return Optimizer.AnyType;
-
             case Token.FALSE:
             case Token.TRUE:
             case Token.EQ:
@@ -513,32 +519,45 @@ class Block
             case Token.NOT:
             case Token.INSTANCEOF:
             case Token.IN:
-            case Token.DEL_REF:
             case Token.DELPROP:
-                // NYI: boolean type
-                return Optimizer.AnyType;
+                return Optimizer.BooleanType;
 
             case Token.STRING:
             case Token.TYPEOF:
             case Token.TYPEOFNAME:
-                // NYI: string type
-                return Optimizer.AnyType;
+                return Optimizer.StringType;
 
+            case Token.VOID:
             case Token.NULL:
+            case Token.NEW:
             case Token.REGEXP:
             case Token.ARRAYCOMP:
             case Token.ARRAYLIT:
             case Token.OBJECTLIT:
-                return Optimizer.AnyType; // XXX: actually, we know it's not
-            // number, but no type yet for that
+                return Optimizer.ObjectType;
 
             case Token.ADD: {
-                // if the lhs & rhs are known to be numbers, we can be sure that's
-                // the result, otherwise it could be a string.
                 Node child = n.getFirstChild();
                 int lType = findExpressionType(fn, child, varTypes);
                 int rType = findExpressionType(fn, child.getNext(), varTypes);
-                return lType | rType;    // we're not distinguishing strings yet
+                if ((lType & rType & Optimizer.ObjectType) != 0) {
+                    // adding two E4X objects gives an XMLList
+                    return Optimizer.AnyType;
+                }
+                if (lType == Optimizer.StringType
+                    || rType == Optimizer.StringType)
+                {
+                    return Optimizer.StringType;
+                }
+                int types = lType | rType;
+                if (types == Optimizer.NoType) {
+                    return Optimizer.NoType;
+                }
+                if ((types & (Optimizer.StringType | Optimizer.ObjectType)) == 0) {
+                    return Optimizer.NumberType;
+                }
+                // the operands are converted to primitives
+                return Optimizer.NumberType | Optimizer.StringType;
             }
 
             case Token.HOOK: {
@@ -1,6 +1,7 @@
 package org.mozilla.javascript.optimizer;
 
 import static org.mozilla.classfile.ClassFileWriter.ACC_PRIVATE;
+import static org.mozilla.classfile.ClassFileWriter.ACC_PUBLIC;
 import static org.mozilla.classfile.ClassFileWriter.ACC_STATIC;
 
 import java.util.ArrayList;
@@ -14,9 +15,11 @@ import org.mozilla.classfile.ByteCode;
 import org.mozilla.classfile.ClassFileWriter;
 import org.mozilla.javascript.CompilerEnvirons;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.InterpreterFallbackException;
 import org.mozilla.javascript.Kit;
 import org.mozilla.javascript.NativeGenerator;
 import org.mozilla.javascript.Node;
+import org.mozilla.javascript.PropertyCallSite;
 import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Token;
 import org.mozilla.javascript.ast.FunctionNode;
@@ -32,6 +35,27 @@ class BodyCodegen
         // generate the body of the current function or script object
         initBodyGeneration();
 
+        Node treeTop;
+        if (fnCurrent != null) {
+            treeTop = scriptOrFn.getLastChild();
+        } else {
+            treeTop = scriptOrFn;
+        }
+        if (compilerEnv.isCompiledContinuations() && !isGenerator) {
+            capturingCalls = new HashMap<Node,String[]>();
+            findCapturingCalls(treeTop);
+            if (hasCallsOutsideCapturingCalls(treeTop)) {
+                // The interpreter can capture continuations anywhere
+                throw new InterpreterFallbackException(
+                    "Cannot save the state of all calls for continuations");
+            }
+            if (capturingCalls.isEmpty()) {
+                capturingCalls = null;
+            } else {
+                capturePoints = new ArrayList<CapturePoint>();
+            }
+        }
+
         if (isGenerator) {
             // All functions in the generated bytecode have a unique name. Every
             // generator has a unique prefix followed by _gen
@@ -44,6 +68,11 @@ class BodyCodegen
             cfw.startMethod(codegen.getBodyMethodName(scriptOrFn) + "_gen",
                 type,
                 (short)(ACC_STATIC | ACC_PRIVATE));
+        } else if (codegen.isLazyRoot(scriptOrFn)) {
+            // Called from the class of the script, see LazyFunctions
+            cfw.startMethod(codegen.getBodyMethodName(scriptOrFn),
+                codegen.getBodyMethodSignature(scriptOrFn),
+                (short)(ACC_STATIC | ACC_PUBLIC));
         } else {
             cfw.startMethod(codegen.getBodyMethodName(scriptOrFn),
                 codegen.getBodyMethodSignature(scriptOrFn),
@@ -51,12 +80,6 @@ class BodyCodegen
         }
 
         generatePrologue();
-        Node treeTop;
-        if (fnCurrent != null) {
-            treeTop = scriptOrFn.getLastChild();
-        } else {
-            treeTop = scriptOrFn;
-        }
         generateStatement(treeTop);
         generateEpilogue();
 
@@ -202,6 +225,8 @@ class BodyCodegen
         epilogueLabel = -1;
         enterAreaStartLabel = -1;
         generatorStateLocal = -1;
+        resumeDispatchLabel = -1;
+        captureExitLabel = -1;
     }
 
     /**
@@ -294,9 +319,12 @@ class BodyCodegen
             }
         }
 
-        // Compile RegExp literals if this is a script. For functions
-        // this is performed during instantiation in functionInit
-        if (fnCurrent == null && scriptOrFn.getRegexpCount() != 0) {
+        // Compile RegExp literals if this is a script or a lazy function.
+        // For other functions this is performed during instantiation in
+        // functionInit
+        if ((fnCurrent == null || codegen.isLazyRoot(scriptOrFn))
+            && scriptOrFn.getRegexpCount() != 0)
+        {
             cfw.addALoad(contextLocal);
             cfw.addInvoke(ByteCode.INVOKESTATIC, codegen.mainClassName,
                 Codegen.REGEXP_INIT_METHOD_NAME,
@@ -388,6 +416,23 @@ class BodyCodegen
             return;
         }
 
+        if (capturingCalls != null) {
+            // A call that resumes a continuation restores the state of the
+            // function instead of starting it
+            resumeDispatchLabel = cfw.acquireLabel();
+            cfw.addALoad(funObjLocal);
+            cfw.addALoad(contextLocal);
+            cfw.addInvoke(ByteCode.INVOKESTATIC,
+                "org/mozilla/javascript/ContinuationFrame",
+                "getResumingFrame",
+                "(Lorg/mozilla/javascript/NativeFunction;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +")Lorg/mozilla/javascript/ContinuationFrame;");
+            cfw.add(ByteCode.DUP);
+            cfw.add(ByteCode.IFNONNULL, resumeDispatchLabel);
+            cfw.add(ByteCode.POP);
+        }
+
         String debugVariableName;
         boolean isArrow = false;
         if (scriptOrFn instanceof FunctionNode) {
@@ -601,6 +646,450 @@ class BodyCodegen
             cfw.addExceptionHandler(enterAreaStartLabel, epilogueLabel,
                 finallyHandler, null); // catch any
         }
+
+        if (captureExitLabel != -1) {
+            // Leave with a captured continuation. This is outside of all try
+            // blocks, so that like in the interpreter no finally block runs.
+            cfw.markLabel(captureExitLabel, (short)1);
+            if (fnCurrent != null) {
+                generateActivationExit();
+            }
+            cfw.add(ByteCode.ATHROW);
+        }
+        if (resumeDispatchLabel != -1) {
+            generateResumeDispatch();
+        }
+    }
+
+    /**
+     * Generate the code that restores the state saved by one of the
+     * capturing calls of the function from the ContinuationFrame on the
+     * stack, and continues at that call.
+     */
+    private void generateResumeDispatch()
+    {
+        int count = capturePoints.size();
+        if (count == 0) throw Kit.codeBug();
+        cfw.markLabel(resumeDispatchLabel, (short)1);
+        cfw.add(ByteCode.DUP);
+        addContinuationFrameInvoke("getScope",
+            "()Lorg/mozilla/javascript/Scriptable;");
+        cfw.addAStore(variableObjectLocal);
+        if (fnCurrent != null) {
+            cfw.add(ByteCode.DUP);
+            addContinuationFrameInvoke("getActivation",
+                "()Lorg/mozilla/javascript/Scriptable;");
+            cfw.addALoad(contextLocal);
+            cfw.add(ByteCode.SWAP);
+            addScriptRuntimeInvoke("enterActivationFunction",
+                "(Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")V");
+        }
+        int switchStart = -1;
+        if (count > 1) {
+            cfw.add(ByteCode.DUP);
+            addContinuationFrameInvoke("getResumptionPoint", "()I");
+            switchStart = cfw.addTableSwitch(0, count - 1);
+        }
+        for (int i = 0; i < count; i++) {
+            CapturePoint point = capturePoints.get(i);
+            if (switchStart != -1) {
+                if (i == count - 1) {
+                    cfw.markTableSwitchDefault(switchStart);
+                }
+                cfw.markTableSwitchCase(switchStart, i, 1);
+            }
+            // stack: frame
+            int[] live = point.liveLocals;
+            if (live.length != 0) {
+                cfw.add(ByteCode.DUP);
+                addContinuationFrameInvoke("getLocals",
+                    "()[Ljava/lang/Object;");
+                for (int j = 0; j < live.length; j++) {
+                    cfw.add(ByteCode.DUP);
+                    cfw.addLoadConstant(j);
+                    cfw.add(ByteCode.AALOAD);
+                    if (live[j] == itsZeroArgArray
+                        || live[j] == itsOneArgArray)
+                    {
+                        cfw.add(ByteCode.CHECKCAST, "[Ljava/lang/Object;");
+                    }
+                    cfw.addAStore(live[j]);
+                }
+                cfw.add(ByteCode.POP);
+            }
+            String[] stackTypes = point.stackTypes;
+            if (stackTypes.length != 0) {
+                // Push the saved values below the frame
+                cfw.add(ByteCode.DUP);
+                addContinuationFrameInvoke("getStack",
+                    "()[Ljava/lang/Object;");
+                for (int j = 0; j < stackTypes.length; j++) {
+                    cfw.add(ByteCode.DUP);
+                    cfw.addLoadConstant(j);
+                    cfw.add(ByteCode.AALOAD);
+                    String type = stackTypes[j];
+                    if (INT_VALUE.equals(type)) {
+                        addUnbox("java/lang/Integer", "intValue", "()I");
+                    } else if (LONG_VALUE.equals(type)) {
+                        addUnbox("java/lang/Long", "longValue", "()J");
+                    } else if (DOUBLE_VALUE.equals(type)) {
+                        addUnbox("java/lang/Double", "doubleValue", "()D");
+                    } else if (type != null) {
+                        cfw.add(ByteCode.CHECKCAST, type);
+                    }
+                    if (LONG_VALUE.equals(type) || DOUBLE_VALUE.equals(type)) {
+                        cfw.add(ByteCode.DUP2_X2);
+                        cfw.add(ByteCode.POP2);
+                    } else {
+                        cfw.add(ByteCode.DUP_X2);
+                        cfw.add(ByteCode.POP);
+                    }
+                }
+                cfw.add(ByteCode.POP);
+            }
+            cfw.add(ByteCode.GOTO, point.resumeLabel);
+        }
+    }
+
+    private void addBox(String className, String methodSignature)
+    {
+        cfw.addInvoke(ByteCode.INVOKESTATIC, className, "valueOf",
+                      methodSignature);
+    }
+
+    private void addUnbox(String className, String methodName,
+                          String methodSignature)
+    {
+        cfw.add(ByteCode.CHECKCAST, className);
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, className, methodName,
+                      methodSignature);
+    }
+
+    private void addContinuationFrameInvoke(String methodName,
+                                            String methodSignature)
+    {
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL,
+            "org/mozilla/javascript/ContinuationFrame",
+            methodName, methodSignature);
+    }
+
+    /**
+     * Finds the calls in the statements under node that can capture a
+     * continuation.
+     */
+    private void findCapturingCalls(Node node)
+    {
+        for (Node child = node.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            switch (child.getType()) {
+                case Token.EXPR_VOID:
+                case Token.EXPR_RESULT:
+                case Token.RETURN:
+                case Token.THROW:
+                case Token.ENTERWITH:
+                case Token.ENUM_INIT_KEYS:
+                case Token.ENUM_INIT_VALUES:
+                case Token.ENUM_INIT_ARRAY:
+                case Token.ENUM_INIT_VALUES_IN_ORDER:
+                    if (child.getFirstChild() != null) {
+                        findCapturingCallsInExpression(child.getFirstChild(),
+                                                       EMPTY_STACK);
+                    }
+                    break;
+
+                case Token.IFEQ:
+                case Token.IFNE:
+                    findCapturingCallsInCondition(child.getFirstChild(),
+                                                  EMPTY_STACK);
+                    break;
+
+                case Token.LOOP:
+                case Token.LABEL:
+                case Token.WITH:
+                case Token.BLOCK:
+                case Token.LOCAL_BLOCK:
+                case Token.TRY:
+                case Token.FINALLY:
+                    findCapturingCalls(child);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Checks whether there are calls under node which cannot capture a
+     * continuation because findCapturingCalls did not find them.
+     */
+    private boolean hasCallsOutsideCapturingCalls(Node node)
+    {
+        for (Node child = node.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            int type = child.getType();
+            if ((type == Token.CALL || type == Token.NEW
+                 || type == Token.REF_CALL)
+                && !capturingCalls.containsKey(child))
+            {
+                return true;
+            }
+            if (hasCallsOutsideCapturingCalls(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void findCapturingCallsInCondition(Node node, String[] stack)
+    {
+        switch (node.getType()) {
+            case Token.NOT:
+                findCapturingCallsInCondition(node.getFirstChild(), stack);
+                break;
+
+            case Token.AND:
+            case Token.OR:
+                // Each operand is tested without leaving a value
+                findCapturingCallsInCondition(node.getFirstChild(), stack);
+                findCapturingCallsInCondition(node.getLastChild(), stack);
+                break;
+
+            default:
+                findCapturingCallsInExpression(node, stack);
+        }
+    }
+
+    /**
+     * Finds the calls that can capture a continuation in an expression which
+     * is evaluated while the values described by stack are on the operand
+     * stack: null for an object, the class name of a value of a more
+     * specific class, or the descriptor of a primitive type. Such calls save
+     * these values on capture and restore them on resume, so the parents of
+     * the expression must generate exactly the values described here.
+     */
+    private void findCapturingCallsInExpression(Node node, String[] stack)
+    {
+        Node child = node.getFirstChild();
+        switch (node.getType()) {
+            case Token.CALL:
+            case Token.NEW:
+                if (node.getIntProp(Node.SPECIALCALL_PROP,
+                        Node.NON_SPECIALCALL) != Node.NON_SPECIALCALL
+                    || node.getProp(Node.DIRECTCALL_PROP) != null)
+                {
+                    break;
+                }
+                capturingCalls.put(node, stack);
+                // Same order as in visitCapturingCall
+                if (node.getType() == Token.NEW) {
+                    findCapturingCallsInExpression(child, stack);
+                    stack = push(stack, null);
+                } else {
+                    findCapturingCallsInFunction(child, stack);
+                    stack = push(push(stack, "org/mozilla/javascript/Callable"),
+                                 "org/mozilla/javascript/Scriptable");
+                }
+                findCapturingCallsInArray(child.getNext(), stack);
+                break;
+
+            case Token.ARRAYLIT:
+                findCapturingCallsInArray(child, stack);
+                break;
+
+            case Token.OBJECTLIT:
+                // The values follow the array of property ids
+                stack = push(push(push(push(stack, OBJECT_ARRAY),
+                                       OBJECT_ARRAY), OBJECT_ARRAY), INT_VALUE);
+                for (Node n = child; n != null; n = n.getNext()) {
+                    int type = n.getType();
+                    if (type != Token.GET && type != Token.SET
+                        && type != Token.METHOD)
+                    {
+                        findCapturingCallsInExpression(n, stack);
+                    }
+                }
+                break;
+
+            case Token.GETPROP:
+            case Token.TYPEOF:
+            case Token.VOID:
+            case Token.POS:
+            case Token.NEG:
+            case Token.TO_OBJECT:
+            case Token.TO_DOUBLE:
+                findCapturingCallsInExpression(child, stack);
+                break;
+
+            case Token.BITNOT:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    findCapturingCallsInExpression(child, stack);
+                }
+                break;
+
+            case Token.NOT:
+                findCapturingCallsInCondition(child, stack);
+                break;
+
+            case Token.GETELEM:
+            case Token.IN:
+            case Token.INSTANCEOF:
+                findCapturingCallsInExpression(child, stack);
+                findCapturingCallsInExpression(child.getNext(),
+                                               push(stack, null));
+                break;
+
+            case Token.AND:
+            case Token.OR:
+            case Token.HOOK:
+            case Token.COMMA:
+                // The value of the condition or of the previous expression
+                // is gone when another operand is evaluated
+                for (Node n = child; n != null; n = n.getNext()) {
+                    findCapturingCallsInExpression(n, stack);
+                }
+                break;
+
+            case Token.SETNAME:
+            case Token.STRICT_SETNAME:
+                // The value follows the scope to set the name in
+                findCapturingCallsInExpression(child.getNext(),
+                                               push(stack, null));
+                break;
+
+            case Token.SETPROP:
+                findCapturingCallsInExpression(child, stack);
+                stack = push(stack, null);
+                if (!compilerEnv.isUseDynamicCallSites()) {
+                    stack = push(stack, "java/lang/String");
+                }
+                findCapturingCallsInExpression(child.getNext().getNext(),
+                                               stack);
+                break;
+
+            case Token.SETELEM:
+                findCapturingCallsInExpression(child, stack);
+                stack = push(stack, null);
+                findCapturingCallsInExpression(child.getNext(), stack);
+                findCapturingCallsInExpression(child.getNext().getNext(),
+                    push(stack,
+                         node.getIntProp(Node.ISNUMBER_PROP, -1) == -1
+                             ? null : DOUBLE_VALUE));
+                break;
+
+            case Token.ADD:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    findCapturingCallsInExpression(child, stack);
+                    findCapturingCallsInExpression(child.getNext(),
+                                                   push(stack, null));
+                }
+                break;
+
+            case Token.SUB:
+            case Token.MUL:
+            case Token.DIV:
+            case Token.MOD:
+                // The second operand is evaluated after the first one has
+                // been converted to a number
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    findCapturingCallsInExpression(child, stack);
+                    findCapturingCallsInExpression(child.getNext(),
+                                                   push(stack, DOUBLE_VALUE));
+                }
+                break;
+
+            case Token.BITOR:
+            case Token.BITXOR:
+            case Token.BITAND:
+            case Token.LSH:
+            case Token.RSH:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) == -1) {
+                    findCapturingCallsInExpression(child, stack);
+                    findCapturingCallsInExpression(child.getNext(),
+                                                   push(stack, INT_VALUE));
+                }
+                break;
+
+            case Token.URSH:
+                findCapturingCallsInExpression(child, stack);
+                findCapturingCallsInExpression(child.getNext(),
+                                               push(stack, LONG_VALUE));
+                break;
+
+            case Token.LT:
+            case Token.LE:
+            case Token.GT:
+            case Token.GE:
+                findCapturingCallsInExpression(child, stack);
+                findCapturingCallsInExpression(child.getNext(),
+                    push(stack, node.getIntProp(Node.ISNUMBER_PROP, -1) == -1
+                                    ? null : DOUBLE_VALUE));
+                break;
+
+            case Token.EQ:
+            case Token.NE:
+            case Token.SHEQ:
+            case Token.SHNE:
+                // A comparison with null evaluates only the other operand
+                if (child.getType() == Token.NULL) {
+                    findCapturingCallsInExpression(child.getNext(), stack);
+                } else if (child.getNext().getType() == Token.NULL) {
+                    findCapturingCallsInExpression(child, stack);
+                } else {
+                    findCapturingCallsInExpression(child, stack);
+                    findCapturingCallsInExpression(child.getNext(),
+                                                   push(stack, null));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Finds the capturing calls in the expression of the function of a call,
+     * see generateFunctionAndThisObj.
+     */
+    private void findCapturingCallsInFunction(Node node, String[] stack)
+    {
+        Node child = node.getFirstChild();
+        switch (node.getType()) {
+            case Token.GETPROP:
+                findCapturingCallsInExpression(child, stack);
+                break;
+
+            case Token.GETELEM:
+                findCapturingCallsInExpression(child, stack);
+                findCapturingCallsInExpression(child.getNext(),
+                                               push(stack, null));
+                break;
+
+            case Token.NAME:
+                break;
+
+            default:
+                findCapturingCallsInExpression(node, stack);
+        }
+    }
+
+    /**
+     * Finds the capturing calls in the elements of an array that is
+     * filled as in generateCallArgArray and visitArrayLiteral.
+     */
+    private void findCapturingCallsInArray(Node node, String[] stack)
+    {
+        stack = push(push(push(stack, OBJECT_ARRAY), OBJECT_ARRAY),
+                     INT_VALUE);
+        for (Node n = node; n != null; n = n.getNext()) {
+            findCapturingCallsInExpression(n, stack);
+        }
+    }
+
+    private static String[] push(String[] stack, String type)
+    {
+        String[] result = new String[stack.length + 1];
+        System.arraycopy(stack, 0, result, 0, stack.length);
+        result[stack.length] = type;
+        return result;
     }
 
     private void generateGetGeneratorLocalsState() {
@@ -616,6 +1105,42 @@ class BodyCodegen
             "(Ljava/lang/Object;Ljava/lang/Object;)V");
     }
 
+    /**
+     * Generate a loop with values that the Optimizer moved in front of it,
+     * see Optimizer.findLoopInvariants.
+     */
+    private void visitLoopWithInvariants(Node node, Node child)
+    {
+        if (compilerEnv.isGenerateObserverCount()) {
+            addInstructionCount(1);
+        }
+        // The loop is entered at its first jump or target
+        while (child.getType() != Token.GOTO
+               && child.getType() != Token.TARGET)
+        {
+            generateStatement(child);
+            child = child.getNext();
+        }
+        Node[] invariants = (Node[])node.getProp(Node.LOOP_INVARIANTS_PROP);
+        for (Node holder : invariants) {
+            generateExpression(holder.getFirstChild(), holder);
+            addOptRuntimeInvoke("lengthHolder",
+                "(Ljava/lang/Object;)Ljava/lang/Object;");
+            short local = getNewWordLocal();
+            cfw.addAStore(local);
+            holder.putIntProp(Node.LOCAL_PROP, local);
+        }
+        while (child != null) {
+            generateStatement(child);
+            child = child.getNext();
+        }
+        for (Node holder : invariants) {
+            releaseWordLocal(
+                (short)holder.getExistingIntProp(Node.LOCAL_PROP));
+            holder.removeProp(Node.LOCAL_PROP);
+        }
+    }
+
     private void generateActivationExit()
     {
         if (fnCurrent == null || hasVarsInRegs) throw Kit.codeBug();
@@ -631,6 +1156,11 @@ class BodyCodegen
         Node child = node.getFirstChild();
         switch (type) {
             case Token.LOOP:
+                if (node.getProp(Node.LOOP_INVARIANTS_PROP) != null) {
+                    visitLoopWithInvariants(node, child);
+                    break;
+                }
+                // fall through
             case Token.LABEL:
             case Token.WITH:
             case Token.SCRIPT:
@@ -652,7 +1182,7 @@ class BodyCodegen
                 boolean prevLocal = inLocalBlock;
                 inLocalBlock = true;
                 int local = getNewWordLocal();
-                if (isGenerator) {
+                if (isGenerator || capturingCalls != null) {
                     cfw.add(ByteCode.ACONST_NULL);
                     cfw.addAStore(local);
                 }
@@ -697,6 +1227,10 @@ class BodyCodegen
                 String name = child.getString(); // name of exception
                 child = child.getNext();
                 generateExpression(child, node); // load expression object
+                if (capturingCalls != null) {
+                    // Restored from a continuation as an object
+                    cfw.add(ByteCode.CHECKCAST, "java/lang/Throwable");
+                }
                 if (scopeIndex == 0) {
                     cfw.add(ByteCode.ACONST_NULL);
                 } else {
@@ -980,6 +1514,28 @@ class BodyCodegen
             {
                 cfw.addALoad(contextLocal);
                 cfw.addALoad(variableObjectLocal);
+                int activationVar = node.getIntProp(Node.ACTIVATION_VAR_PROP, -1);
+                if (activationVar != -1) {
+                    cfw.addPush(node.getString());
+                    addActivationVarOperands(activationVar);
+                    addScriptRuntimeInvoke(
+                        "getActivationVar",
+                        "(Lorg/mozilla/javascript/Context;"
+                            +"Lorg/mozilla/javascript/Scriptable;"
+                            +"Ljava/lang/String;"
+                            +"II"
+                            +")Ljava/lang/Object;");
+                    break;
+                }
+                if (compilerEnv.isUseDynamicCallSites()) {
+                    addDynamicPropertyInvoke(
+                        PropertyCallSite.NAME,
+                        node.getString(),
+                        "(Lorg/mozilla/javascript/Context;"
+                            +"Lorg/mozilla/javascript/Scriptable;"
+                            +")Ljava/lang/Object;");
+                    break;
+                }
                 cfw.addPush(node.getString());
                 addScriptRuntimeInvoke(
                     "name",
@@ -1002,6 +1558,10 @@ class BodyCodegen
 
                     if (target != null) {
                         visitOptimizedCall(node, target, type, child);
+                    } else if (capturingCalls != null
+                               && capturingCalls.containsKey(node))
+                    {
+                        visitCapturingCall(node, child);
                     } else if (type == Token.CALL) {
                         visitStandardCall(node, child);
                     } else {
@@ -1140,6 +1700,11 @@ class BodyCodegen
             }
 
             case Token.BITNOT:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                    generateInt32Expression(node, parent);
+                    cfw.add(ByteCode.I2D);
+                    break;
+                }
                 generateExpression(child, node);
                 addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
                 cfw.addPush(-1);         // implement ~a as (a ^ -1)
@@ -1174,8 +1739,7 @@ class BodyCodegen
             case Token.AND: {
                 generateExpression(child, node);
                 cfw.add(ByteCode.DUP);
-                addScriptRuntimeInvoke("toBoolean",
-                    "(Ljava/lang/Object;)Z");
+                addObjectToBoolean(child);
                 int falseTarget = cfw.acquireLabel();
                 if (type == Token.AND)
                     cfw.add(ByteCode.IFEQ, falseTarget);
@@ -1191,8 +1755,7 @@ class BodyCodegen
                 Node ifThen = child.getNext();
                 Node ifElse = ifThen.getNext();
                 generateExpression(child, node);
-                addScriptRuntimeInvoke("toBoolean",
-                    "(Ljava/lang/Object;)Z");
+                addObjectToBoolean(child);
                 int elseTarget = cfw.acquireLabel();
                 cfw.add(ByteCode.IFEQ, elseTarget);
                 short stack = cfw.getStackTop();
@@ -1206,9 +1769,31 @@ class BodyCodegen
             break;
 
             case Token.ADD: {
+                int numberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
+                // Concatenate directly when one operand is a string and the
+                // other one a primitive, which converts the same way with
+                // ToPrimitive and ToString
+                boolean leftIsString = false, rightIsString = false;
+                if (numberFlag == -1) {
+                    int lType = Optimizer.expressionType(fnCurrent, child);
+                    int rType = Optimizer.expressionType(fnCurrent,
+                                                         child.getNext());
+                    leftIsString = lType == Optimizer.StringType
+                                   && Optimizer.isPrimitiveType(rType);
+                    rightIsString = rType == Optimizer.StringType
+                                    && Optimizer.isPrimitiveType(lType);
+                }
                 generateExpression(child, node);
+                if (leftIsString && child.getType() != Token.STRING) {
+                    cfw.add(ByteCode.CHECKCAST, "java/lang/CharSequence");
+                }
                 generateExpression(child.getNext(), node);
-                switch (node.getIntProp(Node.ISNUMBER_PROP, -1)) {
+                if (rightIsString && !leftIsString
+                    && child.getNext().getType() != Token.STRING)
+                {
+                    cfw.add(ByteCode.CHECKCAST, "java/lang/CharSequence");
+                }
+                switch (numberFlag) {
                     case Node.BOTH:
                         cfw.add(ByteCode.DADD);
                         break;
@@ -1221,12 +1806,14 @@ class BodyCodegen
                             "(Ljava/lang/Object;D)Ljava/lang/Object;");
                         break;
                     default:
-                        if (child.getType() == Token.STRING) {
+                        if (child.getType() == Token.STRING || leftIsString) {
                             addScriptRuntimeInvoke("add",
                                 "(Ljava/lang/CharSequence;"
                                     +"Ljava/lang/Object;"
                                     +")Ljava/lang/CharSequence;");
-                        } else if (child.getNext().getType() == Token.STRING) {
+                        } else if (child.getNext().getType() == Token.STRING
+                                   || rightIsString)
+                        {
                             addScriptRuntimeInvoke("add",
                                 "(Ljava/lang/Object;"
                                     +"Ljava/lang/CharSequence;"
@@ -1813,7 +2400,7 @@ class BodyCodegen
             default:
                 // Generate generic code for non-optimized jump
                 generateExpression(node, parent);
-                addScriptRuntimeInvoke("toBoolean", "(Ljava/lang/Object;)Z");
+                addObjectToBoolean(node);
                 cfw.add(ByteCode.IFNE, trueLabel);
                 cfw.add(ByteCode.GOTO, falseLabel);
         }
@@ -1907,17 +2494,45 @@ class BodyCodegen
         ret.jsrPoints.add(Integer.valueOf(retLabel));
     }
 
+    private static final String LITERAL_FACTORY_SIGNATURE =
+        "(Lorg/mozilla/javascript/Context;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +"Lorg/mozilla/javascript/Scriptable;"
+            +"[Ljava/lang/Object;"
+            +")Lorg/mozilla/javascript/Scriptable;";
+
+    // The function object of a lazy function is an instance of the class
+    // of its script, so its literal factories take it as an argument.
+    private static final String LAZY_LITERAL_FACTORY_SIGNATURE =
+        "(Lorg/mozilla/javascript/NativeFunction;"
+            + LITERAL_FACTORY_SIGNATURE.substring(1);
+
+    private void startLiteralFactory(String methodName) {
+        if (codegen.isLazyRoot(scriptOrFn)) {
+            cfw.startMethod(methodName, LAZY_LITERAL_FACTORY_SIGNATURE,
+                (short)(ACC_STATIC | ACC_PRIVATE));
+        } else {
+            cfw.startMethod(methodName, LITERAL_FACTORY_SIGNATURE,
+                ACC_PRIVATE);
+        }
+    }
+
+    private void addLiteralFactoryInvoke(String methodName) {
+        if (codegen.isLazyRoot(scriptOrFn)) {
+            cfw.addInvoke(ByteCode.INVOKESTATIC, codegen.mainClassName,
+                methodName, LAZY_LITERAL_FACTORY_SIGNATURE);
+        } else {
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, codegen.mainClassName,
+                methodName, LITERAL_FACTORY_SIGNATURE);
+        }
+    }
+
     private void generateArrayLiteralFactory(Node node, int count) {
         String methodName = codegen.getBodyMethodName(scriptOrFn) + "_literal" + count;
         initBodyGeneration();
         argsLocal = firstFreeLocal++;
         localsMax = firstFreeLocal;
-        cfw.startMethod(methodName, "(Lorg/mozilla/javascript/Context;"
-                +"Lorg/mozilla/javascript/Scriptable;"
-                +"Lorg/mozilla/javascript/Scriptable;"
-                +"[Ljava/lang/Object;"
-                +")Lorg/mozilla/javascript/Scriptable;",
-            ACC_PRIVATE);
+        startLiteralFactory(methodName);
         visitArrayLiteral(node, node.getFirstChild(), true);
         cfw.add(ByteCode.ARETURN);
         cfw.stopMethod((short)(localsMax + 1));
@@ -1928,12 +2543,7 @@ class BodyCodegen
         initBodyGeneration();
         argsLocal = firstFreeLocal++;
         localsMax = firstFreeLocal;
-        cfw.startMethod(methodName, "(Lorg/mozilla/javascript/Context;"
-                +"Lorg/mozilla/javascript/Scriptable;"
-                +"Lorg/mozilla/javascript/Scriptable;"
-                +"[Ljava/lang/Object;"
-                +")Lorg/mozilla/javascript/Scriptable;",
-            ACC_PRIVATE);
+        startLiteralFactory(methodName);
         visitObjectLiteral(node, node.getFirstChild(), true);
         cfw.add(ByteCode.ARETURN);
         cfw.stopMethod((short)(localsMax + 1));
@@ -1947,9 +2557,11 @@ class BodyCodegen
             ++count;
         }
 
-        // If code budget is tight swap out literals into separate method
+        // If code budget is tight swap out literals into separate method,
+        // unless their calls must save the frame for continuations
         if (!topLevel && (count > 10 || cfw.getCurrentCodeOffset() > 30000)
-            && !hasVarsInRegs && !isGenerator && !inLocalBlock) {
+            && !hasVarsInRegs && !isGenerator && !inLocalBlock
+            && capturingCalls == null) {
             if (literals == null) {
                 literals = new LinkedList<Node>();
             }
@@ -1960,12 +2572,7 @@ class BodyCodegen
             cfw.addALoad(variableObjectLocal);
             cfw.addALoad(thisObjLocal);
             cfw.addALoad(argsLocal);
-            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, codegen.mainClassName, methodName,
-                "(Lorg/mozilla/javascript/Context;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"[Ljava/lang/Object;"
-                    +")Lorg/mozilla/javascript/Scriptable;");
+            addLiteralFactoryInvoke(methodName);
             return;
         }
 
@@ -2075,9 +2682,11 @@ class BodyCodegen
         Object[] properties = (Object[])node.getProp(Node.OBJECT_IDS_PROP);
         int count = properties.length;
 
-        // If code budget is tight swap out literals into separate method
+        // If code budget is tight swap out literals into separate method,
+        // unless their calls must save the frame for continuations
         if (!topLevel && (count > 10 || cfw.getCurrentCodeOffset() > 30000)
-            && !hasVarsInRegs && !isGenerator && !inLocalBlock) {
+            && !hasVarsInRegs && !isGenerator && !inLocalBlock
+            && capturingCalls == null) {
             if (literals == null) {
                 literals = new LinkedList<Node>();
             }
@@ -2088,12 +2697,7 @@ class BodyCodegen
             cfw.addALoad(variableObjectLocal);
             cfw.addALoad(thisObjLocal);
             cfw.addALoad(argsLocal);
-            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, codegen.mainClassName, methodName,
-                "(Lorg/mozilla/javascript/Context;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"[Ljava/lang/Object;"
-                    +")Lorg/mozilla/javascript/Scriptable;");
+            addLiteralFactoryInvoke(methodName);
             return;
         }
 
@@ -2227,7 +2831,8 @@ class BodyCodegen
                     +"Lorg/mozilla/javascript/Context;"
                     +"Lorg/mozilla/javascript/Scriptable;"
                     +")Ljava/lang/Object;";
-            } else if (childType == Token.GETPROP) {
+            } else if (childType == Token.GETPROP
+                       && !compilerEnv.isUseDynamicCallSites()) {
                 // x.name() call
                 Node propTarget = child.getFirstChild();
                 generateExpression(propTarget, node);
@@ -2304,10 +2909,160 @@ class BodyCodegen
                     +")Ljava/lang/Object;";
             }
         }
-
+
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        addOptRuntimeInvoke(methodName, signature);
+    }
+
+    /**
+     * Generate a call that can capture a continuation. When it does, the
+     * call returns the ContinuationPending exception, and the function saves
+     * its operand stack and locals in a ContinuationFrame and rethrows it.
+     * When the continuation is resumed, the dispatch at the end of the
+     * function restores them and jumps back here to repeat the call.
+     */
+    private void visitCapturingCall(Node node, Node child)
+    {
+        CapturePoint point = new CapturePoint();
+        // The stack top of the class file writer is not exact after jumps
+        point.stackTypes = capturingCalls.get(node);
+        int stackDepth = point.stackTypes.length;
+        int count = 0;
+        for (int i = 0; i < firstFreeLocal; i++) {
+            if (locals[i] != 0)
+                count++;
+        }
+        point.liveLocals = new int[count];
+        count = 0;
+        for (int i = 0; i < firstFreeLocal; i++) {
+            if (locals[i] != 0)
+                point.liveLocals[count++] = i;
+        }
+        point.resumeLabel = cfw.acquireLabel();
+        int resumptionPoint = capturePoints.size();
+        capturePoints.add(point);
+        short stackTop = cfw.getStackTop();
+
+        boolean isNew = node.getType() == Token.NEW;
+        if (isNew) {
+            generateExpression(child, node);
+            // stack: ... functionObj
+            generateCallArgArray(node, child.getNext(), false);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            addOptRuntimeInvoke("newObjectCapturing",
+                "(Ljava/lang/Object;"
+                    +"[Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")Ljava/lang/Object;");
+        } else {
+            generateFunctionAndThisObj(child, node);
+            // stack: ... functionObj thisObj
+            generateCallArgArray(node, child.getNext(), false);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            addOptRuntimeInvoke("callCapturing",
+                "(Lorg/mozilla/javascript/Callable;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +"[Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")Ljava/lang/Object;");
+        }
+
+        int afterCall = cfw.acquireLabel();
+        int notCaptured = cfw.acquireLabel();
+        cfw.markLabel(afterCall);
+        cfw.add(ByteCode.DUP);
+        cfw.add(ByteCode.INSTANCEOF,
+            "org/mozilla/javascript/ContinuationPending");
+        cfw.add(ByteCode.IFEQ, notCaptured);
+
+        cfw.add(ByteCode.CHECKCAST,
+            "org/mozilla/javascript/ContinuationPending");
+        short pendingLocal = getNewWordLocal();
+        cfw.addAStore(pendingLocal);
+        // Move the stack into an array, from the top
+        cfw.addLoadConstant(stackDepth);
+        cfw.add(ByteCode.ANEWARRAY, "java/lang/Object");
+        for (int i = stackDepth - 1; i >= 0; i--) {
+            String type = point.stackTypes[i];
+            if (INT_VALUE.equals(type)) {
+                cfw.add(ByteCode.SWAP);
+                addBox("java/lang/Integer", "(I)Ljava/lang/Integer;");
+                cfw.add(ByteCode.SWAP);
+            } else if (LONG_VALUE.equals(type)) {
+                cfw.add(ByteCode.DUP_X2);
+                cfw.add(ByteCode.POP);
+                addBox("java/lang/Long", "(J)Ljava/lang/Long;");
+                cfw.add(ByteCode.SWAP);
+            } else if (DOUBLE_VALUE.equals(type)) {
+                cfw.add(ByteCode.DUP_X2);
+                cfw.add(ByteCode.POP);
+                addBox("java/lang/Double", "(D)Ljava/lang/Double;");
+                cfw.add(ByteCode.SWAP);
+            }
+            cfw.add(ByteCode.DUP_X1);
+            cfw.add(ByteCode.SWAP);
+            cfw.addLoadConstant(i);
+            cfw.add(ByteCode.SWAP);
+            cfw.add(ByteCode.AASTORE);
+        }
+        cfw.addLoadConstant(count);
+        cfw.add(ByteCode.ANEWARRAY, "java/lang/Object");
+        for (int i = 0; i < count; i++) {
+            cfw.add(ByteCode.DUP);
+            cfw.addLoadConstant(i);
+            cfw.addALoad(point.liveLocals[i]);
+            cfw.add(ByteCode.AASTORE);
+        }
+        cfw.addALoad(pendingLocal);
+        releaseWordLocal(pendingLocal);
+        cfw.addALoad(funObjLocal);
+        cfw.addALoad(thisObjLocal);
+        cfw.addALoad(argsLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addLoadConstant(resumptionPoint);
+        cfw.addALoad(contextLocal);
+        cfw.addInvoke(ByteCode.INVOKESTATIC,
+            "org/mozilla/javascript/ContinuationFrame",
+            "save",
+            "([Ljava/lang/Object;"
+                +"[Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/ContinuationPending;"
+                +"Lorg/mozilla/javascript/NativeFunction;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +"[Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +"I"
+                +"Lorg/mozilla/javascript/Context;"
+                +")Lorg/mozilla/javascript/ContinuationPending;");
+        if (captureExitLabel == -1) {
+            captureExitLabel = cfw.acquireLabel();
+        }
+        cfw.add(ByteCode.GOTO, captureExitLabel);
+
+        // The resume dispatch jumps here with the frame on top of the
+        // restored stack
+        int stackWords = stackDepth;
+        for (String type : point.stackTypes) {
+            if (LONG_VALUE.equals(type) || DOUBLE_VALUE.equals(type)) {
+                stackWords++;
+            }
+        }
+        cfw.markLabel(point.resumeLabel, (short)(stackWords + 1));
         cfw.addALoad(contextLocal);
-        cfw.addALoad(variableObjectLocal);
-        addOptRuntimeInvoke(methodName, signature);
+        cfw.addInvoke(ByteCode.INVOKESTATIC,
+            "org/mozilla/javascript/ContinuationFrame",
+            isNew ? "resumeConstruct" : "resumeCall",
+            "(Lorg/mozilla/javascript/ContinuationFrame;"
+                +"Lorg/mozilla/javascript/Context;"
+                +")Ljava/lang/Object;");
+        cfw.add(ByteCode.GOTO, afterCall);
+
+        cfw.markLabel(notCaptured, (short)(stackTop + 1));
     }
 
     private void visitStandardNew(Node node, Node child)
@@ -2360,7 +3115,63 @@ class BodyCodegen
         cfw.add(ByteCode.IF_ICMPNE, regularCall);
 
         // stack: ... directFunct
+        if (type == Token.CALL && !isGenerator
+            && target.getInlineExpression() != null)
+        {
+            cfw.add(ByteCode.POP);
+            visitInlinedCall(node, target, firstArgChild);
+        } else {
+            generateDirectCall(node, target, type, firstArgChild,
+                               thisObjLocal);
+        }
+
+        cfw.add(ByteCode.GOTO, beyond);
+
+        cfw.markLabel(regularCall);
+        // stack: ... functionObj
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        // stack: ... functionObj cx scope
+        if (type != Token.NEW) {
+            cfw.addALoad(thisObjLocal);
+            releaseWordLocal(thisObjLocal);
+            // stack: ... functionObj cx scope thisObj
+        }
+        // XXX: this will generate code for the child array the second time,
+        // so expression code generation better not to alter tree structure...
+        generateCallArgArray(node, firstArgChild, true);
+
+        if (type == Token.NEW) {
+            addScriptRuntimeInvoke(
+                "newObject",
+                "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +"[Ljava/lang/Object;"
+                    +")Lorg/mozilla/javascript/Scriptable;");
+        } else {
+            cfw.addInvoke(ByteCode.INVOKEINTERFACE,
+                "org/mozilla/javascript/Callable",
+                "call",
+                "(Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +"[Ljava/lang/Object;"
+                    +")Ljava/lang/Object;");
+        }
+
+        cfw.markLabel(beyond);
+    }
+
+    /**
+     * Generate the static call to the body method of target, with the
+     * function object on the stack.
+     */
+    private void generateDirectCall(Node node, OptFunctionNode target,
+        int type, Node firstArgChild, short thisObjLocal)
+    {
         cfw.addALoad(contextLocal);
+
         cfw.addALoad(variableObjectLocal);
         // stack: ... directFunc cx scope
 
@@ -2408,42 +3219,37 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 : codegen.getBodyMethodName(target.fnode),
             codegen.getBodyMethodSignature(target.fnode));
 
-        cfw.add(ByteCode.GOTO, beyond);
+    }
 
-        cfw.markLabel(regularCall);
-        // stack: ... functionObj
-        cfw.addALoad(contextLocal);
-        cfw.addALoad(variableObjectLocal);
-        // stack: ... functionObj cx scope
-        if (type != Token.NEW) {
-            cfw.addALoad(thisObjLocal);
-            releaseWordLocal(thisObjLocal);
-            // stack: ... functionObj cx scope thisObj
+    /**
+     * Generate the expression returned by target in place of a direct call
+     * to it. The arguments are evaluated in order into registers that the
+     * parameters of the expression are read from.
+     */
+    private void visitInlinedCall(Node node, OptFunctionNode target,
+        Node argChild)
+    {
+        Node[] parameters = target.getInlineParameters();
+        short[] argLocals = new short[parameters.length];
+        for (int i = 0; i != parameters.length; ++i) {
+            int dcp_register = nodeIsDirectCallParameter(argChild);
+            if (dcp_register >= 0) {
+                dcpLoadAsObject(dcp_register);
+            } else {
+                generateExpression(argChild, node);
+                if (argChild.getIntProp(Node.ISNUMBER_PROP, -1) == Node.BOTH) {
+                    addDoubleWrap();
+                }
+            }
+            argLocals[i] = getNewWordLocal();
+            cfw.addAStore(argLocals[i]);
+            parameters[i].putIntProp(Node.LOCAL_PROP, argLocals[i]);
+            argChild = argChild.getNext();
         }
-        // XXX: this will generate code for the child array the second time,
-        // so expression code generation better not to alter tree structure...
-        generateCallArgArray(node, firstArgChild, true);
-
-        if (type == Token.NEW) {
-            addScriptRuntimeInvoke(
-                "newObject",
-                "(Ljava/lang/Object;"
-                    +"Lorg/mozilla/javascript/Context;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"[Ljava/lang/Object;"
-                    +")Lorg/mozilla/javascript/Scriptable;");
-        } else {
-            cfw.addInvoke(ByteCode.INVOKEINTERFACE,
-                "org/mozilla/javascript/Callable",
-                "call",
-                "(Lorg/mozilla/javascript/Context;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"Lorg/mozilla/javascript/Scriptable;"
-                    +"[Ljava/lang/Object;"
-                    +")Ljava/lang/Object;");
+        generateExpression(target.getInlineExpression(), node);
+        for (short argLocal : argLocals) {
+            releaseWordLocal(argLocal);
         }
-
-        cfw.markLabel(beyond);
     }
 
     private void generateCallArgArray(Node node, Node argChild, boolean directCall)
@@ -2521,7 +3327,17 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 Node target = node.getFirstChild();
                 generateExpression(target, node);
                 Node id = target.getNext();
-                if (type == Token.GETPROP) {
+                if (type == Token.GETPROP && compilerEnv.isUseDynamicCallSites()) {
+                    cfw.addALoad(contextLocal);
+                    cfw.addALoad(variableObjectLocal);
+                    addDynamicPropertyInvoke(
+                        PropertyCallSite.GET_PROP_FUNCTION_AND_THIS,
+                        id.getString(),
+                        "(Ljava/lang/Object;"
+                            +"Lorg/mozilla/javascript/Context;"
+                            +"Lorg/mozilla/javascript/Scriptable;"
+                            +")Lorg/mozilla/javascript/Callable;");
+                } else if (type == Token.GETPROP) {
                     String property = id.getString();
                     cfw.addPush(property);
                     cfw.addALoad(contextLocal);
@@ -2552,6 +3368,32 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
             case Token.NAME: {
                 String name = node.getString();
+                int activationVar = node.getIntProp(Node.ACTIVATION_VAR_PROP, -1);
+                if (activationVar != -1) {
+                    cfw.addALoad(contextLocal);
+                    cfw.addALoad(variableObjectLocal);
+                    cfw.addPush(name);
+                    addActivationVarOperands(activationVar);
+                    addScriptRuntimeInvoke(
+                        "getActivationVarFunctionAndThis",
+                        "(Lorg/mozilla/javascript/Context;"
+                            +"Lorg/mozilla/javascript/Scriptable;"
+                            +"Ljava/lang/String;"
+                            +"II"
+                            +")Lorg/mozilla/javascript/Callable;");
+                    break;
+                }
+                if (compilerEnv.isUseDynamicCallSites()) {
+                    cfw.addALoad(contextLocal);
+                    cfw.addALoad(variableObjectLocal);
+                    addDynamicPropertyInvoke(
+                        PropertyCallSite.NAME_FUNCTION_AND_THIS,
+                        name,
+                        "(Lorg/mozilla/javascript/Context;"
+                            +"Lorg/mozilla/javascript/Scriptable;"
+                            +")Lorg/mozilla/javascript/Callable;");
+                    break;
+                }
                 cfw.addPush(name);
                 cfw.addALoad(contextLocal);
                 cfw.addALoad(variableObjectLocal);
@@ -2735,7 +3577,7 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
 
             // rethrow
             cfw.addALoad(exceptionLocal);
-            if (isGenerator)
+            if (isGenerator || capturingCalls != null)
                 cfw.add(ByteCode.CHECKCAST, "java/lang/Throwable");
             cfw.add(ByteCode.ATHROW);
 
@@ -3448,12 +4290,12 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitBitOp(Node node, int type, Node child)
     {
         int childNumberFlag = node.getIntProp(Node.ISNUMBER_PROP, -1);
-        generateExpression(child, node);
 
         // special-case URSH; work with the target arg as a long, so
         // that we can return a 32-bit unsigned value, and call
         // toUint32 instead of toInt32.
         if (type == Token.URSH) {
+            generateExpression(child, node);
             addScriptRuntimeInvoke("toUint32", "(Ljava/lang/Object;)J");
             generateExpression(child.getNext(), node);
             addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
@@ -3467,15 +4309,22 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             return;
         }
         if (childNumberFlag == -1) {
+            generateExpression(child, node);
             addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
             generateExpression(child.getNext(), node);
             addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+            addIntBitOp(type);
+            cfw.add(ByteCode.I2D);
+            addDoubleWrap();
         }
         else {
-            addScriptRuntimeInvoke("toInt32", "(D)I");
-            generateExpression(child.getNext(), node);
-            addScriptRuntimeInvoke("toInt32", "(D)I");
+            generateInt32Expression(node, null);
+            cfw.add(ByteCode.I2D);
         }
+    }
+
+    private void addIntBitOp(int type)
+    {
         switch (type) {
             case Token.BITOR:
                 cfw.add(ByteCode.IOR);
@@ -3495,10 +4344,69 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             default:
                 throw Codegen.badTree();
         }
-        cfw.add(ByteCode.I2D);
-        if (childNumberFlag == -1) {
-            addDoubleWrap();
+    }
+
+    /**
+     * Generate ToInt32 of a Number valued node as an int. Operands that are
+     * int32 values already, like int literals, the results of nested bit
+     * operations and int32 variables, are not converted through
+     * ScriptRuntime.toInt32 and the bit operations stay in ints.
+     */
+    private void generateInt32Expression(Node node, Node parent)
+    {
+        int type = node.getType();
+        switch (type) {
+            case Token.NUMBER:
+                if (Optimizer.expressionType(fnCurrent, node)
+                    == Optimizer.Int32Type)
+                {
+                    cfw.addPush((int)node.getDouble());
+                    return;
+                }
+                break;
+
+            case Token.GETVAR:
+                if (Optimizer.expressionType(fnCurrent, node)
+                    == Optimizer.Int32Type)
+                {
+                    // an int32 is kept exactly in the double register
+                    generateExpression(node, parent);
+                    cfw.add(ByteCode.D2I);
+                    return;
+                }
+                break;
+
+            case Token.BITOR:
+            case Token.BITXOR:
+            case Token.BITAND:
+            case Token.LSH:
+            case Token.RSH:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                    Node child = node.getFirstChild();
+                    generateInt32Expression(child, node);
+                    generateInt32Expression(child.getNext(), node);
+                    addIntBitOp(type);
+                    return;
+                }
+                break;
+
+            case Token.TO_DOUBLE:
+                // ToInt32 converts with ToNumber itself
+                generateExpression(node.getFirstChild(), node);
+                addScriptRuntimeInvoke("toInt32", "(Ljava/lang/Object;)I");
+                return;
+
+            case Token.BITNOT:
+                if (node.getIntProp(Node.ISNUMBER_PROP, -1) != -1) {
+                    generateInt32Expression(node.getFirstChild(), node);
+                    cfw.addPush(-1);         // implement ~a as (a ^ -1)
+                    cfw.add(ByteCode.IXOR);
+                    return;
+                }
+                break;
         }
+        generateExpression(node, parent);
+        addScriptRuntimeInvoke("toInt32", "(D)I");
     }
 
     private int nodeIsDirectCallParameter(Node node)
@@ -3756,6 +4664,10 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitSetName(Node node, Node child)
     {
         String name = node.getFirstChild().getString();
+        if (node.getIntProp(Node.ACTIVATION_VAR_PROP, -1) != -1) {
+            visitSetActivationVar(node, name);
+            return;
+        }
         while (child != null) {
             generateExpression(child, node);
             child = child.getNext();
@@ -3776,6 +4688,10 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private void visitStrictSetName(Node node, Node child)
     {
         String name = node.getFirstChild().getString();
+        if (node.getIntProp(Node.ACTIVATION_VAR_PROP, -1) != -1) {
+            visitSetActivationVar(node, name);
+            return;
+        }
         while (child != null) {
             generateExpression(child, node);
             child = child.getNext();
@@ -3793,6 +4709,46 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
                 +")Ljava/lang/Object;");
     }
 
+    private void visitSetActivationVar(Node node, String name)
+    {
+        int activationVar = node.getIntProp(Node.ACTIVATION_VAR_PROP, -1);
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addPush(name);
+        addActivationVarOperands(activationVar);
+        addScriptRuntimeInvoke(
+            "bindActivationVar",
+            "(Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +"Ljava/lang/String;"
+                +"II"
+                +")Lorg/mozilla/javascript/Scriptable;");
+        generateExpression(node.getFirstChild().getNext(), node);
+        cfw.addALoad(contextLocal);
+        cfw.addALoad(variableObjectLocal);
+        cfw.addPush(name);
+        cfw.addPush(activationVar & 0xFFFF);
+        addScriptRuntimeInvoke(
+            "setActivationVar",
+            "(Lorg/mozilla/javascript/Scriptable;"
+                +"Ljava/lang/Object;"
+                +"Lorg/mozilla/javascript/Context;"
+                +"Lorg/mozilla/javascript/Scriptable;"
+                +"Ljava/lang/String;"
+                +"I"
+                +")Ljava/lang/Object;");
+    }
+
+    /**
+     * Push the depth and index that NodeTransformer recorded for a variable
+     * kept in an activation.
+     */
+    private void addActivationVarOperands(int activationVar)
+    {
+        cfw.addPush(activationVar >>> 16);
+        cfw.addPush(activationVar & 0xFFFF);
+    }
+
     private void visitSetConst(Node node, Node child)
     {
         String name = node.getFirstChild().getString();
@@ -3938,9 +4894,47 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     }
 
     private void visitGetProp(Node node, Node child)
+    {
+        if (node.getProp(Node.LOCAL_BLOCK_PROP) == null) {
+            generateGetProp(node, child);
+            return;
+        }
+        // The length of a variable that the loop does not assign, read
+        // from the holder made before the loop unless that is null
+        int slowPath = cfw.acquireLabel();
+        int done = cfw.acquireLabel();
+        cfw.addALoad(getLocalBlockRegister(node));
+        cfw.add(ByteCode.DUP);
+        cfw.add(ByteCode.IFNULL, slowPath);
+        addOptRuntimeInvoke("getHeldLength",
+            "(Ljava/lang/Object;)Ljava/lang/Object;");
+        cfw.add(ByteCode.GOTO, done);
+        cfw.markLabel(slowPath);
+        cfw.add(ByteCode.POP);
+        generateGetProp(node, child);
+        cfw.markLabel(done);
+    }
+
+    private void generateGetProp(Node node, Node child)
     {
         generateExpression(child, node); // object
         Node nameChild = child.getNext();
+        if (compilerEnv.isUseDynamicCallSites()
+            && nameChild.getType() == Token.STRING)
+        {
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            addDynamicPropertyInvoke(
+                node.getType() == Token.GETPROPNOWARN
+                    ? PropertyCallSite.GET_PROP_NO_WARN
+                    : PropertyCallSite.GET_PROP,
+                nameChild.getString(),
+                "(Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")Ljava/lang/Object;");
+            return;
+        }
         generateExpression(nameChild, node);  // the name
         if (node.getType() == Token.GETPROPNOWARN) {
             cfw.addALoad(contextLocal);
@@ -3989,6 +4983,33 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             cfw.add(ByteCode.DUP);
         }
         Node nameChild = child;
+        if (compilerEnv.isUseDynamicCallSites()
+            && nameChild.getType() == Token.STRING)
+        {
+            String property = nameChild.getString();
+            if (type == Token.SETPROP_OP) {
+                // stack: ... object object -> ... object oldValue
+                cfw.addALoad(contextLocal);
+                cfw.addALoad(variableObjectLocal);
+                addDynamicPropertyInvoke(
+                    PropertyCallSite.GET_PROP, property,
+                    "(Ljava/lang/Object;"
+                        +"Lorg/mozilla/javascript/Context;"
+                        +"Lorg/mozilla/javascript/Scriptable;"
+                        +")Ljava/lang/Object;");
+            }
+            generateExpression(child.getNext(), node);
+            cfw.addALoad(contextLocal);
+            cfw.addALoad(variableObjectLocal);
+            addDynamicPropertyInvoke(
+                PropertyCallSite.SET_PROP, property,
+                "(Ljava/lang/Object;"
+                    +"Ljava/lang/Object;"
+                    +"Lorg/mozilla/javascript/Context;"
+                    +"Lorg/mozilla/javascript/Scriptable;"
+                    +")Ljava/lang/Object;");
+            return;
+        }
         generateExpression(child, node);
         child = child.getNext();
         if (type == Token.SETPROP_OP) {
@@ -4185,6 +5206,20 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         addScriptRuntimeInvoke("toNumber", "(Ljava/lang/Object;)D");
     }
 
+    /**
+     * Convert the value of node, an object on the stack, to a boolean.
+     */
+    private void addObjectToBoolean(Node node)
+    {
+        if (Optimizer.expressionType(fnCurrent, node) == Optimizer.BooleanType) {
+            cfw.add(ByteCode.CHECKCAST, "java/lang/Boolean");
+            cfw.addInvoke(ByteCode.INVOKEVIRTUAL, "java/lang/Boolean",
+                          "booleanValue", "()Z");
+        } else {
+            addScriptRuntimeInvoke("toBoolean", "(Ljava/lang/Object;)Z");
+        }
+    }
+
     private void addNewObjectArray(int size)
     {
         if (size == 0) {
@@ -4210,6 +5245,17 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
             methodSignature);
     }
 
+    /**
+     * Emit an invokedynamic instruction for a named property operation. The name of the
+     * property is passed to the bootstrap method, so it is not on the stack.
+     */
+    private void addDynamicPropertyInvoke(String operation, String property,
+        String methodSignature)
+    {
+        cfw.addInvokeDynamic(operation, methodSignature,
+            PROPERTY_BOOTSTRAP, property);
+    }
+
     private void addOptRuntimeInvoke(String methodName,
         String methodSignature)
     {
@@ -4324,6 +5370,11 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
         locals[local] = 0;
     }
 
+    private static final ClassFileWriter.MHandle PROPERTY_BOOTSTRAP =
+        new ClassFileWriter.MHandle(ByteCode.MH_INVOKESTATIC,
+            "org.mozilla.javascript.PropertyCallSite",
+            "bootstrap",
+            PropertyCallSite.BOOTSTRAP_SIGNATURE);
 
     static final int GENERATOR_TERMINATE = -1;
     static final int GENERATOR_START = 0;
@@ -4339,6 +5390,11 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private OptFunctionNode fnCurrent;
 
     private static final int MAX_LOCALS = 1024;
+    private static final String[] EMPTY_STACK = new String[0];
+    private static final String OBJECT_ARRAY = "[Ljava/lang/Object;";
+    private static final String INT_VALUE = "I";
+    private static final String LONG_VALUE = "J";
+    private static final String DOUBLE_VALUE = "D";
     private int[] locals;
     private short firstFreeLocal;
     private short localsMax;
@@ -4374,6 +5430,19 @@ Else pass the JS object in the aReg and 0.0 in the dReg.
     private Map<Node,FinallyReturnPoint> finallys;
     private List<Node> literals;
 
+    // Calls that can capture a continuation, see
+    // Context.FEATURE_COMPILED_CONTINUATIONS
+    private Map<Node,String[]> capturingCalls;
+    private List<CapturePoint> capturePoints;
+    private int resumeDispatchLabel;
+    private int captureExitLabel;
+
+    static class CapturePoint {
+        public int resumeLabel;
+        public String[] stackTypes;
+        public int[] liveLocals;
+    }
+
     static class FinallyReturnPoint {
         public List<Integer> jsrPoints  = new ArrayList<Integer>();
         public int tableLabel = 0;
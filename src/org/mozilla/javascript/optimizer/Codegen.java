@@ -26,6 +26,7 @@ import org.mozilla.javascript.Evaluator;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.GeneratedClassLoader;
 import org.mozilla.javascript.Kit;
+import org.mozilla.javascript.Node;
 import org.mozilla.javascript.NativeFunction;
 import org.mozilla.javascript.ObjArray;
 import org.mozilla.javascript.ObjToIntMap;
@@ -97,9 +98,29 @@ public class Codegen implements Evaluator
                                                    tree, encodedSource,
                                                    returnFunction);
 
+        if (lazyCode != null) {
+            return new Object[] { mainClassName, mainClassBytes, lazyCode };
+        }
         return new Object[] { mainClassName, mainClassBytes };
     }
 
+    /**
+     * Compile a function of a script with lazy functions on its own, see
+     * {@link LazyFunctions}. The function is the only one in tree, whose
+     * {@link Node#LAZY_SOURCE_PROP} holds the source text that tree was
+     * parsed from. Its body becomes the public static method methodName,
+     * which takes the function object of the script as first argument.
+     */
+    Object[] compileLazyFunction(CompilerEnvirons compilerEnv,
+                                 String className, String methodName,
+                                 ScriptNode tree)
+    {
+        lazyRootMethodName = methodName;
+        byte[] classBytes = compileToClassFile(compilerEnv, className, tree,
+                                               tree.getEncodedSource(), true);
+        return new Object[] { className, classBytes, lazyCode };
+    }
+
     @Override
     public Script createScriptObject(Object bytecode,
                                      Object staticSecurityDomain)
@@ -152,6 +173,10 @@ public class Codegen implements Evaluator
         try {
             Class<?> cl = loader.defineClass(className, classBytes);
             loader.linkClass(cl);
+            if (nameBytesPair.length > 2) {
+                LazyFunctions.initClass(cl, (LazyFunctions.Code)nameBytesPair[2],
+                                        loader, staticSecurityDomain);
+            }
             return cl;
         } catch (SecurityException x) {
             e = x;
@@ -169,6 +194,12 @@ public class Codegen implements Evaluator
     {
         this.compilerEnv = compilerEnv;
 
+        if (compilerEnv.isLazyCompilation()
+            && !compilerEnv.isCompiledContinuations())
+        {
+            lazySource = (String)scriptOrFn.getProp(Node.LAZY_SOURCE_PROP);
+        }
+
         transform(scriptOrFn);
 
         if (Token.printTrees) {
@@ -179,11 +210,11 @@ public class Codegen implements Evaluator
             scriptOrFn = scriptOrFn.getFunctionNode(0);
         }
 
-        initScriptNodesData(scriptOrFn);
-
         this.mainClassName = mainClassName;
         this.mainClassSignature = ClassFileWriter.classNameToSignature(mainClassName);
 
+        initScriptNodesData(scriptOrFn);
+
         return generateCode(encodedSource);
     }
 
@@ -193,8 +224,16 @@ public class Codegen implements Evaluator
 
         int optLevel = compilerEnv.getOptimizationLevel();
 
+        if (compilerEnv.isCompiledContinuations()) {
+            // Saving and restoring frames for continuations only deals with
+            // object values, so keep variables in activations
+            requireActivation_r(tree);
+        }
+
         Map<String,OptFunctionNode> possibleDirectCalls = null;
-        if (optLevel > 0) {
+        if (optLevel > 0 && !compilerEnv.isCompiledContinuations()
+            && lazySource == null)
+        {
            /*
             * Collect all of the contained functions into a hashtable
             * so that the call optimizer can access the class name & parameter
@@ -241,6 +280,15 @@ public class Codegen implements Evaluator
         }
     }
 
+    private static void requireActivation_r(ScriptNode scriptOrFn)
+    {
+        for (int i = 0, N = scriptOrFn.getFunctionCount(); i != N; ++i) {
+            FunctionNode fn = scriptOrFn.getFunctionNode(i);
+            fn.setRequiresActivation();
+            requireActivation_r(fn);
+        }
+    }
+
     private void initScriptNodesData(ScriptNode scriptOrFn)
     {
         ObjArray x = new ObjArray();
@@ -254,18 +302,61 @@ public class Codegen implements Evaluator
         for (int i = 0; i != count; ++i) {
             scriptOrFnIndexes.put(scriptOrFnNodes[i], i);
         }
+
+        for (int i = 1; i != count; ++i) {
+            if (isLazyFunction(scriptOrFnNodes[i])) {
+                if (lazyCode == null) {
+                    lazyCode = new LazyFunctions.Code(compilerEnv,
+                        mainClassName, lazySource,
+                        scriptOrFnNodes[0].getSourceName(), count);
+                }
+                FunctionNode fn = (FunctionNode)scriptOrFnNodes[i];
+                lazyCode.addFunction(i, getBodyMethodName(fn),
+                    fn.getAbsolutePosition(), fn.getLength(), fn.getLineno(),
+                    fn.isInStrictMode(),
+                    fn.getFunctionType() == FunctionNode.FUNCTION_EXPRESSION);
+            }
+        }
     }
 
-    private static void collectScriptNodes_r(ScriptNode n,
-                                                 ObjArray x)
+    private void collectScriptNodes_r(ScriptNode n, ObjArray x)
     {
         x.add(n);
+        if (x.size() > 1 && isLazyFunction(n)) {
+            // Its nested functions are compiled together with it
+            return;
+        }
         int nestedCount = n.getFunctionCount();
         for (int i = 0; i != nestedCount; ++i) {
             collectScriptNodes_r(n.getFunctionNode(i), x);
         }
     }
 
+    /**
+     * Return true if the body of a nested function is compiled on its own
+     * when it is first called, see {@link LazyFunctions}. Small functions
+     * are compiled with their script, which costs less than a class of
+     * their own. Only functions that start with the "function" keyword can
+     * be parsed again on their own.
+     */
+    private boolean isLazyFunction(ScriptNode n)
+    {
+        if (lazySource == null || n.getType() != Token.FUNCTION) {
+            return false;
+        }
+        FunctionNode fn = (FunctionNode)n;
+        int start = fn.getAbsolutePosition();
+        return !fn.isGenerator() && !fn.isES6Generator()
+            && fn.getLength() >= LAZY_FUNCTION_MIN_LENGTH
+            && start + fn.getLength() <= lazySource.length()
+            && lazySource.startsWith("function", start);
+    }
+
+    boolean isLazyRoot(ScriptNode n)
+    {
+        return lazyRootMethodName != null && n == scriptOrFnNodes[0];
+    }
+
     private byte[] generateCode(String encodedSource)
     {
         boolean hasScript = (scriptOrFnNodes[0].getType() == Token.SCRIPT);
@@ -298,10 +389,21 @@ public class Codegen implements Evaluator
 
         generateNativeFunctionOverrides(cfw, encodedSource);
 
+        if (lazyCode != null) {
+            cfw.addField(LAZY_FIELD_NAME, LAZY_FIELD_SIGNATURE,
+                         (short)(ACC_PUBLIC | ACC_STATIC));
+        }
+
         int count = scriptOrFnNodes.length;
         for (int i = 0; i != count; ++i) {
             ScriptNode n = scriptOrFnNodes[i];
 
+            if (lazyCode != null && lazyCode.isLazy(i)) {
+                emitLazyBodyStub(cfw, n, i);
+                generateFunctionInit(cfw, OptFunctionNode.get(n));
+                continue;
+            }
+
             BodyCodegen bodygen = new BodyCodegen();
             bodygen.cfw = cfw;
             bodygen.codegen = this;
@@ -326,6 +428,78 @@ public class Codegen implements Evaluator
         return cfw.toByteArray();
     }
 
+    /**
+     * Generate the body method of a lazy function, which compiles the
+     * function when it is first called, see {@link LazyFunctions}.
+     */
+    private void emitLazyBodyStub(ClassFileWriter cfw, ScriptNode n,
+                                  int index)
+    {
+/*
+    we generate ..
+        static Object <body-name>(<main-class> funObj, Context cx,
+                                  Scriptable scope, Scriptable thisObj,
+                                  Object[] args) {
+            int state = _lzN;
+            if (state == 0) {
+                state = _lazy.compile(N);
+                _lzN = state;
+            }
+            if (state > 0) {
+                return <main-class>$N.<body-name>(funObj, cx, scope,
+                                                  thisObj, args);
+            }
+            return _lazy.call(N, funObj, cx, scope, thisObj, args);
+        }
+*/
+        String stateField = "_lz" + index;
+        cfw.addField(stateField, "I", (short)(ACC_STATIC | ACC_PRIVATE));
+        String bodyName = getBodyMethodName(n);
+        cfw.startMethod(bodyName, getBodyMethodSignature(n),
+                        (short)(ACC_STATIC | ACC_PRIVATE));
+
+        int known = cfw.acquireLabel();
+        int interpreted = cfw.acquireLabel();
+        cfw.add(ByteCode.GETSTATIC, mainClassName, stateField, "I");
+        cfw.add(ByteCode.DUP);
+        cfw.add(ByteCode.IFNE, known);
+        cfw.add(ByteCode.POP);
+        cfw.add(ByteCode.GETSTATIC, mainClassName, LAZY_FIELD_NAME,
+                LAZY_FIELD_SIGNATURE);
+        cfw.addPush(index);
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LAZY_CLASS_NAME, "compile",
+                      "(I)I");
+        cfw.add(ByteCode.DUP);
+        cfw.add(ByteCode.PUTSTATIC, mainClassName, stateField, "I");
+        cfw.markLabel(known);
+        cfw.add(ByteCode.IFLE, interpreted);
+        for (int i = 0; i != 5; ++i) {
+            cfw.addALoad(i);
+        }
+        cfw.addInvoke(ByteCode.INVOKESTATIC,
+                      LazyFunctions.getClassName(mainClassName, index),
+                      bodyName, LAZY_BODY_METHOD_SIGNATURE);
+        cfw.add(ByteCode.ARETURN);
+
+        cfw.markLabel(interpreted);
+        cfw.add(ByteCode.GETSTATIC, mainClassName, LAZY_FIELD_NAME,
+                LAZY_FIELD_SIGNATURE);
+        cfw.addPush(index);
+        for (int i = 0; i != 5; ++i) {
+            cfw.addALoad(i);
+        }
+        cfw.addInvoke(ByteCode.INVOKEVIRTUAL, LAZY_CLASS_NAME, "call",
+                      "(I"
+                      +"Lorg/mozilla/javascript/NativeFunction;"
+                      +"Lorg/mozilla/javascript/Context;"
+                      +"Lorg/mozilla/javascript/Scriptable;"
+                      +"Lorg/mozilla/javascript/Scriptable;"
+                      +"[Ljava/lang/Object;)Ljava/lang/Object;");
+        cfw.add(ByteCode.ARETURN);
+        // 5: this, cx, scope, js this, args[]
+        cfw.stopMethod((short)5);
+    }
+
     private void emitDirectConstructor(ClassFileWriter cfw,
                                        OptFunctionNode ofn)
     {
@@ -724,8 +898,11 @@ public class Codegen implements Evaluator
                       +"Lorg/mozilla/javascript/Scriptable;"
                       +")V");
 
-        // precompile all regexp literals
-        if (ofn.fnode.getRegexpCount() != 0) {
+        // precompile all regexp literals, a lazy function does it when
+        // it is first called
+        if (ofn.fnode.getRegexpCount() != 0
+            && (lazyCode == null || !lazyCode.isLazy(getIndex(ofn.fnode))))
+        {
             cfw.addALoad(CONTEXT_ARG);
             cfw.addInvoke(ByteCode.INVOKESTATIC, mainClassName,
                           REGEXP_INIT_METHOD_NAME, REGEXP_INIT_METHOD_SIGNATURE);
@@ -977,6 +1154,9 @@ public class Codegen implements Evaluator
 
         int totalRegCount = 0;
         for (int i = 0; i != scriptOrFnNodes.length; ++i) {
+            if (lazyCode != null && lazyCode.isLazy(i)) {
+                continue;
+            }
             totalRegCount += scriptOrFnNodes[i].getRegexpCount();
         }
         if (totalRegCount == 0) {
@@ -1005,6 +1185,9 @@ public class Codegen implements Evaluator
         // We could apply double-checked locking here but concurrency
         // shouldn't be a problem in practice
         for (int i = 0; i != scriptOrFnNodes.length; ++i) {
+            if (lazyCode != null && lazyCode.isLazy(i)) {
+                continue;
+            }
             ScriptNode n = scriptOrFnNodes[i];
             int regCount = n.getRegexpCount();
             for (int j = 0; j != regCount; ++j) {
@@ -1168,6 +1351,9 @@ public class Codegen implements Evaluator
 
     String getBodyMethodName(ScriptNode n)
     {
+        if (isLazyRoot(n)) {
+            return lazyRootMethodName;
+        }
         return "_c_" + cleanName(n) + "_" + getIndex(n);
     }
 
@@ -1192,6 +1378,10 @@ public class Codegen implements Evaluator
 
     String getBodyMethodSignature(ScriptNode n)
     {
+        if (isLazyRoot(n)) {
+            // Called with the function object of the script's class
+            return LAZY_BODY_METHOD_SIGNATURE;
+        }
         StringBuilder sb = new StringBuilder();
         sb.append('(');
         sb.append(mainClassSignature);
@@ -1252,6 +1442,24 @@ public class Codegen implements Evaluator
         = "(Lorg/mozilla/javascript/Scriptable;"
           +"Lorg/mozilla/javascript/Context;I)V";
 
+    static final String LAZY_CLASS_NAME
+        = "org.mozilla.javascript.optimizer.LazyFunctions";
+    static final String LAZY_FIELD_NAME = "_lazy";
+    static final String LAZY_FIELD_SIGNATURE
+        = "Lorg/mozilla/javascript/optimizer/LazyFunctions;";
+    static final String LAZY_BODY_METHOD_SIGNATURE
+        = "(Lorg/mozilla/javascript/NativeFunction;"
+          +"Lorg/mozilla/javascript/Context;"
+          +"Lorg/mozilla/javascript/Scriptable;"
+          +"Lorg/mozilla/javascript/Scriptable;"
+          +"[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /**
+     * Functions with fewer characters of source are compiled with their
+     * script even with {@link CompilerEnvirons#isLazyCompilation()}.
+     */
+    static final int LAZY_FUNCTION_MIN_LENGTH = 500;
+
     private static final Object globalLock = new Object();
     private static int globalSerialClassCounter;
 
@@ -1268,4 +1476,8 @@ public class Codegen implements Evaluator
 
     private double[] itsConstantList;
     private int itsConstantListSize;
+
+    private String lazySource;
+    private LazyFunctions.Code lazyCode;
+    private String lazyRootMethodName;
 }
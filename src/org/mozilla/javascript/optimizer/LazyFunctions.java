@@ -0,0 +1,252 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.optimizer;
+
+import org.mozilla.classfile.ClassFileWriter.ClassFileFormatException;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.IRFactory;
+import org.mozilla.javascript.Interpreter;
+import org.mozilla.javascript.NativeFunction;
+import org.mozilla.javascript.Node;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.ScriptNode;
+
+/**
+ * The large functions of a class that was compiled with
+ * {@link CompilerEnvirons#isLazyCompilation()}.
+ * <p>
+ * The class keeps the metadata of such a function, so that function objects
+ * can be created as usual, but its body method only compiles the function
+ * when it is first called and then calls the body method of the result. The
+ * function is parsed again from its source text and compiled to a class of
+ * its own, which is defined in the class loader of the script. A function
+ * that is too large for a class is interpreted instead.
+ * <p>
+ * Each class with lazy functions has a static field with its instance of
+ * this class, which {@link #initClass} sets after the class is defined.
+ */
+public final class LazyFunctions
+{
+    /**
+     * What is needed to compile the lazy functions of a class. It is shared
+     * by all definitions of the class.
+     */
+    static final class Code
+    {
+        Code(CompilerEnvirons compilerEnv, String className, String source,
+             String sourceName, int functionCount)
+        {
+            this.compilerEnv = compilerEnv;
+            this.className = className;
+            this.source = source;
+            this.sourceName = sourceName;
+            methodNames = new String[functionCount];
+            starts = new int[functionCount];
+            ends = new int[functionCount];
+            linenos = new int[functionCount];
+            strict = new boolean[functionCount];
+            expression = new boolean[functionCount];
+            compiled = new Object[functionCount][];
+            interpreters = new Interpreter[functionCount];
+            interpretedCode = new Object[functionCount];
+        }
+
+        void addFunction(int index, String methodName, int start, int length,
+                         int lineno, boolean isStrict, boolean isExpression)
+        {
+            methodNames[index] = methodName;
+            starts[index] = start;
+            ends[index] = start + length;
+            linenos[index] = lineno;
+            strict[index] = isStrict;
+            expression[index] = isExpression;
+        }
+
+        boolean isLazy(int index)
+        {
+            return methodNames[index] != null;
+        }
+
+        /**
+         * Returns the class name, bytes and nested {@link Code} of the
+         * function, or null if it is interpreted.
+         */
+        synchronized Object[] getClassBytes(int index)
+        {
+            Object[] result = compiled[index];
+            if (result == null && interpreters[index] == null) {
+                try {
+                    result = new Codegen().compileLazyFunction(compilerEnv,
+                        getClassName(className, index), methodNames[index],
+                        parse(index));
+                    compiled[index] = result;
+                } catch (ClassFileFormatException e) {
+                    // Too large for a class, parse again since the compiler
+                    // changes the tree
+                    Interpreter interpreter = new Interpreter();
+                    ScriptNode tree = parse(index);
+                    interpretedCode[index] = interpreter.compile(compilerEnv,
+                        tree, tree.getEncodedSource(), true);
+                    interpreters[index] = interpreter;
+                }
+            }
+            return result;
+        }
+
+        synchronized Function createInterpreted(int index, Context cx,
+                                                NativeFunction fn,
+                                                Object securityDomain)
+        {
+            return interpreters[index].createFunctionBody(cx, fn,
+                interpretedCode[index], securityDomain);
+        }
+
+        private ScriptNode parse(int index)
+        {
+            String text = source.substring(starts[index], ends[index]);
+            if (expression[index]) {
+                text = "(" + text + ")";
+            }
+            Parser p = new Parser(compilerEnv, REPORTER);
+            if (strict[index]) {
+                p.setDefaultUseStrictDirective(true);
+            }
+            AstRoot ast = p.parse(text, sourceName, linenos[index]);
+            ScriptNode tree = new IRFactory(compilerEnv, REPORTER)
+                .transformTree(ast);
+            tree.putProp(Node.LAZY_SOURCE_PROP, text);
+            return tree;
+        }
+
+        private final CompilerEnvirons compilerEnv;
+        private final String className;
+        private final String source;
+        private final String sourceName;
+        private final String[] methodNames;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] linenos;
+        private final boolean[] strict;
+        private final boolean[] expression;
+        private final Object[][] compiled;
+        private final Interpreter[] interpreters;
+        private final Object[] interpretedCode;
+    }
+
+    /**
+     * The source was parsed before, so only report errors that should not
+     * happen and skip the warnings that were already reported.
+     */
+    private static final ErrorReporter REPORTER = new ErrorReporter() {
+        @Override
+        public void warning(String message, String sourceName, int line,
+                            String lineSource, int lineOffset)
+        {
+        }
+
+        @Override
+        public void error(String message, String sourceName, int line,
+                          String lineSource, int lineOffset)
+        {
+            throw runtimeError(message, sourceName, line, lineSource,
+                               lineOffset);
+        }
+
+        @Override
+        public EvaluatorException runtimeError(String message,
+                                               String sourceName, int line,
+                                               String lineSource,
+                                               int lineOffset)
+        {
+            return new EvaluatorException(message, sourceName, line,
+                                          lineSource, lineOffset);
+        }
+    };
+
+    // Key of the interpreted body of a function in its associated values
+    private static final Object INTERPRETED_KEY = "LazyFunctions.interpreted";
+
+    private LazyFunctions(Code code, GeneratedClassLoader loader,
+                          Object securityDomain)
+    {
+        this.code = code;
+        this.loader = loader;
+        this.securityDomain = securityDomain;
+        this.defined = new Class<?>[code.methodNames.length];
+    }
+
+    static String getClassName(String className, int index)
+    {
+        return className + "$" + index;
+    }
+
+    /**
+     * Called after cl, which has lazy functions, was defined in loader.
+     */
+    static void initClass(Class<?> cl, Code code, GeneratedClassLoader loader,
+                          Object securityDomain)
+    {
+        try {
+            cl.getField(Codegen.LAZY_FIELD_NAME).set(null,
+                new LazyFunctions(code, loader, securityDomain));
+        } catch (Exception ex) {
+            throw new RuntimeException
+                ("Unable to initialize compiled class:" + ex.toString());
+        }
+    }
+
+    /**
+     * Makes the lazy function with the given index ready to be called.
+     * Returns a positive number if its body method is in the class of the
+     * function, or a negative one if it is interpreted by
+     * {@link #call(int, NativeFunction, Context, Scriptable, Scriptable,
+     * Object[])}.
+     */
+    public synchronized int compile(int index)
+    {
+        if (defined[index] == null) {
+            Object[] nameBytes = code.getClassBytes(index);
+            if (nameBytes == null) {
+                return -1;
+            }
+            Class<?> cl = loader.defineClass((String)nameBytes[0],
+                                             (byte[])nameBytes[1]);
+            loader.linkClass(cl);
+            if (nameBytes[2] != null) {
+                initClass(cl, (Code)nameBytes[2], loader, securityDomain);
+            }
+            defined[index] = cl;
+        }
+        return 1;
+    }
+
+    /**
+     * Calls an interpreted lazy function. The interpreted function is created
+     * once for each fn and kept as an associated value of fn. It has the scope
+     * of fn and sees fn as itself.
+     */
+    public Object call(int index, NativeFunction fn, Context cx,
+                       Scriptable scope, Scriptable thisObj, Object[] args)
+    {
+        Function f = (Function)fn.getAssociatedValue(INTERPRETED_KEY);
+        if (f == null) {
+            f = (Function)fn.associateValue(INTERPRETED_KEY,
+                code.createInterpreted(index, cx, fn, securityDomain));
+        }
+        return f.call(cx, scope, thisObj, args);
+    }
+
+    private final Code code;
+    private final GeneratedClassLoader loader;
+    private final Object securityDomain;
+    private final Class<?>[] defined;
+}
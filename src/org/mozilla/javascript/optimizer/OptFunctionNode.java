@@ -70,23 +70,46 @@ public final class OptFunctionNode
 
     public boolean isNumberVar(int varIndex)
     {
-        varIndex -= fnode.getParamCount();
-        if (varIndex >= 0 && numberVarFlags != null) {
-            return numberVarFlags[varIndex];
-        }
-        return false;
+        // Parameters can have any type, so they are never number vars
+        return varTypes != null && !isParameter(varIndex)
+               && Optimizer.isNumberType(varTypes[varIndex]);
     }
 
-    void setIsNumberVar(int varIndex)
+    /**
+     * Return the types of the parameters and variables, as found by the type
+     * flow analysis of the Optimizer, or null if the function was not
+     * optimized.
+     */
+    int[] getVarTypes()
     {
-        varIndex -= fnode.getParamCount();
-        // Can only be used with non-parameters
-        if (varIndex < 0) Kit.codeBug();
-        if (numberVarFlags == null) {
-            int size = fnode.getParamAndVarCount() - fnode.getParamCount();
-            numberVarFlags = new boolean[size];
-        }
-        numberVarFlags[varIndex] = true;
+        return varTypes;
+    }
+
+    void setVarTypes(int[] varTypes)
+    {
+        this.varTypes = varTypes;
+    }
+
+    /**
+     * Return the expression to generate in place of a direct call to this
+     * function, or null if the function is not inlined. Its parameters are
+     * read by LOCAL_LOAD nodes from the LOCAL_BLOCK nodes returned by
+     * {@link #getInlineParameters()}.
+     */
+    Node getInlineExpression()
+    {
+        return inlineExpression;
+    }
+
+    Node[] getInlineParameters()
+    {
+        return inlineParameters;
+    }
+
+    void setInlineExpression(Node inlineExpression, Node[] inlineParameters)
+    {
+        this.inlineExpression = inlineExpression;
+        this.inlineParameters = inlineParameters;
     }
 
     public int getVarIndex(Node n)
@@ -112,7 +135,9 @@ public final class OptFunctionNode
 
     public final FunctionNode fnode;
 
-    private boolean[] numberVarFlags;
+    private int[] varTypes;
+    private Node inlineExpression;
+    private Node[] inlineParameters;
     private int directTargetIndex = -1;
     private boolean itsParameterNumberContext;
     boolean itsContainsCalls0;
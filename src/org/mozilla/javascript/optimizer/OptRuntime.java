@@ -10,9 +10,12 @@ import org.mozilla.javascript.Callable;
 import org.mozilla.javascript.ConsString;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ContinuationFrame;
+import org.mozilla.javascript.ContinuationPending;
 import org.mozilla.javascript.ES6Generator;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.NativeFunction;
 import org.mozilla.javascript.NativeGenerator;
 import org.mozilla.javascript.NativeIterator;
@@ -65,6 +68,37 @@ public final class OptRuntime extends ScriptRuntime
         return fun.call(cx, scope, thisObj, args);
     }
 
+    /**
+     * Implement a call that can capture a continuation, see
+     * {@link org.mozilla.javascript.Context#FEATURE_COMPILED_CONTINUATIONS}.
+     * Returns the ContinuationPending exception instead of throwing it so
+     * that the caller can save its frame before it rethrows it.
+     */
+    public static Object callCapturing(Callable fun, Scriptable thisObj,
+                                       Object[] args,
+                                       Context cx, Scriptable scope)
+    {
+        try {
+            return fun.call(cx, scope, thisObj, args);
+        } catch (ContinuationPending pending) {
+            return ContinuationFrame.checkCaptured(pending, fun, cx);
+        }
+    }
+
+    /**
+     * Implement a new expression that can capture a continuation, like
+     * {@link #callCapturing(Callable, Scriptable, Object[], Context, Scriptable)}.
+     */
+    public static Object newObjectCapturing(Object fun, Object[] args,
+                                            Context cx, Scriptable scope)
+    {
+        try {
+            return newObject(fun, cx, scope, args);
+        } catch (ContinuationPending pending) {
+            return ContinuationFrame.checkCaptured(pending, (Callable)fun, cx);
+        }
+    }
+
     /**
      * Implement name(args) call shrinking optimizer code.
      */
@@ -169,6 +203,35 @@ public final class OptRuntime extends ScriptRuntime
         return ScriptRuntime.newSpecial(cx, fun, args, scope, callType);
     }
 
+    /**
+     * Return what the "length" property of obj can be read from without a
+     * lookup, for as long as obj stays in the same variable: the length
+     * itself for a string, which cannot change, and the array itself for an
+     * array. Return null for anything else.
+     */
+    public static Object lengthHolder(Object obj)
+    {
+        if (obj instanceof CharSequence) {
+            return ScriptRuntime.wrapInt(((CharSequence)obj).length());
+        }
+        if (obj != null && obj.getClass() == NativeArray.class) {
+            return obj;
+        }
+        return null;
+    }
+
+    /**
+     * Return the current length of the value that holder was returned for
+     * by {@link #lengthHolder(Object)}.
+     */
+    public static Object getHeldLength(Object holder)
+    {
+        if (holder instanceof NativeArray) {
+            return ScriptRuntime.wrapNumber(((NativeArray)holder).getLength());
+        }
+        return holder;
+    }
+
     public static Double wrapDouble(double num)
     {
         if (num == 0.0) {
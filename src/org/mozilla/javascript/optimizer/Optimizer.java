@@ -6,6 +6,8 @@
 
 package org.mozilla.javascript.optimizer;
 
+import java.util.BitSet;
+
 import org.mozilla.javascript.Node;
 import org.mozilla.javascript.ObjArray;
 import org.mozilla.javascript.Token;
@@ -14,11 +16,37 @@ import org.mozilla.javascript.ast.ScriptNode;
 class Optimizer
 {
 
+    // The type of a value is a set of these bits, so types are merged with |
     static final int NoType = 0;
-    static final int NumberType = 1;
-    static final int AnyType = 3;
+    static final int NumberType = 1;          // a number, maybe not an int32
+    static final int Int32Type = 1 << 1;      // a number in the int32 range
+    static final int BooleanType = 1 << 2;
+    static final int StringType = 1 << 3;
+    static final int ObjectType = 1 << 4;     // an object, null or undefined
+    static final int AnyType = NumberType | Int32Type | BooleanType
+                               | StringType | ObjectType;
+
+    // The largest expression, in nodes, that is inlined at direct calls
+    static final int MaxInlineSize = 16;
+
+    static boolean isNumberType(int type)
+    {
+        return type != NoType && (type & ~(NumberType | Int32Type)) == 0;
+    }
+
+    static boolean isPrimitiveType(int type)
+    {
+        return type != NoType && (type & ObjectType) == 0;
+    }
 
-    // It is assumed that (NumberType | AnyType) == AnyType
+    /**
+     * Return the type of the value of n, an expression in the code of fn or
+     * of the script if fn is null, as found by the type flow analysis.
+     */
+    static int expressionType(OptFunctionNode fn, Node n)
+    {
+        return Block.findExpressionType(fn, n);
+    }
 
     void optimize(ScriptNode scriptOrFn)
     {
@@ -26,6 +54,9 @@ class Optimizer
         int functionCount = scriptOrFn.getFunctionCount();
         for (int i = 0; i != functionCount; ++i) {
             OptFunctionNode f = OptFunctionNode.get(scriptOrFn, i);
+            if (f.isTargetOfDirectCall()) {
+                findInlineExpression(f);
+            }
             optimizeFunction(f);
         }
     }
@@ -44,6 +75,8 @@ class Optimizer
 
         Block.runFlowAnalyzes(theFunction, theStatementNodes);
 
+        findLoopInvariants(theFunction.fnode);
+
         if (!theFunction.fnode.requiresActivation()) {
             /*
              * Now that we know which local vars are in fact always
@@ -417,6 +450,15 @@ class Optimizer
                     }
                     return NoType;
                 }
+            case Token.BITNOT : {
+                    Node child = n.getFirstChild();
+                    int type = rewriteForNumberVariables(child, NumberType);
+                    if (type == NumberType && !convertParameter(child)) {
+                        n.putIntProp(Node.ISNUMBER_PROP, Node.BOTH);
+                        return NumberType;
+                    }
+                    return NoType;
+                }
             default : {
                     rewriteAsObjectChildren(n, n.getFirstChild());
                     return NoType;
@@ -444,6 +486,233 @@ class Optimizer
         }
     }
 
+/*
+        A direct call target whose body is only "return <expression>", where
+        the expression reads nothing but its parameters and makes no calls
+        and no assignments, is generated in place of its direct calls. The
+        guard of the direct call still checks that the name refers to the
+        function, and makes a regular call otherwise.
+
+        The expression is copied before the function is optimized, so the
+        copy has no number annotations. Its parameters become LOCAL_LOAD
+        nodes, and BodyCodegen sets the LOCAL_BLOCK they refer to to the
+        registers holding the arguments of each call.
+*/
+    private void findInlineExpression(OptFunctionNode fn)
+    {
+        Node body = fn.fnode.getFirstChild();
+        if (body == null || body.getType() != Token.BLOCK) return;
+        Node statement = body.getFirstChild();
+        if (statement == null || statement.getNext() != null
+            || statement.getType() != Token.RETURN)
+        {
+            return;
+        }
+        Node value = statement.getFirstChild();
+        if (value == null) return;
+
+        Node[] parameters = new Node[fn.fnode.getParamCount()];
+        for (int i = 0; i != parameters.length; ++i) {
+            parameters[i] = new Node(Token.LOCAL_BLOCK);
+        }
+        inlineSize = 0;
+        Node copy = copyForInline(fn, value, parameters);
+        if (copy != null) {
+            fn.setInlineExpression(copy, parameters);
+        }
+    }
+
+    private Node copyForInline(OptFunctionNode fn, Node n, Node[] parameters)
+    {
+        if (++inlineSize > MaxInlineSize) return null;
+        int type = n.getType();
+        switch (type) {
+            case Token.NUMBER:
+                return Node.newNumber(n.getDouble());
+
+            case Token.STRING:
+                return Node.newString(n.getString());
+
+            case Token.TRUE:
+            case Token.FALSE:
+            case Token.NULL:
+                return new Node(type);
+
+            case Token.GETVAR: {
+                int varIndex = fn.getVarIndex(n);
+                if (!fn.isParameter(varIndex)) return null;
+                Node load = new Node(Token.LOCAL_LOAD);
+                load.putProp(Node.LOCAL_BLOCK_PROP, parameters[varIndex]);
+                return load;
+            }
+
+            case Token.GETPROP:
+                if (n.getLastChild().getType() != Token.STRING) return null;
+                // fall through
+            case Token.GETELEM:
+            case Token.NEG:
+            case Token.POS:
+            case Token.NOT:
+            case Token.BITNOT:
+            case Token.TYPEOF:
+            case Token.ADD:
+            case Token.SUB:
+            case Token.MUL:
+            case Token.DIV:
+            case Token.MOD:
+            case Token.BITAND:
+            case Token.BITOR:
+            case Token.BITXOR:
+            case Token.LSH:
+            case Token.RSH:
+            case Token.URSH:
+            case Token.EQ:
+            case Token.NE:
+            case Token.SHEQ:
+            case Token.SHNE:
+            case Token.LT:
+            case Token.LE:
+            case Token.GT:
+            case Token.GE:
+            case Token.AND:
+            case Token.OR:
+            case Token.HOOK: {
+                Node copy = new Node(type);
+                for (Node child = n.getFirstChild(); child != null;
+                     child = child.getNext())
+                {
+                    Node childCopy = copyForInline(fn, child, parameters);
+                    if (childCopy == null) return null;
+                    copy.addChildToBack(childCopy);
+                }
+                return copy;
+            }
+        }
+        return null;
+    }
+
+/*
+        Reading "length" from a variable that a loop does not assign is the
+        loop condition of most loops over strings and arrays. It is a full
+        property lookup, and for a string it also makes a String object.
+
+        Before such a loop, OptRuntime.lengthHolder is called once for each
+        of these variables. For a string the holder is the length itself,
+        since it cannot change. For an array it is the array, and the length
+        is read from its field on each use, since code in the loop may still
+        change it through a getter, valueOf or another variable. For other
+        values the holder is null and the property is looked up as before.
+
+        The holders are LOCAL_BLOCK nodes with the variable as their child,
+        kept in LOOP_INVARIANTS_PROP of the LOOP. BodyCodegen stores them
+        where the loop is entered, at its first jump or target, and each
+        GETPROP that uses one refers to it with LOCAL_BLOCK_PROP. Uses inside
+        nested loops go to the outermost loop that leaves the variable alone.
+*/
+    private void findLoopInvariants(Node n)
+    {
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            switch (child.getType()) {
+                case Token.LOOP:
+                    hoistLengths(child);
+                    // fall through
+                case Token.BLOCK:
+                case Token.LOCAL_BLOCK:
+                    findLoopInvariants(child);
+                    break;
+            }
+        }
+    }
+
+    private void hoistLengths(Node loop)
+    {
+        Node entry = loop.getFirstChild();
+        while (entry != null && entry.getType() != Token.GOTO
+               && entry.getType() != Token.TARGET)
+        {
+            entry = entry.getNext();
+        }
+        if (entry == null) return;
+
+        BitSet assigned = new BitSet(theFunction.getVarCount());
+        for (Node n = entry; n != null; n = n.getNext()) {
+            findAssignedVars(n, assigned);
+        }
+        Node[] holders = new Node[theFunction.getVarCount()];
+        ObjArray invariants = new ObjArray();
+        for (Node n = entry; n != null; n = n.getNext()) {
+            findLengthUses(n, assigned, holders, invariants);
+        }
+        if (invariants.size() != 0) {
+            Node[] array = new Node[invariants.size()];
+            invariants.toArray(array);
+            loop.putProp(Node.LOOP_INVARIANTS_PROP, array);
+        }
+    }
+
+    private void findAssignedVars(Node n, BitSet assigned)
+    {
+        switch (n.getType()) {
+            case Token.FUNCTION:
+                // the variables of nested functions are their own
+                return;
+            case Token.SETVAR:
+            case Token.SETCONSTVAR:
+                assigned.set(theFunction.getVarIndex(n));
+                break;
+            case Token.INC:
+            case Token.DEC: {
+                Node child = n.getFirstChild();
+                if (child.getType() == Token.GETVAR) {
+                    assigned.set(theFunction.getVarIndex(child));
+                }
+                break;
+            }
+        }
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            findAssignedVars(child, assigned);
+        }
+    }
+
+    private void findLengthUses(Node n, BitSet assigned, Node[] holders,
+                                ObjArray invariants)
+    {
+        if (n.getType() == Token.FUNCTION) return;
+        if (n.getType() == Token.GETPROP
+            && n.getProp(Node.LOCAL_BLOCK_PROP) == null)
+        {
+            Node obj = n.getFirstChild();
+            Node name = obj.getNext();
+            if (obj.getType() == Token.GETVAR
+                && name.getType() == Token.STRING
+                && name.getString().equals("length"))
+            {
+                int varIndex = theFunction.getVarIndex(obj);
+                // Number vars are held as doubles and have no length
+                if (!assigned.get(varIndex)
+                    && !theFunction.isNumberVar(varIndex))
+                {
+                    if (holders[varIndex] == null) {
+                        Node load = new Node(Token.GETVAR);
+                        load.putIntProp(Node.VARIABLE_PROP, varIndex);
+                        holders[varIndex] = new Node(Token.LOCAL_BLOCK, load);
+                        invariants.add(holders[varIndex]);
+                    }
+                    n.putProp(Node.LOCAL_BLOCK_PROP, holders[varIndex]);
+                }
+            }
+        }
+        for (Node child = n.getFirstChild(); child != null;
+             child = child.getNext())
+        {
+            findLengthUses(child, assigned, holders, invariants);
+        }
+    }
+
     private static void buildStatementList_r(Node node, ObjArray statements)
     {
         int type = node.getType();
@@ -465,4 +734,5 @@ class Optimizer
     private boolean inDirectCallFunction;
     OptFunctionNode theFunction;
     private boolean parameterUsedInNumberContext;
+    private int inlineSize;
 }
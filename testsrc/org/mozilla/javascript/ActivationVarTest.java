@@ -0,0 +1,130 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests that variables of enclosing functions are found by their position in the
+ * activation, and by name whenever the scope chain holds a surprise.
+ */
+public class ActivationVarTest
+{
+  private static void assertEval(String expected, final String source) {
+    for (final int optLevel : new int[] { -1, 9 }) {
+      Object result = ContextFactory.getGlobal().call(cx -> {
+        cx.setOptimizationLevel(optLevel);
+        cx.setLanguageVersion(Context.VERSION_ES6);
+        Scriptable scope = cx.initStandardObjects();
+        return cx.evaluateString(scope, source, "test", 1, null);
+      });
+      assertEquals(expected, result);
+    }
+  }
+
+  @Test
+  public void testClosures() {
+    assertEval("1,2,3|12",
+        "function counter() { var n = 0; return function() { return ++n; }; }\n"
+        + "var c = counter(); var r = [c(), c(), c()];\n"
+        + "function outer(a) {\n"
+        + "  var sum = 0;\n"
+        + "  function add(x) { sum = sum + x * a; }\n"
+        + "  return function(list) { for (var i = 0; i < list.length; i++) add(list[i]);"
+        + " return sum; };\n"
+        + "}\n"
+        + "r.join() + '|' + outer(2)([1, 2, 3])");
+  }
+
+  @Test
+  public void testDuplicateParams() {
+    assertEval("2|3",
+        "function f(a, a) { return function() { return a; }; }\n"
+        + "function g(a, a) { return function() { a = 3; return arguments.length ? a : a; }; }\n"
+        + "f(1, 2)() + '|' + g(1, 2)()");
+  }
+
+  @Test
+  public void testAccessByName() {
+    // Increments, typeof and eval look the names up in the activation
+    assertEval("3|number|undefined|4|6",
+        "function f(a, b, a) {\n"
+        + "  var b, c = 1;\n"
+        + "  return function() {\n"
+        + "    c++; ++c; b = eval('a + 1');\n"
+        + "    return [c, typeof a, typeof d, b, eval('b + c - 1')].join('|');\n"
+        + "  };\n"
+        + "}\n"
+        + "f(1, 2, 3)()");
+  }
+
+  @Test
+  public void testShadowingScopes() {
+    assertEval("with|catch|let|outer",
+        "function f() {\n"
+        + "  var v = 'outer'; var r = [];\n"
+        + "  with ({ v: 'with' }) r.push((function() { return v; })());\n"
+        + "  try { throw 'catch'; } catch (v) { r.push((function() { return v; })()); }\n"
+        + "  { let v = 'let'; r.push((function() { return v; })()); }\n"
+        + "  r.push((function() { return v; })());\n"
+        + "  return r.join('|');\n"
+        + "}\n"
+        + "f()");
+  }
+
+  @Test
+  public void testAssignmentBindsBeforeValue() {
+    assertEval("2|2",
+        "function f() {\n"
+        + "  var x = 1; var o = {};\n"
+        + "  (function() { with (o) x = o.x = 2; })();\n"
+        + "  return x + '|' + o.x;\n"
+        + "}\n"
+        + "f()");
+  }
+
+  @Test
+  public void testEval() {
+    assertEval("outer|inner|inner",
+        "function f() {\n"
+        + "  var v = 'outer'; var r = [];\n"
+        + "  function g(code) { eval(code); return function() { return v; }; }\n"
+        + "  r.push(g('')()); r.push(g('var v = \"inner\"')());\n"
+        + "  (function() { eval('v = \"inner\"'); })();\n"
+        + "  r.push((function() { return v; })());\n"
+        + "  return r.join('|');\n"
+        + "}\n"
+        + "f()");
+  }
+
+  @Test
+  public void testArgumentsAliasing() {
+    assertEval("2|3|4",
+        "function f(a) {\n"
+        + "  var r = [];\n"
+        + "  var read = function() { return a; };\n"
+        + "  arguments[0] = 2; r.push(read());\n"
+        + "  (function() { a = 3; })(); r.push(arguments[0]);\n"
+        + "  var args = arguments; (function() { args[0] = 4; })(); r.push(read());\n"
+        + "  return r.join('|');\n"
+        + "}\n"
+        + "f(1)");
+  }
+
+  @Test
+  public void testFunctionsAndThis() {
+    assertEval("true|6|named",
+        "var top = this;\n"
+        + "function f() {\n"
+        + "  function who() { return this; }\n"
+        + "  function fact(n) { return n <= 1 ? 1 : n * fact(n - 1); }\n"
+        + "  var named = function self() { return typeof self === 'function' ? 'named' : 'no'; };\n"
+        + "  return (function() { return [who() === top, fact(3), named()].join('|'); })();\n"
+        + "}\n"
+        + "f()");
+  }
+}
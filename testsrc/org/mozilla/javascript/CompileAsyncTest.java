@@ -0,0 +1,176 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+
+/**
+ * Tests that scripts compiled on another thread behave like those compiled
+ * on the calling one.
+ */
+public class CompileAsyncTest
+{
+  private static final String SOURCE =
+      "function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n"
+      + "[fib(15), /(\\d+)-(\\d+)/.exec('a 12-34')[2], typeof this].join('|')";
+
+  private static Object exec(Context cx, Script script) {
+    return script.exec(cx, cx.initStandardObjects());
+  }
+
+  @Test
+  public void testDefaultExecutor() throws Exception {
+    final ContextFactory factory = new ContextFactory();
+    factory.call(cx -> {
+      for (int optLevel : new int[] { -1, 0, 9 }) {
+        cx.setOptimizationLevel(optLevel);
+        Future<Script> f = cx.compileStringAsync(SOURCE, "test", 1, null);
+        try {
+          assertEquals("610|34|object", exec(cx, f.get()));
+        } catch (InterruptedException | ExecutionException e) {
+          throw new AssertionError(e);
+        }
+      }
+      return null;
+    });
+  }
+
+  @Test
+  public void testCustomExecutor() throws Exception {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    final ContextFactory factory = new ContextFactory();
+    factory.setCompilationExecutor(tasks::add);
+    Future<Script> f = onNewThread(() -> factory.call(
+        cx -> cx.compileStringAsync(SOURCE, "test", 1, null)));
+    assertFalse(f.isDone());
+    assertEquals(1, tasks.size());
+    // Run the task on a thread without a Context
+    Thread t = new Thread(tasks.get(0));
+    t.start();
+    t.join();
+    assertTrue(f.isDone());
+    assertEquals("610|34|object", factory.call(cx -> exec(cx, getQuietly(f))));
+  }
+
+  @Test
+  public void testSyntaxError() throws Exception {
+    Future<Script> f = new ContextFactory().call(
+        cx -> cx.compileStringAsync("var = 1;", "test", 1, null));
+    try {
+      f.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof EvaluatorException);
+      assertEquals(1, ((EvaluatorException)e.getCause()).lineNumber());
+    }
+  }
+
+  @Test
+  public void testSettingsOfTheCaller() throws Exception {
+    final ContextFactory factory = new ContextFactory();
+    factory.setCompilationExecutor(r -> new Thread(r).start());
+    Future<Script> f = onNewThread(() -> factory.call(cx -> {
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      return cx.compileStringAsync("let x = 1; x + 1", "test", 1, null);
+    }));
+    assertEquals(2, ((Number)factory.call(cx -> {
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      return exec(cx, getQuietly(f));
+    })).intValue());
+  }
+
+  @Test
+  public void testScriptCache() throws Exception {
+    final LruScriptCache cache = new LruScriptCache(10);
+    new ContextFactory().call(cx -> {
+      cx.setScriptCache(cache);
+      Script s = getQuietly(cx.compileStringAsync("1 + 1", "test", 1, null));
+      assertEquals(1, cache.size());
+      Future<Script> again = cx.compileStringAsync("1 + 1", "test", 1, null);
+      assertTrue(again.isDone());
+      assertSame(s, getQuietly(again));
+      assertSame(s, cx.compileString("1 + 1", "test", 1, null));
+      assertNotSame(s, getQuietly(cx.compileStringAsync("1 + 2", "test", 1, null)));
+      return null;
+    });
+  }
+
+  @Test
+  public void testSecurityControllerOfTheCaller() throws Exception {
+    final Object domain = "domain";
+    final List<Object> domains = new ArrayList<Object>();
+    final SecurityController controller = new SecurityController() {
+      @Override
+      public GeneratedClassLoader createClassLoader(ClassLoader parent,
+                                                    Object securityDomain) {
+        domains.add(securityDomain);
+        return Context.getCurrentContext().createClassLoader(parent);
+      }
+
+      @Override
+      public Object getDynamicSecurityDomain(Object securityDomain) {
+        return securityDomain;
+      }
+
+      @Override
+      public Object callWithDomain(Object securityDomain, Context cx,
+                                   org.mozilla.javascript.Callable callable,
+                                   Scriptable scope, Scriptable thisObj,
+                                   Object[] args) {
+        return callable.call(cx, scope, thisObj, args);
+      }
+    };
+    new ContextFactory().call(cx -> {
+      cx.setSecurityController(controller);
+      for (int optLevel : new int[] { -1, 0, 9 }) {
+        cx.setOptimizationLevel(optLevel);
+        Future<Script> f = cx.compileStringAsync(SOURCE, "test", 1, domain);
+        assertEquals("610|34|object", exec(cx, getQuietly(f)));
+      }
+      return null;
+    });
+    assertEquals(2, domains.size());
+    assertSame(domain, domains.get(0));
+    assertSame(domain, domains.get(1));
+  }
+
+  @Test
+  public void testExecutorOfTheFactory() {
+    ContextFactory factory = new ContextFactory();
+    assertSame(factory.getCompilationExecutor(),
+        factory.getCompilationExecutor());
+    assertNotSame(factory.getCompilationExecutor(),
+        new ContextFactory().getCompilationExecutor());
+  }
+
+  // Makes sure that a Context of the given factory is entered
+  private static <T> T onNewThread(Callable<T> action) throws Exception {
+    FutureTask<T> task = new FutureTask<T>(action);
+    new Thread(task).start();
+    return task.get();
+  }
+
+  private static Script getQuietly(Future<Script> f) {
+    try {
+      return f.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.mozilla.javascript.ScriptableObject.Slot;
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+/**
+ * Tests for the lock-free slot map used by thread-safe objects.
+ */
+public class ConcurrentSlotMapTest
+{
+  @Test
+  public void testAddReplaceRemove() {
+    ConcurrentSlotMap m = new ConcurrentSlotMap();
+    for (int i = 0; i < 100; i++) {
+      m.get("p" + i, 0, SlotAccess.MODIFY).value = i;
+      m.get(null, i, SlotAccess.MODIFY).value = -i;
+    }
+    assertEquals(200, m.size());
+    Slot s = m.get("p5", 0, SlotAccess.MODIFY_GETTER_SETTER);
+    assertTrue(s instanceof ScriptableObject.GetterSlot);
+    assertSame(s, m.query("p5", 0));
+    assertEquals(5, s.value);
+
+    for (int i = 0; i < 100; i += 2) {
+      m.remove("p" + i, 0);
+    }
+    assertEquals(150, m.size());
+    assertNull(m.query("p4", 0));
+    assertEquals(7, m.query("p7", 0).value);
+    assertEquals(-4, m.query(null, 4).value);
+
+    // Re-adding goes to the end of the definition order
+    m.get("p4", 0, SlotAccess.MODIFY).value = "again";
+    List<Object> names = new ArrayList<Object>();
+    for (Slot slot : m) {
+      names.add(slot.name == null ? Integer.valueOf(slot.indexOrHash) : slot.name);
+    }
+    assertEquals(151, names.size());
+    assertEquals(0, names.get(0));
+    assertEquals("p1", names.get(1));
+    assertEquals("p4", names.get(150));
+  }
+
+  @Test
+  public void testManyRemovals() {
+    ConcurrentSlotMap m = new ConcurrentSlotMap();
+    for (int i = 0; i < 10000; i++) {
+      m.get(null, i, SlotAccess.MODIFY).value = i;
+    }
+    // Remove all but every hundredth slot, which compacts the definition order
+    for (int i = 0; i < 10000; i++) {
+      if (i % 100 != 0) {
+        m.remove(null, i);
+      }
+    }
+    assertEquals(100, m.size());
+    Slot s = m.get(null, 500, SlotAccess.MODIFY_GETTER_SETTER);
+    assertSame(s, m.query(null, 500));
+    m.get(null, 3, SlotAccess.MODIFY).value = 3;
+
+    List<Object> values = new ArrayList<Object>();
+    for (Slot slot : m) {
+      values.add(slot.value);
+    }
+    assertEquals(101, values.size());
+    assertEquals(0, values.get(0));
+    assertEquals(500, values.get(5));
+    assertEquals(9900, values.get(99));
+    assertEquals(3, values.get(100));
+  }
+
+  @Test
+  public void testReadersDuringWrites() throws InterruptedException {
+    final ThreadSafeSlotMapContainer c = new ThreadSafeSlotMapContainer(0);
+    c.get("fixed", 0, SlotAccess.MODIFY).value = "fixed";
+    final AtomicReference<String> error = new AtomicReference<String>();
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      readers[t] = new Thread(() -> {
+        for (int i = 0; i < 200000 && error.get() == null; i++) {
+          Slot s = c.query("fixed", 0);
+          if (s == null || !"fixed".equals(s.value)) {
+            error.set("lost slot at " + i);
+          }
+          Slot o = c.query(null, i % 5000);
+          if (o != null && o.value != null
+              && ((Integer)o.value).intValue() != i % 5000) {
+            error.set("wrong slot for " + (i % 5000));
+          }
+        }
+      });
+      readers[t].start();
+    }
+    for (int i = 0; i < 5000; i++) {
+      c.get(null, i, SlotAccess.MODIFY).value = i;
+      if (i % 3 == 0) {
+        c.remove(null, i / 2);
+      }
+    }
+    for (Thread t : readers) {
+      t.join();
+    }
+    assertNull(error.get());
+    assertEquals("fixed", c.query("fixed", 0).value);
+  }
+
+  @Test
+  public void testCollidingKeys() {
+    // "Aa" and "BB" have the same String.hashCode(), and so do all strings built from them
+    List<String> keys = new ArrayList<String>();
+    keys.add("");
+    for (int i = 0; i < 12; i++) {
+      List<String> next = new ArrayList<String>();
+      for (String k : keys) {
+        next.add(k + "Aa");
+        next.add(k + "BB");
+      }
+      keys = next;
+    }
+    ConcurrentSlotMap m = new ConcurrentSlotMap();
+    for (String k : keys) {
+      m.get(k, 0, SlotAccess.MODIFY).value = k;
+    }
+    assertEquals(keys.size(), m.size());
+    for (String k : keys) {
+      assertEquals(k, m.query(k, 0).value);
+    }
+    int i = 0;
+    for (Slot slot : m) {
+      assertEquals(keys.get(i++), slot.name);
+    }
+    m.remove(keys.get(5), 0);
+    assertNull(m.query(keys.get(5), 0));
+    assertEquals(keys.get(6), m.query(keys.get(6), 0).value);
+  }
+
+  @Test
+  public void testCollidingIndexes() {
+    // Indexes whose two halves are equal all start probing at the same entry
+    ConcurrentSlotMap m = new ConcurrentSlotMap();
+    for (int i = 0; i < 20000; i++) {
+      m.get(null, (i << 16) | i, SlotAccess.MODIFY).value = i;
+    }
+    assertEquals(20000, m.size());
+    for (int i = 0; i < 20000; i++) {
+      assertEquals(i, m.query(null, (i << 16) | i).value);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mozilla.javascript.ScriptableObject.Slot;
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+/**
+ * Tests for the element array that SlotMapContainer keeps for indexed properties.
+ */
+public class DenseElementsTest
+{
+  private static List<Object> keys(SlotMapContainer c) {
+    List<Object> keys = new ArrayList<Object>();
+    for (Slot s : c) {
+      keys.add(s.name == null ? Integer.valueOf(s.indexOrHash) : s.name);
+    }
+    return keys;
+  }
+
+  @Test
+  public void testIndexesComeFirst() {
+    SlotMapContainer c = new SlotMapContainer(0, false, true);
+    c.get("b", 0, SlotAccess.MODIFY).value = "b";
+    c.get(null, 2, SlotAccess.MODIFY).value = 2;
+    c.get("a", 0, SlotAccess.MODIFY).value = "a";
+    c.get(null, 0, SlotAccess.MODIFY).value = 0;
+    assertEquals(4, c.size());
+    assertEquals("[0, 2, b, a]", keys(c).toString());
+    assertNull(c.query(null, 1));
+    assertEquals(2, c.query(null, 2).value);
+  }
+
+  @Test
+  public void testGrowAndGoSparse() {
+    SlotMapContainer c = new SlotMapContainer(0, false, true);
+    for (int i = 0; i < 128; i++) {
+      c.get(null, i, SlotAccess.MODIFY).value = i;
+    }
+    c.get(null, 100000, SlotAccess.MODIFY).value = "far";
+    // The array would grow for index 128, but once one index went to the map so do
+    // all new ones, in insertion order
+    c.get(null, 128, SlotAccess.MODIFY).value = 128;
+    assertEquals(130, c.size());
+    List<Object> keys = keys(c);
+    for (int i = 0; i < 128; i++) {
+      assertEquals(Integer.valueOf(i), keys.get(i));
+    }
+    assertEquals("[100000, 128]", keys.subList(128, 130).toString());
+    for (int i = 0; i <= 128; i++) {
+      assertEquals(i, c.query(null, i).value);
+    }
+    assertEquals("far", c.query(null, 100000).value);
+  }
+
+  @Test
+  public void testAccessorsAndRemoval() {
+    SlotMapContainer c = new SlotMapContainer(0, false, true);
+    c.get(null, 3, SlotAccess.MODIFY).value = "v";
+    Slot g = c.get(null, 3, SlotAccess.MODIFY_GETTER_SETTER);
+    assertTrue(g instanceof ScriptableObject.GetterSlot);
+    assertSame(g, c.query(null, 3));
+    assertEquals("v", g.value);
+    assertNull(c.get(null, 4, SlotAccess.QUERY));
+    c.remove(null, 3);
+    assertTrue(c.isEmpty());
+    assertNull(c.query(null, 3));
+  }
+
+  @Test
+  public void testScriptOrder() {
+    Object result = ContextFactory.getGlobal().call(cx -> {
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      Scriptable scope = cx.initStandardObjects();
+      return cx.evaluateString(scope,
+          "var o = { z: 1 }; o[1] = 'one'; o.y = 2; o[0] = 'zero'; o[1000] = 'far';\n"
+          + "Object.defineProperty(o, 2, { get: function() { return 'two'; }, enumerable: true });\n"
+          + "delete o[0];\n"
+          + "var r = [];\n"
+          + "for (var k in o) r.push(k + '=' + o[k]);\n"
+          + "r.join()",
+          "test", 1, null);
+    });
+    assertEquals("1=one,2=two,1000=far,z=1,y=2", result);
+  }
+
+  @Test
+  public void testInsertionOrderWithoutIdsFirst() {
+    ContextFactory factory = new ContextFactory() {
+      @Override
+      protected boolean hasFeature(Context cx, int featureIndex) {
+        if (featureIndex == Context.FEATURE_ENUMERATE_IDS_FIRST) {
+          return false;
+        }
+        return super.hasFeature(cx, featureIndex);
+      }
+    };
+    Object result = factory.call(cx -> {
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      Scriptable scope = cx.initStandardObjects();
+      return cx.evaluateString(scope,
+          "var o = { z: 1 }; o[1] = 'one'; o[0] = 'zero'; o[1000] = 'far';\n"
+          + "var r = [];\n"
+          + "for (var k in o) r.push(k);\n"
+          + "r.join()",
+          "test", 1, null);
+    });
+    assertEquals("z,1,0,1000", result);
+  }
+}
@@ -0,0 +1,171 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * Tests that scripts loaded from a DirectoryCodeCache run like freshly compiled ones.
+ */
+public class DirectoryCodeCacheTest
+{
+  private static final String SOURCE =
+      "function Point(x, y) { this.x = x; this.y = y; }\n"
+      + "Point.prototype = { get len() { return Math.sqrt(this.x * this.x + this.y * this.y); } };\n"
+      + "var counter = (function() { var n = 0; return function() { return ++n; }; })();\n"
+      + "counter();\n"
+      + "[new Point(3, 4).len, counter(), /a(b+)/.exec('xabbb')[1],"
+      + " [1, 2, 3].map(function(v) { return v * 2; }), 'done'].join('|')";
+
+  private static Object run(final int optLevel, final CodeCache codeCache, final String source) {
+    return ContextFactory.getGlobal().call(cx -> {
+      cx.setOptimizationLevel(optLevel);
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      cx.setCodeCache(codeCache);
+      Scriptable scope = cx.initStandardObjects();
+      return cx.compileString(source, "test", 1, null).exec(cx, scope);
+    });
+  }
+
+  private static CompilerEnvirons newEnv(Context cx) {
+    CompilerEnvirons env = new CompilerEnvirons();
+    env.initFromContext(cx);
+    return env;
+  }
+
+  private static void deleteAll(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path f : (Iterable<Path>)files::iterator) {
+        Files.delete(f);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testStoreAndLoad() throws IOException {
+    Path dir = Files.createTempDirectory("rhino-code-cache");
+    try {
+      DirectoryCodeCache cache = new DirectoryCodeCache(dir.toFile());
+      for (int optLevel : new int[] { -1, 9 }) {
+        String expected = "5|2|bbb|2,4,6|done";
+        assertEquals(expected, run(optLevel, cache, SOURCE));
+        // A new cache for the same directory, as after a restart
+        assertEquals(expected, run(optLevel, new DirectoryCodeCache(dir.toFile()), SOURCE));
+      }
+      try (Stream<Path> files = Files.list(dir)) {
+        assertEquals(2, files.count());
+      }
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public void testLoadedFormIsUsed() throws IOException {
+    Path dir = Files.createTempDirectory("rhino-code-cache");
+    try {
+      final DirectoryCodeCache cache = new DirectoryCodeCache(dir.toFile());
+      run(-1, cache, "'first'");
+      ContextFactory.getGlobal().call(cx -> {
+        cx.setOptimizationLevel(-1);
+        cx.setLanguageVersion(Context.VERSION_ES6);
+        ScriptCache.Key first = new ScriptCache.Key("'first'", "test", 1, null,
+            newEnv(cx), false);
+        ScriptCache.Key second = new ScriptCache.Key("'second'", "test", 1, null,
+            newEnv(cx), false);
+        Object code = cache.load(first);
+        assertTrue(code instanceof InterpreterData);
+        assertNull(cache.load(second));
+        // The source is not looked at when the compiled form is found
+        cache.store(second, code);
+        assertNotNull(cache.load(second));
+        return null;
+      });
+      assertEquals("first", run(-1, cache, "'second'"));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public void testDamagedFilesAreIgnored() throws IOException {
+    Path dir = Files.createTempDirectory("rhino-code-cache");
+    try {
+      DirectoryCodeCache cache = new DirectoryCodeCache(dir.toFile());
+      run(9, cache, SOURCE);
+      try (Stream<Path> files = Files.list(dir)) {
+        for (Path f : (Iterable<Path>)files::iterator) {
+          byte[] bytes = Files.readAllBytes(f);
+          Files.write(f, Arrays.copyOf(bytes, bytes.length / 2));
+        }
+      }
+      assertEquals("5|2|bbb|2,4,6|done", run(9, cache, SOURCE));
+      assertEquals("5|2|bbb|2,4,6|done", run(9, cache, SOURCE));
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public void testMissingDirectoryIsCreated() throws IOException {
+    Path dir = Files.createTempDirectory("rhino-code-cache");
+    File sub = new File(dir.toFile(), "sub");
+    try {
+      new DirectoryCodeCache(sub);
+      assertTrue(sub.isDirectory());
+    } finally {
+      Files.delete(sub.toPath());
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void testBuildsDoNotShareFiles() throws IOException {
+    Path dir = Files.createTempDirectory("rhino-code-cache");
+    try {
+      final DirectoryCodeCache a = new DirectoryCodeCache(dir.toFile(), "a");
+      final DirectoryCodeCache b = new DirectoryCodeCache(dir.toFile(), "b");
+      run(-1, a, "'first'");
+      ContextFactory.getGlobal().call(cx -> {
+        cx.setOptimizationLevel(-1);
+        cx.setLanguageVersion(Context.VERSION_ES6);
+        ScriptCache.Key key = new ScriptCache.Key("'first'", "test", 1, null,
+            newEnv(cx), false);
+        assertNotNull(a.load(key));
+        assertNull(b.load(key));
+        return null;
+      });
+    } finally {
+      deleteAll(dir);
+    }
+  }
+
+  @Test
+  public void testUnknownBuildCachesNothing() throws IOException {
+    Path dir = Files.createTempDirectory("rhino-code-cache");
+    try {
+      DirectoryCodeCache cache = new DirectoryCodeCache(dir.toFile(), null);
+      assertEquals("5|2|bbb|2,4,6|done", run(9, cache, SOURCE));
+      try (Stream<Path> files = Files.list(dir)) {
+        assertEquals(0, files.count());
+      }
+    } finally {
+      deleteAll(dir);
+    }
+  }
+}
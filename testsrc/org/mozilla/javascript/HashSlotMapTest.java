@@ -0,0 +1,137 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mozilla.javascript.ScriptableObject.Slot;
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+/**
+ * Tests for the open-addressed SlotMap used by large objects.
+ */
+public class HashSlotMapTest
+{
+  @Test
+  public void testNamesAndIndexesAreSeparate() {
+    HashSlotMap m = new HashSlotMap();
+    m.get(null, 7, SlotAccess.MODIFY).value = "index";
+    m.get("7", 0, SlotAccess.MODIFY).value = "name";
+    assertEquals(2, m.size());
+    assertEquals("index", m.query(null, 7).value);
+    assertEquals("name", m.query("7", 0).value);
+    assertNull(m.query(null, 8));
+    assertNull(m.query("8", 0));
+  }
+
+  @Test
+  public void testManyKeysInOrder() {
+    HashSlotMap m = new HashSlotMap();
+    for (int i = 0; i < 10000; i++) {
+      m.get("k" + i, 0, SlotAccess.MODIFY).value = i;
+      m.get(null, i * 3, SlotAccess.MODIFY).value = -i;
+    }
+    assertEquals(20000, m.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, m.query("k" + i, 0).value);
+      assertEquals(-i, m.query(null, i * 3).value);
+      assertNull(m.query(null, i * 3 + 1));
+    }
+    int n = 0;
+    for (Slot s : m) {
+      if ((n & 1) == 0) {
+        assertEquals("k" + (n / 2), s.name);
+      } else {
+        assertEquals(n / 2 * 3, s.indexOrHash);
+      }
+      n++;
+    }
+    assertEquals(20000, n);
+  }
+
+  @Test
+  public void testRemoveAndReuse() {
+    HashSlotMap m = new HashSlotMap();
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 3000; i++) {
+        m.get("k" + i, 0, SlotAccess.MODIFY).value = round;
+      }
+      for (int i = 0; i < 3000; i++) {
+        if (i % 10 != 0) {
+          m.remove("k" + i, 0);
+        }
+      }
+      assertEquals(300, m.size());
+    }
+    List<Object> names = new ArrayList<Object>();
+    for (Slot s : m) {
+      names.add(s.name);
+      assertEquals(4, s.value);
+    }
+    assertEquals(300, names.size());
+    assertEquals("k0", names.get(0));
+    assertEquals("k2990", names.get(299));
+  }
+
+  @Test
+  public void testAccessorConversionKeepsPosition() {
+    HashSlotMap m = new HashSlotMap();
+    m.get("a", 0, SlotAccess.MODIFY).value = "a";
+    m.get("b", 0, SlotAccess.MODIFY).value = "b";
+    Slot s = m.get("a", 0, SlotAccess.MODIFY_GETTER_SETTER);
+    assertTrue(s instanceof ScriptableObject.GetterSlot);
+    assertSame(s, m.query("a", 0));
+    assertSame(s, m.iterator().next());
+    Slot d = m.get("a", 0, SlotAccess.CONVERT_ACCESSOR_TO_DATA);
+    assertTrue(!(d instanceof ScriptableObject.GetterSlot));
+    assertEquals("a", d.value);
+  }
+
+  @Test
+  public void testCollidingKeys() {
+    // "Aa" and "BB" have the same String.hashCode(), and so do all strings built from them
+    List<String> keys = new ArrayList<String>();
+    keys.add("");
+    for (int i = 0; i < 12; i++) {
+      List<String> next = new ArrayList<String>();
+      for (String k : keys) {
+        next.add(k + "Aa");
+        next.add(k + "BB");
+      }
+      keys = next;
+    }
+    HashSlotMap m = new HashSlotMap();
+    for (String k : keys) {
+      m.get(k, 0, SlotAccess.MODIFY).value = k;
+    }
+    assertEquals(keys.size(), m.size());
+    for (String k : keys) {
+      assertEquals(k, m.query(k, 0).value);
+    }
+  }
+
+  @Test
+  public void testCollidingIndexes() {
+    // Indexes whose two halves are equal all start probing at one of two entries
+    HashSlotMap m = new HashSlotMap();
+    for (int i = 0; i < 20000; i++) {
+      m.get(null, (i << 16) | i, SlotAccess.MODIFY).value = i;
+    }
+    assertEquals(20000, m.size());
+    for (int i = 0; i < 20000; i++) {
+      assertEquals(i, m.query(null, (i << 16) | i).value);
+    }
+    m.remove(null, (5 << 16) | 5);
+    assertNull(m.query(null, (5 << 16) | 5));
+    assertEquals(6, m.query(null, (6 << 16) | 6).value);
+  }
+}
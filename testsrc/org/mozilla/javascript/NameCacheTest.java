@@ -0,0 +1,122 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests that the NameCache notices every kind of change to the top-level scope.
+ */
+public class NameCacheTest
+{
+  private static void assertEval(String expected, final String source) {
+    for (final int optLevel : new int[] { -1, 9 }) {
+      for (final boolean dynamicCallSites : new boolean[] { false, true }) {
+        Object result = new ContextFactory() {
+          @Override
+          protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_DYNAMIC_CALL_SITES) {
+              return dynamicCallSites;
+            }
+            return super.hasFeature(cx, featureIndex);
+          }
+        }.call(cx -> {
+          cx.setOptimizationLevel(optLevel);
+          cx.setLanguageVersion(Context.VERSION_ES6);
+          Scriptable scope = cx.initStandardObjects();
+          return cx.evaluateString(scope, source, "test", 1, null);
+        });
+        assertEquals(expected, result);
+      }
+    }
+  }
+
+  @Test
+  public void testRedefineAndDelete() {
+    assertEval("1|2|3|missing",
+        "this.x = 1; var r = [];\n"
+        + "function f() { try { return x; } catch (e) { return 'missing'; } }\n"
+        + "r.push(f()); x = 2; r.push(f());\n"
+        + "Object.defineProperty(this, 'x', { value: 3, configurable: true });\n"
+        + "r.push(f()); delete x; r.push(f());\n"
+        + "r.join('|')");
+  }
+
+  @Test
+  public void testGetterAndBackToData() {
+    assertEval("a|getter|b",
+        "this.g = 'a'; var r = [];\n"
+        + "function f() { return g; }\n"
+        + "r.push(f());\n"
+        + "Object.defineProperty(this, 'g', { get: function() { return 'getter'; },"
+        + " configurable: true });\n"
+        + "r.push(f());\n"
+        + "Object.defineProperty(this, 'g', { value: 'b', configurable: true });\n"
+        + "r.push(f()); r.join('|')");
+  }
+
+  @Test
+  public void testShadowingOnTheChain() {
+    assertEval("proto|own|outer|proto",
+        "Object.prototype.p = 'proto'; var r = [];\n"
+        + "function f() { return p; }\n"
+        + "r.push(f()); this.p = 'own'; r.push(f());\n"
+        + "r.push((function(p) { return (function() { return p; })(); })('outer'));\n"
+        + "delete this.p; r.push(f()); r.join('|')");
+  }
+
+  @Test
+  public void testFunctionsAndThis() {
+    assertEval("true|2|replaced|true",
+        "var r = []; function who() { return this; }\n"
+        + "function two() { return 2; }\n"
+        + "function call() { return two(); }\n"
+        + "r.push(who() === this); r.push(call());\n"
+        + "two = function() { return 'replaced'; }; r.push(call());\n"
+        + "r.push((function() { function inner() { return who(); } return inner(); })()"
+        + " === this);\n"
+        + "r.join('|')");
+  }
+
+  @Test
+  public void testSharedPrototypeScope() {
+    ContextFactory.getGlobal().call(cx -> {
+      Scriptable shared = cx.initStandardObjects();
+      cx.evaluateString(shared, "var v = 'shared';", "shared", 1, null);
+      Script read = cx.compileString("v", "read", 1, null);
+      for (int i = 0; i < 2; i++) {
+        Scriptable scope = cx.newObject(shared);
+        scope.setPrototype(shared);
+        scope.setParentScope(null);
+        assertEquals("shared", read.exec(cx, scope));
+        cx.evaluateString(scope, "var v = 'local' + " + i, "test", 1, null);
+        assertEquals("local" + i, read.exec(cx, scope));
+      }
+      return null;
+    });
+  }
+
+  @Test
+  public void testScopesAreInvalidatedSeparately() {
+    ContextFactory.getGlobal().call(cx -> {
+      cx.setOptimizationLevel(-1);
+      ScriptableObject a = cx.initStandardObjects();
+      ScriptableObject b = cx.initStandardObjects();
+      Script read = cx.compileString("Math.abs(-1)", "read", 1, null);
+      read.exec(cx, a);
+      read.exec(cx, b);
+      int epochA = a.getNameEpoch();
+      int epochB = b.getNameEpoch();
+      cx.evaluateString(b, "var added = 1;", "test", 1, null);
+      assertEquals(epochA, a.getNameEpoch());
+      assertNotEquals(epochB, b.getNameEpoch());
+      assertEquals(1, ((Number)read.exec(cx, a)).intValue());
+      return null;
+    });
+  }
+}
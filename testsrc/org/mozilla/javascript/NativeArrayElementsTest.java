@@ -0,0 +1,143 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the unboxed number storage of NativeArray.
+ */
+public class NativeArrayElementsTest
+{
+  private static Object eval(final int optLevel, final String source) {
+    return ContextFactory.getGlobal().call(cx -> {
+      cx.setOptimizationLevel(optLevel);
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      Scriptable scope = cx.initStandardObjects();
+      return cx.evaluateString(scope, source, "test", 1, null);
+    });
+  }
+
+  private static void assertEval(String expected, String source) {
+    assertEquals(expected, eval(-1, source));
+    assertEquals(expected, eval(9, source));
+  }
+
+  @Test
+  public void testNumbersStayUnboxed() {
+    NativeArray a = new NativeArray(0);
+    a.put(0, a, Double.valueOf(1.5));
+    a.put(1, a, Double.valueOf(Double.NaN));
+    assertEquals(1.5, a.getUnboxed(0), 0.0);
+    assertTrue(Double.isNaN(a.getUnboxed(1)));
+    assertFalse(NativeArray.isHole(a.getUnboxed(1)));
+    assertTrue(NativeArray.isHole(a.getUnboxed(2)));
+    assertEquals(2L, a.getLength());
+
+    assertTrue(a.putUnboxed(5, 7));
+    assertEquals(6L, a.getLength());
+    assertSame(Scriptable.NOT_FOUND, a.get(3, a));
+    assertEquals(7.0, a.get(5, a));
+  }
+
+  @Test
+  public void testOtherValuesKeepTheirType() {
+    NativeArray a = new NativeArray(0);
+    a.put(0, a, Double.valueOf(1));
+    a.put(2, a, Integer.valueOf(3));
+    assertTrue(NativeArray.isHole(a.getUnboxed(0)));
+    assertFalse(a.putUnboxed(0, 1));
+    assertEquals(Double.valueOf(1), a.get(0, a));
+    assertSame(Scriptable.NOT_FOUND, a.get(1, a));
+    assertEquals(Integer.valueOf(3), a.get(2, a));
+  }
+
+  @Test
+  public void testScripts() {
+    assertEval("0,1,4,9,16|5|16",
+        "var a = []; for (var i = 0; i < 5; i++) a[i] = i * i;\n"
+        + "var s = a.join(); a.push(25); var last = a.pop();\n"
+        + "s + '|' + a.length + '|' + a[4]");
+    assertEval("1,,3,NaN,x",
+        "var a = [];  a[0] = 1; a[2] = 3; a[3] = 0 / 0; a.push('x'); a.join()");
+    assertEval("-1,0,0,1,10,2,Infinity,NaN|true",
+        "var a = new Array(); a.push(10, 2, 1, NaN, Infinity, 0, -1, -0);\n"
+        + "a.sort(); a.join() + '|' + (1 / a[1] < 0 || 1 / a[2] < 0)");
+    assertEval("3,2,1|2,1|1,2,9",
+        "var a = []; a.push(1, 2, 3); a.reverse(); var r = a.join();\n"
+        + "a.shift(); r += '|' + a.join(); a.splice(1, 0, 9); a.unshift(1); a.pop();\n"
+        + "r + '|' + a.join()");
+    assertEval("1,2,3,4|1|true",
+        "var a = []; a.push(1, 2); var b = []; b.push(3, 4);\n"
+        + "a.concat(b).join() + '|' + a.indexOf(2) + '|' + b.includes(4)");
+  }
+
+  @Test
+  public void testSortIsStableForZeros() {
+    assertEval("Infinity,-Infinity|-Infinity,Infinity|1,10,9",
+        "var a = []; a.push(0); a.push(-0); a.sort();\n"
+        + "var b = []; b.push(-0, 0); b.sort();\n"
+        + "var c = []; c.push(10, 9, 1); c.sort();\n"
+        + "[1 / a[0], 1 / a[1]] + '|' + [1 / b[0], 1 / b[1]] + '|' + c.join()");
+  }
+
+  @Test
+  public void testPrototypeElementsAreNotShadowed() {
+    assertEval("proto,set",
+        "var seen = [];\n"
+        + "Object.defineProperty(Array.prototype, 3, { set: function(v) { seen.push('set'); },"
+        + " get: function() { return 'proto'; }, configurable: true });\n"
+        + "var a = []; for (var i = 0; i < 3; i++) a[i] = i;\n"
+        + "a[3] = 3; delete Array.prototype[3];\n"
+        + "[a.hasOwnProperty(3) ? a[3] : 'proto'].concat(seen).join()");
+  }
+
+  /** Counts the elements read and written through the Scriptable methods. */
+  private static final class CountingArray extends NativeArray {
+    private static final long serialVersionUID = 1L;
+    int reads;
+    int writes;
+
+    CountingArray() {
+      super(0);
+    }
+
+    @Override
+    public Object get(int index, Scriptable start) {
+      reads++;
+      return super.get(index, start);
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value) {
+      writes++;
+      super.put(index, start, value);
+    }
+  }
+
+  @Test
+  public void testSubclassesAreNotBypassed() {
+    for (final int optLevel : new int[] { -1, 9 }) {
+      ContextFactory.getGlobal().call(cx -> {
+        cx.setOptimizationLevel(optLevel);
+        Scriptable scope = cx.initStandardObjects();
+        CountingArray a = new CountingArray();
+        ScriptRuntime.setBuiltinProtoAndParent(a, scope, TopLevel.Builtins.Array);
+        scope.put("a", scope, a);
+        Object result = cx.evaluateString(scope,
+            "for (var i = 0; i < 3; i++) a[i] = i * 2; a[1] + a[2]", "test", 1, null);
+        assertEquals(6, ((Number)result).intValue());
+        assertEquals("opt " + optLevel, 3, a.writes);
+        assertEquals("opt " + optLevel, 2, a.reads);
+        return null;
+      });
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests that the PrototypeCache notices every kind of change to a prototype.
+ */
+public class PrototypeCacheTest
+{
+  // Shapes and dynamic call sites let property writes go through the inline caches
+  private static final ContextFactory SHAPES_FACTORY = new ContextFactory() {
+    @Override
+    protected boolean hasFeature(Context cx, int featureIndex) {
+      if (featureIndex == Context.FEATURE_OBJECT_SHAPES
+          || featureIndex == Context.FEATURE_DYNAMIC_CALL_SITES) {
+        return true;
+      }
+      return super.hasFeature(cx, featureIndex);
+    }
+  };
+
+  private static void assertEval(String expected, final String source) {
+    for (ContextFactory factory : new ContextFactory[] {
+        ContextFactory.getGlobal(), SHAPES_FACTORY }) {
+      for (final int optLevel : new int[] { -1, 9 }) {
+        Object result = factory.call(cx -> {
+          cx.setOptimizationLevel(optLevel);
+          cx.setLanguageVersion(Context.VERSION_ES6);
+          Scriptable scope = cx.initStandardObjects();
+          return cx.evaluateString(scope, source, "test", 1, null);
+        });
+        assertEquals(expected, result);
+      }
+    }
+  }
+
+  @Test
+  public void testBuiltinReplacedAndDeleted() {
+    assertEval("2|pushed|[object Array]",
+        "var a = []; var r = [];\n"
+        + "for (var i = 0; i < 2; i++) a.push(i);\n"
+        + "r[0] = a.length;\n"
+        + "Array.prototype.push = function() { return 'pushed'; };\n"
+        + "r[1] = a.push(3);\n"
+        + "delete Array.prototype.toString;\n"
+        + "r[2] = a.toString();\n"
+        + "r.join('|')");
+  }
+
+  @Test
+  public void testOwnPropertyShadows() {
+    assertEval("abc|own",
+        "var a = ['a', 'b', 'c']; var r = [a.join('')];\n"
+        + "a.join = function() { return 'own'; };\n"
+        + "r.push(a.join('')); r.join('|')");
+  }
+
+  @Test
+  public void testChangesOnTheChain() {
+    assertEval("q,p,getter,other,q",
+        "var q = { f: function() { return 'q'; } };\n"
+        + "var p = Object.create(q); var o = Object.create(p);\n"
+        + "var r = [];\n"
+        + "function call() { r.push(o.f()); }\n"
+        + "call();\n"
+        + "p.f = function() { return 'p'; }; call();\n"
+        + "Object.defineProperty(p, 'f', { get: function() {\n"
+        + "  return function() { return 'getter'; }; }, configurable: true });\n"
+        + "call();\n"
+        + "delete p.f;\n"
+        + "Object.setPrototypeOf(p, { f: function() { return 'other'; } }); call();\n"
+        + "Object.setPrototypeOf(p, q); call();\n"
+        + "r.join()");
+  }
+
+  @Test
+  public void testValueChanges() {
+    assertEval("1,2,3,4,5",
+        "var proto = { m: function() { return 1; } };\n"
+        + "var g = Object.create(proto); var r = [];\n"
+        + "function call() { r.push(g.m()); }\n"
+        + "call();\n"
+        + "Object.defineProperty(proto, 'm', { value: function() { return 2; } }); call();\n"
+        + "proto.m = function() { return 3; }; call();\n"
+        + "Object.preventExtensions(proto);\n"
+        + "proto.m = function() { return 4; }; call();\n"
+        + "Object.defineProperty(proto, 'm', { value: function() { return 5; } }); call();\n"
+        + "r.join()");
+  }
+
+  @Test
+  public void testWritesThroughInlineCaches() {
+    assertEval("0,1,2,3,4,5,6,7",
+        "var proto = { m: null };\n"
+        + "var g = Object.create(proto); var r = [];\n"
+        // Deleting a property keeps g itself out of the inline caches
+        + "g.x = 0; delete g.x;\n"
+        + "function set(o, i) { o.m = function() { return i; }; }\n"
+        + "for (var i = 0; i < 8; i++) { set(proto, i); r.push(g.m()); }\n"
+        + "r.join()");
+  }
+
+  @Test
+  public void testStringMethods() {
+    assertEval("b|B",
+        "var s = 'abc'; var r = [s.charAt(1)];\n"
+        + "String.prototype.charAt = function(i) { return this[i].toUpperCase(); };\n"
+        + "r.push(s.charAt(1)); r.join('|')");
+  }
+
+  @Test
+  public void testScopesAreInvalidatedSeparately() {
+    ContextFactory.getGlobal().call(cx -> {
+      cx.setOptimizationLevel(-1);
+      ScriptableObject a = cx.initStandardObjects();
+      ScriptableObject b = cx.initStandardObjects();
+      Script call = cx.compileString("[1, 2].join()", "call", 1, null);
+      call.exec(cx, a);
+      call.exec(cx, b);
+      ScriptableObject protoA = (ScriptableObject)ScriptableObject.getArrayPrototype(a);
+      ScriptableObject protoB = (ScriptableObject)ScriptableObject.getArrayPrototype(b);
+      int epochA = protoA.getPrototypeEpoch();
+      int epochB = protoB.getPrototypeEpoch();
+      cx.evaluateString(b, "Array.prototype.added = 1;", "test", 1, null);
+      assertEquals(epochA, protoA.getPrototypeEpoch());
+      assertNotEquals(epochB, protoB.getPrototypeEpoch());
+      assertEquals("1,2", call.exec(cx, a));
+      return null;
+    });
+  }
+}
@@ -0,0 +1,93 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests that compiled scripts are shared only when compiling them again would
+ * give the same result.
+ */
+public class ScriptCacheTest
+{
+  @Test
+  public void testSameSourceAndSettings() {
+    final LruScriptCache cache = new LruScriptCache(10);
+    ContextFactory.getGlobal().call(cx -> {
+      cx.setScriptCache(cache);
+      for (int optLevel : new int[] { -1, 9 }) {
+        cx.setOptimizationLevel(optLevel);
+        Script s = cx.compileString("x + 1", "test", 1, null);
+        assertSame(s, cx.compileString("x + 1", "test", 1, null));
+        assertNotSame(s, cx.compileString("x + 2", "test", 1, null));
+        assertNotSame(s, cx.compileString("x + 1", "other", 1, null));
+        assertNotSame(s, cx.compileString("x + 1", "test", 2, null));
+
+        Scriptable scope = cx.initStandardObjects();
+        ScriptableObject.putProperty(scope, "x", Integer.valueOf(1));
+        assertEquals(2.0, ((Number)s.exec(cx, scope)).doubleValue(), 0.0);
+      }
+      return null;
+    });
+    assertEquals(8, cache.size());
+  }
+
+  @Test
+  public void testSettingsArePartOfTheKey() {
+    final LruScriptCache cache = new LruScriptCache(10);
+    ContextFactory.getGlobal().call(cx -> {
+      cx.setScriptCache(cache);
+      cx.setOptimizationLevel(9);
+      int version = cx.getLanguageVersion();
+      Script s = cx.compileString("1", "test", 1, null);
+      cx.setOptimizationLevel(-1);
+      assertNotSame(s, cx.compileString("1", "test", 1, null));
+      cx.setOptimizationLevel(9);
+      cx.setLanguageVersion(version == Context.VERSION_1_8
+                            ? Context.VERSION_ES6 : Context.VERSION_1_8);
+      assertNotSame(s, cx.compileString("1", "test", 1, null));
+      cx.setLanguageVersion(version);
+      cx.setGeneratingSource(false);
+      assertNotSame(s, cx.compileString("1", "test", 1, null));
+      cx.setGeneratingSource(true);
+      assertSame(s, cx.compileString("1", "test", 1, null));
+      return null;
+    });
+  }
+
+  @Test
+  public void testEviction() {
+    final LruScriptCache cache = new LruScriptCache(2);
+    ContextFactory.getGlobal().call(cx -> {
+      cx.setScriptCache(cache);
+      cx.setOptimizationLevel(-1);
+      Script a = cx.compileString("'a'", "test", 1, null);
+      Script b = cx.compileString("'b'", "test", 1, null);
+      assertSame(a, cx.compileString("'a'", "test", 1, null));
+      cx.compileString("'c'", "test", 1, null);
+      assertEquals(2, cache.size());
+      assertSame(a, cx.compileString("'a'", "test", 1, null));
+      assertNotSame(b, cx.compileString("'b'", "test", 1, null));
+      return null;
+    });
+  }
+
+  @Test
+  public void testFunctionsAreNotCached() {
+    final LruScriptCache cache = new LruScriptCache(10);
+    ContextFactory.getGlobal().call(cx -> {
+      cx.setScriptCache(cache);
+      Scriptable scope = cx.initStandardObjects();
+      Function f = cx.compileFunction(scope, "function f() {}", "test", 1, null);
+      assertNotSame(f, cx.compileFunction(scope, "function f() {}", "test", 1, null));
+      return null;
+    });
+    assertEquals(0, cache.size());
+  }
+}
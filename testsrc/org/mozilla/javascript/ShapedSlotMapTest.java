@@ -0,0 +1,188 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mozilla.javascript.ScriptableObject.Slot;
+import org.mozilla.javascript.ScriptableObject.SlotAccess;
+
+/**
+ * Tests for the shape-based SlotMap and for the way that SlotMapContainer moves
+ * objects off of it.
+ */
+public class ShapedSlotMapTest
+{
+  @Test
+  public void testSharedShape() {
+    ShapedSlotMap m1 = new ShapedSlotMap();
+    ShapedSlotMap m2 = new ShapedSlotMap();
+    m1.get("x", 0, SlotAccess.MODIFY).value = 1;
+    m1.get("y", 0, SlotAccess.MODIFY).value = 2;
+    m2.get("x", 0, SlotAccess.MODIFY).value = 3;
+    m2.get("y", 0, SlotAccess.MODIFY).value = 4;
+    assertSame(m1.getShape(), m2.getShape());
+    assertEquals(1, m1.query("x", 0).value);
+    assertEquals(4, m2.query("y", 0).value);
+
+    ShapedSlotMap m3 = new ShapedSlotMap();
+    m3.get("y", 0, SlotAccess.MODIFY);
+    m3.get("x", 0, SlotAccess.MODIFY);
+    assertNotSame(m1.getShape(), m3.getShape());
+  }
+
+  @Test
+  public void testTransitionsAreBounded() {
+    // Start from a shape that only this test uses, so that its children are all known
+    Object base = new Object();
+    List<ShapedSlotMap> maps = new ArrayList<ShapedSlotMap>();
+    List<Object> keys = new ArrayList<Object>();
+    for (int i = 0; i < 100; i++) {
+      ShapedSlotMap m = new ShapedSlotMap();
+      m.get(base, 0, SlotAccess.MODIFY);
+      Object key = new Object();
+      m.get(key, 0, SlotAccess.MODIFY).value = i;
+      maps.add(m);
+      keys.add(key);
+    }
+    for (int i = 0; i < 100; i++) {
+      ShapedSlotMap m = new ShapedSlotMap();
+      m.get(base, 0, SlotAccess.MODIFY);
+      m.get(keys.get(i), 0, SlotAccess.MODIFY);
+      // Every earlier shape is still in use, so only the first 64 were recorded
+      if (i < 64) {
+        assertSame(maps.get(i).getShape(), m.getShape());
+      } else {
+        assertNotSame(maps.get(i).getShape(), m.getShape());
+      }
+      assertEquals(i, maps.get(i).query(keys.get(i), 0).value);
+      assertNull(maps.get(i).query(keys.get((i + 1) % 100), 0));
+    }
+  }
+
+  @Test
+  public void testHashedLookup() {
+    ShapedSlotMap m = new ShapedSlotMap();
+    for (int i = 0; i < ShapedSlotMap.MAX_SHAPED_SIZE; i++) {
+      if (i % 2 == 0) {
+        m.get(null, i, SlotAccess.MODIFY).value = i;
+      } else {
+        m.get(String.valueOf(i), 0, SlotAccess.MODIFY).value = i;
+      }
+    }
+    for (int i = 0; i < ShapedSlotMap.MAX_SHAPED_SIZE; i++) {
+      if (i % 2 == 0) {
+        assertEquals(i, m.query(null, i).value);
+        assertNull(m.query(String.valueOf(i), 0));
+      } else {
+        assertEquals(i, m.query(String.valueOf(i), 0).value);
+        assertNull(m.query(null, i));
+      }
+    }
+    assertNull(m.query("missing", 0));
+  }
+
+  @Test
+  public void testIndexAndNameKeys() {
+    ShapedSlotMap m = new ShapedSlotMap();
+    m.get(null, 0, SlotAccess.MODIFY).value = "index";
+    m.get("0", 0, SlotAccess.MODIFY).value = "name";
+    assertEquals(2, m.size());
+    assertEquals("index", m.query(null, 0).value);
+    assertEquals("name", m.query("0", 0).value);
+    assertNull(m.query(null, 1));
+  }
+
+  @Test
+  public void testInsertionOrder() {
+    ShapedSlotMap m = new ShapedSlotMap();
+    for (int i = 0; i < 20; i++) {
+      m.get("p" + i, 0, SlotAccess.MODIFY).value = i;
+    }
+    List<Object> names = new ArrayList<Object>();
+    for (Slot s : m) {
+      names.add(s.name);
+    }
+    assertEquals(20, names.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals("p" + i, names.get(i));
+      assertEquals(i, m.query("p" + i, 0).value);
+    }
+  }
+
+  @Test
+  public void testAccessorConversionKeepsShape() {
+    ShapedSlotMap m = new ShapedSlotMap();
+    m.get("a", 0, SlotAccess.MODIFY).value = "a";
+    m.get("b", 0, SlotAccess.MODIFY).value = "b";
+    ShapedSlotMap.Shape shape = m.getShape();
+    Slot s = m.get("a", 0, SlotAccess.MODIFY_GETTER_SETTER);
+    assertTrue(s instanceof ScriptableObject.GetterSlot);
+    assertSame(shape, m.getShape());
+    assertSame(s, m.query("a", 0));
+    assertEquals("a", m.iterator().next().name);
+  }
+
+  @Test
+  public void testContainerFallsBackOnDelete() {
+    SlotMapContainer c = new SlotMapContainer(0, true);
+    c.get("a", 0, SlotAccess.MODIFY).value = 1;
+    c.get("b", 0, SlotAccess.MODIFY).value = 2;
+    assertTrue(c.map instanceof ShapedSlotMap);
+    c.remove("x", 0);
+    assertTrue(c.map instanceof ShapedSlotMap);
+    c.remove("a", 0);
+    assertTrue(c.map instanceof EmbeddedSlotMap);
+    assertNull(c.query("a", 0));
+    assertEquals(2, c.query("b", 0).value);
+  }
+
+  @Test
+  public void testContainerFallsBackWhenLarge() {
+    SlotMapContainer c = new SlotMapContainer(0, true);
+    for (int i = 0; i < ShapedSlotMap.MAX_SHAPED_SIZE + 1; i++) {
+      c.get(null, i, SlotAccess.MODIFY).value = i;
+    }
+    assertTrue(c.map instanceof EmbeddedSlotMap);
+    for (int i = 0; i < ShapedSlotMap.MAX_SHAPED_SIZE + 1; i++) {
+      assertEquals(i, c.query(null, i).value);
+    }
+  }
+
+  @Test
+  public void testScriptsWithShapes() {
+    ContextFactory factory = new ContextFactory() {
+      @Override
+      protected boolean hasFeature(Context cx, int featureIndex) {
+        if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+          return true;
+        }
+        return super.hasFeature(cx, featureIndex);
+      }
+    };
+    Object result = factory.call(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      return cx.evaluateString(scope,
+          "function P(x, y) { this.x = x; this.y = y; }\n"
+          + "var ps = [];\n"
+          + "for (var i = 0; i < 10; i++) ps.push(new P(i, i * 2));\n"
+          + "delete ps[3].x;\n"
+          + "Object.defineProperty(ps[4], 'y', { get: function() { return 'g'; } });\n"
+          + "ps[5].z = 'z';\n"
+          + "JSON.stringify(ps.slice(2, 6)) + ' ' + Object.keys(ps[5]);",
+          "test", 1, null);
+    });
+    assertEquals("[{\"x\":2,\"y\":4},{\"y\":6},{\"x\":4,\"y\":\"g\"},{\"x\":5,\"y\":10,\"z\":\"z\"}]"
+        + " x,y,z", result);
+  }
+}
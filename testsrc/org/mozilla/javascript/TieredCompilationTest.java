@@ -0,0 +1,159 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests that interpreted functions behave the same before and after they
+ * are compiled in tiered mode.
+ */
+public class TieredCompilationTest
+{
+  private static final int CALLS = InterpretedFunction.DEFAULT_TIER_UP_THRESHOLD * 3;
+
+  private static final ContextFactory TIERED = new ContextFactory() {
+    @Override
+    protected boolean hasFeature(Context cx, int featureIndex) {
+      if (featureIndex == Context.FEATURE_TIERED_COMPILATION) {
+        return true;
+      }
+      return super.hasFeature(cx, featureIndex);
+    }
+  };
+
+  private static Object eval(final String source) {
+    return TIERED.call(cx -> {
+      cx.setOptimizationLevel(-1);
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      Scriptable scope = cx.initStandardObjects();
+      return cx.evaluateString(scope, source, "test", 1, null);
+    });
+  }
+
+  @Test
+  public void testHotFunction() {
+    assertEquals("ok", eval(
+        "function add(a, b) { return a + b; }\n"
+        + "var sum = 0;\n"
+        + "for (var i = 0; i < " + CALLS + "; i++) sum = add(sum, i);\n"
+        + "sum === " + (CALLS * (CALLS - 1) / 2) + " ? 'ok' : String(sum)"));
+  }
+
+  @Test
+  public void testConstructor() {
+    assertEquals("ok", eval(
+        "function P(x) { this.x = x; this.self = this instanceof P; }\n"
+        + "P.prototype.get = function() { return this.x; };\n"
+        + "var r = 'ok';\n"
+        + "for (var i = 0; i < " + CALLS + "; i++) {\n"
+        + "  var p = new P(i);\n"
+        + "  if (!p.self || !(p instanceof P) || p.get() !== i) { r = 'bad ' + i; break; }\n"
+        + "}\n"
+        + "r"));
+  }
+
+  @Test
+  public void testOuterVariables() {
+    assertEquals("ok", eval(
+        "function make() {\n"
+        + "  var n = 0;\n"
+        + "  return function(d) { n += d; return n; };\n"
+        + "}\n"
+        + "var count = 0;\n"
+        + "function inc() { return ++count; }\n"
+        + "var acc = make();\n"
+        + "for (var i = 0; i < " + CALLS + "; i++) { inc(); acc(2); }\n"
+        + "count === " + CALLS + " && acc(0) === " + (2 * CALLS) + " ? 'ok' : count + ' ' + acc(0)"));
+  }
+
+  @Test
+  public void testStrictMode() {
+    assertEquals("ok", eval(
+        "'use strict';\n"
+        + "function t(o) { try { o.x = 1; return 'set'; } catch (e) { return e.name; } }\n"
+        + "var frozen = Object.freeze({});\n"
+        + "var r = 'ok';\n"
+        + "for (var i = 0; i < " + CALLS + "; i++) {\n"
+        + "  if (t(frozen) !== 'TypeError') { r = 'bad ' + i; break; }\n"
+        + "}\n"
+        + "r"));
+  }
+
+  @Test
+  public void testLineNumbers() {
+    try {
+      eval("function thrower(i) {\n"
+          + "  if (i == " + (CALLS - 1) + ")\n"
+          + "    throw new Error('x');\n"
+          + "}\n"
+          + "for (var i = 0; i < " + CALLS + "; i++) thrower(i);");
+      fail();
+    } catch (JavaScriptException e) {
+      assertEquals(3, e.lineNumber());
+    }
+  }
+
+  @Test
+  public void testNamedFunctionExpressionRefersToItself() {
+    assertEquals("ok", eval(
+        "var g = function h() { return h; };\n"
+        + "var r = 'ok';\n"
+        + "for (var i = 0; i < " + CALLS + "; i++) {\n"
+        + "  if (g() !== g) { r = 'bad ' + i; break; }\n"
+        + "}\n"
+        + "r"));
+  }
+
+  @Test
+  public void testFunctionStatementRefersToItself() {
+    assertEquals("ok", eval(
+        "function f() { return f; }\n"
+        + "var r = 'ok';\n"
+        + "for (var i = 0; i < " + CALLS + "; i++) {\n"
+        + "  if (f() !== f) { r = 'bad ' + i; break; }\n"
+        + "}\n"
+        + "r"));
+  }
+
+  @Test
+  public void testThreshold() {
+    Object result = TIERED.call(cx -> {
+      cx.setOptimizationLevel(-1);
+      assertEquals(InterpretedFunction.DEFAULT_TIER_UP_THRESHOLD, cx.getTierUpThreshold());
+      cx.setTierUpThreshold(10);
+      Scriptable scope = cx.initStandardObjects();
+      cx.evaluateString(scope,
+          "function id(x) { return x; }\n"
+          + "for (var i = 0; i < 5; i++) id(i);", "test", 1, null);
+      InterpretedFunction f = (InterpretedFunction)ScriptableObject.getProperty(scope, "id");
+      assertEquals(5, f.idata.tierUpBudget);
+      assertNull(f.idata.tierUpConstructor);
+      cx.evaluateString(scope, "for (var i = 0; i < 10; i++) id(i);", "test", 1, null);
+      return f.idata.tierUpConstructor;
+    });
+    assertNotNull(result);
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    Object result = ContextFactory.getGlobal().call(cx -> {
+      cx.setOptimizationLevel(-1);
+      Scriptable scope = cx.initStandardObjects();
+      cx.evaluateString(scope,
+          "function id(x) { return x; }\n"
+          + "for (var i = 0; i < " + CALLS + "; i++) id(i);", "test", 1, null);
+      Object f = ScriptableObject.getProperty(scope, "id");
+      return ((InterpretedFunction)f).idata.tierUpBudget;
+    });
+    assertTrue(((Integer)result).intValue() < 0);
+  }
+}
@@ -0,0 +1,119 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests that TypeConverter converts every kind of value like
+ * NativeJavaObject does.
+ */
+public class TypeConverterTest
+{
+  private static final Class<?>[] TYPES = {
+      String.class, Object.class, Integer.TYPE, Integer.class, Long.TYPE,
+      Long.class, Double.TYPE, Double.class, Boolean.TYPE, Boolean.class,
+      Character.TYPE, Float.TYPE, Short.class, Number.class, List.class,
+      Map.class, Comparator.class, Runnable.class, CharSequence.class,
+      Date.class, StringBuilder.class, ArrayList.class, Class.class,
+      int[].class, String[].class
+  };
+
+  private static Object[] values(Context cx, Scriptable scope) {
+    return new Object[] {
+        null, Undefined.instance, Boolean.TRUE, Integer.valueOf(7),
+        Integer.valueOf(-3), Double.valueOf(2.5), Double.valueOf(-2.5),
+        Double.valueOf(1e10), Double.valueOf(1e300), Double.valueOf(Double.NaN),
+        Double.valueOf(-0.0), Long.valueOf(5), "x", "42", "",
+        new ConsString("a", "b"),
+        cx.evaluateString(scope, "[1, 2]", "test", 1, null),
+        cx.evaluateString(scope, "({a: 1})", "test", 1, null),
+        cx.evaluateString(scope, "(function(a, b) { return 0; })", "test", 1, null),
+        cx.evaluateString(scope, "new Date(0)", "test", 1, null),
+        cx.evaluateString(scope, "java.lang.String", "test", 1, null),
+        cx.evaluateString(scope, "new java.lang.StringBuilder('s')", "test", 1, null),
+        cx.evaluateString(scope, "new java.util.ArrayList()", "test", 1, null),
+        cx.evaluateString(scope, "java.lang.reflect.Array.newInstance(java.lang.Integer.TYPE, 1)",
+            "test", 1, null),
+        new StringBuilder("raw")
+    };
+  }
+
+  /**
+   * Runs action in a top-level call, which interface adapters need.
+   */
+  private static void inTopCall(ContextAction<Object> action) {
+    ContextFactory.getGlobal().call(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      Callable callable = (c, s, thisObj, args) -> action.run(c);
+      return ScriptRuntime.doTopCall(callable, cx, scope, scope,
+          ScriptRuntime.emptyArgs);
+    });
+  }
+
+  @Test
+  public void testSameResultsAsNativeJavaObject() {
+    inTopCall(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      for (Object value : values(cx, scope)) {
+        for (Class<?> type : TYPES) {
+          String what = type.getName() + " from " + value;
+          TypeConverter converter = TypeConverter.forType(type);
+          assertEquals(what, NativeJavaObject.canConvert(value, type),
+              converter.canConvert(value));
+          assertEquals(what, convert(type, value, null),
+              convert(type, value, converter));
+        }
+      }
+      return null;
+    });
+  }
+
+  @Test
+  public void testInterfaceAdaptersAreReused() {
+    inTopCall(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      Object f = cx.evaluateString(scope, "(function() {})", "test", 1, null);
+      TypeConverter converter = TypeConverter.forType(Runnable.class);
+      assertSame(converter.convert(f), Context.jsToJava(f, Runnable.class));
+      return null;
+    });
+  }
+
+  /**
+   * Returns a description of the result of the conversion, or of the error.
+   */
+  private static String convert(Class<?> type, Object value,
+                                TypeConverter converter) {
+    try {
+      Object result = converter == null
+          ? Context.jsToJava(value, type) : converter.convert(value);
+      if (result == value) {
+        return "same";
+      } else if (result instanceof Scriptable) {
+        return "scriptable " + ((Scriptable) result).getClassName();
+      } else if (result == null) {
+        return "null";
+      } else if (result.getClass().isArray()) {
+        return result.getClass().getName() + " " + Arrays.deepToString(new Object[] { result });
+      } else if (result instanceof Comparator || result instanceof Runnable) {
+        return "adapter";
+      }
+      return result.getClass().getName() + " " + result;
+    } catch (EvaluatorException e) {
+      return "error";
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.ContinuationPending;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.serialize.ScriptableInputStream;
+import org.mozilla.javascript.serialize.ScriptableOutputStream;
+
+/**
+ * Tests that scripts compiled with
+ * {@link Context#FEATURE_COMPILED_CONTINUATIONS} capture and resume
+ * continuations like the interpreter does.
+ */
+public class CompiledContinuationsTest
+{
+  public static class Host implements Serializable {
+    private static final long serialVersionUID = 2807420146339720527L;
+
+    public Object f(Object state) {
+      Context cx = Context.enter();
+      try {
+        ContinuationPending pending = cx.captureContinuation();
+        pending.setApplicationState(state);
+        throw pending;
+      } finally {
+        Context.exit();
+      }
+    }
+  }
+
+  private static final ContextFactory FACTORY = new ContextFactory() {
+    @Override
+    protected boolean hasFeature(Context cx, int featureIndex) {
+      if (featureIndex == Context.FEATURE_COMPILED_CONTINUATIONS) {
+        return true;
+      }
+      return super.hasFeature(cx, featureIndex);
+    }
+  };
+
+  /**
+   * Runs source at all optimization levels, resuming each capture with the
+   * application state in angle brackets, and checks the states followed by
+   * the result.
+   */
+  private static void check(String expected, String source) {
+    for (int opt : new int[] { -1, 0, 9 }) {
+      assertEquals("opt " + opt, expected, run(opt, source, false));
+      assertEquals("opt " + opt + " serialized", expected,
+          run(opt, source, true));
+    }
+  }
+
+  private static String run(int opt, String source, boolean serialize) {
+    Context cx = FACTORY.enterContext();
+    try {
+      cx.setOptimizationLevel(opt);
+      Scriptable scope = cx.initStandardObjects();
+      scope.put("host", scope, Context.javaToJS(new Host(), scope));
+      final Script script = cx.compileString(source, "test", 1, null);
+      StringBuilder log = new StringBuilder();
+      Object result;
+      try {
+        result = cx.executeScriptWithContinuations(script, scope);
+      } catch (ContinuationPending pending) {
+        while (true) {
+          String state = Context.toString(pending.getApplicationState());
+          log.append('[').append(state).append(']');
+          Object continuation = pending.getContinuation();
+          if (serialize) {
+            continuation = copy(continuation, scope, script);
+          }
+          try {
+            result = cx.resumeContinuation(continuation, scope,
+                "<" + state + ">");
+            break;
+          } catch (ContinuationPending next) {
+            pending = next;
+          }
+        }
+      }
+      return log.append(Context.toString(result)).toString();
+    } finally {
+      Context.exit();
+    }
+  }
+
+  private static Object copy(Object continuation, Scriptable scope,
+      final Script script) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ScriptableOutputStream out = new ScriptableOutputStream(bytes, scope);
+      out.writeObject(continuation);
+      out.close();
+      ScriptableInputStream in = new ScriptableInputStream(
+          new ByteArrayInputStream(bytes.toByteArray()), scope) {
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+            throws IOException, ClassNotFoundException {
+          try {
+            return super.resolveClass(desc);
+          } catch (ClassNotFoundException e) {
+            // The compiled script is only known to its own class loader
+            return Class.forName(desc.getName(), false,
+                script.getClass().getClassLoader());
+          }
+        }
+      };
+      Object result = in.readObject();
+      in.close();
+      return result;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Test
+  public void testScript() {
+    check("[3]<3>1", "host.f(3) + 1;");
+    check("[3][4]<3><4>2", "host.f(3) + host.f(4) + 2;");
+    check("[a]<a>!", "var x = host.f('a'); x + '!';");
+  }
+
+  @Test
+  public void testNestedFunctions() {
+    check("[A][b]<A><b>1",
+        "function a(v) { var y = host.f(v); return y + b(); }"
+        + "function b() { return host.f('b') + 1; }"
+        + "a('A');");
+    check("[0][1][2]<0><1><2>",
+        "function g() { var s = ''; for (var i = 0; i < 3; i++) s += host.f(i);"
+        + " return s; }"
+        + "g();");
+    check("[2][1][0]<2><1><0>",
+        "function r(n) { return n < 0 ? '' : host.f(n) + r(n - 1); } r(2);");
+  }
+
+  @Test
+  public void testStatements() {
+    check("[1][2]<2><1>caught e",
+        "function g() { var log = host.f(1);"
+        + " try { throw 'e'; } catch (e) { log = log + 'caught ' + e; }"
+        + " return host.f(2) + log; }"
+        + "g();");
+    check("[t]<t>f",
+        "function g() { var s = ''; try { s = host.f('t'); } finally { s += 'f'; }"
+        + " return s; }"
+        + "g();");
+    check("[c]yes", "if (host.f('c') == '<c>') 'yes'; else 'no';");
+    check("[0][1][2]2",
+        "var i = 0; while (host.f(i) != '<2>') i++; i;");
+  }
+
+  @Test
+  public void testProperties() {
+    check("[1]<1>", "function g() { var o = {}; o.x = host.f(1); return o.x; } g();");
+    check("[3][4]<3>,<4>",
+        "function g() { var a = []; a[0] = host.f(3); a[1] = host.f(4);"
+        + " return a.join(); }"
+        + "g();");
+    check("[ab]<AB>", "function g() { return host.f('ab').toUpperCase(); } g();");
+  }
+
+  @Test
+  public void testArguments() {
+    check("[1]<1>2", "function h(x) { return x + 2; } h(host.f(1));");
+    check("[1][2]1<1><2>",
+        "function h(a, b, c) { return a + b + c; } h(1, host.f(1), host.f(2));");
+    check("[i]<i>!",
+        "function h(x) { return x + '!'; } var o = { h: h }; o.h(host.f('i'));");
+    check("[n]<n>", "function C(x) { this.x = x; } new C(host.f('n')).x;");
+  }
+
+  @Test
+  public void testConstructors() {
+    check("[c]<c>", "function C() { this.x = host.f('c'); } new C().x;");
+    check("[c]<c>",
+        "function C() { var v = host.f('c'); return { x: v }; } new C().x;");
+    check("[d]<d>", "new String(host.f('d')).toString();");
+  }
+
+  @Test
+  public void testLiterals() {
+    check("[1]1,<1>", "function g(q) { return [q, host.f(q)]; } g(1).join();");
+    check("[1][2]<1>,<2>", "[host.f(1), host.f(2)].join();");
+    check("[x]<x>", "var o = { a: host.f('x') }; o.a;");
+    check("[y]1<y>", "var o = { a: 1, b: host.f('y') }; o.a + o.b;");
+  }
+
+  @Test
+  public void testOperators() {
+    check("[3]-1", "var a = 2; a - host.f(3).length;");
+    check("[3]6", "2 * host.f(3).length;");
+    check("[3]7", "6 | host.f(3).length;");
+    check("[3]1", "-1 >>> host.f(3).length + 28;");
+    check("[3]true", "1 < host.f(3).length;");
+    check("[3]true", "3 == host.f(3).length;");
+    check("[x]string", "typeof host.f('x');");
+    check("[x]false", "!host.f('x');");
+    check("[k]<k>", "var o = { '<k>': 5 }; o[host.f('k')] = 1; " +
+        "var r; for (var p in o) r = p; r;");
+    check("[t]<t>",
+        "function g() { try { throw host.f('t'); } catch (e) { return e; } }"
+        + " g();");
+    check("[p]2", "var r; for (var p in host.f('p').split('')) r = p; r;");
+  }
+
+  @Test
+  public void testPositionsAreCompiled() {
+    assertNotEquals("InterpretedFunction",
+        compile(9, "var x = f(1); x + g(2); if (h()) o.p = f();"));
+    assertNotEquals("InterpretedFunction", compile(9, "f(g(1));"));
+    assertNotEquals("InterpretedFunction", compile(9, "new F(g(1));"));
+    assertNotEquals("InterpretedFunction", compile(0, "[f()];"));
+    assertNotEquals("InterpretedFunction", compile(0, "({ a: f() });"));
+  }
+
+  @Test
+  public void testUnsupportedPositions() {
+    // Calls in these positions cannot save the frame, so the script is
+    // interpreted instead
+    check("[1]2<1>",
+        "function g() { var o = { x: 2 }; o.x += host.f(1); return o.x; }"
+        + " g();");
+    assertEquals("InterpretedFunction", compile(9, "o.x += f();"));
+    assertEquals("InterpretedFunction", compile(9, "eval('1');"));
+  }
+
+  private static String compile(int opt, String source) {
+    Context cx = FACTORY.enterContext();
+    try {
+      cx.setOptimizationLevel(opt);
+      return cx.compileString(source, "test", 1, null).getClass()
+          .getSimpleName();
+    } finally {
+      Context.exit();
+    }
+  }
+}
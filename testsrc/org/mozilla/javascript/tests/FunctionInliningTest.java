@@ -0,0 +1,74 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that direct calls to small functions, which the optimizer inlines,
+ * give the same results at all optimization levels.
+ */
+public class FunctionInliningTest
+{
+  private static final String FUNCTIONS =
+      "function sq(x) { return x * x; }"
+      + "function getX(p) { return p.x; }"
+      + "function add(a, b) { return a + b; }"
+      + "function pick(c, a, b) { return c ? a : b[0]; }";
+
+  private static void check(final String expected, final String source) {
+    Utils.runWithAllOptimizationLevels(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      assertEquals("opt " + cx.getOptimizationLevel(), expected,
+          Context.toString(cx.evaluateString(scope, FUNCTIONS + source,
+              "test", 1, null)));
+      return null;
+    });
+  }
+
+  @Test
+  public void testInlined() {
+    check("330",
+        "function loop(n) { var t = 0;"
+        + " for (var i = 0; i < n; i++) t += sq(i) + getX({ x: i }); return t; }"
+        + "loop(10)");
+    check("a23y2",
+        "function f(n) { return add('a', n) + add(n, 1) + pick(n > 1, 'y', 'z')"
+        + " + pick(false, 1, [n]); }"
+        + "f(2)");
+    // arguments that are parameters of a direct call target themselves
+    check("15,422",
+        "function f(q) { return sq(q) + add(q, q); }"
+        + "[f(3), f('2')].join()");
+  }
+
+  @Test
+  public void testArgumentsEvaluatedOnce() {
+    check("1,2,3",
+        "function f() { var log = [], n = 0;"
+        + " add(log.push(++n), log.push(++n)); sq(log.push(++n));"
+        + " return log; }"
+        + "f()");
+  }
+
+  @Test
+  public void testErrors() {
+    check("TypeError",
+        "function f(p) { try { return getX(p); } catch (e) { return e.name; } }"
+        + "f(undefined)");
+  }
+
+  @Test
+  public void testReassigned() {
+    check("9,-3",
+        "function f() { var r = [sq(3)]; sq = function(x) { return -x; };"
+        + " r.push(sq(3)); return r; }"
+        + "f()");
+  }
+}
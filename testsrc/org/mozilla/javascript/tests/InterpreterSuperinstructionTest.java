@@ -0,0 +1,65 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that code which the interpreter runs with fused instructions, such
+ * as two local loads or a comparison and a jump, gives the same results at
+ * all optimization levels.
+ */
+public class InterpreterSuperinstructionTest
+{
+  private static void check(final String expected, final String source) {
+    Utils.runWithAllOptimizationLevels(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      assertEquals("opt " + cx.getOptimizationLevel(), expected,
+          Context.toString(cx.evaluateString(scope, source, "test", 1, null)));
+      return null;
+    });
+  }
+
+  @Test
+  public void testCompareAndJump() {
+    check("lt|le / ge|gt / - / lt|le / -",
+        "function f(a, b) { var r = [];"
+        + " if (a < b) r.push('lt'); if (a <= b) r.push('le');"
+        + " if (a >= b) r.push('ge'); if (a > b) r.push('gt');"
+        + " return r.join('|') || '-'; }"
+        + "[f(1, 2), f(2, 1), f(NaN, 1), f('a', 'b'), f(1, undefined)].join(' / ')");
+    check("55:0:11",
+        "function f(n) { var t = 0, i, j = 0;"
+        + " for (i = 0; i <= n; i++) t = t + i;"
+        + " while (i > 0) i--;"
+        + " do { j++; } while (!(j >= n + 1));"
+        + " return t + ':' + i + ':' + j; }"
+        + "f(10)");
+  }
+
+  @Test
+  public void testOperandsEvaluatedInOrder() {
+    check("pqy",
+        "function f() { var log = [];"
+        + " var p = { valueOf: function() { log.push('p'); return 1; } },"
+        + " q = { valueOf: function() { log.push('q'); return 2; } };"
+        + " if (p < q) log.push('y'); return log.join(''); }"
+        + "f()");
+  }
+
+  @Test
+  public void testLocalsAndProperties() {
+    check("3a,7,5,TypeError",
+        "function len(a) { return a.length + a.charAt(0); }"
+        + "function prop(o) { var x; x = o.x; return x; }"
+        + "function add(a, b) { var c; c = a + b; return c; }"
+        + "function nul(o) { try { return o.x; } catch (e) { return e.name; } }"
+        + "[len('abc'), prop({ x: 7 }), add(2, 3), nul(null)].join()");
+  }
+}
@@ -0,0 +1,123 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that Java members behave the same before and after they are called
+ * often enough to be called through method handles.
+ */
+public class JavaMethodInvokerTest
+{
+  public static class Target {
+    public int count;
+
+    public Target() {
+    }
+
+    public Target(int count) {
+      this.count = count;
+    }
+
+    public void add(int n) {
+      count += n;
+    }
+
+    public long sum(int a, long b, double c) {
+      return a + b + (long)c;
+    }
+
+    public String join(String sep, Object... parts) {
+      StringBuilder sb = new StringBuilder();
+      for (Object part : parts) {
+        if (sb.length() != 0) {
+          sb.append(sep);
+        }
+        sb.append(part);
+      }
+      return sb.toString();
+    }
+
+    public static String twice(String s) {
+      return s + s;
+    }
+
+    public void fail(String message) {
+      throw new IllegalStateException(message);
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Runs source in a loop that calls its members more often than the
+   * threshold of method handles, and checks the result of each iteration.
+   */
+  private static void check(String expected, String source) {
+    Utils.runWithAllOptimizationLevels(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      Object result = cx.evaluateString(scope,
+          "var T = Packages." + Target.class.getName() + ";"
+          + " var results = [];"
+          + " for (var i = 0; i < 50; i++) { results.push(String(" + source + ")); }"
+          + " results.join('|');",
+          "test", 1, null);
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+        if (i != 0) {
+          sb.append('|');
+        }
+        sb.append(expected);
+      }
+      assertEquals(sb.toString(), Context.toString(result));
+      return null;
+    });
+  }
+
+  @Test
+  public void testInstanceMethods() {
+    check("3", "(function() { var t = new T(); t.add(1); t.add(2); return t.count; })()");
+    check("7", "new T().sum(1, 2, 4.5)");
+    check("a-b-c", "new T().join('-', 'a', 'b', 'c')");
+    check("", "new T().join(',')");
+  }
+
+  @Test
+  public void testStaticMethods() {
+    check("abab", "T.twice('ab')");
+    check("2", "java.lang.Math.max(1, 2)");
+  }
+
+  @Test
+  public void testConstructors() {
+    check("5", "new T(5).count");
+    check("3", "new java.util.ArrayList(java.util.Arrays.asList(1, 2, 3)).size()");
+  }
+
+  @Test
+  public void testBeanProperties() {
+    check("9", "new T(9).getCount() + 0 * new T(1).count");
+  }
+
+  @Test
+  public void testNonPublicClass() {
+    // The methods are declared by a private class of java.util.Collections
+    check("2,b", "(function() { var l = java.util.Collections.unmodifiableList("
+        + "java.util.Arrays.asList('a', 'b')); return l.size() + ',' + l.get(1); })()");
+  }
+
+  @Test
+  public void testExceptions() {
+    check("oops", "(function() { try { new T().fail('oops'); } catch (e) {"
+        + " return e.javaException.getMessage(); } })()");
+  }
+}
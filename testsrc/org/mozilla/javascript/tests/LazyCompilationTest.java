@@ -0,0 +1,155 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that scripts compiled with {@link Context#FEATURE_LAZY_COMPILATION}
+ * behave like scripts whose functions are all compiled up front.
+ */
+public class LazyCompilationTest
+{
+  private static final ContextFactory LAZY = new ContextFactory() {
+    @Override
+    protected boolean hasFeature(Context cx, int featureIndex) {
+      if (featureIndex == Context.FEATURE_LAZY_COMPILATION) {
+        return true;
+      }
+      return super.hasFeature(cx, featureIndex);
+    }
+  };
+
+  /** Statements that make a function large enough to be compiled lazily. */
+  private static final String PAD;
+
+  /** Statements that make a function too large for a class of its own. */
+  private static final String HUGE_PAD;
+
+  static {
+    PAD = pad(40);
+    HUGE_PAD = pad(8000);
+  }
+
+  private static String pad(int count) {
+    StringBuilder sb = new StringBuilder("var pad = 0;");
+    for (int i = 0; i < count; i++) {
+      sb.append(" pad = pad + 1;");
+    }
+    return sb.toString();
+  }
+
+  private static void check(String expected, String source) {
+    for (int opt : new int[] { 0, 9 }) {
+      assertEquals("opt " + opt, expected,
+          run(new ContextFactory(), opt, source));
+      assertEquals("opt " + opt + " lazy", expected, run(LAZY, opt, source));
+    }
+  }
+
+  private static String run(ContextFactory factory, int opt, String source) {
+    Context cx = factory.enterContext();
+    try {
+      cx.setOptimizationLevel(opt);
+      cx.setLanguageVersion(Context.VERSION_ES6);
+      Scriptable scope = cx.initStandardObjects();
+      Script script = cx.compileString(source, "test", 1, null);
+      return Context.toString(script.exec(cx, scope));
+    } finally {
+      Context.exit();
+    }
+  }
+
+  @Test
+  public void testFunctions() {
+    check("7", "function f(a, b) { " + PAD + " return a + b; } f(3, 4);");
+    check("3,5",
+        "function g(n) { " + PAD + " return n < 1 ? [] : [n].concat(g(n - 1)); }"
+        + " var pad = 5; g(3).length + ',' + pad;");
+    check("true", "function P(x) { " + PAD + " this.x = x; }"
+        + " new P(1) instanceof P && new P(2).x == 2;");
+  }
+
+  @Test
+  public void testClosures() {
+    check("6,2",
+        "function mk(a) { " + PAD + " var c = 0;"
+        + " return function() { c += a; return c; }; }"
+        + " var q = mk(3); q(); q() + ',' + mk(2)();");
+    check("11",
+        "function outer(a) { " + PAD
+        + " function inner(b) { " + PAD + " return a + b; }"
+        + " return inner(a + 1); }"
+        + " outer(2) + outer(1) + 3;");
+  }
+
+  @Test
+  public void testFunctionExpressions() {
+    check("120,true",
+        "var f = function fact(n) { " + PAD
+        + " return n <= 1 ? 1 : n * fact(n - 1); };"
+        + " var g = function() { " + PAD + " return arguments.callee === g; };"
+        + " f(5) + ',' + g();");
+  }
+
+  @Test
+  public void testInterpretedFunctions() {
+    check("120,true,3",
+        "var f = function fact(n) { " + HUGE_PAD
+        + " return n <= 1 ? 1 : n * fact(n - 1); };"
+        + " var g = function h() { " + HUGE_PAD
+        + " var c = arguments.callee; c.calls = (c.calls || 0) + 1;"
+        + " return c === g && h === g; };"
+        + " g(); g(); f(5) + ',' + g() + ',' + g.calls;");
+  }
+
+  @Test
+  public void testLiterals() {
+    check("b,cc,{\"a\":1,\"b\":[1,2,{\"c\":\"d\"}]}",
+        "function r(s) { " + PAD
+        + " return /a+(b)/.exec(s)[1] + ',' + s.replace(/a/g, 'c'); }"
+        + " function l() { " + PAD
+        + " return JSON.stringify({a: 1, b: [1, 2, {c: 'd'}]}); }"
+        + " r('aab').substring(0, 4) + ',' + l();");
+  }
+
+  @Test
+  public void testStrictMode() {
+    check("TypeError", "'use strict'; function s() { " + PAD
+        + " try { delete Object.prototype; } catch (e) { return e.name; }"
+        + " return 'none'; } s();");
+  }
+
+  @Test
+  public void testToString() {
+    check("true,2,t", "function t(a, b) { " + PAD + " return a + b; }"
+        + " (t.toString() == String(t)) + ',' + t.length + ',' + t.name;");
+  }
+
+  @Test
+  public void testCompileFunction() {
+    Context cx = LAZY.enterContext();
+    try {
+      cx.setOptimizationLevel(9);
+      Scriptable scope = cx.initStandardObjects();
+      Function f = cx.compileFunction(scope, "function f(a) { " + PAD
+          + " function g(b) { " + PAD + " return a * b; } return g(7); }",
+          "test", 1, null);
+      assertNotNull(f);
+      assertEquals("42", Context.toString(
+          f.call(cx, scope, scope, new Object[] { 6 })));
+    } finally {
+      Context.exit();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that loops reading the length of a variable, which the optimizer
+ * reads from a holder made before the loop, give the same results at all
+ * optimization levels.
+ */
+public class LoopInvariantTest
+{
+  private static void check(final String expected, final String source) {
+    Utils.runWithAllOptimizationLevels(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      assertEquals("opt " + cx.getOptimizationLevel(), expected,
+          Context.toString(cx.evaluateString(scope, source, "test", 1, null)));
+      return null;
+    });
+  }
+
+  @Test
+  public void testArraysAndStrings() {
+    check("6,195,6",
+        "function sum(a) { var t = 0; for (var i = 0; i < a.length; i++) t += a[i]; return t; }"
+        + "function codes(s) { var t = 0;"
+        + " for (var i = 0; i < s.length; i++) t += s.charCodeAt(i); return t; }"
+        + "function nested(a) { var n = 0; for (var i = 0; i < a.length; i++)"
+        + " for (var j = 0; j < a[i].length; j++) n += a[i][j].length; return n; }"
+        + "[sum([1, 2, 3]), codes('ab'), nested([['ab', 'c'], ['def']])].join()");
+    check("6",
+        "function f(a) { var i = 0; do { i++; } while (i < a.length);"
+        + " var w = 0; while (w < a.length) w++; return i + w; }"
+        + "f([1, 2, 3])");
+  }
+
+  @Test
+  public void testArrayChangedInLoop() {
+    check("3,1",
+        "function shrink(a) { var n = 0;"
+        + " for (var i = 0; i < a.length; i++) { n++; if (i == 1) a.pop(); } return n; }"
+        + "function viaValueOf(a) { var n = 0,"
+        + " o = { valueOf: function() { a.length = 0; return 1; } };"
+        + " for (var i = 0; i < a.length; i++) n += o; return n; }"
+        + "[shrink([1, 2, 3, 4]), viaValueOf([1, 2, 3])].join()");
+    check("1",
+        "function f(a) { var n = 0;"
+        + " for (var i = 0; i < a.length; i++) { n++; if (i == 0) a = [1]; } return n; }"
+        + "f([1, 2, 3])");
+  }
+
+  @Test
+  public void testOtherValues() {
+    check("2,10/10,TypeError",
+        "function count(o) { var n = 0, k = 0;"
+        + " for (var i = 0; i < o.length && k < 10; i++) { n++; k++; } return n + '/' + k; }"
+        + "function nul(a) { try { for (var i = 0; i < a.length; i++); } catch (e) { return e.name; } }"
+        + "[count({ length: '2' }).split('/')[0],"
+        + " count({ n: 0, get length() { return ++this.n; } }), nul(null)].join()");
+  }
+}
@@ -9,11 +9,14 @@ package org.mozilla.javascript.tests;
 import junit.framework.TestCase;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.tools.shell.Global;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
@@ -105,6 +108,114 @@ public class NativeJavaListTest extends TestCase {
         assertTrue(res.contains("2"));
     }
 
+    public void testArrayMethods() {
+        List<String> list = new ArrayList<>();
+        list.add("a");
+        list.add("b");
+        list.add("c");
+
+        assertEquals("A,B,C", runScriptAsString(
+            "value.map(function(s) { return String(s).toUpperCase(); }).join()", list));
+        assertEquals(2, runScriptAsInt("value.filter(function(s) { return s != 'a'; }).length", list));
+        assertEquals("abc", runScriptAsString(
+            "var r = ''; value.every(function(s) { r += s; return true; }); r", list));
+        assertEquals("c,b,a", runScriptAsString("value.slice().reverse().join()", list));
+    }
+
+    public void testChangingJavaListWithArrayMethods() {
+        List<String> list = new ArrayList<>();
+        list.add("a");
+        list.add("b");
+
+        assertEquals(3, runScriptAsInt("value.push('c')", list));
+        assertEquals("[a, b, c]", list.toString());
+        assertEquals("a", runScriptAsString("value.shift()", list));
+        assertEquals("[b, c]", list.toString());
+        runScript("value.splice(1, 0, 'x', 'y')", list, Function.identity());
+        assertEquals("[b, x, y, c]", list.toString());
+        assertEquals(1, runScriptAsInt("value.length = 1", list));
+        assertEquals("[b]", list.toString());
+        runScript("value[2] = 'z'", list, Function.identity());
+        assertEquals("[b, null, z]", list.toString());
+    }
+
+    public void testPropertiesStayOffArrayPrototype() {
+        List<String> list = new ArrayList<>();
+        try {
+            runScript("value.foo = 1", list, Function.identity());
+            fail();
+        } catch (EvaluatorException e) {
+            // expected
+        }
+        assertEquals("undefined", runScriptAsString("typeof [].foo", list));
+    }
+
+    public void testChangingFixedSizeList() {
+        List<Integer> list = Arrays.asList(1, 2, 3);
+
+        assertEquals("caught", runScriptAsString(
+            "try { value[3] = 9; 'not caught' } catch (e) { 'caught' }", list));
+        assertEquals("caught", runScriptAsString(
+            "try { value.push(9); 'not caught' } catch (e) { 'caught' }", list));
+        assertEquals("caught", runScriptAsString(
+            "try { value.length = 1; 'not caught' } catch (e) { 'caught' }", list));
+        assertEquals("[1, 2, 3]", list.toString());
+
+        List<Integer> unmodifiable = Collections.unmodifiableList(new ArrayList<>(list));
+        assertEquals("caught", runScriptAsString(
+            "try { value[0] = 9; 'not caught' } catch (e) { 'caught' }", unmodifiable));
+    }
+
+    public void testGrowingListFarPastTheEnd() {
+        List<String> list = new ArrayList<>();
+        list.add("a");
+
+        assertEquals("RangeError", runScriptAsString(
+            "try { value[100000000] = 1; '' } catch (e) { e.name }", list));
+        assertEquals("RangeError", runScriptAsString(
+            "try { value.length = 100000000; '' } catch (e) { e.name }", list));
+        assertEquals(1, list.size());
+        assertEquals(11, runScriptAsInt("value[10] = 'b'; value.length", list));
+    }
+
+    public void testStringElementsAreJavaScriptStrings() {
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b", "c"));
+
+        assertEquals("true", runScriptAsString("value[0] === 'a'", list));
+        assertEquals("string", runScriptAsString("typeof value[1]", list));
+        assertEquals("true", runScriptAsString("value.includes('b')", list));
+        assertEquals(2, runScriptAsInt("value.indexOf('c')", list));
+        assertEquals("abc", runScriptAsString("value.join('')", list));
+    }
+
+    public void testNumberElementsAreJavaScriptNumbers() {
+        List<Integer> list = new ArrayList<>(Arrays.asList(1, 2, 3, 2));
+
+        assertEquals("number", runScriptAsString("typeof value[0]", list));
+        assertEquals(3, runScriptAsInt("value[0] + value[1]", list));
+        assertEquals(1, runScriptAsInt("value.indexOf(2)", list));
+        assertEquals(3, runScriptAsInt("value.lastIndexOf(2)", list));
+        assertEquals("true", runScriptAsString("value.includes(3)", list));
+        assertEquals("true", runScriptAsString("value[2] === 3", list));
+    }
+
+    public void testArrayMethodsHideJavaMethods() {
+        List<String> list = new ArrayList<>(Arrays.asList("b", "c", "a"));
+
+        assertEquals("0:b,1:c,2:a", runScriptAsString(
+            "var r = []; value.forEach(function(v, i) { r.push(i + ':' + v); }); r.join()",
+            list));
+        assertEquals("true", runScriptAsString(
+            "value.sort(function(x, y) { return x < y ? 1 : x > y ? -1 : 0; }) === value",
+            list));
+        assertEquals("[c, b, a]", list.toString());
+        assertEquals("true", runScriptAsString(
+            "value.indexOf === Array.prototype.indexOf", list));
+        // Other methods of the list still work
+        assertEquals(3, runScriptAsInt("value.size()", list));
+        assertEquals("true", runScriptAsString("value.contains('a')", list));
+    }
+
     private int runScriptAsInt(String scriptSourceText, Object value) {
         return runScript(scriptSourceText, value, Context::toNumber).intValue();
     }
@@ -124,6 +124,18 @@ public class NativeJavaMapTest extends TestCase {
         assertTrue(resInt.contains("42")); // Object.keys always return Strings as key
     }
 
+    public void testDeletingJavaMapValues() {
+        Map<Object, String> map = new HashMap<>();
+        map.put("a", "a");
+        map.put(1, "b");
+        map.put("n", null);
+
+        assertEquals("null", runScriptAsString("value.n", map));
+        runScript("delete value.a; delete value[1]", map, Function.identity());
+        assertEquals(1, map.size());
+        assertTrue(map.containsKey("n"));
+    }
+
     private int runScriptAsInt(String scriptSourceText, Object value) {
         return runScript(scriptSourceText, value, Context::toNumber).intValue();
     }
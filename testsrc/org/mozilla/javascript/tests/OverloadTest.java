@@ -30,6 +30,22 @@ public class OverloadTest {
         return "runnable";
     }
 
+    public static String y(String s) {
+        return "string";
+    }
+    public static String y(double d) {
+        return "double";
+    }
+    public static String y(boolean b) {
+        return "boolean";
+    }
+    public static String y(Object o) {
+        return "object";
+    }
+    public static String y(String s, double d) {
+        return "string,double";
+    }
+
 
     @Test
     public void testJSObjectToMap() {
@@ -47,6 +63,20 @@ public class OverloadTest {
         assertThrows(EvaluatorException.class, "String(org.mozilla.javascript.tests.OverloadTest.x(function() {}));");
     }
 
+    @Test
+    public void testAlternatingArgumentTypes() {
+        // Resolved overloads are cached by argument types, so the same
+        // method called with other types must still pick the right one
+        assertEvaluates("string,double,boolean,object,object,string,double,double",
+            "var T = org.mozilla.javascript.tests.OverloadTest;"
+            + " var r;"
+            + " for (var i = 0; i < 20; i++) {"
+            + "   r = [T.y('a'), T.y(i), T.y(i > 3), T.y(new java.lang.Object()),"
+            + "        T.y(java.lang.Integer.valueOf(i)), T.y('a', i), T.y(i + 0.5)].join();"
+            + " }"
+            + " r;");
+    }
+
     private void assertEvaluates(final Object expected, final String source) {
         Utils.runWithAllOptimizationLevels(cx -> {
             final Scriptable scope = cx.initStandardObjects();
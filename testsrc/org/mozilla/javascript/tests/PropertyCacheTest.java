@@ -0,0 +1,128 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Property access goes through inline caches when objects use shapes: PropertyCache in
+ * interpreted code, and invokedynamic call sites in compiled code. These tests make sure
+ * that both notice every kind of change to the objects that they have seen, and that
+ * the same scripts give the same results without the caches.
+ */
+public class PropertyCacheTest {
+
+    private static final ContextFactory SHAPES = new FeatureFactory(false);
+    private static final ContextFactory DYNAMIC = new FeatureFactory(true);
+
+    private static class FeatureFactory extends ContextFactory {
+        private final boolean dynamicCallSites;
+
+        FeatureFactory(boolean dynamicCallSites) {
+            this.dynamicCallSites = dynamicCallSites;
+        }
+
+        @Override
+        protected boolean hasFeature(Context cx, int featureIndex) {
+            if (featureIndex == Context.FEATURE_OBJECT_SHAPES) {
+                return true;
+            }
+            if (featureIndex == Context.FEATURE_DYNAMIC_CALL_SITES) {
+                return dynamicCallSites;
+            }
+            return super.hasFeature(cx, featureIndex);
+        }
+    }
+
+    private static Object eval(ContextFactory factory, int optLevel, String source) {
+        return factory.call(cx -> {
+            cx.setOptimizationLevel(optLevel);
+            cx.setLanguageVersion(Context.VERSION_ES6);
+            Scriptable scope = cx.initStandardObjects();
+            return cx.evaluateString(scope, source, "test", 1, null);
+        });
+    }
+
+    /**
+     * Run the script with the interpreter's caches, with the compiled call sites, and
+     * in the default configuration at both levels, and check that all agree.
+     */
+    private static void check(Object expected, String source) {
+        assertEquals(expected, eval(SHAPES, -1, source));
+        assertEquals(expected, eval(DYNAMIC, 9, source));
+        assertEquals(expected, eval(new ContextFactory(), -1, source));
+        assertEquals(expected, eval(new ContextFactory(), 9, source));
+    }
+
+    @Test
+    public void ownPropertyChanges() {
+        check("1,2,3,",
+            "function get(o) { return o.x; }\n"
+                + "var r = [];\n"
+                + "var o = { x: 1 };\n"
+                + "r.push(get(o));\n"
+                + "o.x = 2; r.push(get(o));\n"
+                + "Object.defineProperty(o, 'x', { get: function() { return 3; } });\n"
+                + "r.push(get(o));\n"
+                + "delete o.x; r.push(get(o));\n"
+                + "r.join()");
+    }
+
+    @Test
+    public void prototypeChanges() {
+        check("a,b,own,c",
+            "function F() { }\n"
+                + "F.prototype.m = function() { return 'a'; };\n"
+                + "function call(o) { return o.m(); }\n"
+                + "var f = new F(); var r = [];\n"
+                + "r.push(call(f));\n"
+                + "F.prototype.m = function() { return 'b'; };\n"
+                + "r.push(call(f));\n"
+                + "f.m = function() { return 'own'; };\n"
+                + "r.push(call(f));\n"
+                + "var g = new F();\n"
+                + "Object.setPrototypeOf(g, { m: function() { return 'c'; } });\n"
+                + "r.push(call(g));\n"
+                + "r.join()");
+    }
+
+    @Test
+    public void readOnlyAndSealed() {
+        check("1,1,2",
+            "function set(o, v) { o.x = v; return o.x; }\n"
+                + "var o = { x: 0 }; var r = [];\n"
+                + "r.push(set(o, 1));\n"
+                + "Object.freeze(o);\n"
+                + "r.push(set(o, 2));\n"
+                + "r.push(set({ x: 0 }, 2));\n"
+                + "r.join()");
+    }
+
+    @Test
+    public void polymorphicAndMegamorphic() {
+        check(21.0,
+            "function get(o) { return o.a; }\n"
+                + "var objs = [{a:1}, {b:0,a:2}, {c:0,a:3}, {d:0,a:4}, {e:0,a:5}, {f:0,a:6}];\n"
+                + "var s = 0;\n"
+                + "for (var i = 0; i < objs.length; i++) s += get(objs[i]);\n"
+                + "s");
+    }
+
+    @Test
+    public void compoundAssignment() {
+        check("3,x1",
+            "function inc(o) { o.n += 1; return o.n; }\n"
+                + "var o = { n: 0 }; inc(o); inc(o);\n"
+                + "var p = { s: 'x', n: 2 };\n"
+                + "var r = [inc(p)];\n"
+                + "p.s += 1; r.push(p.s);\n"
+                + "r.join()");
+    }
+}
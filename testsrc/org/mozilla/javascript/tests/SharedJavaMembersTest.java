@@ -0,0 +1,117 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.ClassCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that Java classes behave the same in every scope when their
+ * reflection is shared by all scopes.
+ */
+public class SharedJavaMembersTest
+{
+  public static class Bean {
+    public static int instances;
+
+    public int value;
+    public String name = "field";
+    private String label = "";
+
+    public Bean() {
+      instances++;
+    }
+
+    public Bean(int value) {
+      this();
+      this.value = value;
+    }
+
+    public int getValue() {
+      return value;
+    }
+
+    public void setValue(int value) {
+      this.value = value;
+    }
+
+    public String name() {
+      return "method";
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    public void setLabel(String label) {
+      this.label = label;
+    }
+
+    public void setLabel(int label) {
+      this.label = "#" + label;
+    }
+
+    public static String describe(Object o) {
+      return "object";
+    }
+
+    public static String describe(int i) {
+      return "int";
+    }
+  }
+
+  /**
+   * Runs source in several new scopes and checks the result in each.
+   */
+  private static void check(String expected, String source) {
+    Utils.runWithAllOptimizationLevels(cx -> {
+      for (int i = 0; i < 3; i++) {
+        Scriptable scope = cx.initStandardObjects();
+        Object result = cx.evaluateString(scope,
+            "var B = Packages." + Bean.class.getName() + "; " + source,
+            "test", 1, null);
+        assertEquals(expected, Context.toString(result));
+      }
+      return null;
+    });
+  }
+
+  @Test
+  public void testFunctionsBelongToScope() {
+    check("true,true,true", "var b = new B();"
+        + " (b.getValue instanceof Function) + ',' + (B.describe instanceof Function)"
+        + " + ',' + (b.name instanceof Function);");
+  }
+
+  @Test
+  public void testMembers() {
+    check("3,method,field,object,int", "var b = new B(3);"
+        + " b.getValue() + ',' + b.name() + ',' + b.name + ','"
+        + " + B.describe('x') + ',' + B['describe(int)'](1);");
+  }
+
+  @Test
+  public void testBeanProperties() {
+    check("5,text,#7", "var b = new B(); b.value = 5; var r = b.value + ',';"
+        + " b.label = 'text'; r += b.label + ','; b.label = 7; r + b.label;");
+  }
+
+  @Test
+  public void testExplicitMethodsStayInScope() {
+    check("#7,true", "var b = new B(); var f = b['setLabel(int)']; f.call(b, 7);"
+        + " b.label + ',' + (f instanceof Function);");
+  }
+
+  @Test
+  public void testPreloadClasses() {
+    ClassCache.preloadClasses(Bean.class, java.util.ArrayList.class);
+    check("2,1", "var l = new java.util.ArrayList(); l.add(1); l.add(2);"
+        + " l.size() + ',' + new B(1).value;");
+  }
+}
@@ -0,0 +1,73 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.javascript.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Tests that code the optimizer finds int32, boolean and string types in
+ * gives the same results at all optimization levels.
+ */
+public class TypeInferenceTest
+{
+  private static void check(final String expected, final String source) {
+    Utils.runWithAllOptimizationLevels(cx -> {
+      Scriptable scope = cx.initStandardObjects();
+      assertEquals("opt " + cx.getOptimizationLevel(), expected,
+          Context.toString(cx.evaluateString(scope, source, "test", 1, null)));
+      return null;
+    });
+  }
+
+  @Test
+  public void testInt32() {
+    check("1794106052",
+        "function hash(s) { var h = 0;"
+        + " for (var i = 0; i < s.length; i++) h = (h * 31 + s.charCodeAt(i)) | 0;"
+        + " return h; }"
+        + "hash('hello world')");
+    check("958040965",
+        "function mix(a) { var x = a | 0; x ^= x << 13; x ^= x >> 17; x ^= x << 5;"
+        + " return ~x & 0x7fffffff; }"
+        + "mix(12345)");
+    check("-2,2147483648,-2147483648,3,-1,4294967294",
+        "function big() { var x = 0x7fffffff | 0; var y = x << 1;"
+        + " return [y, x + 1, ~x, ~~3.7, ~-0, y >>> 0]; }"
+        + "big()");
+    check("Infinity,1",
+        "function f() { var z = -0; var y = z | 0; var w = 1e10; return [1 / y, w >> 30]; }"
+        + "f()");
+    check("1,-4,-4",
+        "function f(o) { var a = o & 1, b = ~o, c = ~'3'; return [a, b, c]; }"
+        + "f({ valueOf: function() { return 3.5; } })");
+  }
+
+  @Test
+  public void testBoolean() {
+    check("11,2",
+        "function flags(n) { var ok = n > 3; var t = 0; if (ok) t++;"
+        + " while (!ok) { ok = true; t += 10; } return t + (ok ? 1 : 0); }"
+        + "[flags(1), flags(5)].join()");
+    check("yes,no",
+        "function f(a, b) { var c = a in b; var d = delete b.q; return (c && d) ? 'yes' : 'no'; }"
+        + "[f('x', { x: 1, q: 2 }), f('y', {})].join()");
+  }
+
+  @Test
+  public void testString() {
+    check("numbera7true|numbera7truenull|numbera7trueundefined",
+        "function str(n) { var s = 'a'; var t = typeof n; s = s + n; s = s + true;"
+        + " s = t + s; var u = s + null; return [s, u, s + undefined].join('|'); }"
+        + "str(7)");
+    // objects are converted with their valueOf method
+    check("x1|1x",
+        "function f(o) { var s = 'x'; return s + o + '|' + (o + s); }"
+        + "f({ valueOf: function() { return 1; }, toString: function() { return 'T'; } })");
+  }
+}
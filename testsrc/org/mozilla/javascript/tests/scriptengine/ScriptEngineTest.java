@@ -54,6 +54,16 @@ public class ScriptEngineTest {
   }
 
 
+  @Test
+  public void testEnginesDoNotShareScripts() throws ScriptException {
+    // The functions of one compiled script share a generated class
+    String src = "(function() { return 1; })";
+    Object first = engine.eval(src);
+    assertSame(first.getClass(), engine.eval(src).getClass());
+    Object other = manager.getEngineByName("rhino").eval(src);
+    assertNotSame(first.getClass(), other.getClass());
+  }
+
   @Test
   public void testHelloReader() throws ScriptException {
     String src = "1 + 1;";